@@ -0,0 +1,467 @@
+/*
+*  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.business.messaging.hl7.common;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.Parser;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The positional XML of an HL7 v2 message, which the HL7 inbound endpoint builds in a single pass over the ER7 (pipe
+ * delimited) message text instead of parsing it into a HAPI object model and encoding that model to XML.
+ *
+ * The message structure definitions are not used, so the XML is generic: the segments are direct children of the
+ * message element, which is named after MSH-9, and fields, components and sub components are named by their
+ * position, e.g. PID.5, PID.5.1 and PID.5.1.2. Empty fields and components are omitted, a repeated field gives an
+ * element per repetition, and the escape sequences of the delimiters are resolved. Other escape sequences, including
+ * the one of the escape character itself, are kept as they are, so that {@link #encode(OMElement)} gives back the
+ * same ER7 text.
+ *
+ * The HAPI XML parser cannot parse this XML, so the message element is marked with a positional attribute and the
+ * XML is encoded back to ER7 and parsed by the pipe parser before it is handed over to HAPI.
+ */
+public class HL7PositionalXML {
+
+    public static final String V2_XML_NAMESPACE = "urn:hl7-org:v2xml";
+
+    /**
+     * Attribute which marks the message element of the positional XML
+     */
+    public static final String POSITIONAL_ATTRIBUTE = "positional";
+
+    private static final String DEFAULT_MESSAGE_ELEMENT_NAME = "MESSAGE";
+
+    private static final char NONE = 0;
+
+    private static final String DEFAULT_ENCODING_CHARACTERS = "^~\\&";
+
+    private static final OMFactory fac = OMAbstractFactory.getOMFactory();
+    private static final OMNamespace ns = fac.createOMNamespace(V2_XML_NAMESPACE, "");
+
+    private HL7PositionalXML() {
+    }
+
+    /**
+     * Parse an ER7 message into its XML representation
+     *
+     * @param er7 message text, segments separated by carriage returns
+     * @return message element
+     * @throws HL7Exception if the message does not start with a valid MSH segment or has an invalid segment name
+     */
+    public static OMElement parse(CharSequence er7) throws HL7Exception {
+        int length = er7.length();
+        int pos = 0;
+        while (pos < length && isSegmentSeparator(er7.charAt(pos))) {
+            pos++;
+        }
+        if (length - pos < 5 || er7.charAt(pos) != 'M' || er7.charAt(pos + 1) != 'S' || er7.charAt(pos + 2) != 'H') {
+            throw new HL7Exception("HL7 message does not start with an MSH segment");
+        }
+        Delimiters delimiters = new Delimiters(er7, pos + 3, length);
+
+        OMElement messageEl = fac.createOMElement(DEFAULT_MESSAGE_ELEMENT_NAME, ns);
+        messageEl.addAttribute(POSITIONAL_ATTRIBUTE, "true", null);
+        while (pos < length) {
+            int end = pos;
+            while (end < length && !isSegmentSeparator(er7.charAt(end))) {
+                end++;
+            }
+            if (end > pos) {
+                parseSegment(er7, pos, end, messageEl, delimiters);
+            }
+            pos = end + 1;
+        }
+        return messageEl;
+    }
+
+    private static void parseSegment(CharSequence er7, int start, int end, OMElement messageEl,
+                                     Delimiters delimiters) throws HL7Exception {
+        int nameEnd = indexOf(er7, delimiters.field, start, end);
+        String segmentName = er7.subSequence(start, nameEnd).toString();
+        if (!isSegmentName(segmentName)) {
+            throw new HL7Exception("Invalid HL7 segment name '" + segmentName + "'");
+        }
+        OMElement segmentEl = fac.createOMElement(segmentName, ns, messageEl);
+
+        int fieldNumber = 1;
+        int pos = nameEnd + 1;
+        boolean msh = "MSH".equals(segmentName);
+        if (msh) {
+            // MSH-1 is the field separator itself and MSH-2 holds the encoding characters
+            int encodingEnd = indexOf(er7, delimiters.field, pos, end);
+            addText(segmentEl, "MSH.1", String.valueOf(delimiters.field));
+            addText(segmentEl, "MSH.2", er7.subSequence(pos, encodingEnd).toString());
+            fieldNumber = 3;
+            pos = encodingEnd + 1;
+        }
+        while (pos <= end) {
+            int fieldEnd = indexOf(er7, delimiters.field, pos, end);
+            if (fieldEnd > pos) {
+                parseField(er7, pos, fieldEnd, segmentEl, segmentName + "." + fieldNumber, delimiters);
+                if (msh && fieldNumber == 9) {
+                    messageEl.setLocalName(getMessageElementName(er7, pos, fieldEnd, delimiters));
+                }
+            }
+            fieldNumber++;
+            pos = fieldEnd + 1;
+        }
+    }
+
+    private static void parseField(CharSequence er7, int start, int end, OMElement segmentEl, String name,
+                                   Delimiters delimiters) {
+        int pos = start;
+        while (pos <= end) {
+            int repetitionEnd = indexOf(er7, delimiters.repetition, pos, end);
+            if (repetitionEnd > pos) {
+                if (indexOf(er7, delimiters.component, pos, repetitionEnd) == repetitionEnd
+                        && indexOf(er7, delimiters.subComponent, pos, repetitionEnd) == repetitionEnd) {
+                    addText(segmentEl, name, unescape(er7, pos, repetitionEnd, delimiters));
+                } else {
+                    OMElement fieldEl = fac.createOMElement(name, ns, segmentEl);
+                    parseComponents(er7, pos, repetitionEnd, fieldEl, name, delimiters);
+                }
+            }
+            pos = repetitionEnd + 1;
+        }
+    }
+
+    private static void parseComponents(CharSequence er7, int start, int end, OMElement fieldEl, String name,
+                                        Delimiters delimiters) {
+        int componentNumber = 1;
+        int pos = start;
+        while (pos <= end) {
+            int componentEnd = indexOf(er7, delimiters.component, pos, end);
+            if (componentEnd > pos) {
+                String componentName = name + "." + componentNumber;
+                if (indexOf(er7, delimiters.subComponent, pos, componentEnd) == componentEnd) {
+                    addText(fieldEl, componentName, unescape(er7, pos, componentEnd, delimiters));
+                } else {
+                    OMElement componentEl = fac.createOMElement(componentName, ns, fieldEl);
+                    int subComponentNumber = 1;
+                    int subPos = pos;
+                    while (subPos <= componentEnd) {
+                        int subComponentEnd = indexOf(er7, delimiters.subComponent, subPos, componentEnd);
+                        if (subComponentEnd > subPos) {
+                            addText(componentEl, componentName + "." + subComponentNumber,
+                                    unescape(er7, subPos, subComponentEnd, delimiters));
+                        }
+                        subComponentNumber++;
+                        subPos = subComponentEnd + 1;
+                    }
+                }
+            }
+            componentNumber++;
+            pos = componentEnd + 1;
+        }
+    }
+
+    /**
+     * The message element is named after the message structure in MSH-9.3, or else after the message type and
+     * the trigger event, e.g. ADT_A01
+     */
+    private static String getMessageElementName(CharSequence er7, int start, int end, Delimiters delimiters) {
+        int end1 = indexOf(er7, delimiters.component, start, end);
+        int end2 = end1 < end ? indexOf(er7, delimiters.component, end1 + 1, end) : end;
+        int end3 = end2 < end ? indexOf(er7, delimiters.component, end2 + 1, end) : end;
+        if (end3 > end2 + 1) {
+            return er7.subSequence(end2 + 1, end3).toString();
+        }
+        if (end1 > start && end2 > end1 + 1) {
+            return er7.subSequence(start, end1) + "_" + er7.subSequence(end1 + 1, end2);
+        }
+        if (end1 > start) {
+            return er7.subSequence(start, end1).toString();
+        }
+        return DEFAULT_MESSAGE_ELEMENT_NAME;
+    }
+
+    private static void addText(OMElement parent, String name, String text) {
+        OMElement element = fac.createOMElement(name, ns, parent);
+        element.setText(text);
+    }
+
+    private static String unescape(CharSequence er7, int start, int end, Delimiters delimiters) {
+        int escapeIndex = indexOf(er7, delimiters.escape, start, end);
+        if (escapeIndex == end) {
+            return er7.subSequence(start, end).toString();
+        }
+        StringBuilder value = new StringBuilder(end - start);
+        value.append(er7, start, escapeIndex);
+        int pos = escapeIndex;
+        while (pos < end) {
+            char c = er7.charAt(pos);
+            if (c == delimiters.escape) {
+                int escapeEnd = indexOf(er7, delimiters.escape, pos + 1, end);
+                if (escapeEnd < end) {
+                    char replacement = escapeEnd == pos + 2 ? delimiters.getDelimiter(er7.charAt(pos + 1)) : NONE;
+                    if (replacement != NONE) {
+                        value.append(replacement);
+                    } else {
+                        // other escape sequences, e.g. formatting and hexadecimal data, are kept as they are
+                        value.append(er7, pos, escapeEnd + 1);
+                    }
+                    pos = escapeEnd + 1;
+                    continue;
+                }
+            }
+            value.append(c);
+            pos++;
+        }
+        return value.toString();
+    }
+
+    /**
+     * Whether the given message element is in the positional XML format
+     *
+     * @param messageEl message element
+     */
+    public static boolean isPositional(OMElement messageEl) {
+        return "true".equals(messageEl.getAttributeValue(new QName(POSITIONAL_ATTRIBUTE)));
+    }
+
+    /**
+     * Parse the XML of an HL7 message, which is either in the HAPI XML or in the positional XML format
+     *
+     * @param messageEl  message element
+     * @param xmlParser  parser of the HAPI XML
+     * @param pipeParser parser of the ER7 encoded positional XML
+     * @return HL7 message
+     * @throws HL7Exception if the message could not be parsed
+     */
+    public static Message parse(OMElement messageEl, Parser xmlParser, Parser pipeParser) throws HL7Exception {
+        if (isPositional(messageEl)) {
+            return pipeParser.parse(encode(messageEl));
+        }
+        return xmlParser.parse(messageEl.toString());
+    }
+
+    /**
+     * Encode a message element in the positional XML format back to ER7, e.g. to hand a message over to HAPI
+     *
+     * @param messageEl message element
+     * @return message text, segments separated by carriage returns
+     */
+    public static String encode(OMElement messageEl) {
+        Delimiters delimiters = Delimiters.from(messageEl);
+        StringBuilder er7 = new StringBuilder();
+        Iterator segments = messageEl.getChildElements();
+        while (segments.hasNext()) {
+            OMElement segmentEl = (OMElement) segments.next();
+            String segmentName = segmentEl.getLocalName();
+            if (er7.length() > 0) {
+                er7.append('\r');
+            }
+            er7.append(segmentName);
+            int fieldNumber = 1;
+            if ("MSH".equals(segmentName)) {
+                er7.append(delimiters.field).append(delimiters.encodingCharacters);
+                fieldNumber = 3;
+            }
+            List<List<OMElement>> fields = getChildrenByPosition(segmentEl);
+            for (; fieldNumber < fields.size(); fieldNumber++) {
+                er7.append(delimiters.field);
+                List<OMElement> repetitions = fields.get(fieldNumber);
+                for (int i = 0; i < repetitions.size(); i++) {
+                    if (i > 0) {
+                        er7.append(delimiters.repetition);
+                    }
+                    encodeComposite(er7, repetitions.get(i), delimiters.component, delimiters.subComponent,
+                            delimiters);
+                }
+            }
+        }
+        return er7.toString();
+    }
+
+    /**
+     * Encode a field or a component, which either holds its text or its components
+     */
+    private static void encodeComposite(StringBuilder er7, OMElement element, char separator, char subSeparator,
+                                        Delimiters delimiters) {
+        List<List<OMElement>> components = getChildrenByPosition(element);
+        if (components.isEmpty()) {
+            escape(er7, element.getText(), delimiters);
+            return;
+        }
+        for (int componentNumber = 1; componentNumber < components.size(); componentNumber++) {
+            if (componentNumber > 1) {
+                er7.append(separator);
+            }
+            for (OMElement componentEl : components.get(componentNumber)) {
+                encodeComposite(er7, componentEl, subSeparator, NONE, delimiters);
+            }
+        }
+    }
+
+    /**
+     * Children of an element indexed by the position in their names, e.g. 5 for PID.5
+     */
+    private static List<List<OMElement>> getChildrenByPosition(OMElement element) {
+        List<List<OMElement>> children = new ArrayList<List<OMElement>>();
+        Iterator it = element.getChildElements();
+        while (it.hasNext()) {
+            OMElement child = (OMElement) it.next();
+            String name = child.getLocalName();
+            int position;
+            try {
+                position = Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            while (children.size() <= position) {
+                children.add(new ArrayList<OMElement>());
+            }
+            children.get(position).add(child);
+        }
+        return children;
+    }
+
+    private static void escape(StringBuilder er7, String text, Delimiters delimiters) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char code = delimiters.getEscapeCode(c);
+            if (code != NONE) {
+                er7.append(delimiters.escape).append(code).append(delimiters.escape);
+            } else {
+                er7.append(c);
+            }
+        }
+    }
+
+    private static int indexOf(CharSequence er7, char c, int start, int end) {
+        if (c == NONE) {
+            return end;
+        }
+        for (int i = start; i < end; i++) {
+            if (er7.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isSegmentSeparator(char c) {
+        return c == '\r' || c == '\n';
+    }
+
+    private static boolean isSegmentName(String name) {
+        if (name.length() != 3) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delimiters declared by MSH-1 and MSH-2 of a message
+     */
+    private static class Delimiters {
+        private final char field;
+        private final String encodingCharacters;
+        private final char component;
+        private final char repetition;
+        private final char escape;
+        private final char subComponent;
+
+        Delimiters(CharSequence er7, int start, int end) {
+            field = er7.charAt(start);
+            int encodingEnd = indexOf(er7, field, start + 1, end);
+            encodingCharacters = er7.subSequence(start + 1, encodingEnd).toString();
+            component = getChar(er7, start + 1, encodingEnd);
+            repetition = getChar(er7, start + 2, encodingEnd);
+            escape = getChar(er7, start + 3, encodingEnd);
+            subComponent = getChar(er7, start + 4, encodingEnd);
+        }
+
+        /**
+         * Delimiters declared by the MSH.1 and MSH.2 elements of a message element, or the default ones
+         */
+        static Delimiters from(OMElement messageEl) {
+            String field = "|";
+            String encodingCharacters = DEFAULT_ENCODING_CHARACTERS;
+            OMElement mshEl = messageEl.getFirstChildWithName(new QName(V2_XML_NAMESPACE, "MSH"));
+            if (mshEl != null) {
+                OMElement fieldEl = mshEl.getFirstChildWithName(new QName(V2_XML_NAMESPACE, "MSH.1"));
+                OMElement encodingEl = mshEl.getFirstChildWithName(new QName(V2_XML_NAMESPACE, "MSH.2"));
+                if (fieldEl != null && fieldEl.getText().length() == 1) {
+                    field = fieldEl.getText();
+                }
+                if (encodingEl != null) {
+                    encodingCharacters = encodingEl.getText();
+                }
+            }
+            String msh = field + encodingCharacters + field;
+            return new Delimiters(msh, 0, msh.length());
+        }
+
+        private static char getChar(CharSequence er7, int index, int end) {
+            return index < end && !isSegmentSeparator(er7.charAt(index)) ? er7.charAt(index) : NONE;
+        }
+
+        /**
+         * Delimiter represented by an escape sequence, e.g. \F\ for the field separator. The escape sequence of the
+         * escape character is not resolved, since the other escape sequences are not resolved either.
+         */
+        char getDelimiter(char code) {
+            switch (code) {
+                case 'F':
+                    return field;
+                case 'S':
+                    return component;
+                case 'T':
+                    return subComponent;
+                case 'R':
+                    return repetition;
+                default:
+                    return NONE;
+            }
+        }
+
+        /**
+         * Code of the escape sequence of a delimiter, e.g. F for the field separator
+         */
+        char getEscapeCode(char c) {
+            if (c == NONE) {
+                return NONE;
+            } else if (c == field) {
+                return 'F';
+            } else if (c == component) {
+                return 'S';
+            } else if (c == subComponent) {
+                return 'T';
+            } else if (c == repetition) {
+                return 'R';
+            }
+            return NONE;
+        }
+    }
+}
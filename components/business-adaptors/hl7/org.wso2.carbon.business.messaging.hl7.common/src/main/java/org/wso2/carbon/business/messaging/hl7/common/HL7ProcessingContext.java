@@ -472,10 +472,11 @@ public class HL7ProcessingContext {
 		OMElement hl7MsgEl = (OMElement) ctx.getEnvelope().getBody().getChildrenWithName(new 
 		                        QName(HL7Constants.HL7_NAMESPACE, HL7Constants.HL7_MESSAGE_ELEMENT_NAME))
 		                                    .next();
-		String hl7XMLPayload = hl7MsgEl.getFirstElement().toString();
+		OMElement hl7Element = hl7MsgEl.getFirstElement();
+		String hl7XMLPayload = hl7Element.toString();
 		Message msg = null;
         try {
-	        msg = this.xmlparser.parse(hl7XMLPayload);
+	        msg = HL7PositionalXML.parse(hl7Element, this.xmlparser, this.getPipeParser());
 			return msg;
         } catch (EncodingNotSupportedException e) {
 	       log.error("Encoding error in the message",e);
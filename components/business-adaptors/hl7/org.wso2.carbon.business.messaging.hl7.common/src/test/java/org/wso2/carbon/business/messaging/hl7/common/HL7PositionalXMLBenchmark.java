@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.business.messaging.hl7.common;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.validation.impl.NoValidation;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of building the XML of an ER7 message with the streaming parser against the HAPI path of
+ * the MLLP inbound endpoint, which parses the message with the pipe parser, encodes it with the DOM based XML parser
+ * and builds the encoded XML into AXIOM. Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HL7PositionalXMLBenchmark {
+
+    private static final String ADT = "MSH|^~\\&|ADT1|GOOD HEALTH HOSPITAL|GHH LAB|GHH|20160101120000||ADT^A01|"
+            + "MSG00001|P|2.4\r"
+            + "EVN|A01|20160101120000\r"
+            + "PID|1||12345^^^HOSP^MR~67890^^^CLINIC^MR||DOE^JOHN^A^^MR||19800101|M||2106-3|1 MAIN ST^^CITY^ST^"
+            + "12345^USA||(555)555-1234|(555)555-4321||S||PATID12345001^2^M10|123456789|987654^NC\r"
+            + "NK1|1|DOE^JANE^B|WI^WIFE||||NK^NEXT OF KIN\r"
+            + "PV1|1|I|2000^2012^01||||004777^SMITH^JOHN^J.|||SUR||||ADM|A0|||||||||||||||||||||||||20160101120000\r"
+            + "AL1|1||^PENICILLIN||PRODUCES HIVES~RASH\r"
+            + "DG1|1|I9|71596^OSTEOARTHROS NOS-L/LEG^I9|OSTEOARTHROS NOS-L/LEG||A";
+
+    private static final String ORU;
+
+    static {
+        StringBuilder oru = new StringBuilder("MSH|^~\\&|LAB|GOOD HEALTH HOSPITAL|EHR|GHH|20160101120000||ORU^R01|"
+                + "MSG00002|P|2.4\r"
+                + "PID|1||12345^^^HOSP^MR||DOE^JOHN^A||19800101|M\r"
+                + "OBR|1|845439^GHH OE|1045813^GHH LAB|15545^GLUCOSE|||20160101110000\r");
+        for (int i = 1; i <= 20; i++) {
+            oru.append("OBX|").append(i).append("|NM|1554-5^GLUCOSE^LN^").append(i)
+                    .append("||182|mg/dl|70_105|H|||F|||20160101113000\r");
+        }
+        oru.append("NTE|1||Sample was \\T\\ hemolyzed \\S\\ repeat requested");
+        ORU = oru.toString();
+    }
+
+    @Param({"ADT", "ORU"})
+    public String messageType;
+
+    private String message;
+    private Parser pipeParser;
+    private Parser xmlParser;
+
+    @Setup
+    public void setUp() {
+        message = "ADT".equals(messageType) ? ADT : ORU;
+        HapiContext context = new DefaultHapiContext();
+        context.setValidationContext(new NoValidation());
+        pipeParser = context.getPipeParser();
+        xmlParser = context.getXMLParser();
+    }
+
+    @Benchmark
+    public OMElement positionalXML() throws Exception {
+        OMElement messageEl = HL7PositionalXML.parse(message);
+        messageEl.build();
+        return messageEl;
+    }
+
+    @Benchmark
+    public OMElement hapiXML() throws Exception {
+        OMElement messageEl = AXIOMUtil.stringToOM(xmlParser.encode(pipeParser.parse(message)));
+        messageEl.build();
+        return messageEl;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HL7PositionalXMLBenchmark.class.getSimpleName()).build()).run();
+    }
+}
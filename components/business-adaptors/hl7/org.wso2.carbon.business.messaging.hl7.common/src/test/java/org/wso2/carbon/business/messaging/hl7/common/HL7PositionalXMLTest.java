@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.business.messaging.hl7.common;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.util.Terser;
+import ca.uhn.hl7v2.validation.impl.NoValidation;
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMElement;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests the positional XML built by the streaming ER7 parser, and its encoding back to ER7.
+ */
+public class HL7PositionalXMLTest extends TestCase {
+
+    private static final String MESSAGE = "MSH|^~\\&|SENDER|FACILITY|RECEIVER|RFACILITY|20160101120000||ADT^A01|"
+            + "MSG00001|P|2.2\r"
+            + "PID|1||12345^^^HOSP^MR~67890^^^CLINIC^MR||DOE^JOHN^A||19800101|M|||1 MAIN ST\\F\\APT 2^^CITY^ST^12345\r"
+            + "NTE|1||Caret \\S\\, amp \\T\\, tilde \\R\\, escape \\E\\ and \\H\\bold\\N\\|CODE&SUB1&SUB2^X";
+
+    public void testMessageElement() throws Exception {
+        OMElement messageEl = HL7PositionalXML.parse(MESSAGE);
+
+        assertEquals("ADT_A01", messageEl.getLocalName());
+        assertEquals(HL7PositionalXML.V2_XML_NAMESPACE, messageEl.getNamespace().getNamespaceURI());
+        assertTrue(HL7PositionalXML.isPositional(messageEl));
+        assertEquals(3, children(messageEl, null).size());
+    }
+
+    public void testMshDelimiterFields() throws Exception {
+        OMElement msh = child(HL7PositionalXML.parse(MESSAGE), "MSH");
+
+        assertEquals("|", child(msh, "MSH.1").getText());
+        assertEquals("^~\\&", child(msh, "MSH.2").getText());
+        assertEquals("SENDER", child(msh, "MSH.3").getText());
+        assertEquals("MSG00001", child(msh, "MSH.10").getText());
+        // empty fields are omitted
+        assertNull(child(msh, "MSH.8"));
+        OMElement messageType = child(msh, "MSH.9");
+        assertEquals("ADT", child(messageType, "MSH.9.1").getText());
+        assertEquals("A01", child(messageType, "MSH.9.2").getText());
+    }
+
+    public void testCustomDelimiters() throws Exception {
+        OMElement messageEl = HL7PositionalXML.parse("MSH#*!/%#APP#FAC\rPID#1##A*B!C%D*E/S/F");
+        OMElement msh = child(messageEl, "MSH");
+        assertEquals("#", child(msh, "MSH.1").getText());
+        assertEquals("*!/%", child(msh, "MSH.2").getText());
+
+        List<OMElement> repetitions = children(child(messageEl, "PID"), "PID.3");
+        assertEquals(2, repetitions.size());
+        assertEquals("A", child(repetitions.get(0), "PID.3.1").getText());
+        assertEquals("B", child(repetitions.get(0), "PID.3.2").getText());
+        OMElement component = child(repetitions.get(1), "PID.3.1");
+        assertEquals("C", child(component, "PID.3.1.1").getText());
+        assertEquals("D", child(component, "PID.3.1.2").getText());
+        assertEquals("E*F", child(repetitions.get(1), "PID.3.2").getText());
+    }
+
+    public void testRepetitions() throws Exception {
+        OMElement pid = child(HL7PositionalXML.parse(MESSAGE), "PID");
+
+        List<OMElement> identifiers = children(pid, "PID.3");
+        assertEquals(2, identifiers.size());
+        assertEquals("12345", child(identifiers.get(0), "PID.3.1").getText());
+        assertNull(child(identifiers.get(0), "PID.3.2"));
+        assertEquals("HOSP", child(identifiers.get(0), "PID.3.4").getText());
+        assertEquals("67890", child(identifiers.get(1), "PID.3.1").getText());
+        assertEquals("CLINIC", child(identifiers.get(1), "PID.3.4").getText());
+    }
+
+    public void testSubComponents() throws Exception {
+        OMElement nte = child(HL7PositionalXML.parse(MESSAGE), "NTE");
+
+        OMElement field = child(nte, "NTE.4");
+        OMElement component = child(field, "NTE.4.1");
+        assertEquals("CODE", child(component, "NTE.4.1.1").getText());
+        assertEquals("SUB1", child(component, "NTE.4.1.2").getText());
+        assertEquals("SUB2", child(component, "NTE.4.1.3").getText());
+        assertEquals("X", child(field, "NTE.4.2").getText());
+    }
+
+    public void testEscapeSequences() throws Exception {
+        OMElement messageEl = HL7PositionalXML.parse(MESSAGE);
+
+        assertEquals("1 MAIN ST|APT 2", child(child(child(messageEl, "PID"), "PID.11"), "PID.11.1").getText());
+        // the escape character and the formatting escape sequences are kept as they are
+        assertEquals("Caret ^, amp &, tilde ~, escape \\E\\ and \\H\\bold\\N\\",
+                child(child(messageEl, "NTE"), "NTE.3").getText());
+    }
+
+    public void testEncodeGivesBackTheMessage() throws Exception {
+        assertEquals(MESSAGE, HL7PositionalXML.encode(HL7PositionalXML.parse(MESSAGE)));
+        String customDelimiters = "MSH#*!/%#APP#FAC\rPID#1##A*B!C%D*E/S/F";
+        assertEquals(customDelimiters, HL7PositionalXML.encode(HL7PositionalXML.parse(customDelimiters)));
+        // a message without a sub component separator keeps its encoding characters
+        String noSubComponents = "MSH|^~\\|APP\rPID|1||A&B^C";
+        assertEquals(noSubComponents, HL7PositionalXML.encode(HL7PositionalXML.parse(noSubComponents)));
+    }
+
+    public void testPositionalXMLIsParsedByThePipeParser() throws Exception {
+        HapiContext context = new DefaultHapiContext();
+        context.setValidationContext(new NoValidation());
+        Message message = HL7PositionalXML.parse(HL7PositionalXML.parse(MESSAGE), context.getXMLParser(),
+                context.getPipeParser());
+
+        assertEquals("DOE", new Terser(message).get("/PID-5-1"));
+    }
+
+    public void testEncodedMessageIsParsedByHapi() throws Exception {
+        HapiContext context = new DefaultHapiContext();
+        context.setValidationContext(new NoValidation());
+        Message message = context.getPipeParser().parse(HL7PositionalXML.encode(HL7PositionalXML.parse(MESSAGE)));
+
+        Terser terser = new Terser(message);
+        assertEquals("MSG00001", terser.get("/MSH-10"));
+        assertEquals("DOE", terser.get("/PID-5-1"));
+        assertEquals("CLINIC", terser.get("/PID-3(1)-4"));
+    }
+
+    public void testSegmentSeparators() throws Exception {
+        OMElement messageEl = HL7PositionalXML.parse("\r\nMSH|^~\\&|APP\r\nPID|1\n\nNTE|1\r");
+        assertEquals(3, children(messageEl, null).size());
+    }
+
+    public void testInvalidMessages() {
+        assertInvalid("PID|1||12345");
+        assertInvalid("MSH");
+        assertInvalid("MSH|^~\\&|APP\rpid|1");
+        assertInvalid("MSH|^~\\&|APP\rPID1");
+    }
+
+    private static void assertInvalid(String er7) {
+        try {
+            HL7PositionalXML.parse(er7);
+            fail("Invalid message was parsed: " + er7);
+        } catch (HL7Exception expected) {
+        }
+    }
+
+    private static OMElement child(OMElement parent, String name) {
+        return parent.getFirstChildWithName(new QName(HL7PositionalXML.V2_XML_NAMESPACE, name));
+    }
+
+    private static List<OMElement> children(OMElement parent, String name) {
+        List<OMElement> children = new ArrayList<OMElement>();
+        Iterator it = parent.getChildElements();
+        while (it.hasNext()) {
+            OMElement child = (OMElement) it.next();
+            if (name == null || name.equals(child.getLocalName())) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.axis2.transport.http.util.URLTemplatingUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.business.messaging.hl7.common.HL7Constants;
+import org.wso2.carbon.business.messaging.hl7.common.HL7PositionalXML;
 import org.wso2.carbon.business.messaging.hl7.common.HL7ProcessingContext;
 
 import java.io.IOException;
@@ -101,7 +102,6 @@ public class HL7MessageFormatter implements MessageFormatter {
             }
         } else {
             try {
-                String xmlFormat;
                 Message message;
 
                 Boolean isValid = (Boolean) msgCtx.getProperty(HL7Constants.HL7_VALIDATION_PASSED);
@@ -109,8 +109,8 @@ public class HL7MessageFormatter implements MessageFormatter {
                     // pass through invalid messages
                     message = (Message) msgCtx.getProperty(HL7Constants.HL7_MESSAGE_OBJECT);
                 } else {
-            	    xmlFormat = omElement.toString();
-                    message = this.xmlParser.parse(xmlFormat);
+                    // the HL7 inbound endpoint may build the positional XML instead of the HAPI XML
+                    message = HL7PositionalXML.parse(omElement, this.xmlParser, this.pipeParser);
                 }
 
                 if (log.isDebugEnabled()) {
@@ -37,6 +37,7 @@ import org.apache.axis2.transport.OutTransportInfo;
 import org.apache.axis2.transport.base.AbstractTransportSender;
 import org.wso2.carbon.business.messaging.hl7.common.HL7Constants;
 import org.wso2.carbon.business.messaging.hl7.common.HL7ProcessingContext;
+import org.wso2.carbon.business.messaging.hl7.common.HL7PositionalXML;
 import org.wso2.carbon.business.messaging.hl7.common.HL7Utils;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.app.Connection;
@@ -52,10 +53,14 @@ import ca.uhn.hl7v2.validation.impl.NoValidation;
 public class HL7TransportSender extends AbstractTransportSender {
 
     private Parser xmlparser;
+
+    private Parser pipeparser;
     
     public HL7TransportSender() {
     	xmlparser = new DefaultXMLParser();
     	xmlparser.setValidationContext(new NoValidation());
+    	pipeparser = new PipeParser();
+    	pipeparser.setValidationContext(new NoValidation());
     }
 
     @Override
@@ -134,7 +139,6 @@ public class HL7TransportSender extends AbstractTransportSender {
 
 		OMElement omElement = messageContext.getEnvelope().getBody().getFirstElement()
 		                                    .getFirstElement();
-		String xmlFormat = omElement.toString();
 		Message returnMsg = null;
 
 		Map<String, String> params = getURLParameters(targetEPR);
@@ -146,7 +150,7 @@ public class HL7TransportSender extends AbstractTransportSender {
                 // pass through invalid messages
                 message = (Message) messageContext.getProperty(HL7Constants.HL7_MESSAGE_OBJECT);
             } else {
-                message = xmlparser.parse(xmlFormat);
+                message = HL7PositionalXML.parse(omElement, xmlparser, pipeparser);
             }
 
 			ConnectionHub connectionHub = ConnectionHub.getInstance();
@@ -204,7 +208,6 @@ public class HL7TransportSender extends AbstractTransportSender {
 		OMElement hl7MsgEl = (OMElement) ctx.getEnvelope().getBody().getChildrenWithName(new 
 		                        QName(HL7Constants.HL7_NAMESPACE, HL7Constants.HL7_MESSAGE_ELEMENT_NAME))
 		                                    .next();
-		String hl7XMLPayload = hl7MsgEl.getFirstElement().toString();
-		return this.xmlparser.parse(hl7XMLPayload);
+		return HL7PositionalXML.parse(hl7MsgEl.getFirstElement(), this.xmlparser, this.pipeparser);
 	}
 }
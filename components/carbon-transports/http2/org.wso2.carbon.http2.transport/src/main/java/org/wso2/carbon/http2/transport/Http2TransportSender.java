@@ -116,8 +116,6 @@ public class Http2TransportSender extends AbstractTransportSender {
 				msgCtx.setProperty(PassThroughConstants.MESSAGE_BUILDER_INVOKED, Boolean.TRUE);
 			}
 
-			Http2ClientHandler clientHandler = connectionFactory.getChannelHandler(target);
-
 			String tenantDomain =
 					(msgCtx.getProperty(MultitenantConstants.TENANT_DOMAIN) == null) ? null :
 					(String) msgCtx.getProperty(MultitenantConstants.TENANT_DOMAIN);
@@ -136,6 +134,8 @@ public class Http2TransportSender extends AbstractTransportSender {
 					 null) ? false :
 					(boolean) msgCtx.getProperty(Http2Constants.HTTP2_PUSH_PROMISE_REQEUST_ENABLED);
 
+			// the stream reserved on the selected connection is released once the request is written
+			Http2ClientHandler clientHandler = connectionFactory.getChannelHandler(target);
 			clientHandler.setResponseReceiver(tenantDomain, dispatchSequence, errorSequence,
 			                                  responseSender, targetConfiguration,
 			                                  serverPushEnabled);
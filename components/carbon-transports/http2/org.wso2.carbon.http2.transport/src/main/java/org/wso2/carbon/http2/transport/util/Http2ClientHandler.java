@@ -21,6 +21,7 @@ package org.wso2.carbon.http2.transport.util;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
 import io.netty.handler.codec.http2.Http2ConnectionEncoder;
 import io.netty.handler.codec.http2.Http2DataFrame;
 import io.netty.handler.codec.http2.Http2Error;
@@ -28,6 +29,7 @@ import io.netty.handler.codec.http2.Http2GoAwayFrame;
 import io.netty.handler.codec.http2.Http2HeadersFrame;
 import io.netty.handler.codec.http2.Http2ResetFrame;
 import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
 import org.apache.commons.logging.Log;
@@ -39,6 +41,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Sending requests and receiving responses from a backend server
@@ -54,12 +58,29 @@ public class Http2ClientHandler extends ChannelDuplexHandler {
 	private ChannelHandlerContext chContext;
 	private Map<Integer, MessageContext> sentRequests;
 	private LinkedList<MessageContext> pollReqeusts;
+	private volatile long lastActiveTime = System.currentTimeMillis();
+
+	// streams selected by the connection pool for requests which are not written yet
+	private final AtomicInteger reservedStreams = new AtomicInteger();
+	private volatile boolean draining;
+	private volatile Http2ConnectionPool connectionPool;
+	private final AtomicBoolean closed = new AtomicBoolean();
 
 	public Http2ClientHandler(Http2Connection connection) {
 		this.connection = connection;
 		sentRequests = new TreeMap<>();
 		writer = new Http2RequestWriter(connection);
 		pollReqeusts = new LinkedList<>();
+		connection.addListener(new Http2ConnectionAdapter() {
+			@Override
+			public void onStreamClosed(Http2Stream stream) {
+				if (draining) {
+					closeIfDrained();
+				} else {
+					signalPool();
+				}
+			}
+		});
 	}
 
 	/**
@@ -130,6 +151,15 @@ public class Http2ClientHandler extends ChannelDuplexHandler {
 	 * @throws AxisFault
 	 */
 	public synchronized void channelWrite(MessageContext request) throws AxisFault {
+		try {
+			write(request);
+		} finally {
+			releaseStream();
+		}
+	}
+
+	private void write(MessageContext request) throws AxisFault {
+		lastActiveTime = System.currentTimeMillis();
 		if (chContext == null) {
 			pollReqeusts.add(request);
 			return;
@@ -157,6 +187,84 @@ public class Http2ClientHandler extends ChannelDuplexHandler {
 		}
 	}
 
+	/**
+	 * Reserve a stream for a request which is about to be written on the connection
+	 *
+	 * @return false if the connection is draining or all of its streams are in use or reserved
+	 */
+	boolean reserveStream() {
+		Http2Connection.Endpoint<?> local = connection.local();
+		int reserved;
+		do {
+			reserved = reservedStreams.get();
+			if (draining || local.numActiveStreams() + reserved >= local.maxActiveStreams()) {
+				return false;
+			}
+		} while (!reservedStreams.compareAndSet(reserved, reserved + 1));
+		if (draining) {
+			// the connection started draining meanwhile
+			releaseStream();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Release the stream reserved for a request once the request is written
+	 */
+	void releaseStream() {
+		reservedStreams.decrementAndGet();
+		if (draining) {
+			closeIfDrained();
+		} else {
+			signalPool();
+		}
+	}
+
+	/**
+	 * Set the pool to be signalled when a stream of the connection is released
+	 */
+	void setConnectionPool(Http2ConnectionPool connectionPool) {
+		this.connectionPool = connectionPool;
+	}
+
+	private void signalPool() {
+		Http2ConnectionPool pool = connectionPool;
+		if (pool != null) {
+			pool.signalAvailable();
+		}
+	}
+
+	int getReservedStreams() {
+		return reservedStreams.get();
+	}
+
+	/**
+	 * Stop taking requests, and close the connection once its active and reserved streams complete
+	 */
+	void drain() {
+		draining = true;
+		closeIfDrained();
+	}
+
+	boolean isDraining() {
+		return draining;
+	}
+
+	private void closeIfDrained() {
+		if (reservedStreams.get() == 0 && connection.local().numActiveStreams() == 0 && chContext != null &&
+		    closed.compareAndSet(false, true)) {
+			chContext.close();
+		}
+	}
+
+	/**
+	 * Time the last request was sent on the connection
+	 */
+	public long getLastActiveTime() {
+		return lastActiveTime;
+	}
+
 	public Http2RequestWriter getWriter() {
 		return writer;
 	}
@@ -203,7 +311,7 @@ public class Http2ClientHandler extends ChannelDuplexHandler {
 			Iterator<MessageContext> requests = pollReqeusts.iterator();
 			while (requests.hasNext()) {
 				try {
-					channelWrite(requests.next());
+					write(requests.next());
 				} catch (Exception e) {
 					log.error("Error while sending polled messages before channel establishment",
 					          e);
@@ -50,23 +50,45 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Creating new Connections to backend, storing initiated clientHandlers
+ * Creating new Connections to backend, storing a pool of initiated clientHandlers for each backend
  */
 public class Http2ConnectionFactory {
 
 	private static Http2ConnectionFactory factory;
-	private static ConcurrentHashMap<String, Http2ClientHandler> clientConnections;
+	private final ConcurrentHashMap<String, Http2ConnectionPool> connectionPools;
 	private Log log = LogFactory.getLog(Http2ConnectionFactory.class);
 	private TransportOutDescription trasportOut;
 	private EventLoopGroup workerGroup;
+	private final int minConnections;
+	private final int maxConnections;
+	private final int idleTimeout;
+	private final int waitTimeout;
 
 	private Http2ConnectionFactory(TransportOutDescription transportOut) {
 		this.trasportOut = transportOut;
-		clientConnections = new ConcurrentHashMap<>();
+		connectionPools = new ConcurrentHashMap<>();
 		this.workerGroup = new NioEventLoopGroup();
+		this.maxConnections = getIntParameter(Http2Constants.MAX_CONNECTIONS_PER_HOST,
+		                                      Http2Constants.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+		this.minConnections = getIntParameter(Http2Constants.MIN_CONNECTIONS_PER_HOST,
+		                                      Http2Constants.DEFAULT_MIN_CONNECTIONS_PER_HOST);
+		this.idleTimeout = getIntParameter(Http2Constants.CONNECTION_IDLE_TIMEOUT,
+		                                   Http2Constants.DEFAULT_CONNECTION_IDLE_TIMEOUT);
+		this.waitTimeout = getIntParameter(Http2Constants.CONNECTION_WAIT_TIMEOUT,
+		                                   Http2Constants.DEFAULT_CONNECTION_WAIT_TIMEOUT);
+		if (idleTimeout > 0) {
+			workerGroup.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					for (Http2ConnectionPool pool : connectionPools.values()) {
+						pool.evictIdleConnections();
+					}
+				}
+			}, idleTimeout, idleTimeout, TimeUnit.MILLISECONDS);
+		}
 	}
 
-	public static Http2ConnectionFactory getInstance(TransportOutDescription transportOut) {
+	public static synchronized Http2ConnectionFactory getInstance(TransportOutDescription transportOut) {
 		if (factory == null) {
 			factory = new Http2ConnectionFactory(transportOut);
 		}
@@ -74,41 +96,40 @@ public class Http2ConnectionFactory {
 	}
 
 	/**
-	 * return client-handler for the given URI
+	 * return client-handler of the least loaded connection to the given URI, with a stream reserved for the request
 	 *
 	 * @param uri
 	 * @return
 	 * @throws AxisFault
 	 */
-	public synchronized Http2ClientHandler getChannelHandler(HttpHost uri) throws AxisFault {
-		Http2ClientHandler handler = null;
+	public Http2ClientHandler getChannelHandler(HttpHost uri) throws AxisFault {
 		String key = generateKey(URI.create(uri.toURI()));
-		handler = getClientHandlerFromPool(key);
-
-		if (handler == null) {
-			handler = cacheNewConnection(uri);
-			if (log.isDebugEnabled()) {
-				if (handler != null) {
-					log.debug("New connection created for " + uri.toString());
-				} else
-					log.debug("New connection establishment failed for " + uri.toString());
-			}
-		} else {
-			if (log.isDebugEnabled()) {
-				log.info("Get connection from pool");
+		Http2ConnectionPool pool = connectionPools.get(key);
+		if (pool == null) {
+			Http2ConnectionPool newPool =
+					new Http2ConnectionPool(this, uri, minConnections, maxConnections, idleTimeout,
+					                        waitTimeout);
+			pool = connectionPools.putIfAbsent(key, newPool);
+			if (pool == null) {
+				pool = newPool;
+				pool.warmUp();
+				if (log.isDebugEnabled()) {
+					log.debug("Opened " + pool.size() + " connections to " + uri.toString());
+				}
 			}
 		}
-		return handler;
+		return pool.getConnection();
 	}
 
 	/**
 	 * Create new connection and return client handler
 	 *
 	 * @param uri
+	 * @param pool pool the connection is evicted from once it is closed
 	 * @return Http2ClientHandler
 	 * @throws AxisFault
 	 */
-	private Http2ClientHandler cacheNewConnection(HttpHost uri) throws AxisFault {
+	Http2ClientHandler createConnection(HttpHost uri, final Http2ConnectionPool pool) throws AxisFault {
 
 		final SslContext sslCtx;
 		final boolean SSL;
@@ -167,18 +188,15 @@ public class Http2ConnectionFactory {
 			Http2SettingsHandler http2SettingsHandler = initializer.settingsHandler();
 			http2SettingsHandler.awaitSettings(5, TimeUnit.SECONDS);
 
-			final String key = generateKey(URI.create(uri.toURI()));
-			Http2ClientHandler handler = initializer.responseHandler();
-
-			clientConnections.put(key, handler);
+			final Http2ClientHandler handler = initializer.responseHandler();
 
 			channel.closeFuture().addListener(new GenericFutureListener<Future<? super Void>>() {
 				@Override
 				public void operationComplete(Future<? super Void> future) throws Exception {
-					clientConnections.remove(key);
+					pool.remove(handler);
 				}
 			});
-			return initializer.responseHandler();
+			return handler;
 		} catch (SSLException e) {
 			throw new AxisFault("Error while connection establishment:", e);
 		} catch (Exception e) {
@@ -186,27 +204,17 @@ public class Http2ConnectionFactory {
 		}
 	}
 
-	/**
-	 * Fetch client handler from connection pool
-	 *
-	 * @param key
-	 * @return Http2ClientHandler
-	 */
-	private Http2ClientHandler getClientHandlerFromPool(String key) {
-		Http2ClientHandler handler;
-		if (clientConnections.containsKey(key))
-			handler = clientConnections.get(key);
-		else
-			handler = null;
-		if (handler != null) {
-			Channel c = handler.getChContext().channel();
-			boolean canMakeNewStreams = handler.getConnection().local().canOpenStream();
-			if (!c.isActive() || !canMakeNewStreams) {
-				clientConnections.remove(key);
-				handler = null;
-			}
+	private int getIntParameter(String name, int defaultValue) {
+		Parameter parameter = trasportOut.getParameter(name);
+		if (parameter == null || parameter.getValue() == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(parameter.getValue().toString().trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid value " + parameter.getValue() + " for " + name + ", using " + defaultValue);
+			return defaultValue;
 		}
-		return handler;
 	}
 
 	/**
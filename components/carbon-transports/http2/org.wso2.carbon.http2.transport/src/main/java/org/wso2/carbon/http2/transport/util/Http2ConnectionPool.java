@@ -0,0 +1,289 @@
+/*
+ *   Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *   WSO2 Inc. licenses this file to you under the Apache License,
+ *   Version 2.0 (the "License"); you may not use this file except
+ *   in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.wso2.carbon.http2.transport.util;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http2.Http2Connection;
+import org.apache.axis2.AxisFault;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHost;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connections to a back-end server
+ *
+ * A request is sent on the connection with the fewest active streams relative to the maximum number of concurrent
+ * streams advertised by the server. A new connection is opened, up to the maximum number of connections, when the
+ * least loaded connection is mostly full. The connections are kept in a copy on write list and counted atomically,
+ * so neither selecting nor evicting a connection locks the pool. A request which opens a connection reserves a slot
+ * for it in the count first and connects without holding any lock, so a slow connect delays neither the other
+ * requests nor the evictions, which run on the event loop. The selected connection reserves a stream for the request
+ * until it is written, so concurrent selections do not overcommit a connection.
+ *
+ * When all the connections are open and their streams are in use, a request waits up to the wait timeout until a
+ * connection is opened or evicted or a stream is released. A connection is evicted once the server sends GOAWAY or
+ * closes it. A connection which has been idle for the idle timeout while the pool has more than the minimum number
+ * of connections is evicted and drained: it takes no new requests and is closed once its streams complete.
+ */
+public class Http2ConnectionPool {
+
+	private static final Log log = LogFactory.getLog(Http2ConnectionPool.class);
+
+	// share of the streams of the least loaded connection in use at which a new connection is opened
+	private static final double GROW_THRESHOLD = 0.75;
+
+	private final Http2ConnectionFactory factory;
+	private final HttpHost host;
+	private final int minConnections;
+	private final int maxConnections;
+	private final long idleTimeout;
+	private final long waitTimeout;
+
+	private final List<Http2ClientHandler> connections = new CopyOnWriteArrayList<Http2ClientHandler>();
+
+	// open connections and the connections being opened
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	// requests waiting for a stream, the waiters are signalled only when there are any
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	public Http2ConnectionPool(Http2ConnectionFactory factory, HttpHost host, int minConnections,
+	                           int maxConnections, long idleTimeout, long waitTimeout) {
+		this.factory = factory;
+		this.host = host;
+		this.maxConnections = Math.max(1, maxConnections);
+		this.minConnections = Math.min(Math.max(1, minConnections), this.maxConnections);
+		this.idleTimeout = idleTimeout;
+		this.waitTimeout = waitTimeout;
+	}
+
+	/**
+	 * Open the minimum number of connections
+	 *
+	 * @throws AxisFault if a connection cannot be established
+	 */
+	public void warmUp() throws AxisFault {
+		while (reserveSlot(minConnections)) {
+			open();
+		}
+	}
+
+	/**
+	 * Establish a new connection to the back-end server, which is evicted from this pool once it is closed
+	 */
+	protected Http2ClientHandler createConnection() throws AxisFault {
+		return factory.createConnection(host, this);
+	}
+
+	/**
+	 * Select the connection to send a request on, opening a new connection if the others are mostly full. A stream
+	 * is reserved on the selected connection until the request is written by
+	 * {@link Http2ClientHandler#channelWrite}.
+	 *
+	 * @return client handler of the connection
+	 * @throws AxisFault if no connection can take the request within the wait timeout, or a new connection cannot
+	 *                   be established
+	 */
+	public Http2ClientHandler getConnection() throws AxisFault {
+		long deadline = 0;
+		while (true) {
+			// another request may have opened a connection, or streams may have completed meanwhile
+			Http2ClientHandler handler = selectLeastLoaded();
+			if (handler != null && (load(handler) < GROW_THRESHOLD || connectionCount.get() >= maxConnections) &&
+			    handler.reserveStream()) {
+				return handler;
+			}
+			if (reserveSlot(maxConnections)) {
+				Http2ClientHandler newHandler = open();
+				if (log.isDebugEnabled()) {
+					log.debug("Opened HTTP/2 connection " + connections.size() + " of " + maxConnections + " to " +
+					          host);
+				}
+				if (newHandler.reserveStream()) {
+					return newHandler;
+				}
+				continue;
+			}
+			if (deadline == 0) {
+				deadline = System.currentTimeMillis() + waitTimeout;
+			}
+			awaitAvailable(deadline);
+		}
+	}
+
+	/**
+	 * Reserve a slot for a new connection if there are fewer than the given number of connections
+	 */
+	private boolean reserveSlot(int limit) {
+		int count;
+		do {
+			count = connectionCount.get();
+			if (count >= limit) {
+				return false;
+			}
+		} while (!connectionCount.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	/**
+	 * Open a connection in a reserved slot, releasing the slot if the connection cannot be established
+	 */
+	private Http2ClientHandler open() throws AxisFault {
+		Http2ClientHandler handler;
+		try {
+			handler = createConnection();
+		} catch (AxisFault e) {
+			connectionCount.decrementAndGet();
+			signalAvailable();
+			throw e;
+		}
+		handler.setConnectionPool(this);
+		connections.add(handler);
+		signalAvailable();
+		return handler;
+	}
+
+	/**
+	 * Wait until a connection is opened or evicted or a stream is released, or the deadline passes
+	 */
+	private void awaitAvailable(long deadline) throws AxisFault {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+			throw new AxisFault("All " + maxConnections + " HTTP/2 connections to " + host +
+			                    " are in use, no stream became available within " + waitTimeout + " ms");
+		}
+		lock.lock();
+		waiters.incrementAndGet();
+		try {
+			// a change made before the waiter was counted is not signalled, check for it once counted
+			if (connectionCount.get() < maxConnections || selectLeastLoaded() != null) {
+				return;
+			}
+			available.await(remaining, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AxisFault("Interrupted while waiting for an HTTP/2 connection to " + host);
+		} finally {
+			waiters.decrementAndGet();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wake up the requests waiting for a stream, if there are any
+	 */
+	void signalAvailable() {
+		if (waiters.get() > 0) {
+			lock.lock();
+			try {
+				available.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private Http2ClientHandler selectLeastLoaded() {
+		Http2ClientHandler selected = null;
+		double selectedLoad = Double.MAX_VALUE;
+		for (Http2ClientHandler handler : connections) {
+			if (!isUsable(handler)) {
+				if (isClosing(handler)) {
+					remove(handler);
+				}
+				continue;
+			}
+			double load = load(handler);
+			if (load < selectedLoad) {
+				selected = handler;
+				selectedLoad = load;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Share of the concurrent streams allowed by the server in use or reserved on the connection
+	 */
+	private static double load(Http2ClientHandler handler) {
+		Http2Connection.Endpoint<?> local = handler.getConnection().local();
+		return (double) (local.numActiveStreams() + handler.getReservedStreams()) / local.maxActiveStreams();
+	}
+
+	private static boolean isUsable(Http2ClientHandler handler) {
+		Http2Connection.Endpoint<?> local = handler.getConnection().local();
+		return handler.getChContext() != null && !handler.isDraining() && !isClosing(handler) &&
+		       local.numActiveStreams() + handler.getReservedStreams() < local.maxActiveStreams();
+	}
+
+	private static boolean isClosing(Http2ClientHandler handler) {
+		Channel channel = handler.getChContext() != null ? handler.getChContext().channel() : null;
+		return (channel != null && !channel.isActive()) || handler.getConnection().goAwayReceived();
+	}
+
+	/**
+	 * Evict a connection, e.g. once it is closed. The streams in flight on the connection complete. Does not wait
+	 * for the connections being opened, so it can be called on the event loop.
+	 */
+	public void remove(Http2ClientHandler handler) {
+		if (connections.remove(handler)) {
+			connectionCount.decrementAndGet();
+			// a request waiting for a stream may open a new connection now
+			signalAvailable();
+		}
+	}
+
+	/**
+	 * Drain the connections without active streams which have been idle for the idle timeout, keeping the
+	 * minimum number of connections. A request may have selected such a connection just before it is evicted, so
+	 * it is only closed once its reserved and active streams complete.
+	 */
+	public void evictIdleConnections() {
+		if (idleTimeout <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (Http2ClientHandler handler : connections) {
+			if (connections.size() <= minConnections) {
+				return;
+			}
+			if (handler.getConnection().local().numActiveStreams() == 0 && handler.getReservedStreams() == 0 &&
+			    now - handler.getLastActiveTime() > idleTimeout && connections.remove(handler)) {
+				connectionCount.decrementAndGet();
+				handler.drain();
+				if (log.isDebugEnabled()) {
+					log.debug("Draining idle HTTP/2 connection to " + host);
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return connections.size();
+	}
+}
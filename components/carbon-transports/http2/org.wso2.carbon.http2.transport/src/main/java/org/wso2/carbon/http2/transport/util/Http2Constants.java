@@ -47,6 +47,17 @@ public class Http2Constants {
 	public static final String HTTP2_DISPATCH_SEQUENCE = "http2.dispatch.sequence";
 	public static final String HTTP2_ERROR_SEQUENCE = "http2.error.sequence";
 
+	public static final String MAX_CONNECTIONS_PER_HOST = "http2.max.connections.per.host";
+	public static final String MIN_CONNECTIONS_PER_HOST = "http2.min.connections.per.host";
+	public static final String CONNECTION_IDLE_TIMEOUT = "http2.connection.idle.timeout";
+	// milliseconds a request waits for a stream when all the connections to a host are open and in use
+	public static final String CONNECTION_WAIT_TIMEOUT = "http2.connection.wait.timeout";
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+	public static final int DEFAULT_MIN_CONNECTIONS_PER_HOST = 1;
+	public static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 60000;
+	public static final int DEFAULT_CONNECTION_WAIT_TIMEOUT = 5000;
+
 	public static final String STREAM_ID = "stream-id";
 	public static final String STREAM_CHANNEL = "stream-channel";
 
@@ -43,8 +43,9 @@ public class Http2SettingsHandler extends SimpleChannelInboundHandler<Http2Setti
 
 	@Override
 	protected void channelRead0(ChannelHandlerContext ctx, Http2Settings msg) throws Exception {
-		promise.setSuccess();
+		// set before the connection is handed out, so that the pool sees it as usable
 		handler.setChContext(ctx);
+		promise.setSuccess();
 		// Only care about the first settings message
 		ctx.pipeline().remove(this);
 	}
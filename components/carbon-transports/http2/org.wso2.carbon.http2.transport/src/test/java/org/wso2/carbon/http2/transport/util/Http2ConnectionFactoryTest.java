@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.http2.transport.util;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.AsciiString;
+import junit.framework.TestCase;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportOutDescription;
+import org.apache.http.HttpHost;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the connections opened by the connection factory against an embedded HTTP/2 server, which accepts the
+ * clear text upgrade and advertises a limit of {@link #MAX_STREAMS} concurrent streams
+ */
+public class Http2ConnectionFactoryTest extends TestCase {
+
+	private static final int MAX_STREAMS = 2;
+
+	private EventLoopGroup serverGroup;
+	private Channel serverChannel;
+	private HttpHost host;
+	private Http2ConnectionFactory factory;
+
+	private final AtomicInteger acceptedConnections = new AtomicInteger();
+	// highest number of streams the server had open on a connection at once
+	private final AtomicInteger maxServerStreams = new AtomicInteger();
+	private final List<Runnable> heldResponses = new CopyOnWriteArrayList<Runnable>();
+	private volatile boolean holdResponses;
+
+	@Override
+	protected void setUp() throws Exception {
+		serverGroup = new NioEventLoopGroup(1);
+		serverChannel = new ServerBootstrap().group(serverGroup).channel(NioServerSocketChannel.class)
+		                                     .childHandler(new BackendInitializer()).bind("localhost", 0).sync()
+		                                     .channel();
+		host = new HttpHost("localhost", ((InetSocketAddress) serverChannel.localAddress()).getPort(), "http");
+		TransportOutDescription transportOut = new TransportOutDescription("http2");
+		transportOut.addParameter(new Parameter(Http2Constants.CONNECTION_IDLE_TIMEOUT, "0"));
+		transportOut.addParameter(new Parameter(Http2Constants.CONNECTION_WAIT_TIMEOUT, "200"));
+		factory = Http2ConnectionFactory.getInstance(transportOut);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		serverChannel.close().sync();
+		serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+	}
+
+	public void testConnectionIsReusedForHost() throws Exception {
+		Http2ClientHandler handler = factory.getChannelHandler(host);
+		request(handler);
+		awaitIdle(handler);
+
+		for (int i = 0; i < 5; i++) {
+			Http2ClientHandler next = factory.getChannelHandler(host);
+			assertSame(handler, next);
+			request(next);
+			awaitIdle(next);
+		}
+		assertEquals(1, acceptedConnections.get());
+	}
+
+	public void testServerStreamLimitIsApplied() throws Exception {
+		Http2ConnectionPool pool = new Http2ConnectionPool(factory, host, 1, 2, 0, 200);
+		pool.warmUp();
+		Http2ClientHandler first = pool.getConnection();
+		awaitIdle(first);
+		assertEquals(MAX_STREAMS, first.getConnection().local().maxActiveStreams());
+
+		holdResponses = true;
+		request(first);
+		assertSame(first, pool.getConnection());
+		request(first);
+		// the first connection is full, so the next requests go to a second connection
+		Http2ClientHandler second = pool.getConnection();
+		assertNotSame(first, second);
+		request(second);
+		assertSame(second, pool.getConnection());
+		request(second);
+		assertEquals(2, acceptedConnections.get());
+		assertEquals(MAX_STREAMS, first.getConnection().local().numActiveStreams());
+		assertEquals(MAX_STREAMS, second.getConnection().local().numActiveStreams());
+
+		// no more connections may be opened, and the server does not take more streams on the open ones
+		try {
+			pool.getConnection();
+			fail("Stream beyond the limit of the server was handed out");
+		} catch (AxisFault expected) {
+		}
+		assertEquals(2, acceptedConnections.get());
+		assertEquals(MAX_STREAMS, maxServerStreams.get());
+
+		releaseResponses();
+		awaitIdle(first);
+		awaitIdle(second);
+		request(pool.getConnection());
+		assertEquals(2, acceptedConnections.get());
+		assertEquals(MAX_STREAMS, maxServerStreams.get());
+	}
+
+	public void testWaitingRequestTakesCompletedStream() throws Exception {
+		final Http2ConnectionPool pool = new Http2ConnectionPool(factory, host, 1, 1, 0, 5000);
+		pool.warmUp();
+		Http2ClientHandler handler = pool.getConnection();
+		awaitIdle(handler);
+
+		holdResponses = true;
+		request(handler);
+		request(pool.getConnection());
+
+		final AtomicReference<Object> selected = new AtomicReference<Object>();
+		Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					selected.set(pool.getConnection());
+				} catch (AxisFault e) {
+					selected.set(e);
+				}
+			}
+		});
+		waiter.start();
+		Thread.sleep(100);
+		assertTrue(waiter.isAlive());
+
+		holdResponses = false;
+		releaseResponses();
+		waiter.join(5000);
+		assertSame(handler, selected.get());
+		assertEquals(1, acceptedConnections.get());
+	}
+
+	/**
+	 * Sends a GET request on a stream of the connection, as the request writer does for a request without a body
+	 */
+	private static void request(final Http2ClientHandler handler) throws Exception {
+		final ChannelHandlerContext ctx = handler.getChContext();
+		ctx.executor().submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				Http2Connection.Endpoint<?> local = handler.getConnection().local();
+				Http2Headers headers = new DefaultHttp2Headers().method("GET").path("/").scheme("http")
+				                                                 .authority("localhost");
+				handler.getEncoder().writeHeaders(ctx, local.incrementAndGetNextStreamId(), headers, 0, true,
+				                                  ctx.newPromise());
+				ctx.flush();
+				handler.releaseStream();
+				return null;
+			}
+		}).get(5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Waits until the responses to the requests sent on the connection are received
+	 */
+	private static void awaitIdle(Http2ClientHandler handler) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (handler.getConnection().numActiveStreams() > 0) {
+			assertTrue("Responses were not received", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private void releaseResponses() {
+		for (Runnable response : heldResponses) {
+			heldResponses.remove(response);
+			response.run();
+		}
+	}
+
+	/**
+	 * Back-end server which accepts the upgrade to HTTP/2 and responds to each request with an empty 200 response,
+	 * or holds the responses until they are released
+	 */
+	private class BackendInitializer extends ChannelInitializer<SocketChannel> {
+
+		@Override
+		protected void initChannel(SocketChannel ch) {
+			acceptedConnections.incrementAndGet();
+			final BackendListener listener = new BackendListener();
+			final Http2ConnectionHandler connectionHandler =
+					new Http2ConnectionHandlerBuilder().server(true).frameListener(listener)
+					                                   .initialSettings(new Http2Settings().maxConcurrentStreams(MAX_STREAMS))
+					                                   .build();
+			listener.connectionHandler = connectionHandler;
+			HttpServerCodec sourceCodec = new HttpServerCodec();
+			HttpServerUpgradeHandler upgradeHandler =
+					new HttpServerUpgradeHandler(sourceCodec, new HttpServerUpgradeHandler.UpgradeCodecFactory() {
+						@Override
+						public HttpServerUpgradeHandler.UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+							if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+								return new Http2ServerUpgradeCodec(connectionHandler);
+							}
+							return null;
+						}
+					});
+			ch.pipeline().addLast(sourceCodec, upgradeHandler, new ChannelInboundHandlerAdapter() {
+				@Override
+				public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+					if (evt instanceof HttpServerUpgradeHandler.UpgradeEvent) {
+						// the upgrade request is the first stream of the connection
+						listener.respond(ctx.pipeline().context(connectionHandler), 1);
+					}
+					super.userEventTriggered(ctx, evt);
+				}
+			});
+		}
+	}
+
+	private class BackendListener extends Http2FrameAdapter {
+
+		private Http2ConnectionHandler connectionHandler;
+
+		@Override
+		public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers, int padding,
+		                          boolean endStream) throws Http2Exception {
+			int streams = connectionHandler.connection().numActiveStreams();
+			int max;
+			while ((max = maxServerStreams.get()) < streams && !maxServerStreams.compareAndSet(max, streams)) {
+			}
+			if (!endStream) {
+				return;
+			}
+			if (holdResponses) {
+				hold(ctx, streamId);
+			} else {
+				respond(ctx, streamId);
+			}
+		}
+
+		@Override
+		public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+		                          int streamDependency, short weight, boolean exclusive, int padding,
+		                          boolean endStream) throws Http2Exception {
+			onHeadersRead(ctx, streamId, headers, padding, endStream);
+		}
+
+		private void hold(final ChannelHandlerContext ctx, final int streamId) {
+			heldResponses.add(new Runnable() {
+				@Override
+				public void run() {
+					ctx.executor().execute(new Runnable() {
+						@Override
+						public void run() {
+							respond(ctx, streamId);
+						}
+					});
+				}
+			});
+		}
+
+		void respond(ChannelHandlerContext ctx, int streamId) {
+			connectionHandler.encoder().writeHeaders(ctx, streamId, new DefaultHttp2Headers().status("200"), 0,
+			                                         true, ctx.newPromise());
+			ctx.flush();
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ *   Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *   WSO2 Inc. licenses this file to you under the Apache License,
+ *   Version 2.0 (the "License"); you may not use this file except
+ *   in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.wso2.carbon.http2.transport.util;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Stream;
+import junit.framework.TestCase;
+import org.apache.axis2.AxisFault;
+import org.apache.http.HttpHost;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the selection, growth, saturation and idle eviction of the HTTP/2 connections to a back-end server
+ */
+public class Http2ConnectionPoolTest extends TestCase {
+
+	private static final int MAX_STREAMS = 4;
+
+	private final List<Http2ClientHandler> created = new CopyOnWriteArrayList<Http2ClientHandler>();
+	private final Set<Http2ClientHandler> closed =
+			Collections.synchronizedSet(new HashSet<Http2ClientHandler>());
+	private final CountDownLatch connecting = new CountDownLatch(1);
+	private volatile CountDownLatch connectGate;
+
+	public void testStreamsGoToLeastLoadedConnection() throws Exception {
+		Http2ConnectionPool pool = pool(1, 2, 0, 0);
+		pool.warmUp();
+		assertEquals(1, pool.size());
+
+		Http2ClientHandler first = send(pool);
+		assertSame(first, send(pool));
+		assertSame(first, send(pool));
+		// the first connection is 75% full
+		Http2ClientHandler second = send(pool);
+		assertNotSame(first, second);
+		assertEquals(2, pool.size());
+		assertSame(second, send(pool));
+	}
+
+	public void testConcurrentSelectionsReserveStreams() throws Exception {
+		Http2ConnectionPool pool = pool(1, 1, 0, 0);
+		pool.warmUp();
+
+		// selected, but not written yet
+		for (int i = 0; i < MAX_STREAMS; i++) {
+			assertSame(created.get(0), pool.getConnection());
+		}
+		assertEquals(MAX_STREAMS, created.get(0).getReservedStreams());
+		try {
+			pool.getConnection();
+			fail("Connection was overcommitted");
+		} catch (AxisFault expected) {
+		}
+	}
+
+	public void testSaturatedPoolWaitsForStream() throws Exception {
+		Http2ConnectionPool pool = pool(1, 1, 0, 5000);
+		pool.warmUp();
+		final List<Http2Stream> streams = new ArrayList<Http2Stream>();
+		for (int i = 0; i < MAX_STREAMS; i++) {
+			streams.add(open(pool.getConnection()));
+		}
+
+		Thread completer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				streams.get(0).close();
+			}
+		});
+		long start = System.currentTimeMillis();
+		completer.start();
+		Http2ClientHandler handler = pool.getConnection();
+		completer.join();
+
+		assertSame(created.get(0), handler);
+		assertTrue(System.currentTimeMillis() - start >= 100);
+		assertEquals(1, pool.size());
+	}
+
+	public void testSaturatedPoolFailsAfterWaitTimeout() throws Exception {
+		Http2ConnectionPool pool = pool(1, 1, 0, 100);
+		pool.warmUp();
+		for (int i = 0; i < MAX_STREAMS; i++) {
+			send(pool);
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			pool.getConnection();
+			fail("Saturated pool handed out a connection");
+		} catch (AxisFault expected) {
+		}
+		assertTrue(System.currentTimeMillis() - start >= 100);
+	}
+
+	public void testSaturatedPoolOpensConnectionOnceOneIsEvicted() throws Exception {
+		final Http2ConnectionPool pool = pool(1, 1, 0, 5000);
+		pool.warmUp();
+		for (int i = 0; i < MAX_STREAMS; i++) {
+			send(pool);
+		}
+
+		Thread evicter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				pool.remove(created.get(0));
+			}
+		});
+		evicter.start();
+		Http2ClientHandler handler = pool.getConnection();
+		evicter.join();
+
+		assertEquals(2, created.size());
+		assertSame(created.get(1), handler);
+	}
+
+	public void testConnectionIsOpenedWithoutBlockingThePool() throws Exception {
+		final Http2ConnectionPool pool = pool(1, 2, 1, 5000);
+		pool.warmUp();
+		for (int i = 0; i < MAX_STREAMS - 1; i++) {
+			send(pool);
+		}
+		// saturate the first connection without opening the second one
+		assertTrue(created.get(0).reserveStream());
+		open(created.get(0));
+		connectGate = new CountDownLatch(1);
+
+		final List<Http2ClientHandler> selected = new CopyOnWriteArrayList<Http2ClientHandler>();
+		Runnable request = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					selected.add(pool.getConnection());
+				} catch (AxisFault e) {
+					fail(e.getMessage());
+				}
+			}
+		};
+		Thread opener = new Thread(request);
+		opener.start();
+		assertTrue(connecting.await(5, TimeUnit.SECONDS));
+
+		// evictions, as done on the event loop, do not wait for the connection being opened
+		Thread evicter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pool.evictIdleConnections();
+				pool.remove(new Http2ClientHandler(new DefaultHttp2Connection(false)));
+			}
+		});
+		evicter.start();
+		evicter.join(1000);
+		assertFalse(evicter.isAlive());
+
+		// the slot of the connection being opened is reserved, so a request waits for it instead of opening a third
+		Thread waiter = new Thread(request);
+		waiter.start();
+		Thread.sleep(50);
+		assertTrue(waiter.isAlive());
+
+		connectGate.countDown();
+		opener.join(5000);
+		waiter.join(5000);
+		assertEquals(2, created.size());
+		assertEquals(2, pool.size());
+		assertEquals(2, selected.size());
+		assertSame(created.get(1), selected.get(0));
+		assertSame(created.get(1), selected.get(1));
+	}
+
+	public void testFailedConnectionReleasesItsSlot() throws Exception {
+		Http2ConnectionPool pool = new Http2ConnectionPool(null, new HttpHost("localhost", 8243, "https"), 1, 1, 0,
+		                                                   0) {
+			@Override
+			protected Http2ClientHandler createConnection() throws AxisFault {
+				throw new AxisFault("Connection refused");
+			}
+		};
+		for (int i = 0; i < 2; i++) {
+			try {
+				pool.getConnection();
+				fail("Connection was not refused");
+			} catch (AxisFault e) {
+				// the slot is released, so the next request tries to connect again instead of waiting
+				assertEquals("Connection refused", e.getMessage());
+			}
+		}
+		assertEquals(0, pool.size());
+	}
+
+	public void testIdleConnectionIsClosedDownToMinimum() throws Exception {
+		Http2ConnectionPool pool = pool(1, 3, 1, 0);
+		pool.warmUp();
+		List<Http2Stream> streams = new ArrayList<Http2Stream>();
+		while (created.size() < 3) {
+			streams.add(open(pool.getConnection()));
+		}
+		Http2ClientHandler busy = created.get(0);
+		// only the first stream of the first connection stays active
+		for (Http2Stream stream : streams.subList(1, streams.size())) {
+			stream.close();
+		}
+		assertEquals(1, busy.getConnection().local().numActiveStreams());
+		Thread.sleep(10);
+
+		pool.evictIdleConnections();
+
+		// the connection with an active stream is kept
+		assertEquals(1, pool.size());
+		assertSame(busy, pool.getConnection());
+		assertFalse(closed.contains(busy));
+		assertTrue(closed.contains(created.get(1)));
+		assertTrue(closed.contains(created.get(2)));
+		streams.get(0).close();
+	}
+
+	public void testDrainedConnectionIsClosedOnceItsStreamsComplete() throws Exception {
+		Http2ConnectionPool pool = pool(1, 1, 0, 0);
+		pool.warmUp();
+		Http2ClientHandler handler = pool.getConnection();
+		Http2Stream stream = handler.getConnection().local().createStream(
+				handler.getConnection().local().incrementAndGetNextStreamId(), false);
+
+		// evicted while the request which selected it is being written
+		handler.drain();
+		assertFalse(handler.reserveStream());
+		handler.releaseStream();
+		assertFalse(closed.contains(handler));
+
+		stream.close();
+		assertTrue(closed.contains(handler));
+	}
+
+	public void testDrainingConnectionIsNotSelected() throws Exception {
+		Http2ConnectionPool pool = pool(1, 2, 0, 0);
+		pool.warmUp();
+		Http2ClientHandler draining = created.get(0);
+		draining.drain();
+		assertTrue(closed.contains(draining));
+
+		Http2ClientHandler handler = pool.getConnection();
+		assertNotSame(draining, handler);
+		assertEquals(2, created.size());
+	}
+
+	/**
+	 * Selects a connection and opens a stream on it as the request writer does
+	 */
+	private static Http2ClientHandler send(Http2ConnectionPool pool) throws Exception {
+		Http2ClientHandler handler = pool.getConnection();
+		open(handler);
+		return handler;
+	}
+
+	private static Http2Stream open(Http2ClientHandler handler) throws Exception {
+		Http2Connection.Endpoint<?> local = handler.getConnection().local();
+		Http2Stream stream = local.createStream(local.incrementAndGetNextStreamId(), false);
+		handler.releaseStream();
+		return stream;
+	}
+
+	private Http2ConnectionPool pool(int minConnections, int maxConnections, long idleTimeout, long waitTimeout) {
+		return new Http2ConnectionPool(null, new HttpHost("localhost", 8243, "https"), minConnections,
+		                               maxConnections, idleTimeout, waitTimeout) {
+			@Override
+			protected Http2ClientHandler createConnection() throws AxisFault {
+				CountDownLatch gate = connectGate;
+				if (gate != null) {
+					connecting.countDown();
+					try {
+						gate.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				Http2Connection connection = new DefaultHttp2Connection(false);
+				try {
+					connection.local().maxStreams(MAX_STREAMS, MAX_STREAMS);
+				} catch (Http2Exception e) {
+					throw new AxisFault("Invalid maximum number of streams", e);
+				}
+				Http2ClientHandler handler = new Http2ClientHandler(connection);
+				handler.setChContext(context(handler));
+				created.add(handler);
+				return handler;
+			}
+		};
+	}
+
+	private ChannelHandlerContext context(final Http2ClientHandler handler) {
+		final AtomicReference<Channel> channel = new AtomicReference<Channel>();
+		channel.set((Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Channel.class},
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("isActive".equals(method.getName())) {
+							return !closed.contains(handler);
+						}
+						return defaultValue(proxy, method, args);
+					}
+				}));
+		return (ChannelHandlerContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class[]{ChannelHandlerContext.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("channel".equals(method.getName())) {
+							return channel.get();
+						} else if ("close".equals(method.getName())) {
+							closed.add(handler);
+							return null;
+						}
+						return defaultValue(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Object proxy, Method method, Object[] args) {
+		if ("hashCode".equals(method.getName())) {
+			return System.identityHashCode(proxy);
+		} else if ("equals".equals(method.getName())) {
+			return proxy == args[0];
+		} else if (method.getReturnType() == boolean.class) {
+			return false;
+		}
+		return null;
+	}
+}
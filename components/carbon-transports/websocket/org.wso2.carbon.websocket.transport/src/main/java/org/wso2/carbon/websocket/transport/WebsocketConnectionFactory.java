@@ -19,24 +19,32 @@
 package org.wso2.carbon.websocket.transport;
 
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
 import org.apache.axiom.om.OMElement;
+import org.apache.axis2.AxisFault;
 import org.apache.axis2.description.Parameter;
 import org.apache.axis2.description.TransportOutDescription;
 import org.apache.commons.logging.Log;
@@ -47,7 +55,20 @@ import javax.net.ssl.SSLException;
 import javax.xml.namespace.QName;
 import java.net.URI;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Creates the connections to the WebSocket back-ends and keeps the connection of each source and back-end.
+ *
+ * All connections share one event loop group, an epoll group when the native transport is available, which is shut
+ * down when the transport sender stops.
+ *
+ * A connection belongs to the WebSocket session of one source, so connections are not pooled: an idle connection is
+ * never handed to another source. Instead, the number of open connections to a back-end can be limited, in which
+ * case a new connection beyond the limit fails right away, and connections without any frame for the idle timeout
+ * are closed to free their share of the limit.
+ */
 public class WebsocketConnectionFactory {
 
     private static final Log log = LogFactory.getLog(WebsocketConnectionFactory.class);
@@ -56,12 +77,29 @@ public class WebsocketConnectionFactory {
     private final TransportOutDescription transportOut;
     private ConcurrentHashMap<String, ConcurrentHashMap<String, WebSocketClientHandler>>
             channelHandlerPool = new ConcurrentHashMap<String, ConcurrentHashMap<String, WebSocketClientHandler>>();
+    private final ConcurrentHashMap<String, AtomicInteger> backendConnectionCounts =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final EventLoopGroup group;
+    private final Class<? extends SocketChannel> channelClass;
+    private final int connectionLimitPerBackend;
+    private final int idleTimeout;
 
     public WebsocketConnectionFactory(TransportOutDescription transportOut) {
         this.transportOut = transportOut;
+        int threads = getIntParameter(WebsocketConstants.WEBSOCKET_CLIENT_EVENT_LOOP_THREADS, 0);
+        if (Epoll.isAvailable()) {
+            this.group = new EpollEventLoopGroup(threads);
+            this.channelClass = EpollSocketChannel.class;
+        } else {
+            this.group = new NioEventLoopGroup(threads);
+            this.channelClass = NioSocketChannel.class;
+        }
+        this.connectionLimitPerBackend = getIntParameter(WebsocketConstants.WEBSOCKET_CONNECTION_LIMIT_PER_BACKEND, 0);
+        this.idleTimeout = getIntParameter(WebsocketConstants.WEBSOCKET_CONNECTION_IDLE_TIMEOUT, 0);
     }
 
-    public static WebsocketConnectionFactory getInstance(TransportOutDescription transportOut) {
+    public static synchronized WebsocketConnectionFactory getInstance(TransportOutDescription transportOut) {
         if (instance == null) {
             instance = new WebsocketConnectionFactory(transportOut);
         }
@@ -73,7 +111,8 @@ public class WebsocketConnectionFactory {
                                                     final boolean handshakePresent,
                                                     final String dispatchSequence,
                                                     final String dispatchErrorSequence,
-                                                    final String contentType) throws InterruptedException {
+                                                    final String contentType)
+            throws InterruptedException, AxisFault {
         WebSocketClientHandler channelHandler;
         if (handshakePresent) {
             channelHandler = cacheNewConnection(uri, sourceIdentifier, dispatchSequence, dispatchErrorSequence, contentType);
@@ -83,10 +122,34 @@ public class WebsocketConnectionFactory {
                 channelHandler = cacheNewConnection(uri, sourceIdentifier, dispatchSequence, dispatchErrorSequence, contentType);
             }
         }
+        if (channelHandler == null) {
+            throw new AxisFault("Could not connect to the WS endpoint " + uri);
+        }
         channelHandler.handshakeFuture().sync();
         return channelHandler;
     }
 
+    /**
+     * Closes the connections to the back-ends and shuts down the event loop group. The next transport sender to be
+     * initialized gets a new factory.
+     */
+    public void shutdown() {
+        synchronized (WebsocketConnectionFactory.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        group.shutdownGracefully();
+    }
+
+    /**
+     * Number of open connections to the back-end of the given URI
+     */
+    int getOpenConnections(URI uri) {
+        AtomicInteger count = backendConnectionCounts.get(getClientHandlerIdentifier(uri));
+        return count == null ? 0 : count.get();
+    }
+
     public String getClientHandlerIdentifier(final URI uri) {
         final String host = uri.getHost() == null ? "127.0.0.1" : uri.getHost();
         final int port = uri.getPort();
@@ -146,14 +209,22 @@ public class WebsocketConnectionFactory {
 
             }
 
-            final EventLoopGroup group = new NioEventLoopGroup();
+            final String clientIdentifier = getClientHandlerIdentifier(uri);
+            final AtomicInteger connectionCount = getConnectionCount(clientIdentifier);
+            if (connectionCount.incrementAndGet() > connectionLimitPerBackend && connectionLimitPerBackend > 0) {
+                connectionCount.decrementAndGet();
+                log.warn("Limit of " + connectionLimitPerBackend + " open connections to the WS endpoint " + uri
+                        + " reached.");
+                return null;
+            }
+
             handler = new WebSocketClientHandler(WebSocketClientHandshakerFactory.newHandshaker(uri,
                     WebSocketVersion.V13,
                     contentType != null ? SubprotocolBuilderUtil.contentTypeToSyanapeSubprotocol(contentType) : null,
                     false,
                     new DefaultHttpHeaders()));
             Bootstrap b = new Bootstrap();
-            b.group(group).channel(NioSocketChannel.class)
+            b.group(group).channel(channelClass)
                     .handler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
@@ -161,22 +232,27 @@ public class WebsocketConnectionFactory {
                             if (sslCtx != null) {
                                 p.addLast(sslCtx.newHandler(ch.alloc(), host, port));
                             }
+                            if (idleTimeout > 0) {
+                                p.addLast(new IdleStateHandler(0, 0, idleTimeout, TimeUnit.MILLISECONDS),
+                                        new IdleConnectionCloser());
+                            }
                             p.addLast(new HttpClientCodec(), new HttpObjectAggregator(8192),
                                     new WebSocketFrameAggregator(Integer.MAX_VALUE), handler);
                         }
                     });
 
-            Channel ch = b.connect(uri.getHost(), port).sync().channel();
-            ch.closeFuture().addListener(new ChannelFutureListener() {
+            ChannelFuture connectFuture = b.connect(uri.getHost(), port);
+            connectFuture.channel().closeFuture().addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture channelFuture) throws Exception {
-                    group.shutdownGracefully();
-                    removeChannelHandler(sourceIdentifier, getClientHandlerIdentifier(uri));
+                    connectionCount.decrementAndGet();
+                    removeChannelHandler(sourceIdentifier, clientIdentifier, handler);
                 }
             });
+            connectFuture.sync();
             handler.setDispatchSequence(dispatchSequence);
             handler.setDispatchErrorSequence(dispatchErrorSequence);
-            addChannelHandler(sourceIdentifier, getClientHandlerIdentifier(uri), handler);
+            addChannelHandler(sourceIdentifier, clientIdentifier, handler);
             return handler;
 
         } catch (InterruptedException e) {
@@ -208,16 +284,88 @@ public class WebsocketConnectionFactory {
                 channelHandlerPool.get(sourceIdentifier);
         if (handlerMap == null) {
             return null;
-        } else {
-            return handlerMap.get(clientIdentifier);
         }
+        WebSocketClientHandler handler = handlerMap.get(clientIdentifier);
+        if (handler != null && handler.getChannelHandlerContext() != null
+                && !handler.getChannelHandlerContext().channel().isActive()) {
+            removeChannelHandler(sourceIdentifier, clientIdentifier, handler);
+            return null;
+        }
+        return handler;
     }
 
     public void removeChannelHandler(String sourceIdentifier,
                                      String clientIdentifier) {
         ConcurrentHashMap<String, WebSocketClientHandler> handlerMap =
                 channelHandlerPool.get(sourceIdentifier);
-        handlerMap.remove(clientIdentifier);
+        if (handlerMap != null) {
+            handlerMap.remove(clientIdentifier);
+            removeIfEmpty(sourceIdentifier, handlerMap);
+        }
+    }
+
+    /**
+     * Remove the handler of a connection, unless it was already replaced by the handler of a new connection
+     */
+    private void removeChannelHandler(String sourceIdentifier,
+                                      String clientIdentifier,
+                                      WebSocketClientHandler clientHandler) {
+        ConcurrentHashMap<String, WebSocketClientHandler> handlerMap =
+                channelHandlerPool.get(sourceIdentifier);
+        if (handlerMap != null) {
+            handlerMap.remove(clientIdentifier, clientHandler);
+            removeIfEmpty(sourceIdentifier, handlerMap);
+        }
+    }
+
+    private void removeIfEmpty(String sourceIdentifier,
+                               ConcurrentHashMap<String, WebSocketClientHandler> handlerMap) {
+        if (handlerMap.isEmpty()) {
+            channelHandlerPool.remove(sourceIdentifier, handlerMap);
+        }
+    }
+
+    private AtomicInteger getConnectionCount(String clientIdentifier) {
+        AtomicInteger count = backendConnectionCounts.get(clientIdentifier);
+        if (count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = backendConnectionCounts.putIfAbsent(clientIdentifier, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        return count;
+    }
+
+    private int getIntParameter(String name, int defaultValue) {
+        Parameter parameter = transportOut.getParameter(name);
+        if (parameter == null || parameter.getValue() == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(parameter.getValue().toString().trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value " + parameter.getValue() + " for " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Closes a connection which has neither sent nor received a frame for the idle timeout
+     */
+    private static class IdleConnectionCloser extends ChannelDuplexHandler {
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Closing idle WebSocket connection " + ctx.channel().toString());
+                }
+                ctx.channel().writeAndFlush(new CloseWebSocketFrame(1001, "Idle timeout"))
+                        .addListener(ChannelFutureListener.CLOSE);
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
     }
 
 
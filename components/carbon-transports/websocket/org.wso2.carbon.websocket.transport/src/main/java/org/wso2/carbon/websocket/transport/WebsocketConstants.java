@@ -45,6 +45,10 @@ public class WebsocketConstants {
     public static final String TRUST_STORE_PASSWORD = "ws.trust.store.Password";
     public static final String TRUST_STORE_CONFIG_ELEMENT = "ws.trust.store";
 
+    public static final String WEBSOCKET_CLIENT_EVENT_LOOP_THREADS = "ws.client.event.loop.threads";
+    public static final String WEBSOCKET_CONNECTION_LIMIT_PER_BACKEND = "ws.connection.limit.per.backend";
+    public static final String WEBSOCKET_CONNECTION_IDLE_TIMEOUT = "ws.connection.idle.timeout";
+
     public static final String SYNAPSE_SUBPROTOCOL_PREFIX = "synapse";
     public static final String WEBSOCKET_SUBSCRIBER_PATH = "websocket.subscriber.path";
 
@@ -64,6 +64,15 @@ public class WebsocketTransportSender extends AbstractTransportSender {
         connectionFactory = WebsocketConnectionFactory.getInstance(transportOut);
     }
 
+    @Override
+    public void stop() {
+        super.stop();
+        if (connectionFactory != null) {
+            connectionFactory.shutdown();
+            connectionFactory = null;
+        }
+    }
+
     public void sendMessage(MessageContext msgCtx, String targetEPR, OutTransportInfo trpOut)
             throws AxisFault {
         String sourceIdentier = null;
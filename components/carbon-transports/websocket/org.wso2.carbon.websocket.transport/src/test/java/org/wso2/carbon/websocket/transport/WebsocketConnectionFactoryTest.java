@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.websocket.transport;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import junit.framework.TestCase;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportOutDescription;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests the connection limit, the idle timeout and the removal of closed connections of the WebSocket connection
+ * factory against a local WebSocket server.
+ */
+public class WebsocketConnectionFactoryTest extends TestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<Channel>();
+    private EventLoopGroup serverGroup;
+    private WebsocketConnectionFactory factory;
+    private URI uri;
+
+    @Override
+    protected void setUp() throws Exception {
+        serverGroup = new NioEventLoopGroup(1);
+        Channel serverChannel = new ServerBootstrap().group(serverGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        serverChannels.add(ch);
+                        ch.pipeline().addLast(new HttpServerCodec(), new HttpObjectAggregator(65536),
+                                new WebSocketServerProtocolHandler("/ws"));
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        uri = new URI("ws://127.0.0.1:" + ((InetSocketAddress) serverChannel.localAddress()).getPort() + "/ws");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (factory != null) {
+            factory.shutdown();
+        }
+        serverGroup.shutdownGracefully().sync();
+    }
+
+    public void testConnectionLimit() throws Exception {
+        factory = createFactory(1, 0);
+        WebSocketClientHandler first = connect("source1");
+        assertEquals(1, factory.getOpenConnections(uri));
+
+        try {
+            connect("source2");
+            fail("A connection beyond the limit was opened");
+        } catch (AxisFault expected) {
+        }
+        assertEquals(1, factory.getOpenConnections(uri));
+        // the source which holds the connection keeps using it
+        assertSame(first, connect("source1"));
+
+        first.getChannelHandlerContext().channel().close().sync();
+        waitForOpenConnections(0);
+        assertNotNull(connect("source2"));
+        assertEquals(1, factory.getOpenConnections(uri));
+    }
+
+    public void testIdleConnectionIsClosed() throws Exception {
+        factory = createFactory(0, 200);
+        WebSocketClientHandler handler = connect("source");
+
+        assertTrue(handler.getChannelHandlerContext().channel().closeFuture().await(TIMEOUT));
+        waitForOpenConnections(0);
+        assertNull(factory.getChannelHandlerFromPool("source", factory.getClientHandlerIdentifier(uri)));
+    }
+
+    public void testClosedConnectionIsRemoved() throws Exception {
+        factory = createFactory(0, 0);
+        WebSocketClientHandler handler = connect("source");
+        assertSame(handler, factory.getChannelHandlerFromPool("source", factory.getClientHandlerIdentifier(uri)));
+
+        serverChannels.get(0).close().sync();
+        assertTrue(handler.getChannelHandlerContext().channel().closeFuture().await(TIMEOUT));
+        waitForOpenConnections(0);
+        assertNull(factory.getChannelHandlerFromPool("source", factory.getClientHandlerIdentifier(uri)));
+        assertNotSame(handler, connect("source"));
+    }
+
+    public void testShutdownClosesConnections() throws Exception {
+        factory = WebsocketConnectionFactory.getInstance(createTransportOut(0, 0));
+        WebSocketClientHandler handler = connect("source");
+
+        factory.shutdown();
+        assertTrue(handler.getChannelHandlerContext().channel().closeFuture().await(TIMEOUT));
+        // a stopped factory is not handed out again
+        WebsocketConnectionFactory next = WebsocketConnectionFactory.getInstance(createTransportOut(0, 0));
+        factory = next;
+        assertNotSame(handler, connect("source"));
+    }
+
+    private WebSocketClientHandler connect(String sourceIdentifier) throws Exception {
+        return factory.getChannelHandler(uri, sourceIdentifier, false, null, null, null);
+    }
+
+    private void waitForOpenConnections(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (factory.getOpenConnections(uri) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, factory.getOpenConnections(uri));
+    }
+
+    private static WebsocketConnectionFactory createFactory(int connectionLimit, int idleTimeout)
+            throws AxisFault {
+        return new WebsocketConnectionFactory(createTransportOut(connectionLimit, idleTimeout));
+    }
+
+    private static TransportOutDescription createTransportOut(int connectionLimit, int idleTimeout)
+            throws AxisFault {
+        TransportOutDescription transportOut = new TransportOutDescription("ws");
+        transportOut.addParameter(new Parameter(WebsocketConstants.WEBSOCKET_CONNECTION_LIMIT_PER_BACKEND,
+                String.valueOf(connectionLimit)));
+        transportOut.addParameter(new Parameter(WebsocketConstants.WEBSOCKET_CONNECTION_IDLE_TIMEOUT,
+                String.valueOf(idleTimeout)));
+        return transportOut;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.common;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.builder.Builder;
+import org.apache.axis2.builder.BuilderUtil;
+import org.apache.axis2.builder.SOAPBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.mediators.base.SequenceMediator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the message builder and prepares the injecting sequence of a polling inbound endpoint once per
+ * configuration, instead of for every received message.
+ *
+ * Builders are cached per content type against the axis configuration they were taken from, and are resolved again
+ * when the configuration is replaced. The sequence is looked up in the synapse configuration for every message, but
+ * it is only initialized and given its error handler when the configuration hands out a different instance, i.e.
+ * when the sequence was added, updated or removed, the configuration was replaced, or a sequence loaded from the
+ * registry was reloaded after its registry cache expired. A destroyed sequence is initialized again.
+ */
+public class InboundInjectionPipeline {
+
+    private static final Log log = LogFactory.getLog(InboundInjectionPipeline.class);
+
+    private static final int MAX_CACHED_BUILDERS = 64;
+
+    private static final Builder SOAP_BUILDER = new SOAPBuilder();
+
+    private final String injectingSeq;
+    private final String onErrorSeq;
+    private final boolean setErrorHandler;
+    private final SynapseEnvironment synapseEnvironment;
+
+    private final ConcurrentMap<String, Builder> builders = new ConcurrentHashMap<String, Builder>();
+    private volatile AxisConfiguration axisConfiguration;
+    private volatile SequenceMediator sequence;
+
+    /**
+     * Pipeline which sets the given error handler to the injecting sequence
+     */
+    public InboundInjectionPipeline(String injectingSeq, String onErrorSeq, SynapseEnvironment synapseEnvironment) {
+        this(injectingSeq, onErrorSeq, true, synapseEnvironment);
+    }
+
+    /**
+     * Pipeline which leaves the error handler of the injecting sequence as it is
+     */
+    public InboundInjectionPipeline(String injectingSeq, SynapseEnvironment synapseEnvironment) {
+        this(injectingSeq, null, false, synapseEnvironment);
+    }
+
+    private InboundInjectionPipeline(String injectingSeq, String onErrorSeq, boolean setErrorHandler,
+                                     SynapseEnvironment synapseEnvironment) {
+        this.injectingSeq = injectingSeq;
+        this.onErrorSeq = onErrorSeq;
+        this.setErrorHandler = setErrorHandler;
+        this.synapseEnvironment = synapseEnvironment;
+    }
+
+    /**
+     * Determine the message builder for the content type, falling back to the SOAP builder
+     *
+     * @param contentType content type of the message, may be null
+     * @param axis2MsgCtx axis2 message context of the message
+     * @return message builder
+     */
+    public Builder getBuilder(String contentType, MessageContext axis2MsgCtx) {
+        if (contentType == null) {
+            log.debug("No content type specified. Using SOAP builder.");
+            return SOAP_BUILDER;
+        }
+        AxisConfiguration currentAxisConfiguration = axis2MsgCtx.getConfigurationContext().getAxisConfiguration();
+        if (currentAxisConfiguration != axisConfiguration) {
+            builders.clear();
+            axisConfiguration = currentAxisConfiguration;
+        }
+        Builder builder = builders.get(contentType);
+        if (builder != null) {
+            return builder;
+        }
+        int index = contentType.indexOf(';');
+        String type = index > 0 ? contentType.substring(0, index) : contentType;
+        try {
+            builder = BuilderUtil.getBuilderFromSelector(type, axis2MsgCtx);
+        } catch (AxisFault axisFault) {
+            log.error("Error while creating message builder :: " + axisFault.getMessage(), axisFault);
+            return SOAP_BUILDER;
+        }
+        if (builder == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("No message builder found for type '" + type + "'. Falling back to SOAP.");
+            }
+            builder = SOAP_BUILDER;
+        }
+        if (builders.size() < MAX_CACHED_BUILDERS) {
+            builders.put(contentType, builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Gives the initialized injecting sequence
+     *
+     * @return injecting sequence or null if it is not found
+     */
+    public SequenceMediator getSequence() {
+        SequenceMediator seq = (SequenceMediator) synapseEnvironment.getSynapseConfiguration()
+                .getSequence(injectingSeq);
+        if (seq == null) {
+            sequence = null;
+            return null;
+        }
+        if (seq == sequence && seq.isInitialized()) {
+            return seq;
+        }
+        if (!seq.isInitialized()) {
+            seq.init(synapseEnvironment);
+        }
+        if (setErrorHandler) {
+            seq.setErrorHandler(onErrorSeq);
+        }
+        sequence = seq;
+        return seq;
+    }
+}
@@ -34,4 +34,6 @@ public class PollingConstants {
 
    public static final String INBOUND_CONCURRENT_CONSUMERS = "concurrent.consumers";
 
+   public static final String INBOUND_MIN_CONCURRENT_CONSUMERS = "concurrent.consumers.min";
+
 }
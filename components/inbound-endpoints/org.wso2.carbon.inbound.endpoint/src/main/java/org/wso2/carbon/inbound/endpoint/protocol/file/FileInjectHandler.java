@@ -28,8 +28,6 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.UUIDGenerator;
 import org.apache.axis2.Constants;
 import org.apache.axis2.builder.Builder;
-import org.apache.axis2.builder.BuilderUtil;
-import org.apache.axis2.builder.SOAPBuilder;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.format.DataSourceMessageBuilder;
 import org.apache.axis2.format.ManagedDataSource;
@@ -47,6 +45,7 @@ import org.apache.synapse.inbound.InboundEndpoint;
 import org.apache.synapse.mediators.base.SequenceMediator;
 import org.apache.synapse.transport.customlogsetter.CustomLogSetter;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.inbound.endpoint.common.InboundInjectionPipeline;
 import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 
 public class FileInjectHandler {
@@ -54,28 +53,46 @@ public class FileInjectHandler {
 	private static final Log log = LogFactory.getLog(FileInjectHandler.class);
 	
 	private String injectingSeq;
-	private String onErrorSeq;
 	private boolean sequential;
     private Properties vfsProperties;
     private SynapseEnvironment synapseEnvironment;
+    private InboundInjectionPipeline injectionPipeline;
+    private String charSetEnc;
     private Map<String, Object> transportHeaders;
     
 	public FileInjectHandler(String injectingSeq, String onErrorSeq, boolean sequential, SynapseEnvironment synapseEnvironment, Properties vfsProperties){
 		this.injectingSeq = injectingSeq;
-		this.onErrorSeq = onErrorSeq;
 		this.sequential = sequential;
 		this.synapseEnvironment = synapseEnvironment;
 		this.vfsProperties = vfsProperties;
+		this.injectionPipeline = new InboundInjectionPipeline(injectingSeq, onErrorSeq, synapseEnvironment);
+		// Extract the charset encoding from the configured content type once
+		String contentType = vfsProperties.getProperty(VFSConstants.TRANSPORT_FILE_CONTENT_TYPE);
+		if (contentType != null && !contentType.trim().equals("")) {
+			try {
+				charSetEnc = new ContentType(contentType).getParameter("charset");
+			} catch (ParseException ex) {
+				// ignore
+			}
+		}
 	}	 
 	/**
 	 * Inject the message to the sequence
 	 * */
 	public boolean invoke(Object object, String name)throws SynapseException{
-		
+		return invoke(object, name, transportHeaders);
+	}
+
+	/**
+	 * Inject the message to the sequence with the given transport headers. This can be called by several threads
+	 * concurrently since the headers are not kept in the handler.
+	 * */
+	public boolean invoke(Object object, String name, Map<String, Object> transportHeaders) throws SynapseException {
+
 		ManagedDataSource dataSource = null;;
 		FileObject file = (FileObject)object;
         try {
-            org.apache.synapse.MessageContext msgCtx = createMessageContext();
+            org.apache.synapse.MessageContext msgCtx = createMessageContext(transportHeaders);
             msgCtx.setProperty("inbound.endpoint.name", name);
             InboundEndpoint inboundEndpoint = msgCtx.getConfiguration().getInboundEndpoint(name);
             CustomLogSetter.getInstance().setLogAppender(inboundEndpoint.getArtifactContainerName());
@@ -87,16 +104,7 @@ public class FileInjectHandler {
                     contentType = "text/plain";
                 }
             } else {
-                // Extract the charset encoding from the configured content type and
                 // set the CHARACTER_SET_ENCODING property as e.g. SOAPBuilder relies on this.
-                String charSetEnc = null;
-                try {
-                    if (contentType != null) {
-                        charSetEnc = new ContentType(contentType).getParameter("charset");
-                    }
-                } catch (ParseException ex) {
-                    // ignore
-                }
                 msgCtx.setProperty(Constants.Configuration.CHARACTER_SET_ENCODING, charSetEnc);
             }         	
             if (log.isDebugEnabled()) {
@@ -104,22 +112,7 @@ public class FileInjectHandler {
             }             
     		MessageContext axis2MsgCtx = ((org.apache.synapse.core.axis2.Axis2MessageContext)msgCtx).getAxis2MessageContext();
     		// Determine the message builder to use
-            Builder builder;
-            if (contentType == null) {
-                log.debug("No content type specified. Using SOAP builder.");
-                builder = new SOAPBuilder();
-            } else {
-                int index = contentType.indexOf(';');
-                String type = index > 0 ? contentType.substring(0, index) : contentType;
-                builder = BuilderUtil.getBuilderFromSelector(type, axis2MsgCtx);
-                if (builder == null) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("No message builder found for type '" + type +
-                                "'. Falling back to SOAP.");
-                    }
-                    builder = new SOAPBuilder();
-                }
-            }
+            Builder builder = injectionPipeline.getBuilder(contentType, axis2MsgCtx);
     
             // set the message payload to the message context
             InputStream in;            
@@ -151,15 +144,11 @@ public class FileInjectHandler {
             if (injectingSeq == null || injectingSeq.equals("")) {
                 log.error("Sequence name not specified. Sequence : " + injectingSeq);
             }
-            SequenceMediator seq = (SequenceMediator) synapseEnvironment.getSynapseConfiguration().getSequence(injectingSeq);            
+            SequenceMediator seq = injectionPipeline.getSequence();
             if (seq != null) {                
                 if (log.isDebugEnabled()) {
                     log.debug("injecting message to sequence : " + injectingSeq);
                 }
-                if (!seq.isInitialized()) {
-                    seq.init(synapseEnvironment);
-                }                
-                seq.setErrorHandler(onErrorSeq);
                 if(!synapseEnvironment.injectInbound(msgCtx, seq, sequential)){
                     return false;
                 }
@@ -188,7 +177,7 @@ public class FileInjectHandler {
     /**
      * Create the initial message context for the file
      * */
-    private org.apache.synapse.MessageContext createMessageContext() {
+    private org.apache.synapse.MessageContext createMessageContext(Map<String, Object> transportHeaders) {
         org.apache.synapse.MessageContext msgCtx = synapseEnvironment.createMessageContext();
         MessageContext axis2MsgCtx = ((org.apache.synapse.core.axis2.Axis2MessageContext)msgCtx).getAxis2MessageContext();
         axis2MsgCtx.setServerSide(true);
@@ -37,13 +37,25 @@ import org.apache.synapse.commons.vfs.VFSUtils;
 import org.apache.synapse.core.SynapseEnvironment;
 import org.wso2.carbon.mediation.clustering.ClusteringServiceUtil;
 
+import java.io.File;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -78,6 +90,13 @@ public class FilePollingConsumer {
     private boolean distributedLock;
     private Long distributedLockTimeout;
     private FileSystemOptions fso;
+    private int processingThreads = 1;
+    private int maxInFlightFiles;
+    private ExecutorService workerPool;
+    private Semaphore inFlightFiles;
+    private FileScanIndex scanIndex;
+    private LocalDirectoryWatcher directoryWatcher;
+    private boolean watchUnsupported = false;
     
     public FilePollingConsumer(Properties vfsProperties, String name,
             SynapseEnvironment synapseEnvironment, long scanInterval) {
@@ -104,6 +123,20 @@ public class FilePollingConsumer {
             log.warn("Unable to set the sftp Options", e);
             fso = null;
         }
+        if (processingThreads > 1) {
+            workerPool = Executors.newFixedThreadPool(processingThreads, new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "vfs-inbound-" + FilePollingConsumer.this.name
+                            + "-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            inFlightFiles = new Semaphore(maxInFlightFiles);
+        }
     }
 
     /**
@@ -172,7 +205,7 @@ public class FilePollingConsumer {
             if (fileObject.exists() && fileObject.isReadable()) {
                 FileObject[] children = null;
                 try {
-                    children = fileObject.getChildren();
+                    children = listChildren();
                 } catch (FileNotFolderException ignored) {
                     if (log.isDebugEnabled()) {
                         log.debug("No Folder found. Only file found on : "
@@ -236,6 +269,9 @@ public class FilePollingConsumer {
                             + VFSUtils.maskURLPassword(fileURI), e);
             return null;
         } finally {
+            if (scanIndex != null) {
+                scanIndex.save();
+            }
             try {
                 if (fsManager != null) {
                     fsManager.closeFileSystem(fileObject.getParent().getFileSystem());
@@ -400,7 +436,42 @@ public class FilePollingConsumer {
                 }
             }
 
-        }        
+        }
+        if (vfsProperties.getProperty(InboundFileConstants.PROCESSING_THREADS) != null) {
+            try {
+                processingThreads = Integer.parseInt(vfsProperties
+                        .getProperty(InboundFileConstants.PROCESSING_THREADS));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid param value for transport.vfs.ProcessingThreads : "
+                        + vfsProperties.getProperty(InboundFileConstants.PROCESSING_THREADS)
+                        + ". Expected numeric value.");
+                processingThreads = 1;
+            }
+        }
+        if (Boolean.parseBoolean(vfsProperties.getProperty(InboundFileConstants.INCREMENTAL_SCAN))) {
+            String strIndexFile = vfsProperties.getProperty(InboundFileConstants.SCAN_INDEX_FILE);
+            File indexFile;
+            if (strIndexFile != null && !strIndexFile.trim().equals("")) {
+                indexFile = new File(strIndexFile.trim());
+            } else {
+                indexFile = new File(System.getProperty("java.io.tmpdir"), "vfs-inbound-" + name + ".index");
+            }
+            scanIndex = new FileScanIndex(indexFile);
+        }
+        maxInFlightFiles = processingThreads * 2;
+        if (vfsProperties.getProperty(InboundFileConstants.MAX_IN_FLIGHT_FILES) != null) {
+            try {
+                maxInFlightFiles = Integer.parseInt(vfsProperties
+                        .getProperty(InboundFileConstants.MAX_IN_FLIGHT_FILES));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid param value for transport.vfs.MaxInFlightFiles : "
+                        + vfsProperties.getProperty(InboundFileConstants.MAX_IN_FLIGHT_FILES)
+                        + ". Expected numeric value.");
+            }
+            if (maxInFlightFiles < 1) {
+                maxInFlightFiles = processingThreads * 2;
+            }
+        }
         distributedLock = false;
         distributedLockTimeout = null;
         String strDistributedLock = vfsProperties
@@ -483,7 +554,8 @@ public class FilePollingConsumer {
 
         // Sort the files
         String strSortParam = vfsProperties.getProperty(VFSConstants.FILE_SORT_PARAM);
-        if (strSortParam != null && !"NONE".equals(strSortParam)) {
+        boolean sorted = strSortParam != null && !"NONE".equals(strSortParam);
+        if (sorted) {
             log.debug("Start Sorting the files.");
             String strSortOrder = vfsProperties.getProperty(VFSConstants.FILE_SORT_ORDER);
             boolean bSortOrderAsscending = true;
@@ -514,6 +586,11 @@ public class FilePollingConsumer {
             }
             log.debug("End Sorting the files.");
         }      
+
+        // the order of the files is preserved only when they are sorted
+        if (workerPool != null && injectHandler != null && !sorted) {
+            return parallelDirectoryHandler(children);
+        }
         
         for (FileObject child : children) {
             // skipping *.lock / *.fail file
@@ -535,6 +612,7 @@ public class FilePollingConsumer {
                 if ((!fileLock || (fileLock && acquireLock(fsManager, child)))) {
                     // process the file
                     boolean runPostProcess = true;
+                    boolean processingFailed = false;
                     try {
                         if (log.isDebugEnabled()) {
                             log.debug("Processing file :" + VFSUtils.maskURLPassword(child.toString()));
@@ -557,6 +635,7 @@ public class FilePollingConsumer {
                             log.error("Error processing File URI : " +
                                       VFSUtils.maskURLPassword(child.getName().toString()), e);
                             failCount++;
+                            processingFailed = true;
                             // tell moveOrDeleteAfterProcessing() file failed
                             lastCycle = 2;
                         }
@@ -584,19 +663,27 @@ public class FilePollingConsumer {
                         // TODO: passing null to avoid build break. Fix properly
                         VFSUtils.releaseLock(fsManager, child, fso);
                     }
+                    // a failed file is left pending, so that it is retried if it was not moved away
+                    if (runPostProcess && !skipUnlock && !processingFailed) {
+                        recordScanned(child);
+                    }
                     if (injectHandler == null) {
                         return child;
                     }
                 }
-            } else if (log.isDebugEnabled() && strFilePattern != null
+            } else if (strFilePattern != null
                     && !child.getName().getBaseName().matches(strFilePattern) && !isFailedRecord) {
+                recordScanned(child);
                 // child's file name does not match the file name pattern
-                log.debug("Non-Matching file : " + child.getName().getBaseName());
+                if (log.isDebugEnabled()) {
+                    log.debug("Non-Matching file : " + child.getName().getBaseName());
+                }
             } else if (isFailedRecord) {
                 // it is a failed record
                 try {
                     lastCycle = 1;
                     moveOrDeleteAfterProcessing(child);
+                    recordScanned(child);
                 } catch (SynapseException synapseException) {
                     log.error("File object '" + VFSUtils.maskURLPassword(child.getURL().toString())
                             + "'cloud not be moved, will remain in \"fail\" state", synapseException);
@@ -641,6 +728,265 @@ public class FilePollingConsumer {
         return null;
     }
 
+    /**
+     * Handle directory with child elements using the worker threads. The files are listed and locked on the polling
+     * thread and then injected and post processed by the worker threads, with at most maxInFlightFiles locked files
+     * waiting for or being processed by the workers. The cycle completes when all the files handed over are
+     * processed, since the file system is closed at the end of the poll.
+     *
+     * @param children
+     * @return
+     * @throws FileSystemException
+     */
+    private FileObject parallelDirectoryHandler(FileObject[] children) throws FileSystemException {
+        AtomicInteger failCount = new AtomicInteger();
+        AtomicInteger successCount = new AtomicInteger();
+        int processCount = 0;
+
+        try {
+            for (FileObject child : children) {
+                // skipping *.lock / *.fail file
+                if (child.getName().getBaseName().endsWith(".lock")
+                        || child.getName().getBaseName().endsWith(".fail")) {
+                    continue;
+                }
+                boolean isFailedRecord = VFSUtils.isFailRecord(fsManager, child);
+
+                if ((strFilePattern == null || child.getName().getBaseName().matches(strFilePattern))
+                        && !isFailedRecord) {
+
+                    if (log.isDebugEnabled()) {
+                        log.debug("Matching file : " + child.getName().getBaseName());
+                    }
+
+                    if (!fileLock || acquireLock(fsManager, child)) {
+                        try {
+                            inFlightFiles.acquire();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            if (fileLock) {
+                                VFSUtils.releaseLock(fsManager, child, fso);
+                            }
+                            break;
+                        }
+                        processCount++;
+                        try {
+                            workerPool.execute(new FileProcessingTask(child, successCount, failCount));
+                        } catch (RejectedExecutionException e) {
+                            inFlightFiles.release();
+                            log.error("Unable to hand over the file : " +
+                                      VFSUtils.maskURLPassword(child.getName().toString()) + " to a worker", e);
+                            if (fileLock) {
+                                VFSUtils.releaseLock(fsManager, child, fso);
+                            }
+                            break;
+                        }
+                    }
+                } else if (strFilePattern != null
+                        && !child.getName().getBaseName().matches(strFilePattern) && !isFailedRecord) {
+                    recordScanned(child);
+                    // child's file name does not match the file name pattern
+                    if (log.isDebugEnabled()) {
+                        log.debug("Non-Matching file : " + child.getName().getBaseName());
+                    }
+                } else if (isFailedRecord) {
+                    // it is a failed record
+                    try {
+                        moveOrDeleteAfterProcessing(child, 1);
+                        recordScanned(child);
+                    } catch (SynapseException synapseException) {
+                        log.error("File object '" + VFSUtils.maskURLPassword(child.getURL().toString())
+                                + "'cloud not be moved, will remain in \"fail\" state", synapseException);
+                    }
+                    if (fileLock) {
+                        VFSUtils.releaseLock(fsManager, child, fso);
+                    }
+                    try {
+                        child.close();
+                    } catch (Exception e) {}
+                }
+
+                // Manage throttling of file processing
+                if (iFileProcessingInterval != null && iFileProcessingInterval > 0) {
+                    try {
+                        Thread.sleep(iFileProcessingInterval);
+                    } catch (InterruptedException ie) {
+                        log.error("Unable to set the interval between file processors." + ie);
+                    }
+                } else if (iFileProcessingCount != null && iFileProcessingCount <= processCount) {
+                    break;
+                }
+            }
+        } finally {
+            // wait until the workers complete the files of this cycle
+            inFlightFiles.acquireUninterruptibly(maxInFlightFiles);
+            inFlightFiles.release(maxInFlightFiles);
+        }
+        if (failCount.get() == 0 && successCount.get() > 0) {
+            lastCycle = 1;
+        } else if (successCount.get() == 0 && failCount.get() > 0) {
+            lastCycle = 4;
+        } else {
+            lastCycle = 5;
+        }
+        return null;
+    }
+
+    /**
+     * Injects and post processes a locked file on a worker thread, and releases the lock
+     */
+    private class FileProcessingTask implements Runnable {
+        private final FileObject child;
+        private final AtomicInteger successCount;
+        private final AtomicInteger failCount;
+
+        FileProcessingTask(FileObject child, AtomicInteger successCount, AtomicInteger failCount) {
+            this.child = child;
+            this.successCount = successCount;
+            this.failCount = failCount;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean runPostProcess = true;
+                int cycle = 1;
+                try {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Processing file :" + VFSUtils.maskURLPassword(child.toString()));
+                    }
+                    if (processFile(child) == null) {
+                        runPostProcess = false;
+                    } else {
+                        successCount.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    if (e.getCause() instanceof FileNotFoundException) {
+                        log.warn("Error processing File URI : " +
+                                 VFSUtils.maskURLPassword(child.getName().toString()) +
+                                 ". This can be due to file moved from another process.");
+                        runPostProcess = false;
+                    } else {
+                        log.error("Error processing File URI : " +
+                                  VFSUtils.maskURLPassword(child.getName().toString()), e);
+                        failCount.incrementAndGet();
+                        cycle = 2;
+                    }
+                }
+                boolean skipUnlock = false;
+                if (runPostProcess) {
+                    try {
+                        moveOrDeleteAfterProcessing(child, cycle);
+                    } catch (SynapseException synapseException) {
+                        log.error("File object '" + VFSUtils.maskURLPassword(child.getName().toString())
+                                + "'cloud not be moved, will remain in \"locked\" state", synapseException);
+                        skipUnlock = true;
+                        failCount.incrementAndGet();
+                        VFSUtils.markFailRecord(fsManager, child);
+                    }
+                }
+                if (fileLock && !skipUnlock) {
+                    VFSUtils.releaseLock(fsManager, child, fso);
+                }
+                // a failed file is left pending, so that it is retried if it was not moved away
+                if (runPostProcess && !skipUnlock && cycle == 1) {
+                    recordScanned(child);
+                }
+                try {
+                    child.close();
+                } catch (Exception e) {}
+            } catch (Exception e) {
+                log.error("Error while processing the file : "
+                        + VFSUtils.maskURLPassword(child.getName().toString()), e);
+            } finally {
+                inFlightFiles.release();
+            }
+        }
+    }
+
+    /**
+     * List the children of the directory. In the incremental scan mode only the new or changed files are given, and
+     * a local directory is listed only when the changes are not known from the directory watcher.
+     *
+     * @return
+     * @throws FileSystemException
+     */
+    private FileObject[] listChildren() throws FileSystemException {
+        if (scanIndex == null) {
+            return fileObject.getChildren();
+        }
+        if (directoryWatcher != null && !directoryWatcher.isValid()) {
+            directoryWatcher.close();
+            directoryWatcher = null;
+        }
+        if (directoryWatcher == null && !watchUnsupported) {
+            initDirectoryWatcher();
+        }
+        List<FileObject> changed = new ArrayList<FileObject>();
+        if (directoryWatcher != null) {
+            Set<String> names = directoryWatcher.pollChanges();
+            for (String deleted : directoryWatcher.pollDeleted()) {
+                scanIndex.remove(deleted);
+            }
+            if (!directoryWatcher.isFullScanRequired()) {
+                names.addAll(scanIndex.getPending());
+                for (String childName : names) {
+                    if (childName.endsWith(".lock") || childName.endsWith(".fail")) {
+                        continue;
+                    }
+                    FileObject child = fileObject.resolveFile(childName);
+                    if (!child.exists()) {
+                        scanIndex.remove(childName);
+                    } else if (scanIndex.isChanged(child)) {
+                        changed.add(child);
+                    }
+                }
+                return changed.toArray(new FileObject[changed.size()]);
+            }
+            // the changes after this point are given by the watcher in the next cycle
+            directoryWatcher.fullScanCompleted();
+        }
+        FileObject[] children = fileObject.getChildren();
+        Set<String> names = new HashSet<String>();
+        for (FileObject child : children) {
+            String childName = child.getName().getBaseName();
+            names.add(childName);
+            if (!childName.endsWith(".lock") && !childName.endsWith(".fail") && scanIndex.isChanged(child)) {
+                changed.add(child);
+            }
+        }
+        scanIndex.retain(names);
+        if (log.isDebugEnabled()) {
+            log.debug("Listed " + children.length + " files of which " + changed.size() + " are new or changed : "
+                    + VFSUtils.maskURLPassword(fileURI));
+        }
+        return changed.toArray(new FileObject[changed.size()]);
+    }
+
+    private void initDirectoryWatcher() {
+        if (!"file".equals(fileObject.getName().getScheme())) {
+            // remote directories are listed and filtered by the index
+            watchUnsupported = true;
+            return;
+        }
+        try {
+            if (fileObject.getType() != FileType.FOLDER) {
+                return;
+            }
+            directoryWatcher = new LocalDirectoryWatcher(Paths.get(fileObject.getURL().toURI()));
+        } catch (Exception e) {
+            log.warn("Unable to watch the directory : " + VFSUtils.maskURLPassword(fileURI)
+                    + ". The directory will be listed in every cycle.", e);
+            watchUnsupported = true;
+        }
+    }
+
+    private void recordScanned(FileObject child) {
+        if (scanIndex != null) {
+            scanIndex.record(child);
+        }
+    }
+
     /**
      * Check if the file/folder exists before proceeding and retrying
      */
@@ -758,9 +1104,8 @@ public class FilePollingConsumer {
                     log.warn("Unable to set file length or last modified date header.", e);
                 }
 
-                injectHandler.setTransportHeaders(transportHeaders);
                 // injectHandler
-                if (!injectHandler.invoke(file, name)) {
+                if (!injectHandler.invoke(file, name, transportHeaders)) {
                     return null;
                 }
             }
@@ -778,10 +1123,21 @@ public class FilePollingConsumer {
      * @throws synapseException
      */
     private void moveOrDeleteAfterProcessing(FileObject fileObject) throws SynapseException {
+        moveOrDeleteAfterProcessing(fileObject, lastCycle);
+    }
+
+    /**
+     * Do the post processing actions for the given processing result
+     * 
+     * @param fileObject
+     * @param cycle 1 if the file was processed successfully, 2 if the processing failed
+     * @throws synapseException
+     */
+    private void moveOrDeleteAfterProcessing(FileObject fileObject, int cycle) throws SynapseException {
 
         String moveToDirectoryURI = null;
         try {
-            switch (lastCycle) {
+            switch (cycle) {
             case 1:
                 if ("MOVE".equals(vfsProperties
                         .getProperty(VFSConstants.TRANSPORT_FILE_ACTION_AFTER_PROCESS))) {
@@ -954,5 +1310,20 @@ public class FilePollingConsumer {
     protected Properties getInboundProperties() {
         return vfsProperties;
     }
+
+    /**
+     * Stop the worker threads of the parallel file processing
+     */
+    public void destroy() {
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
+        if (directoryWatcher != null) {
+            directoryWatcher.close();
+        }
+        if (scanIndex != null) {
+            scanIndex.save();
+        }
+    }
     
 }
@@ -0,0 +1,227 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.file;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the files of a directory which were already handled by the inbound file endpoint, kept as (name, size,
+ * last modified time) tuples and persisted to a file so that it survives restarts. A file is handled again only if
+ * it is not in the index or its size or last modified time has changed.
+ *
+ * Files which were listed but not recorded, e.g. because they could not be locked or their processing failed, are
+ * kept as pending so that they are retried in the next cycle even when the directory is not listed again. Hence a
+ * file is recorded only after it was processed successfully.
+ */
+public class FileScanIndex {
+
+    private static final Log log = LogFactory.getLog(FileScanIndex.class);
+
+    private static final int VERSION = 1;
+
+    private final File indexFile;
+    private final Map<String, long[]> entries = new HashMap<String, long[]>();
+    private final Set<String> pending = new HashSet<String>();
+    private boolean dirty = false;
+
+    public FileScanIndex(File indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    /**
+     * Whether the file is not in the index or has changed since it was recorded. The file is kept as pending until
+     * it is recorded.
+     *
+     * @param file file of the directory
+     * @return true if the file should be handled
+     */
+    public synchronized boolean isChanged(FileObject file) {
+        String name = file.getName().getBaseName();
+        long[] entry = entries.get(name);
+        if (entry != null) {
+            try {
+                FileContent content = file.getContent();
+                if (entry[0] == content.getSize() && entry[1] == content.getLastModifiedTime()) {
+                    return false;
+                }
+            } catch (FileSystemException e) {
+                log.warn("Unable to read the size or last modified time of the file : " + name, e);
+            }
+        }
+        pending.add(name);
+        return true;
+    }
+
+    /**
+     * Records the file as handled. A file which was moved or deleted after processing is removed from the index.
+     *
+     * @param file file of the directory
+     */
+    public synchronized void record(FileObject file) {
+        String name = file.getName().getBaseName();
+        pending.remove(name);
+        try {
+            if (!file.exists()) {
+                if (entries.remove(name) != null) {
+                    dirty = true;
+                }
+                return;
+            }
+            FileContent content = file.getContent();
+            entries.put(name, new long[]{content.getSize(), content.getLastModifiedTime()});
+            dirty = true;
+        } catch (FileSystemException e) {
+            // the file was moved or deleted after processing
+            if (entries.remove(name) != null) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Removes the file from the index.
+     *
+     * @param name base name of the file
+     */
+    public synchronized void remove(String name) {
+        pending.remove(name);
+        if (entries.remove(name) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Removes the files which are not in the directory any more.
+     *
+     * @param names base names of the files in the directory
+     */
+    public synchronized void retain(Collection<String> names) {
+        Iterator<String> itr = entries.keySet().iterator();
+        while (itr.hasNext()) {
+            if (!names.contains(itr.next())) {
+                itr.remove();
+                dirty = true;
+            }
+        }
+        pending.retainAll(names);
+    }
+
+    /**
+     * This method gives the files which were listed but not recorded yet.
+     *
+     * @return base names of the pending files
+     */
+    public synchronized Set<String> getPending() {
+        return new HashSet<String>(pending);
+    }
+
+    /**
+     * Writes the index to the index file if it has changed.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            log.warn("Unable to create the directory of the scan index : " + indexFile);
+            return;
+        }
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+            out.close();
+            out = null;
+            if (indexFile.exists() && !indexFile.delete()) {
+                log.warn("Unable to replace the scan index : " + indexFile);
+                return;
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                log.warn("Unable to replace the scan index : " + indexFile);
+                return;
+            }
+            dirty = false;
+        } catch (IOException e) {
+            log.warn("Unable to write the scan index : " + indexFile, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != VERSION) {
+                log.warn("Ignoring the scan index of an unknown version : " + indexFile);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String name = in.readUTF();
+                entries.put(name, new long[]{in.readLong(), in.readLong()});
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the scan index : " + indexFile + ". All the files will be scanned.", e);
+            entries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.file;
+
+/**
+ * Parameters of the inbound file endpoint which are not shared with the synapse VFS transport.
+ */
+public class InboundFileConstants {
+
+    /**
+     * Defines the number of worker threads which inject and post process the files of a directory concurrently.
+     * Files are processed on the polling thread when this is not greater than 1.
+     */
+    public static final String PROCESSING_THREADS = "transport.vfs.ProcessingThreads";
+
+    /**
+     * Defines the maximum number of locked files handed over to the worker threads and not yet processed.
+     */
+    public static final String MAX_IN_FLIGHT_FILES = "transport.vfs.MaxInFlightFiles";
+
+    /**
+     * Defines whether only the new or changed files of a directory are handled. The handled files are kept in an
+     * index, and local directories are watched for changes instead of being listed in every cycle.
+     */
+    public static final String INCREMENTAL_SCAN = "transport.vfs.IncrementalScan";
+
+    /**
+     * Defines the file the index of the handled files is persisted to. Defaults to a file named after the inbound
+     * endpoint in the temporary directory.
+     */
+    public static final String SCAN_INDEX_FILE = "transport.vfs.ScanIndexFile";
+}
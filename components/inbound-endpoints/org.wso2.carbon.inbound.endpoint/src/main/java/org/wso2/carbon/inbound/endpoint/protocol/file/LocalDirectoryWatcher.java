@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.file;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Watches a directory of the local file system for created, modified and deleted files, so that the inbound file
+ * endpoint does not need to list the whole directory in every cycle. A full listing is requested when the watch
+ * service overflows, i.e. when events were lost.
+ */
+public class LocalDirectoryWatcher {
+
+    private static final Log log = LogFactory.getLog(LocalDirectoryWatcher.class);
+
+    private final WatchService watchService;
+    private final WatchKey watchKey;
+    private final Set<String> deleted = new HashSet<String>();
+    private boolean fullScanRequired = true;
+
+    public LocalDirectoryWatcher(Path directory) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * Gives the files created or modified since the last call. Deleted files are collected separately.
+     *
+     * @return base names of the changed files
+     */
+    public Set<String> pollChanges() {
+        Set<String> changed = new HashSet<String>();
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                fullScanRequired = true;
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed.remove(name);
+                deleted.add(name);
+            } else {
+                deleted.remove(name);
+                changed.add(name);
+            }
+        }
+        if (!watchKey.reset()) {
+            log.warn("Watch on the directory is no longer valid, the directory will be listed.");
+            fullScanRequired = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Gives and clears the files deleted since the last call.
+     *
+     * @return base names of the deleted files
+     */
+    public Set<String> pollDeleted() {
+        Set<String> names = new HashSet<String>(deleted);
+        deleted.clear();
+        return names;
+    }
+
+    /**
+     * Whether the directory has to be listed since the changes are not known, i.e. before the first listing and
+     * after events were lost.
+     */
+    public boolean isFullScanRequired() {
+        return fullScanRequired;
+    }
+
+    /**
+     * Marks the directory as listed.
+     */
+    public void fullScanCompleted() {
+        fullScanRequired = false;
+    }
+
+    public boolean isValid() {
+        return watchKey.isValid();
+    }
+
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Unable to close the directory watch service.", e);
+        }
+    }
+}
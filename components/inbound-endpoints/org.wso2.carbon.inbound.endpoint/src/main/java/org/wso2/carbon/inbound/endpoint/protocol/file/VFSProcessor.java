@@ -85,6 +85,17 @@ public class VFSProcessor extends InboundRequestProcessorImpl implements TaskSta
         start(task, ENDPOINT_POSTFIX);
     }
 
+    /**
+     * Stop the inbound polling processor This will be called when inbound is
+     * undeployed/redeployed or when server stop
+     */
+    public void destroy() {
+        if (fileScanner != null) {
+            fileScanner.destroy();
+        }
+        super.destroy();
+    }
+
     public String getName() {
         return name;
     }
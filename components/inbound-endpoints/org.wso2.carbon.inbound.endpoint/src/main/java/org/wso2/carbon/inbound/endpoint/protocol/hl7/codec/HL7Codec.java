@@ -19,8 +19,10 @@ package org.wso2.carbon.inbound.endpoint.protocol.hl7.codec;
  */
 
 import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.business.messaging.hl7.common.HL7PositionalXML;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.context.MLLPContext;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.core.MLLPConstants;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.core.MLLProtocolException;
@@ -91,7 +93,11 @@ public class HL7Codec {
         if (this.state == READ_TRAILER) {
             this.state = READ_COMPLETE;
             try {
-                if (context.isPreProcess()) {
+                if (context.isStreamingParser()) {
+                    // HAPI parses only the MSH segment, when it is needed to generate the ACK
+                    String rawMessage = context.getRequestBuffer().toString();
+                    context.setStreamedMessage(rawMessage, HL7PositionalXML.parse(rawMessage));
+                } else if (context.isPreProcess()) {
                     context.setHl7Message(HL7MessageUtils.parse(context.getRequestBuffer().toString(),
                             context.getPreProcessParser()));
                 } else {
@@ -128,11 +134,17 @@ public class HL7Codec {
 
         if (this.state == READ_COMPLETE) {
 
-            if ((context.isAutoAck() || context.isApplicationAck()) && !context.isNackMode()) {
-                responseBytes = context.getHl7Message().generateACK().encode().getBytes(charsetDecoder.charset());
+            Message hl7Message = context.getHl7Message();
+            if (hl7Message == null) {
+                // a message parsed by the streaming parser which HAPI could not parse
+                hl7Message = HL7MessageUtils.createDefaultNack("Error while parsing request message");
+                responseBytes = hl7Message.encode().getBytes(charsetDecoder.charset());
+                context.setApplicationAck(false);
+            } else if ((context.isAutoAck() || context.isApplicationAck()) && !context.isNackMode()) {
+                responseBytes = hl7Message.generateACK().encode().getBytes(charsetDecoder.charset());
                 context.setApplicationAck(false);
             } else {
-                responseBytes = context.getHl7Message().encode().getBytes(charsetDecoder.charset());
+                responseBytes = hl7Message.encode().getBytes(charsetDecoder.charset());
             }
 
             this.state = WRITE_HEADER;
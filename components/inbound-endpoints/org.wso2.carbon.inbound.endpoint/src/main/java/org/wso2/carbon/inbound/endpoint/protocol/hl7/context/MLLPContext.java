@@ -18,8 +18,10 @@ package org.wso2.carbon.inbound.endpoint.protocol.hl7.context;
  * under the License.
  */
 
+import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.parser.Parser;
+import org.apache.axiom.om.OMElement;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.nio.reactor.EventMask;
@@ -27,6 +29,7 @@ import org.apache.http.nio.reactor.IOSession;
 import org.apache.synapse.transport.passthru.util.BufferFactory;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.codec.HL7Codec;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.core.MLLPConstants;
+import org.wso2.carbon.inbound.endpoint.protocol.hl7.util.HL7MessageUtils;
 
 import java.nio.charset.CharsetDecoder;
 
@@ -37,6 +40,10 @@ public class MLLPContext {
     private StringBuffer requestBuffer;
     private StringBuffer responseBuffer;
     private Message hl7Message;
+    // raw message and its XML when the message is parsed by the streaming parser
+    private String rawMessage;
+    private OMElement messageElement;
+    private boolean streamingParser = false;
     private volatile HL7Codec codec;
     private long requestTime;
     private int expiry;
@@ -88,12 +95,53 @@ public class MLLPContext {
         return responseBuffer;
     }
 
-    public Message getHl7Message() {
+    /**
+     * Gives the HL7 message. Of a message parsed by the streaming parser HAPI parses only the MSH segment, when this
+     * is first called, which is enough to generate the ACK or NACK.
+     */
+    public synchronized Message getHl7Message() {
+        if (this.hl7Message == null && this.rawMessage != null) {
+            try {
+                this.hl7Message = HL7MessageUtils.parseHeader(rawMessage);
+            } catch (HL7Exception e) {
+                log.error("Error while parsing request message: " + rawMessage, e);
+            }
+            this.rawMessage = null;
+        }
         return this.hl7Message;
     }
 
-    public void setHl7Message(Message hl7Message) {
+    public synchronized void setHl7Message(Message hl7Message) {
         this.hl7Message = hl7Message;
+        this.rawMessage = null;
+    }
+
+    /**
+     * Sets a request message parsed by the streaming parser
+     *
+     * @param rawMessage     ER7 message
+     * @param messageElement XML of the message
+     */
+    public synchronized void setStreamedMessage(String rawMessage, OMElement messageElement) {
+        this.hl7Message = null;
+        this.rawMessage = rawMessage;
+        this.messageElement = messageElement;
+    }
+
+    public synchronized OMElement getMessageElement() {
+        return messageElement;
+    }
+
+    /**
+     * Whether the request messages are parsed by the streaming parser, which is used only if the messages are
+     * neither validated nor pre processed
+     */
+    public boolean isStreamingParser() {
+        return streamingParser && !validateMessage && !preProcess;
+    }
+
+    public void setStreamingParser(boolean streamingParser) {
+        this.streamingParser = streamingParser;
     }
 
     public void requestOutput() {
@@ -194,6 +242,9 @@ public class MLLPContext {
         // Resets MLLP Context and HL7Codec to default states.
         this.responseBuffer.setLength(0);
         this.requestBuffer.setLength(0);
+        synchronized (this) {
+            this.messageElement = null;
+        }
         this.getCodec().setState(HL7Codec.READ_HEADER);
         this.setNackMode(false);
     }
@@ -39,7 +39,10 @@ public class MLLPContextFactory {
         Parser preParser = (Parser) processor.getInboundParameterMap().get(MLLPConstants.HL7_PRE_PROC_PARSER_CLASS);
         BufferFactory bufferFactory = (BufferFactory) processor.getInboundParameterMap().get(MLLPConstants.INBOUND_HL7_BUFFER_FACTORY);
 
-        return new MLLPContext(session, decoder, autoAck, validate, preParser, bufferFactory);
+        MLLPContext mllpContext = new MLLPContext(session, decoder, autoAck, validate, preParser, bufferFactory);
+        mllpContext.setStreamingParser(Boolean.valueOf(inboundParams.getProperties()
+                .getProperty(MLLPConstants.PARAM_HL7_STREAMING_PARSER)));
+        return mllpContext;
     }
 
 }
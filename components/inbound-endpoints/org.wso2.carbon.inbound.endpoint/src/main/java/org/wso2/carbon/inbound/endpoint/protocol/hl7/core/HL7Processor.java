@@ -20,7 +20,9 @@ import org.wso2.carbon.inbound.endpoint.protocol.hl7.util.HL7MessageUtils;
 import java.nio.charset.CharsetDecoder;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -44,6 +46,7 @@ public class HL7Processor implements InboundResponseSender {
     private static final Log log = LogFactory.getLog(HL7Processor.class);
 
     private ScheduledExecutorService executorService = HL7ExecutorServiceFactory.getExecutorService();
+    private ThreadPoolExecutor workerPool;
 
     private Map<String, Object> parameters;
     private InboundProcessorParams params;
@@ -66,6 +69,10 @@ public class HL7Processor implements InboundResponseSender {
 
         timeOut = HL7MessageUtils.getInt(MLLPConstants.PARAM_HL7_TIMEOUT, params);
 
+        workerPool = HL7ExecutorServiceFactory.createWorkerPool(params.getName(),
+                HL7MessageUtils.getInt(MLLPConstants.PARAM_HL7_WORKER_THREADS, params),
+                HL7MessageUtils.getInt(MLLPConstants.PARAM_HL7_WORKER_QUEUE_SIZE, params));
+
     }
 
     /**
@@ -79,7 +86,11 @@ public class HL7Processor implements InboundResponseSender {
         // Prepare Synapse Context for message injection
         MessageContext synCtx;
         try {
-            synCtx = HL7MessageUtils.createSynapseMessageContext(mllpContext.getHl7Message(), params);
+            if (mllpContext.getMessageElement() != null) {
+                synCtx = HL7MessageUtils.createSynapseMessageContext(mllpContext.getMessageElement(), params);
+            } else {
+                synCtx = HL7MessageUtils.createSynapseMessageContext(mllpContext.getHl7Message(), params);
+            }
         } catch (HL7Exception e) {
             handleException(mllpContext, e.getMessage());
             return;
@@ -113,14 +124,19 @@ public class HL7Processor implements InboundResponseSender {
         }
         injectSeq.setErrorHandler(onErrorSequence);
 
+        CallableTask task = new CallableTask(synCtx, injectSeq);
+
+        try {
+            workerPool.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejectRequest(mllpContext);
+            return;
+        }
+
         if (!autoAck && timeOut > 0) {
             executorService.schedule(new TimeoutHandler(mllpContext, synCtx.getMessageID()), timeOut, TimeUnit.MILLISECONDS);
         }
 
-        CallableTask task = new CallableTask(synCtx, injectSeq);
-
-        executorService.submit(task);
-
     }
 
     public void processError(final MLLPContext mllpContext, final Exception ex) {
@@ -168,13 +184,18 @@ public class HL7Processor implements InboundResponseSender {
             injectSeq.init(synCtx.getEnvironment());
         }
 
+        CallableTask task = new CallableTask(synCtx, injectSeq);
+
+        try {
+            workerPool.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejectRequest(mllpContext);
+            return;
+        }
+
         if (!autoAck && timeOut > 0) {
             executorService.schedule(new TimeoutHandler(mllpContext, synCtx.getMessageID()), timeOut, TimeUnit.MILLISECONDS);
         }
-
-        CallableTask task = new CallableTask(synCtx, injectSeq);
-
-        executorService.submit(task);
     }
 
     /**
@@ -186,6 +207,8 @@ public class HL7Processor implements InboundResponseSender {
         org.apache.axis2.context.MessageContext axis2MsgCtx =
                 ((org.apache.synapse.core.axis2.Axis2MessageContext) synCtx).getAxis2MessageContext();
 
+        // of a message parsed by the streaming parser this holds only the MSH segment, which the formatter needs to
+        // create a NACK with the control ID of the request
         axis2MsgCtx.setProperty(Axis2HL7Constants.HL7_MESSAGE_OBJECT, context.getHl7Message());
 
         if (params.getProperties().getProperty(MLLPConstants.PARAM_HL7_BUILD_RAW_MESSAGE) != null) {
@@ -257,6 +280,28 @@ public class HL7Processor implements InboundResponseSender {
         return autoAck;
     }
 
+    /**
+     * Stops the workers once the messages they hold are mediated
+     */
+    public void destroy() {
+        workerPool.shutdown();
+    }
+
+    /**
+     * NACK a message which the worker pool rejected since its queue is full
+     */
+    private void rejectRequest(MLLPContext mllpContext) {
+        log.warn("Worker queue of the HL7 inbound endpoint " + params.getName() + " is full. Rejecting message.");
+        try {
+            mllpContext.setNackMode(true);
+            mllpContext.setHl7Message(HL7MessageUtils.createNack(mllpContext.getHl7Message(),
+                    "HL7 inbound endpoint is overloaded."));
+            mllpContext.requestOutput();
+        } catch (HL7Exception e) {
+            log.error("Error while generating NACK response.", e);
+        }
+    }
+
     private void handleException(MLLPContext mllpContext, String msg) {
         if (mllpContext.isAutoAck()) {
             try {
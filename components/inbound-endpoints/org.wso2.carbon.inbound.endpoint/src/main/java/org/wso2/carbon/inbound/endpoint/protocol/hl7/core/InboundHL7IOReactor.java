@@ -33,63 +33,93 @@ import java.net.ServerSocket;
 import java.net.SocketAddress;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * IO reactors of the HL7 inbound endpoints. The endpoints are spread over reactor_count reactors, each bound
+ * endpoint going to the reactor which serves the fewest endpoints, so that the connections of a busy endpoint
+ * share the IO threads with fewer other endpoints.
+ */
 public class InboundHL7IOReactor {
 
     private static final Log log = LogFactory.getLog(InboundHL7IOReactor.class);
 
-    private static ListeningIOReactor reactor;
+    private static volatile ReactorShard[] shards;
 
     private static ConcurrentHashMap<Integer, ListenerEndpoint> endpointMap = new ConcurrentHashMap<Integer, ListenerEndpoint>();
 
     private static ConcurrentHashMap<Integer, HL7Processor> processorMap = new ConcurrentHashMap<Integer, HL7Processor>();
 
-    private static MultiIOHandler multiIOHandler;
+    private static ConcurrentHashMap<Integer, ReactorShard> shardMap = new ConcurrentHashMap<Integer, ReactorShard>();
 
     private static volatile boolean isStarted = false;
 
-    public static void start() throws IOException {
+    public static synchronized void start() throws IOException {
 
-        if (reactor != null && reactor.getStatus().equals(IOReactorStatus.ACTIVE)) {
+        if (shards != null && shards[0].reactor.getStatus().equals(IOReactorStatus.ACTIVE)) {
             return;
         }
 
-        IOReactorConfig config = getDefaultReactorConfig();
-
-        reactor = new DefaultListeningIOReactor(config);
+        int reactorCount = Math.max(1, HL7Configuration.getInstance().getIntProperty(
+                MLLPConstants.TCPConstants.REACTOR_COUNT, MLLPConstants.TCPConstants.REACTOR_COUNT_DEFAULT));
+        int ioThreadCount = HL7Configuration.getInstance().getIntProperty(
+                MLLPConstants.TCPConstants.IO_THREAD_COUNT, Runtime.getRuntime().availableProcessors());
+        IOReactorConfig config = getDefaultReactorConfig(Math.max(1, ioThreadCount / reactorCount));
 
-        Thread reactorThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    isStarted = true;
-                    multiIOHandler = new MultiIOHandler(processorMap);
-                    log.info("MLLP Transport IO Reactor Started");
-                    reactor.execute(multiIOHandler);
-                } catch (IOException e) {
-                    isStarted = false;
-                    log.error("Error while starting the MLLP Transport IO Reactor.", e);
+        ReactorShard[] newShards = new ReactorShard[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            newShards[i] = new ReactorShard(i, new DefaultListeningIOReactor(config),
+                    new MultiIOHandler(processorMap));
+        }
+        shards = newShards;
+        isStarted = true;
+
+        for (final ReactorShard shard : newShards) {
+            Thread reactorThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        log.info("MLLP Transport IO Reactor " + shard.id + " Started");
+                        shard.reactor.execute(shard.multiIOHandler);
+                    } catch (IOException e) {
+                        isStarted = false;
+                        log.error("Error while starting the MLLP Transport IO Reactor.", e);
+                    }
                 }
-            }
-        });
+            }, "HL7-reactor-" + shard.id);
 
-        reactorThread.start();
+            reactorThread.start();
+        }
     }
 
-    public static void stop() {
-        try {
-            reactor.shutdown();
-            endpointMap.clear();
-            isStarted = false;
-        } catch (IOException e) {
-            log.error("Error while shutting down MLLP Transport IO Reactor. ", e);
+    public static synchronized void stop() {
+        if (shards == null) {
+            return;
         }
+        for (ReactorShard shard : shards) {
+            try {
+                shard.reactor.shutdown();
+            } catch (IOException e) {
+                log.error("Error while shutting down MLLP Transport IO Reactor. ", e);
+            }
+        }
+        for (HL7Processor processor : processorMap.values()) {
+            processor.destroy();
+        }
+        endpointMap.clear();
+        processorMap.clear();
+        shardMap.clear();
+        isStarted = false;
     }
 
     public static void pause() {
-        try {
-            reactor.pause();
-        } catch (IOException e) {
-            log.error("Error while pausing MLLP Transport IO Reactor. ", e);
+        if (shards == null) {
+            return;
+        }
+        for (ReactorShard shard : shards) {
+            try {
+                shard.reactor.pause();
+            } catch (IOException e) {
+                log.error("Error while pausing MLLP Transport IO Reactor. ", e);
+            }
         }
     }
 
@@ -106,19 +136,45 @@ public class InboundHL7IOReactor {
             return false;
         }
 
-        ListenerEndpoint ep = reactor.listen(getSocketAddress(port));
+        ReactorShard shard = selectShard();
+        // the processor has to be known before the first connection is accepted
+        processorMap.put(port, processor);
+        ListenerEndpoint ep = shard.reactor.listen(getSocketAddress(port));
 
         try {
             ep.waitFor();
             endpointMap.put(port, ep);
-            processorMap.put(port, processor);
+            shardMap.put(port, shard);
             return true;
         } catch (InterruptedException e) {
+            processorMap.remove(port);
+            processor.destroy();
             log.error("Error while starting a new MLLP Listener on port " + port + ". ", e);
             return false;
         }
     }
 
+    /**
+     * Reactor which serves the fewest endpoints
+     */
+    private static synchronized ReactorShard selectShard() {
+        ReactorShard selected = null;
+        int selectedCount = Integer.MAX_VALUE;
+        for (ReactorShard shard : shards) {
+            int count = 0;
+            for (ReactorShard boundShard : shardMap.values()) {
+                if (boundShard == shard) {
+                    count++;
+                }
+            }
+            if (count < selectedCount) {
+                selected = shard;
+                selectedCount = count;
+            }
+        }
+        return selected;
+    }
+
     private static boolean isPortAvailable(int port) {
         try {
             ServerSocket ss = new ServerSocket(port);
@@ -131,10 +187,17 @@ public class InboundHL7IOReactor {
 
     public static boolean unbind(int port) {
         ListenerEndpoint ep = endpointMap.get(port);
+        ReactorShard shard = shardMap.get(port);
 
         endpointMap.remove(port);
-        processorMap.remove(port);
-        multiIOHandler.disconnectSessions(port);
+        shardMap.remove(port);
+        HL7Processor processor = processorMap.remove(port);
+        if (shard != null) {
+            shard.multiIOHandler.disconnectSessions(port);
+        }
+        if (processor != null) {
+            processor.destroy();
+        }
 
         if (ep == null) {
             return false;
@@ -151,7 +214,7 @@ public class InboundHL7IOReactor {
      * method will start it.
      */
     protected static void checkReactor() {
-        if (reactor == null) {
+        if (shards == null) {
             try {
                 start();
             } catch (IOException e) {
@@ -169,7 +232,7 @@ public class InboundHL7IOReactor {
         return isa;
     }
 
-    private static IOReactorConfig getDefaultReactorConfig() {
+    private static IOReactorConfig getDefaultReactorConfig(int ioThreadCount) {
         IOReactorConfig.Builder builder = IOReactorConfig.custom();
 
         return builder
@@ -177,8 +240,7 @@ public class InboundHL7IOReactor {
                         MLLPConstants.TCPConstants.SELECT_INTERVAL, 1000))
                 .setShutdownGracePeriod(HL7Configuration.getInstance().getIntProperty(
                         MLLPConstants.TCPConstants.SHUTDOWN_GRACE_PERIOD, 500))
-                .setIoThreadCount(HL7Configuration.getInstance().getIntProperty(
-                        MLLPConstants.TCPConstants.IO_THREAD_COUNT, Runtime.getRuntime().availableProcessors()))
+                .setIoThreadCount(ioThreadCount)
                 .setSoTimeout(HL7Configuration.getInstance().getIntProperty(
                         MLLPConstants.TCPConstants.SO_TIMEOUT, 0))
                 .setSoKeepAlive(HL7Configuration.getInstance().getBooleanProperty(
@@ -197,4 +259,16 @@ public class InboundHL7IOReactor {
                 .build();
     }
 
+    private static class ReactorShard {
+        private final int id;
+        private final ListeningIOReactor reactor;
+        private final MultiIOHandler multiIOHandler;
+
+        ReactorShard(int id, ListeningIOReactor reactor, MultiIOHandler multiIOHandler) {
+            this.id = id;
+            this.reactor = reactor;
+            this.multiIOHandler = multiIOHandler;
+        }
+    }
+
 }
\ No newline at end of file
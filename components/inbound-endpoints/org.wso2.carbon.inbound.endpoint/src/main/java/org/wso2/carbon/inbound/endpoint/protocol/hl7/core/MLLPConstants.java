@@ -59,6 +59,16 @@ public class MLLPConstants {
 
     public final static String PARAM_HL7_PASS_THROUGH_INVALID_MESSAGES = "inbound.hl7.PassThroughInvalidMessages";
 
+    // builds the positional XML of HL7PositionalXML instead of the HAPI XML when messages are not validated. The
+    // HL7_MESSAGE_OBJECT property then holds only the MSH segment of the message.
+    public final static String PARAM_HL7_STREAMING_PARSER = "inbound.hl7.StreamingParser";
+
+    public final static String PARAM_HL7_WORKER_THREADS = "inbound.hl7.WorkerThreads";
+
+    public final static String PARAM_HL7_WORKER_QUEUE_SIZE = "inbound.hl7.WorkerQueueSize";
+
+    public final static int DEFAULT_HL7_WORKER_QUEUE_SIZE = 1000;
+
     public final static String HL7_ID_GENERATOR = "hl7_id_generator";
 
     public final static String HL7_INBOUND_MSG_ID = "HL7_INBOUND_MSG_ID";
@@ -85,9 +95,30 @@ public class MLLPConstants {
 
         public final static String SO_SNDBUF = "so_sndbuf";
 
+        // default maximum number of workers of each endpoint, the workers of an endpoint are started on demand and
+        // stopped when idle. Overridden by inbound.hl7.WorkerThreads of an endpoint.
         public final static String WORKER_THREADS_CORE = "worker_threads_core";
 
         public final static int WORKER_THREADS_CORE_DEFAULT = 100;
 
+        // threads of the scheduler shared by all the endpoints, which only runs the response timeouts
+        public final static String TIMEOUT_THREADS = "timeout_threads";
+
+        public final static int TIMEOUT_THREADS_DEFAULT = 2;
+
+        // number of IO reactors the endpoints are spread over, io_thread_count is shared among them
+        public final static String REACTOR_COUNT = "reactor_count";
+
+        public final static int REACTOR_COUNT_DEFAULT = 1;
+
+        // IO buffers are pooled across the connections of all the endpoints
+        public final static String IO_BUFFER_SIZE = "io_buffer_size";
+
+        public final static int IO_BUFFER_SIZE_DEFAULT = 8 * 1024;
+
+        public final static String IO_BUFFER_POOL_SIZE = "io_buffer_pool_size";
+
+        public final static int IO_BUFFER_POOL_SIZE_DEFAULT = 1024;
+
     }
 }
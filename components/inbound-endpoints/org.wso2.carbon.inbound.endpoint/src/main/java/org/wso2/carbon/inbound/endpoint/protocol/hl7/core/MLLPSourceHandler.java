@@ -39,9 +39,8 @@ public class MLLPSourceHandler implements IOEventDispatch {
     private volatile HL7Processor hl7Processor;
 
     private final ByteBuffer hl7TrailerBuf = ByteBuffer.wrap(MLLPConstants.HL7_TRAILER);
+    // shared by all the connections, the buffers are taken only for the duration of a read or a write
     private BufferFactory bufferFactory;
-    private ControlledByteBuffer inputBuffer;
-    private ControlledByteBuffer outputBuffer;
 
     public MLLPSourceHandler() { /* default constructor */ }
 
@@ -60,9 +59,6 @@ public class MLLPSourceHandler implements IOEventDispatch {
             session.setAttribute(MLLPConstants.MLLP_CONTEXT,
                     MLLPContextFactory.createMLLPContext(session, hl7Processor));
         }
-
-        inputBuffer = bufferFactory.getBuffer();
-        outputBuffer = bufferFactory.getBuffer();
     }
 
     @Override
@@ -71,6 +67,7 @@ public class MLLPSourceHandler implements IOEventDispatch {
 
         MLLPContext mllpContext = (MLLPContext) session.getAttribute(MLLPConstants.MLLP_CONTEXT);
 
+        ControlledByteBuffer inputBuffer = bufferFactory.getBuffer();
         inputBuffer.clear();
         try {
             int read;
@@ -101,8 +98,6 @@ public class MLLPSourceHandler implements IOEventDispatch {
             if (mllpContext.getCodec().isReadComplete())  {
                 if (mllpContext.isAutoAck()) {
                     mllpContext.requestOutput();
-                    bufferFactory.release(inputBuffer);
-                    inputBuffer = bufferFactory.getBuffer();
                 }
                 try {
                     hl7Processor.processRequest(mllpContext);
@@ -118,13 +113,13 @@ public class MLLPSourceHandler implements IOEventDispatch {
 
         } catch (IOException e) {
             shutdownConnection(session, mllpContext, e);
+        } finally {
+            bufferFactory.release(inputBuffer);
         }
 
     }
 
     private void clearInputBuffers(MLLPContext context) {
-        bufferFactory.release(inputBuffer);
-        inputBuffer = bufferFactory.getBuffer();
         context.reset();
     }
 
@@ -135,6 +130,15 @@ public class MLLPSourceHandler implements IOEventDispatch {
     }
 
     private void writeOut(IOSession session, MLLPContext mllpContext) {
+        ControlledByteBuffer outputBuffer = bufferFactory.getBuffer();
+        try {
+            writeOut(session, mllpContext, outputBuffer);
+        } finally {
+            bufferFactory.release(outputBuffer);
+        }
+    }
+
+    private void writeOut(IOSession session, MLLPContext mllpContext, ControlledByteBuffer outputBuffer) {
 
         outputBuffer.clear();
         try {
@@ -145,12 +149,6 @@ public class MLLPSourceHandler implements IOEventDispatch {
             shutdownConnection(session, mllpContext, e);
         }
 
-        if (outputBuffer == null) {
-            handleException(session, mllpContext, new MLLProtocolException("HL7 Codec is in an inconsistent state: "
-                    + mllpContext.getCodec().getState() + ". Shutting down connection."));
-            return;
-        }
-
         try {
             session.channel().write(outputBuffer.getByteBuffer());
             if (mllpContext.getCodec().isWriteTrailer()) {
@@ -158,7 +156,6 @@ public class MLLPSourceHandler implements IOEventDispatch {
                 hl7TrailerBuf.flip();
                 mllpContext.getCodec().setState(HL7Codec.WRITE_COMPLETE);
             }
-//            bufferFactory.release(outputBuffer);
         } catch (IOException e) {
             shutdownConnection(session, mllpContext, e);
         }
@@ -167,8 +164,6 @@ public class MLLPSourceHandler implements IOEventDispatch {
             if (mllpContext.isMarkForClose()) {
                 shutdownConnection(session, mllpContext, null);
             } else {
-                bufferFactory.release(outputBuffer);
-                outputBuffer = bufferFactory.getBuffer();
                 mllpContext.setMessageId("RESPONDED");
                 mllpContext.reset();
                 mllpContext.requestInput();
@@ -195,8 +190,6 @@ public class MLLPSourceHandler implements IOEventDispatch {
             handleException(session, mllpContext, e);
         }
 
-        bufferFactory.release(inputBuffer);
-        bufferFactory.release(outputBuffer);
         session.close();
     }
 
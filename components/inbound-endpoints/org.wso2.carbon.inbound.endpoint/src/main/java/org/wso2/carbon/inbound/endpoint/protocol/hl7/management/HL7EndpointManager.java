@@ -4,7 +4,7 @@ import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.parser.Parser;
 import ca.uhn.hl7v2.parser.PipeParser;
-import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.DirectByteBufferAllocator;
 import org.apache.log4j.Logger;
 import org.apache.synapse.SynapseException;
 import org.apache.synapse.inbound.InboundProcessorParams;
@@ -17,6 +17,7 @@ import org.wso2.carbon.inbound.endpoint.protocol.hl7.core.HL7Processor;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.core.InboundHL7IOReactor;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.core.MLLPConstants;
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.util.Axis2HL7Constants;
+import org.wso2.carbon.inbound.endpoint.protocol.hl7.util.HL7Configuration;
 
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
@@ -46,6 +47,14 @@ public class HL7EndpointManager extends AbstractInboundEndpointManager {
 
     private static HL7EndpointManager instance = new HL7EndpointManager();
 
+    // connections take IO buffers from this pool only while reading or writing, so idle connections hold none
+    private static final BufferFactory bufferFactory = new BufferFactory(
+            HL7Configuration.getInstance().getIntProperty(MLLPConstants.TCPConstants.IO_BUFFER_SIZE,
+                    MLLPConstants.TCPConstants.IO_BUFFER_SIZE_DEFAULT),
+            new DirectByteBufferAllocator(),
+            HL7Configuration.getInstance().getIntProperty(MLLPConstants.TCPConstants.IO_BUFFER_POOL_SIZE,
+                    MLLPConstants.TCPConstants.IO_BUFFER_POOL_SIZE_DEFAULT));
+
     private HL7EndpointManager() {
         super();
     }
@@ -65,8 +74,7 @@ public class HL7EndpointManager extends AbstractInboundEndpointManager {
 
         Map<String, Object> parameters = new HashMap<String, Object>();
         parameters.put(MLLPConstants.INBOUND_PARAMS, params);
-        parameters.put(MLLPConstants.INBOUND_HL7_BUFFER_FACTORY,
-                new BufferFactory(8 * 1024, new HeapByteBufferAllocator(), 1024));
+        parameters.put(MLLPConstants.INBOUND_HL7_BUFFER_FACTORY, bufferFactory);
         validateParameters(params, parameters);
 
         HL7Processor hl7Processor = new HL7Processor(parameters);
@@ -166,6 +174,35 @@ public class HL7EndpointManager extends AbstractInboundEndpointManager {
                     ". Default UTF-8 will be used instead.");
         }
 
+        // each endpoint has its own worker pool, worker_threads_core only gives its default size
+        try {
+            if (Integer.valueOf(params.getProperties().getProperty(MLLPConstants.PARAM_HL7_WORKER_THREADS)) <= 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            if (params.getProperties().getProperty(MLLPConstants.PARAM_HL7_WORKER_THREADS) != null) {
+                log.warn("Parameter " + MLLPConstants.PARAM_HL7_WORKER_THREADS + " in HL7 inbound " +
+                        params.getName() + " is not valid. Default value will be used.");
+            }
+            params.getProperties().setProperty(MLLPConstants.PARAM_HL7_WORKER_THREADS, String.valueOf(
+                    HL7Configuration.getInstance().getIntProperty(MLLPConstants.TCPConstants.WORKER_THREADS_CORE,
+                            MLLPConstants.TCPConstants.WORKER_THREADS_CORE_DEFAULT)));
+        }
+
+        try {
+            if (Integer.valueOf(params.getProperties().getProperty(MLLPConstants.PARAM_HL7_WORKER_QUEUE_SIZE)) <= 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            if (params.getProperties().getProperty(MLLPConstants.PARAM_HL7_WORKER_QUEUE_SIZE) != null) {
+                log.warn("Parameter " + MLLPConstants.PARAM_HL7_WORKER_QUEUE_SIZE + " in HL7 inbound " +
+                        params.getName() + " is not valid. Default value of " +
+                        MLLPConstants.DEFAULT_HL7_WORKER_QUEUE_SIZE + " will be used.");
+            }
+            params.getProperties().setProperty(MLLPConstants.PARAM_HL7_WORKER_QUEUE_SIZE,
+                    String.valueOf(MLLPConstants.DEFAULT_HL7_WORKER_QUEUE_SIZE));
+        }
+
         if (params.getProperties().getProperty(MLLPConstants.PARAM_HL7_VALIDATE) == null) {
             params.getProperties().setProperty(MLLPConstants.PARAM_HL7_VALIDATE, "true");
         }
@@ -2,9 +2,12 @@ package org.wso2.carbon.inbound.endpoint.protocol.hl7.util;
 
 import org.wso2.carbon.inbound.endpoint.protocol.hl7.core.MLLPConstants;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -26,29 +29,44 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class HL7ExecutorServiceFactory {
 
+    // seconds an idle endpoint worker is kept
+    private static final long WORKER_KEEP_ALIVE = 60;
+
+    // only runs the response timeouts, the messages are mediated by the worker pools of the endpoints
     private static ScheduledExecutorService executorService = Executors.newScheduledThreadPool(
             HL7Configuration.getInstance().getIntProperty(
-                    MLLPConstants.TCPConstants.WORKER_THREADS_CORE,
-                    MLLPConstants.TCPConstants.WORKER_THREADS_CORE_DEFAULT), HL7WorkerThreadFactory.getInstance());
+                    MLLPConstants.TCPConstants.TIMEOUT_THREADS,
+                    MLLPConstants.TCPConstants.TIMEOUT_THREADS_DEFAULT),
+            new HL7WorkerThreadFactory("HL7-inbound-timeout-"));
 
     public static ScheduledExecutorService getExecutorService() {
         return executorService;
     }
 
+    /**
+     * Create the worker pool of an inbound endpoint. The workers are started on demand and stopped when idle, and
+     * the pool rejects messages once the queue is full, so that one endpoint cannot hold back the others.
+     *
+     * @param name      name of the inbound endpoint
+     * @param threads   maximum number of workers of this endpoint
+     * @param queueSize maximum number of messages waiting for a worker
+     * @return worker pool
+     */
+    public static ThreadPoolExecutor createWorkerPool(String name, int threads, int queueSize) {
+        ThreadPoolExecutor workerPool = new ThreadPoolExecutor(threads, threads, WORKER_KEEP_ALIVE, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new HL7WorkerThreadFactory("HL7-inbound-" + name + "-worker-"));
+        workerPool.allowCoreThreadTimeOut(true);
+        return workerPool;
+    }
+
     private static class HL7WorkerThreadFactory implements ThreadFactory {
-        final ThreadGroup group;
+        static final ThreadGroup group = new ThreadGroup("HL7-inbound-thread-group");
         final AtomicInteger threadNumber = new AtomicInteger(1);
         final String namePrefix;
 
-        private static HL7WorkerThreadFactory instance = new HL7WorkerThreadFactory();
-
-        private HL7WorkerThreadFactory() {
-            group = new ThreadGroup("HL7-inbound-thread-group");
-            namePrefix = "HL7-inbound-worker-";
-        }
-
-        public static HL7WorkerThreadFactory getInstance() {
-            return instance;
+        private HL7WorkerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
         }
 
         public Thread newThread(Runnable r) {
@@ -63,5 +81,4 @@ public class HL7ExecutorServiceFactory {
         }
     }
 
-}
-
+}
\ No newline at end of file
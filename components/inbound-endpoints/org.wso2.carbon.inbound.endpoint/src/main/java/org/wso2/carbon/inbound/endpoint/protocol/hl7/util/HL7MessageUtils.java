@@ -46,6 +46,7 @@ import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseConstants;
 import org.apache.synapse.core.axis2.MessageContextCreatorForAxis2;
 import org.apache.synapse.inbound.InboundProcessorParams;
+import org.wso2.carbon.business.messaging.hl7.common.HL7PositionalXML;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.core.multitenancy.utils.TenantAxisUtils;
 import org.wso2.carbon.inbound.endpoint.osgi.service.ServiceReferenceHolder;
@@ -101,6 +102,24 @@ public class HL7MessageUtils {
         return preProcessor.parse(msg);
     }
 
+    /**
+     * Parse only the MSH segment of a message, which is enough to generate its ACK or NACK
+     *
+     * @param msg ER7 message
+     * @return message holding the MSH segment of the given message
+     */
+    public static Message parseHeader(String msg) throws HL7Exception {
+        int start = 0;
+        while (start < msg.length() && (msg.charAt(start) == '\r' || msg.charAt(start) == '\n')) {
+            start++;
+        }
+        int end = start;
+        while (end < msg.length() && msg.charAt(end) != '\r' && msg.charAt(end) != '\n') {
+            end++;
+        }
+        return noValidationPipeParser.parse(msg.substring(start, end));
+    }
+
     public static MessageContext createSynapseMessageContext(Message message, InboundProcessorParams params)
             throws HL7Exception, AxisFault {
 
@@ -121,6 +140,28 @@ public class HL7MessageUtils {
         return synCtx;
     }
 
+    /**
+     * Create the message context of a message parsed by the streaming parser
+     *
+     * @param hl7Element XML of the message built by {@link HL7PositionalXML}
+     * @param params     inbound endpoint parameters
+     */
+    public static MessageContext createSynapseMessageContext(OMElement hl7Element, InboundProcessorParams params)
+            throws AxisFault {
+
+        MessageContext synCtx = createSynapseMessageContext(params.getProperties()
+                .getProperty(MLLPConstants.HL7_INBOUND_TENANT_DOMAIN));
+
+        synCtx.setProperty(Axis2HL7Constants.HL7_VALIDATION_PASSED, new Boolean(true));
+        OMElement messageEl = fac.createOMElement(Axis2HL7Constants.HL7_MESSAGE_ELEMENT_NAME, ns);
+        messageEl.addChild(hl7Element);
+        SOAPEnvelope envelope = fac.getDefaultEnvelope();
+        envelope.getBody().addChild(messageEl);
+        synCtx.setEnvelope(envelope);
+
+        return synCtx;
+    }
+
     public static MessageContext createErrorMessageContext(String rawMessage, Exception errorMsg,
                                                            InboundProcessorParams params) throws AxisFault, HL7Exception {
         MessageContext synCtx = createSynapseMessageContext(params.getProperties()
@@ -323,7 +364,18 @@ public class HL7MessageUtils {
         OMElement hl7MsgEl = (OMElement) ctx.getEnvelope().getBody().getChildrenWithName(new
                 QName(Axis2HL7Constants.HL7_NAMESPACE, Axis2HL7Constants.HL7_MESSAGE_ELEMENT_NAME))
                 .next();
-        String hl7XMLPayload = hl7MsgEl.getFirstElement().toString();
+        OMElement hl7Element = hl7MsgEl.getFirstElement();
+        if (HL7PositionalXML.isPositional(hl7Element)) {
+            // the XML built by the streaming parser is not in the HAPI XML format
+            String pipeMsg = HL7PositionalXML.encode(hl7Element);
+            try {
+                return pipeParser.parse(pipeMsg);
+            } catch (DataTypeException e) {
+                log.warn("Rule validation fails.", e);
+                return noValidationPipeParser.parse(pipeMsg);
+            }
+        }
+        String hl7XMLPayload = hl7Element.toString();
         String pipeMsg;
         Message msg = null;
         try {
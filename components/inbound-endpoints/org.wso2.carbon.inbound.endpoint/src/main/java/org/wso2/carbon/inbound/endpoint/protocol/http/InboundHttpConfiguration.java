@@ -25,6 +25,7 @@ public class InboundHttpConfiguration {
     private final String maxSize;
     private final String keepAlive;
     private final String queueLength;
+    private final String queueWaitSlo;
     private final String threadGroup;
     private final String threadID;
     private final String dispatchPattern;
@@ -36,6 +37,7 @@ public class InboundHttpConfiguration {
         this.maxSize = builder.maxSize;
         this.keepAlive = builder.keepAlive;
         this.queueLength = builder.queueLength;
+        this.queueWaitSlo = builder.queueWaitSlo;
         this.threadGroup = builder.threadGroup;
         this.threadID = builder.threadID;
         this.dispatchPattern = builder.dispatchPattern;
@@ -46,7 +48,7 @@ public class InboundHttpConfiguration {
     }
 
     public String getName() {
-        return getName();
+        return name;
     }
 
     public String getCoresize() {
@@ -65,6 +67,10 @@ public class InboundHttpConfiguration {
         return queueLength;
     }
 
+    public String getQueueWaitSlo() {
+        return queueWaitSlo;
+    }
+
     public String getThreadGroup() {
         return threadGroup;
     }
@@ -84,6 +90,7 @@ public class InboundHttpConfiguration {
         private String maxSize;
         private String keepAlive;
         private String queueLength;
+        private String queueWaitSlo;
         private String threadGroup;
         private String threadID;
         private String dispatchPattern;
@@ -117,6 +124,11 @@ public class InboundHttpConfiguration {
             return this;
         }
 
+        public InboundHttpConfigurationBuilder workerPoolQueueWaitSlo(String queueWaitSlo) {
+            this.queueWaitSlo = queueWaitSlo;
+            return this;
+        }
+
         public InboundHttpConfigurationBuilder workerPoolThreadGroup(String threadGroup) {
             this.threadGroup = threadGroup;
             return this;
@@ -60,6 +60,12 @@ public class InboundHttpConstants {
      */
     public static final String INBOUND_WORKER_POOL_QUEUE_LENGTH = "inbound.worker.pool.queue.length";
 
+    /**
+     * Defines the maximum time in milliseconds a request may wait in the worker pool queue. Requests are rejected
+     * with 503 while the oldest queued request has waited longer.
+     */
+    public static final String INBOUND_WORKER_POOL_QUEUE_WAIT_SLO = "inbound.worker.pool.queue.wait.slo";
+
     public static final String INBOUND_THREAD_GROUP_ID = "inbound.thread.group.id";
 
     public static final String INBOUND_THREAD_ID = "inbound.thread.id";
@@ -0,0 +1,277 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.http;
+
+import org.wso2.carbon.inbound.endpoint.protocol.http.config.InboundHttpWorkerPool;
+import org.wso2.carbon.inbound.endpoint.protocol.http.config.WorkerPoolConfiguration;
+import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
+import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Dispatch table of the HTTP inbound endpoints listening on a port, holding the endpoint name, the dispatch
+ * pattern and the worker pool of each tenant.
+ *
+ * The table is immutable, a deployment or an undeployment publishes a new table. The tenant of a request is
+ * resolved by walking a trie of the tenant domains of the table over the request URI, so a request to a known
+ * tenant is dispatched without allocating. Only URIs of other tenants fall back to
+ * {@link MultitenantUtils#getTenantDomainFromUrl(String)}.
+ */
+public class InboundHttpDispatchTable {
+
+    public static final InboundHttpDispatchTable EMPTY =
+            new InboundHttpDispatchTable(Collections.<String, Entry>emptyMap());
+
+    private static final String TENANT_DELIMITER = "/t/";
+
+    private final Map<String, Entry> entries;
+    private final TrieNode tenantTrie = new TrieNode();
+
+    private InboundHttpDispatchTable(Map<String, Entry> entries) {
+        this.entries = entries;
+        for (Entry entry : entries.values()) {
+            if (!MultitenantConstants.SUPER_TENANT_DOMAIN_NAME.equals(entry.getTenantDomain())) {
+                tenantTrie.put(entry.getTenantDomain(), entry);
+            }
+        }
+    }
+
+    /**
+     * Table with the given entry added, or replacing the entry of its tenant
+     */
+    public InboundHttpDispatchTable with(Entry entry) {
+        Map<String, Entry> newEntries = new HashMap<String, Entry>(entries);
+        newEntries.put(entry.getTenantDomain(), entry);
+        return new InboundHttpDispatchTable(newEntries);
+    }
+
+    /**
+     * Table without the entry of the tenant
+     */
+    public InboundHttpDispatchTable without(String tenantDomain) {
+        if (!entries.containsKey(tenantDomain)) {
+            return this;
+        }
+        Map<String, Entry> newEntries = new HashMap<String, Entry>(entries);
+        newEntries.remove(tenantDomain);
+        return new InboundHttpDispatchTable(newEntries);
+    }
+
+    public Entry getEntry(String tenantDomain) {
+        return entries.get(tenantDomain);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Resolve the tenant of a request URI, e.g. foo.com for /t/foo.com/services/Echo
+     *
+     * @param uri request URI
+     * @return tenant domain, the super tenant domain if the URI has no tenant
+     */
+    public String resolveTenantDomain(String uri) {
+        int index = uri.indexOf(TENANT_DELIMITER);
+        if (index == -1) {
+            return MultitenantConstants.SUPER_TENANT_DOMAIN_NAME;
+        }
+        Entry entry = tenantTrie.get(uri, index + TENANT_DELIMITER.length());
+        if (entry != null) {
+            return entry.getTenantDomain();
+        }
+        String tenant = MultitenantUtils.getTenantDomainFromUrl(uri);
+        if (tenant.equals(uri)) {
+            return MultitenantConstants.SUPER_TENANT_DOMAIN_NAME;
+        }
+        return tenant;
+    }
+
+    /**
+     * Dispatch information of the inbound endpoint of a tenant
+     */
+    public static class Entry {
+        private final String tenantDomain;
+        private final String endpointName;
+        private final Pattern dispatchPattern;
+        // dispatch patterns which are a plain path, optionally followed by .*, are matched without a regex
+        private final String literalPattern;
+        private final boolean prefixPattern;
+        private final WorkerPoolConfiguration workerPoolConfiguration;
+        private final InboundHttpWorkerPool workerPool;
+
+        public Entry(String tenantDomain, String endpointName, Pattern dispatchPattern,
+                     WorkerPoolConfiguration workerPoolConfiguration) {
+            this(tenantDomain, endpointName, dispatchPattern, workerPoolConfiguration, null);
+        }
+
+        private Entry(String tenantDomain, String endpointName, Pattern dispatchPattern,
+                      WorkerPoolConfiguration workerPoolConfiguration, InboundHttpWorkerPool workerPool) {
+            this.tenantDomain = tenantDomain;
+            this.endpointName = endpointName;
+            this.dispatchPattern = dispatchPattern;
+            this.workerPoolConfiguration = workerPoolConfiguration;
+            this.workerPool = workerPool;
+
+            String literal = null;
+            boolean prefix = false;
+            if (dispatchPattern != null) {
+                String regex = dispatchPattern.pattern();
+                if (regex.endsWith(".*")) {
+                    regex = regex.substring(0, regex.length() - 2);
+                    prefix = true;
+                }
+                if (isLiteral(regex)) {
+                    literal = regex;
+                } else {
+                    prefix = false;
+                }
+            }
+            this.literalPattern = literal;
+            this.prefixPattern = prefix;
+        }
+
+        public Entry withDispatchPattern(Pattern dispatchPattern) {
+            return new Entry(tenantDomain, endpointName, dispatchPattern, workerPoolConfiguration, workerPool);
+        }
+
+        public Entry withWorkerPoolConfiguration(WorkerPoolConfiguration workerPoolConfiguration) {
+            return new Entry(tenantDomain, endpointName, dispatchPattern, workerPoolConfiguration, null);
+        }
+
+        public Entry withWorkerPool(InboundHttpWorkerPool workerPool) {
+            return new Entry(tenantDomain, endpointName, dispatchPattern, workerPoolConfiguration, workerPool);
+        }
+
+        public String getTenantDomain() {
+            return tenantDomain;
+        }
+
+        public String getEndpointName() {
+            return endpointName;
+        }
+
+        public Pattern getDispatchPattern() {
+            return dispatchPattern;
+        }
+
+        public WorkerPoolConfiguration getWorkerPoolConfiguration() {
+            return workerPoolConfiguration;
+        }
+
+        /**
+         * Worker pool of the endpoint, null if the endpoint uses the pass-through worker pool
+         */
+        public InboundHttpWorkerPool getWorkerPool() {
+            return workerPool;
+        }
+
+        /**
+         * Whether the URI matches the dispatch pattern, true if there is no dispatch pattern
+         */
+        public boolean matchesDispatchPattern(String uri) {
+            if (dispatchPattern == null) {
+                return true;
+            }
+            if (literalPattern != null) {
+                return prefixPattern ? uri.startsWith(literalPattern) : uri.equals(literalPattern);
+            }
+            return dispatchPattern.matcher(uri).matches();
+        }
+
+        /**
+         * Whether the regex matches only itself. Patterns are compiled with comments enabled, so white space and
+         * # are not literal either.
+         */
+        private static boolean isLiteral(String regex) {
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if ("\\^$.|?*+()[]{}#".indexOf(c) != -1 || Character.isWhitespace(c)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Trie of tenant domains, keyed by the characters of the domain
+     */
+    private static class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private Entry entry;
+
+        void put(String tenantDomain, Entry entry) {
+            TrieNode node = this;
+            for (int i = 0; i < tenantDomain.length(); i++) {
+                TrieNode child = node.getChild(tenantDomain.charAt(i));
+                if (child == null) {
+                    child = node.addChild(tenantDomain.charAt(i));
+                }
+                node = child;
+            }
+            node.entry = entry;
+        }
+
+        /**
+         * Entry of the tenant domain which starts at the given index of the URI and ends at the next / or at the
+         * end of the URI
+         */
+        Entry get(String uri, int start) {
+            TrieNode node = this;
+            for (int i = start; i < uri.length(); i++) {
+                char c = uri.charAt(i);
+                if (c == '/') {
+                    break;
+                }
+                node = node.getChild(c);
+                if (node == null) {
+                    return null;
+                }
+            }
+            return node.entry;
+        }
+
+        private TrieNode getChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private TrieNode addChild(char c) {
+            char[] newKeys = new char[keys.length + 1];
+            TrieNode[] newChildren = new TrieNode[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, keys.length);
+            System.arraycopy(children, 0, newChildren, 0, children.length);
+            TrieNode child = new TrieNode();
+            newKeys[keys.length] = c;
+            newChildren[children.length] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -48,8 +48,6 @@ import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import java.io.OutputStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Create SynapseMessageContext from HTTP Request and inject it to the sequence in a synchronous manner
@@ -62,11 +60,11 @@ public class InboundHttpServerWorker extends ServerWorker {
     private SourceRequest request = null;
     private int port;
     private String tenantDomain;
+    private InboundHttpDispatchTable.Entry dispatchEntry;
     private RESTRequestHandler restHandler;
-    private Pattern dispatchPattern;
-    private Matcher patternMatcher;
 
     public InboundHttpServerWorker(int port, String tenantDomain,
+                                   InboundHttpDispatchTable.Entry dispatchEntry,
                                    SourceRequest sourceRequest,
                                    SourceConfiguration sourceConfiguration,
                                    OutputStream outputStream) {
@@ -74,6 +72,7 @@ public class InboundHttpServerWorker extends ServerWorker {
         this.request = sourceRequest;
         this.port = port;
         this.tenantDomain = tenantDomain;
+        this.dispatchEntry = dispatchEntry;
         restHandler = new RESTRequestHandler();
     }
 
@@ -93,8 +92,14 @@ public class InboundHttpServerWorker extends ServerWorker {
                         getRequestLine().getMethod().toUpperCase() : "";
                 processHttpRequestUri(axis2MsgContext, method);
 
-                String endpointName =
-                        HTTPEndpointManager.getInstance().getEndpointName(port, tenantDomain);
+                if (dispatchEntry == null || !dispatchEntry.getTenantDomain().equals(tenantDomain)) {
+                    // the tenant changes if its configuration context could not be loaded
+                    dispatchEntry = HTTPEndpointManager.getInstance().getDispatchTable(port).getEntry(tenantDomain);
+                }
+                String endpointName = dispatchEntry != null ? dispatchEntry.getEndpointName() : null;
+                if (endpointName == null) {
+                    endpointName = HTTPEndpointManager.getInstance().getEndpointName(port, tenantDomain);
+                }
                 if (endpointName == null) {
                     handleException("Endpoint not found for port : " + port + "" +
                                     " tenant domain : " + tenantDomain);
@@ -127,12 +132,11 @@ public class InboundHttpServerWorker extends ServerWorker {
 
                 }
 
-                dispatchPattern = HTTPEndpointManager.getInstance().getPattern(tenantDomain, port);
+                boolean hasDispatchPattern = dispatchEntry != null && dispatchEntry.getDispatchPattern() != null;
 
                 boolean continueDispatch = true;
-                if (dispatchPattern != null) {
-                    patternMatcher = dispatchPattern.matcher(request.getUri());
-                    if (!patternMatcher.matches()) {
+                if (hasDispatchPattern) {
+                    if (!dispatchEntry.matchesDispatchPattern(request.getUri())) {
                         if (log.isDebugEnabled()) {
                             log.debug("Requested URI does not match given dispatch regular expression.");
                         }
@@ -140,7 +144,7 @@ public class InboundHttpServerWorker extends ServerWorker {
                     }
                 }
 
-                if (continueDispatch && dispatchPattern != null) {
+                if (continueDispatch && hasDispatchPattern) {
 
                     boolean processedByAPI = false;
 
@@ -182,7 +186,7 @@ public class InboundHttpServerWorker extends ServerWorker {
                             injectToMainSequence(synCtx, endpoint);
                         }
                     }
-                } else if (continueDispatch && dispatchPattern == null) {
+                } else if (continueDispatch && !hasDispatchPattern) {
                     // else if for clarity compiler will optimize
                     injectToSequence(synCtx, endpoint);
                 } else {
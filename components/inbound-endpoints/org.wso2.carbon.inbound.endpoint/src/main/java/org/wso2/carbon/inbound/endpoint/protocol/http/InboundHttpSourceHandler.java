@@ -18,23 +18,23 @@
 
 package org.wso2.carbon.inbound.endpoint.protocol.http;
 
-import org.apache.axis2.transport.base.threads.WorkerPool;
 import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.nio.NHttpServerConnection;
+import org.apache.http.protocol.HTTP;
 import org.apache.log4j.Logger;
 import org.apache.synapse.transport.passthru.ProtocolState;
 import org.apache.synapse.transport.passthru.SourceContext;
 import org.apache.synapse.transport.passthru.SourceHandler;
 import org.apache.synapse.transport.passthru.SourceRequest;
 import org.apache.synapse.transport.passthru.config.SourceConfiguration;
-import org.wso2.carbon.inbound.endpoint.protocol.http.config.WorkerPoolConfiguration;
 import org.wso2.carbon.inbound.endpoint.protocol.http.management.HTTPEndpointManager;
-import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
-import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.regex.Pattern;
 
 /**
  * Handler Class for process HTTP Requests
@@ -45,7 +45,6 @@ public class    InboundHttpSourceHandler extends SourceHandler {
 
     private final SourceConfiguration sourceConfiguration;
     private int port;
-    private WorkerPool workerPool;
 
     public InboundHttpSourceHandler(int port, SourceConfiguration sourceConfiguration) {
         super(sourceConfiguration);
@@ -66,27 +65,19 @@ public class    InboundHttpSourceHandler extends SourceHandler {
             OutputStream os = getOutputStream(method, request);
             // Handover Request to Worker Pool
 
-            Pattern dispatchPattern = null;
+            InboundHttpDispatchTable dispatchTable = HTTPEndpointManager.getInstance().getDispatchTable(port);
+            String tenantDomain = dispatchTable.resolveTenantDomain(request.getUri());
+            InboundHttpDispatchTable.Entry dispatchEntry = dispatchTable.getEntry(tenantDomain);
 
-            String tenantDomain = getTenantDomain(request);
-
-            if (tenantDomain != null) {
-                WorkerPoolConfiguration workerPoolConfiguration =
-                           HTTPEndpointManager.getInstance().getWorkerPoolConfiguration(tenantDomain, port);
-                if (workerPoolConfiguration != null) {
-                    workerPool = sourceConfiguration.getWorkerPool(workerPoolConfiguration.getWorkerPoolCoreSize(),
-                                                                   workerPoolConfiguration.getWorkerPoolSizeMax(),
-                                                                   workerPoolConfiguration.getWorkerPoolThreadKeepAliveSec(),
-                                                                   workerPoolConfiguration.getWorkerPoolQueuLength(),
-                                                                   workerPoolConfiguration.getThreadGroupID(),
-                                                                   workerPoolConfiguration.getThreadID());
+            InboundHttpServerWorker worker =
+                    new InboundHttpServerWorker(port, tenantDomain, dispatchEntry, request, sourceConfiguration, os);
+            if (dispatchEntry != null && dispatchEntry.getWorkerPool() != null) {
+                if (!dispatchEntry.getWorkerPool().execute(worker)) {
+                    sendServiceUnavailable(conn);
                 }
+            } else {
+                sourceConfiguration.getWorkerPool().execute(worker);
             }
-            if (workerPool == null) {
-                workerPool = sourceConfiguration.getWorkerPool();
-            }
-            workerPool.execute
-                    (new InboundHttpServerWorker(port, tenantDomain, request, sourceConfiguration, os));
         } catch (HttpException e) {
             log.error("HttpException occurred when creating Source Request", e);
             informReaderError(conn);
@@ -100,11 +91,16 @@ public class    InboundHttpSourceHandler extends SourceHandler {
         }
     }
 
-    private String getTenantDomain(SourceRequest request) {
-        String tenant = MultitenantUtils.getTenantDomainFromUrl(request.getUri());
-        if (tenant.equals(request.getUri())) {
-            return MultitenantConstants.SUPER_TENANT_DOMAIN_NAME;
-        }
-        return tenant;
+    /**
+     * Reject a request which the worker pool of the endpoint cannot take and close the connection
+     */
+    private void sendServiceUnavailable(NHttpServerConnection conn) throws IOException, HttpException {
+        log.warn("Worker pool of the inbound endpoint on port " + port + " is overloaded, rejecting the request");
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_SERVICE_UNAVAILABLE,
+                                                      "Service Unavailable");
+        response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+        conn.submitResponse(response);
+        SourceContext.updateState(conn, ProtocolState.CLOSED);
+        sourceConfiguration.getSourceConnections().shutDownConnection(conn, false);
     }
 }
@@ -0,0 +1,305 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.http.config;
+
+import org.apache.log4j.Logger;
+import org.apache.synapse.commons.jmx.MBeanRegistrar;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Worker pool of an HTTP inbound endpoint, so that the requests of one endpoint do not wait behind the requests of
+ * the others.
+ *
+ * The pool starts with the configured core size and is resized every second within the core and the maximum size:
+ * it grows while requests wait in the queue longer than they are served (or longer than half the queue wait SLO if
+ * one is set), and shrinks while most of the workers are idle. When a queue wait SLO is set, requests are rejected
+ * while the oldest queued request has waited longer than the SLO, as well as when the queue is full.
+ */
+public class InboundHttpWorkerPool implements InboundHttpWorkerPoolMBean {
+
+    private static final Logger log = Logger.getLogger(InboundHttpWorkerPool.class);
+
+    private static final String MBEAN_CATEGORY = "InboundHttpWorkerPool";
+
+    private static final long RESIZE_INTERVAL = 1000;
+
+    // number of recent queue waits the percentiles are computed from, a power of two
+    private static final int WAIT_SAMPLE_COUNT = 1024;
+
+    private static final ScheduledExecutorService resizer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "InboundHttpWorkerPoolResizer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final long queueWaitSlo;
+    private final ScheduledFuture<?> resizeTask;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong shedCount = new AtomicLong();
+    private final AtomicLong totalServiceTime = new AtomicLong();
+
+    // waits and service times since the last resize
+    private final AtomicLong intervalCount = new AtomicLong();
+    private final AtomicLong intervalWait = new AtomicLong();
+    private final AtomicLong intervalServiceTime = new AtomicLong();
+
+    private final AtomicLongArray waitSamples = new AtomicLongArray(WAIT_SAMPLE_COUNT);
+    private final AtomicInteger waitSampleIndex = new AtomicInteger();
+
+    /**
+     * @param name          name of the pool, e.g. the endpoint name, used in logs and as the MBean name
+     * @param configuration worker pool configuration of the endpoint
+     */
+    public InboundHttpWorkerPool(String name, WorkerPoolConfiguration configuration) {
+        this.name = name;
+        this.minPoolSize = Math.max(1, configuration.getWorkerPoolCoreSize());
+        this.maxPoolSize = Math.max(minPoolSize, configuration.getWorkerPoolSizeMax());
+        this.queueWaitSlo = TimeUnit.MILLISECONDS.toNanos(configuration.getWorkerPoolQueueWaitSlo());
+
+        BlockingQueue<Runnable> queue = configuration.getWorkerPoolQueuLength() > 0 ?
+                new LinkedBlockingQueue<Runnable>(configuration.getWorkerPoolQueuLength()) :
+                new LinkedBlockingQueue<Runnable>();
+        this.executor = new ThreadPoolExecutor(minPoolSize, maxPoolSize,
+                configuration.getWorkerPoolThreadKeepAliveSec(), TimeUnit.SECONDS, queue,
+                new WorkerThreadFactory(configuration.getThreadGroupID(), configuration.getThreadID()));
+
+        this.resizeTask = resizer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resize();
+                } catch (Throwable t) {
+                    log.error("Error while resizing the worker pool of the inbound endpoint " +
+                              InboundHttpWorkerPool.this.name, t);
+                }
+            }
+        }, RESIZE_INTERVAL, RESIZE_INTERVAL, TimeUnit.MILLISECONDS);
+
+        MBeanRegistrar.getInstance().registerMBean(this, MBEAN_CATEGORY, name);
+    }
+
+    /**
+     * Execute a request on the pool
+     *
+     * @param task request
+     * @return false if the request was rejected since the queue is full or the queue wait SLO is breached
+     */
+    public boolean execute(Runnable task) {
+        if (queueWaitSlo > 0 && getHeadWait() > queueWaitSlo) {
+            shedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(new TimedTask(task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Time in nanoseconds the oldest queued request has waited
+     */
+    private long getHeadWait() {
+        Runnable head = executor.getQueue().peek();
+        if (head instanceof TimedTask) {
+            return System.nanoTime() - ((TimedTask) head).queuedTime;
+        }
+        return 0;
+    }
+
+    private void resize() {
+        long count = intervalCount.getAndSet(0);
+        long wait = intervalWait.getAndSet(0);
+        long serviceTime = intervalServiceTime.getAndSet(0);
+        int corePoolSize = executor.getCorePoolSize();
+
+        long averageWait = count > 0 ? wait / count : getHeadWait();
+        long averageServiceTime = count > 0 ? serviceTime / count : 0;
+        long waitTarget = queueWaitSlo > 0 ? queueWaitSlo / 2 : averageServiceTime;
+
+        int newCorePoolSize = corePoolSize;
+        if (!executor.getQueue().isEmpty() && averageWait > waitTarget) {
+            newCorePoolSize = Math.min(maxPoolSize, corePoolSize + Math.max(1, corePoolSize / 4));
+        } else if (executor.getQueue().isEmpty() && executor.getActiveCount() < corePoolSize / 2) {
+            newCorePoolSize = Math.max(minPoolSize, corePoolSize - Math.max(1, corePoolSize / 8));
+        }
+        if (newCorePoolSize != corePoolSize) {
+            if (log.isDebugEnabled()) {
+                log.debug("Resizing the worker pool of the inbound endpoint " + name + " from " + corePoolSize +
+                          " to " + newCorePoolSize + " workers");
+            }
+            executor.setCorePoolSize(newCorePoolSize);
+        }
+    }
+
+    /**
+     * Stops the pool once the queued requests are served
+     */
+    public void shutdown() {
+        resizeTask.cancel(false);
+        executor.shutdown();
+        MBeanRegistrar.getInstance().unRegisterMBean(MBEAN_CATEGORY, name);
+    }
+
+    @Override
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    @Override
+    public double getQueueWait50thPercentile() {
+        return getQueueWaitPercentile(0.50);
+    }
+
+    @Override
+    public double getQueueWait95thPercentile() {
+        return getQueueWaitPercentile(0.95);
+    }
+
+    @Override
+    public double getQueueWait99thPercentile() {
+        return getQueueWaitPercentile(0.99);
+    }
+
+    @Override
+    public double getAverageServiceTime() {
+        long count = completedCount.get();
+        return count == 0 ? 0 : totalServiceTime.get() / (count * 1000000.0);
+    }
+
+    private double getQueueWaitPercentile(double percentile) {
+        int count = (int) Math.min(completedCount.get(), WAIT_SAMPLE_COUNT);
+        if (count == 0) {
+            return 0;
+        }
+        long[] waits = new long[count];
+        for (int i = 0; i < count; i++) {
+            waits[i] = waitSamples.get(i);
+        }
+        Arrays.sort(waits);
+        return waits[(int) Math.ceil(percentile * count) - 1] / 1000000.0;
+    }
+
+    /**
+     * Request which records how long it waited in the queue and how long it took to serve
+     */
+    private class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long queuedTime = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            long wait = startTime - queuedTime;
+            try {
+                task.run();
+            } finally {
+                long serviceTime = System.nanoTime() - startTime;
+                waitSamples.set(waitSampleIndex.getAndIncrement() & (WAIT_SAMPLE_COUNT - 1), wait);
+                intervalWait.addAndGet(wait);
+                intervalServiceTime.addAndGet(serviceTime);
+                intervalCount.incrementAndGet();
+                totalServiceTime.addAndGet(serviceTime);
+                completedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final ThreadGroup group;
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        WorkerThreadFactory(String threadGroupID, String threadID) {
+            this.group = new ThreadGroup(threadGroupID);
+            this.namePrefix = threadID + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement());
+            t.setDaemon(false);
+            t.setPriority(Thread.NORM_PRIORITY);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.http.config;
+
+/**
+ * JMX view of the worker pool of an HTTP inbound endpoint. Times are in milliseconds.
+ */
+public interface InboundHttpWorkerPoolMBean {
+
+    int getActiveCount();
+
+    int getPoolSize();
+
+    int getCorePoolSize();
+
+    int getMaxPoolSize();
+
+    int getQueueSize();
+
+    long getCompletedCount();
+
+    /**
+     * Requests rejected since the queue was full
+     */
+    long getRejectedCount();
+
+    /**
+     * Requests rejected since the queue wait exceeded the queue wait SLO
+     */
+    long getShedCount();
+
+    double getQueueWait50thPercentile();
+
+    double getQueueWait95thPercentile();
+
+    double getQueueWait99thPercentile();
+
+    double getAverageServiceTime();
+}
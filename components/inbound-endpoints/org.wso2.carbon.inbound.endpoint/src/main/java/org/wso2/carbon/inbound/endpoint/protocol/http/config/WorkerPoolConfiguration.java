@@ -31,12 +31,21 @@ public class WorkerPoolConfiguration {
 
     private int workerPoolQueuLength;
 
+    private int workerPoolQueueWaitSlo;
+
     private String threadGroupID;
     private String threadID;
 
     public WorkerPoolConfiguration(String workerPoolCoreSize, String workerPoolSizeMax,
                                    String workerPoolThreadKeepAliveSec,
                                    String workerPoolQueuLength ,String threadGroupID, String threadID) {
+        this(workerPoolCoreSize, workerPoolSizeMax, workerPoolThreadKeepAliveSec, workerPoolQueuLength, null,
+             threadGroupID, threadID);
+    }
+
+    public WorkerPoolConfiguration(String workerPoolCoreSize, String workerPoolSizeMax,
+                                   String workerPoolThreadKeepAliveSec, String workerPoolQueuLength,
+                                   String workerPoolQueueWaitSlo, String threadGroupID, String threadID) {
 
         try {
             if (workerPoolCoreSize != null && workerPoolCoreSize.trim() != "") {
@@ -51,6 +60,9 @@ public class WorkerPoolConfiguration {
             if (workerPoolQueuLength != null && workerPoolQueuLength.trim() != "" ) {
                 this.workerPoolQueuLength = Integer.parseInt(workerPoolQueuLength);
             }
+            if (workerPoolQueueWaitSlo != null && workerPoolQueueWaitSlo.trim() != "") {
+                this.workerPoolQueueWaitSlo = Integer.parseInt(workerPoolQueueWaitSlo);
+            }
             if(threadGroupID != null && threadGroupID.trim() != ""){
                 this.threadGroupID = threadGroupID;
             }else {
@@ -89,4 +101,42 @@ public class WorkerPoolConfiguration {
     public int getWorkerPoolQueuLength() {
         return workerPoolQueuLength;
     }
+
+    /**
+     * Maximum time in milliseconds a request may wait in the queue, 0 if requests are rejected only when the queue
+     * is full
+     */
+    public int getWorkerPoolQueueWaitSlo() {
+        return workerPoolQueueWaitSlo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WorkerPoolConfiguration)) {
+            return false;
+        }
+        WorkerPoolConfiguration that = (WorkerPoolConfiguration) o;
+        return workerPoolCoreSize == that.workerPoolCoreSize
+               && workerPoolSizeMax == that.workerPoolSizeMax
+               && workerPoolThreadKeepAliveSec == that.workerPoolThreadKeepAliveSec
+               && workerPoolQueuLength == that.workerPoolQueuLength
+               && workerPoolQueueWaitSlo == that.workerPoolQueueWaitSlo
+               && (threadGroupID != null ? threadGroupID.equals(that.threadGroupID) : that.threadGroupID == null)
+               && (threadID != null ? threadID.equals(that.threadID) : that.threadID == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = workerPoolCoreSize;
+        result = 31 * result + workerPoolSizeMax;
+        result = 31 * result + workerPoolThreadKeepAliveSec;
+        result = 31 * result + workerPoolQueuLength;
+        result = 31 * result + workerPoolQueueWaitSlo;
+        result = 31 * result + (threadGroupID != null ? threadGroupID.hashCode() : 0);
+        result = 31 * result + (threadID != null ? threadID.hashCode() : 0);
+        return result;
+    }
 }
@@ -29,8 +29,11 @@ import org.wso2.carbon.inbound.endpoint.common.AbstractInboundEndpointManager;
 import org.wso2.carbon.inbound.endpoint.persistence.InboundEndpointInfoDTO;
 import org.wso2.carbon.inbound.endpoint.protocol.http.InboundHttpConfiguration;
 import org.wso2.carbon.inbound.endpoint.protocol.http.InboundHttpConstants;
+import org.wso2.carbon.inbound.endpoint.protocol.http.InboundHttpDispatchTable;
 import org.wso2.carbon.inbound.endpoint.protocol.http.InboundHttpSourceHandler;
+import org.wso2.carbon.inbound.endpoint.protocol.http.config.InboundHttpWorkerPool;
 import org.wso2.carbon.inbound.endpoint.protocol.http.config.WorkerPoolConfiguration;
+import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
@@ -51,11 +54,9 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
 
     private static final Logger log = Logger.getLogger(HTTPEndpointManager.class);
 
-    private ConcurrentHashMap<String,ConcurrentHashMap<Integer, WorkerPoolConfiguration>> workerPoolMap =
-                                  new ConcurrentHashMap<String, ConcurrentHashMap<Integer, WorkerPoolConfiguration>>();
-
-    private ConcurrentHashMap<String, ConcurrentHashMap<Integer, Pattern>> dispatchPatternMap =
-            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Pattern>>();
+    // dispatch tables of the listening ports, replaced as a whole when an endpoint is deployed or undeployed
+    private ConcurrentHashMap<Integer, InboundHttpDispatchTable> dispatchTables =
+            new ConcurrentHashMap<Integer, InboundHttpDispatchTable>();
 
     private HTTPEndpointManager() {
         super();
@@ -149,22 +150,24 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
      * @param port
      */
     private void applyConfiguration(InboundHttpConfiguration config, String tenantDomain, int port) {
+        WorkerPoolConfiguration workerPoolConfiguration = null;
         if (config.getCoresize() != null && config.getMaxSize() != null && config.getKeepAlive() != null
                 && config.getQueueLength() != null) {
-            WorkerPoolConfiguration workerPoolConfiguration = new WorkerPoolConfiguration(
+            workerPoolConfiguration = new WorkerPoolConfiguration(
                     config.getCoresize(),
                     config.getMaxSize(),
                     config.getKeepAlive(),
                     config.getQueueLength(),
+                    config.getQueueWaitSlo(),
                     config.getThreadGroup(),
                     config.getThreadID());
-
-            addWorkerPool(tenantDomain, port, workerPoolConfiguration);
         }
+        Pattern pattern = null;
         if (config.getDispatchPattern() != null) {
-            Pattern pattern = compilePattern(config.getDispatchPattern());
-            addDispatchPattern(tenantDomain, port, pattern);
+            pattern = compilePattern(config.getDispatchPattern());
         }
+        putDispatchEntry(port, new InboundHttpDispatchTable.Entry(tenantDomain, config.getName(), pattern,
+                workerPoolConfiguration));
     }
 
     /**
@@ -250,8 +253,7 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
         PrivilegedCarbonContext cc = PrivilegedCarbonContext.getThreadLocalCarbonContext();
         String tenantDomain = cc.getTenantDomain();
         dataStore.unregisterListeningEndpoint(port, tenantDomain);
-        removeWorkerPoolConfiguration(tenantDomain, port);
-        removeDispatchPattern(tenantDomain, port);
+        removeDispatchEntry(port, tenantDomain);
 
         if (!PassThroughInboundEndpointHandler.isEndpointRunning(port)) {
             log.info("Listener Endpoint is not started");
@@ -273,6 +275,8 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
                         InboundHttpConstants.INBOUND_WORKER_THREAD_KEEP_ALIVE_SEC))
                 .workerPoolQueueLength(params.getProperties().getProperty(
                         InboundHttpConstants.INBOUND_WORKER_POOL_QUEUE_LENGTH))
+                .workerPoolQueueWaitSlo(params.getProperties().getProperty(
+                        InboundHttpConstants.INBOUND_WORKER_POOL_QUEUE_WAIT_SLO))
                 .workerPoolThreadGroup(params.getProperties().getProperty(
                         InboundHttpConstants.INBOUND_THREAD_GROUP_ID))
                 .workerPoolThreadId(params.getProperties().getProperty(
@@ -304,21 +308,85 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
         }
     }
 
+    /**
+     * Dispatch table of the endpoints listening on a port
+     * @param port
+     * @return dispatch table, empty if no endpoint listens on the port
+     */
+    public InboundHttpDispatchTable getDispatchTable(int port) {
+        InboundHttpDispatchTable table = dispatchTables.get(port);
+        return table != null ? table : InboundHttpDispatchTable.EMPTY;
+    }
+
+    /**
+     * Publishes the entry in the dispatch table of the port. The worker pool of the previous entry is kept if the
+     * worker pool configuration did not change, and replaced otherwise. The previous pool is shut down before the
+     * new one is created, since the new pool registers its MBean under the same name, which the shutdown of the
+     * previous pool would unregister otherwise.
+     */
+    private synchronized void putDispatchEntry(int port, InboundHttpDispatchTable.Entry entry) {
+        InboundHttpDispatchTable table = getDispatchTable(port);
+        InboundHttpDispatchTable.Entry previous = table.getEntry(entry.getTenantDomain());
+        InboundHttpWorkerPool previousWorkerPool = previous != null ? previous.getWorkerPool() : null;
+        if (previousWorkerPool != null && entry.getWorkerPoolConfiguration() != null
+                && entry.getWorkerPoolConfiguration().equals(previous.getWorkerPoolConfiguration())) {
+            dispatchTables.put(port, table.with(entry.withWorkerPool(previousWorkerPool)));
+            return;
+        }
+        if (previousWorkerPool != null) {
+            // requests are served by the shared worker pool until the new pool is published
+            dispatchTables.put(port, table.with(entry.withWorkerPool(null)));
+            previousWorkerPool.shutdown();
+        }
+        if (entry.getWorkerPoolConfiguration() != null) {
+            entry = entry.withWorkerPool(new InboundHttpWorkerPool(getWorkerPoolName(port, entry),
+                                                                   entry.getWorkerPoolConfiguration()));
+        }
+        dispatchTables.put(port, table.with(entry));
+    }
+
+    private synchronized void removeDispatchEntry(int port, String tenantDomain) {
+        InboundHttpDispatchTable table = getDispatchTable(port);
+        InboundHttpDispatchTable.Entry previous = table.getEntry(tenantDomain);
+        table = table.without(tenantDomain);
+        if (table.isEmpty()) {
+            dispatchTables.remove(port);
+        } else {
+            dispatchTables.put(port, table);
+        }
+        if (previous != null && previous.getWorkerPool() != null) {
+            previous.getWorkerPool().shutdown();
+        }
+    }
+
+    private String getWorkerPoolName(int port, InboundHttpDispatchTable.Entry entry) {
+        String name = entry.getEndpointName() != null ? entry.getEndpointName() : String.valueOf(port);
+        if (!MultitenantConstants.SUPER_TENANT_DOMAIN_NAME.equals(entry.getTenantDomain())) {
+            name = name + "@" + entry.getTenantDomain();
+        }
+        return name;
+    }
+
+    /**
+     * Entry of the tenant in the dispatch table of the port, created if there is none
+     */
+    private InboundHttpDispatchTable.Entry getOrCreateDispatchEntry(String tenantDomain, int port) {
+        InboundHttpDispatchTable.Entry entry = getDispatchTable(port).getEntry(tenantDomain);
+        if (entry == null) {
+            entry = new InboundHttpDispatchTable.Entry(tenantDomain, getEndpointName(port, tenantDomain), null, null);
+        }
+        return entry;
+    }
+
     /**
      *Method for add worker pool configs
      * @param tenantDomain
      * @param port
      * @param workerPoolConfiguration
      */
-    public void addWorkerPool(String tenantDomain,int port ,WorkerPoolConfiguration workerPoolConfiguration){
-        ConcurrentHashMap concurrentHashMap = workerPoolMap.get(tenantDomain);
-        if(concurrentHashMap == null){
-            concurrentHashMap = new ConcurrentHashMap<Integer, WorkerPoolConfiguration>();
-            concurrentHashMap.put(port,workerPoolConfiguration);
-            workerPoolMap.put(tenantDomain,concurrentHashMap);
-        } else {
-            concurrentHashMap.put(port,workerPoolConfiguration);
-        }
+    public synchronized void addWorkerPool(String tenantDomain,int port ,WorkerPoolConfiguration workerPoolConfiguration){
+        putDispatchEntry(port, getOrCreateDispatchEntry(tenantDomain, port)
+                .withWorkerPoolConfiguration(workerPoolConfiguration));
     }
 
     /**
@@ -328,14 +396,8 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
      * @return
      */
     public WorkerPoolConfiguration getWorkerPoolConfiguration(String tenantDomain, int port){
-        ConcurrentHashMap concurrentHashMap = workerPoolMap.get(tenantDomain);
-        if(concurrentHashMap != null){
-          Object val = concurrentHashMap.get(port);
-            if(val instanceof WorkerPoolConfiguration){
-                return (WorkerPoolConfiguration)val;
-            }
-        }
-        return  null;
+        InboundHttpDispatchTable.Entry entry = getDispatchTable(port).getEntry(tenantDomain);
+        return entry != null ? entry.getWorkerPoolConfiguration() : null;
     }
 
     /**
@@ -343,12 +405,10 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
      * @param tenantDomian Tenant Domain
      * @param port Port
      */
-    public void removeWorkerPoolConfiguration(String tenantDomian, int port ){
-        ConcurrentHashMap concurrentHashMap = workerPoolMap.get(tenantDomian);
-        if(concurrentHashMap != null){
-           if(concurrentHashMap.containsKey(port)){
-               concurrentHashMap.remove(port);
-           }
+    public synchronized void removeWorkerPoolConfiguration(String tenantDomian, int port ){
+        InboundHttpDispatchTable.Entry entry = getDispatchTable(port).getEntry(tenantDomian);
+        if (entry != null) {
+            putDispatchEntry(port, entry.withWorkerPoolConfiguration(null));
         }
     }
 
@@ -357,15 +417,8 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
      * @param tenantDomain
      * @param port
      */
-    public void addDispatchPattern(String tenantDomain, int port, Pattern pattern) {
-        ConcurrentHashMap concurrentHashMap = dispatchPatternMap.get(tenantDomain);
-        if(concurrentHashMap == null){
-            concurrentHashMap = new ConcurrentHashMap<Integer, Pattern>();
-            concurrentHashMap.put(port, pattern);
-            dispatchPatternMap.put(tenantDomain, concurrentHashMap);
-        } else {
-            concurrentHashMap.put(port, pattern);
-        }
+    public synchronized void addDispatchPattern(String tenantDomain, int port, Pattern pattern) {
+        putDispatchEntry(port, getOrCreateDispatchEntry(tenantDomain, port).withDispatchPattern(pattern));
     }
 
     /**
@@ -373,12 +426,10 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
      * @param tenantDomain
      * @param port
      */
-    public void removeDispatchPattern(String tenantDomain, int port) {
-        ConcurrentHashMap concurrentHashMap = dispatchPatternMap.get(tenantDomain);
-        if(concurrentHashMap != null){
-            if(concurrentHashMap.containsKey(port)){
-                concurrentHashMap.remove(port);
-            }
+    public synchronized void removeDispatchPattern(String tenantDomain, int port) {
+        InboundHttpDispatchTable.Entry entry = getDispatchTable(port).getEntry(tenantDomain);
+        if (entry != null) {
+            putDispatchEntry(port, entry.withDispatchPattern(null));
         }
     }
 
@@ -389,14 +440,8 @@ public class HTTPEndpointManager extends AbstractInboundEndpointManager {
      * @return
      */
     public Pattern getPattern(String tenantDomain, int port){
-        ConcurrentHashMap concurrentHashMap = dispatchPatternMap.get(tenantDomain);
-        if(concurrentHashMap != null){
-            Object val = concurrentHashMap.get(port);
-            if(val instanceof Pattern){
-                return (Pattern) val;
-            }
-        }
-        return  null;
+        InboundHttpDispatchTable.Entry entry = getDispatchTable(port).getEntry(tenantDomain);
+        return entry != null ? entry.getDispatchPattern() : null;
     }
 
     protected Pattern compilePattern(String dispatchPattern) {
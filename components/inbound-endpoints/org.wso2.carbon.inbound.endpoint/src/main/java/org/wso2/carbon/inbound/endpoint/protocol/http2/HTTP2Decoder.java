@@ -18,7 +18,7 @@
 
 package org.wso2.carbon.inbound.endpoint.protocol.http2;
 
-import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http2.Http2DataFrame;
 import org.apache.http.nio.ContentDecoder;
 
@@ -26,11 +26,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
- * Write data frames into Pass-through-pipe
+ * Decodes the content of a DATA frame into the pipe. Only as much content as the pipe has room for is read, the
+ * rest is left in the frame.
  */
 public class HTTP2Decoder implements ContentDecoder {
 	Http2DataFrame dataFrame = null;
-	boolean complete = false;
 
 	public HTTP2Decoder(Http2DataFrame dataFrame) {
 		this.dataFrame = dataFrame;
@@ -38,15 +38,19 @@ public class HTTP2Decoder implements ContentDecoder {
 
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
-		complete = false;
-		byte[] data = ByteBufUtil.getBytes(dataFrame.content());
-		dst.put(data);
-		complete = true;
-		return data.length;
+		ByteBuf content = dataFrame.content();
+		int length = Math.min(dst.remaining(), content.readableBytes());
+		if (length > 0) {
+			int limit = dst.limit();
+			dst.limit(dst.position() + length);
+			content.readBytes(dst);
+			dst.limit(limit);
+		}
+		return length;
 	}
 
 	@Override
 	public boolean isCompleted() {
-		return dataFrame.isEndStream() & complete;
+		return dataFrame.isEndStream() && !dataFrame.content().isReadable();
 	}
 }
@@ -22,16 +22,30 @@ import org.apache.http.nio.IOControl;
 
 import java.io.IOException;
 
+/**
+ * Producer side of the pipe of a request stream. The pipe suspends the input when it is full and requests it again
+ * once the consumer has drained it, which holds back the DATA frames of the stream and so its flow control window.
+ */
 public class HTTP2Producer implements IOControl {
 
+	private final Http2RequestReader reader;
+	private final Http2SourceRequest request;
+
+	public HTTP2Producer(Http2RequestReader reader, Http2SourceRequest request) {
+		this.reader = reader;
+		this.request = request;
+	}
+
 	@Override
 	public void requestInput() {
-
+		if (request.resumeInput()) {
+			reader.resumeStream(request);
+		}
 	}
 
 	@Override
 	public void suspendInput() {
-
+		request.suspendInput();
 	}
 
 	@Override
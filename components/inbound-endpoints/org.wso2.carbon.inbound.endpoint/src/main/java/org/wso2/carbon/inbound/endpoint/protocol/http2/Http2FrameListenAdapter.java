@@ -47,7 +47,8 @@ public class Http2FrameListenAdapter extends Http2EventAdapter {
 		DefaultHttp2DataFrame frame = new DefaultHttp2DataFrame(data, endOfStream, padding);
 		frame.setStreamId(streamId);
 		ctx.fireChannelRead(frame);
-		return super.onDataRead(ctx, streamId, data, padding, endOfStream);
+		// the data is returned to the flow control window by Http2RequestReader as it is written to the pipe
+		return padding;
 	}
 
 	@Override
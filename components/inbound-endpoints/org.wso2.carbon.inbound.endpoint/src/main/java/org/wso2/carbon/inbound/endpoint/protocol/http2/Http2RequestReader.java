@@ -18,12 +18,16 @@
 
 package org.wso2.carbon.inbound.endpoint.protocol.http2;
 
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.Http2Connection;
 import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2GoAwayFrame;
 import io.netty.handler.codec.http2.Http2HeadersFrame;
 import io.netty.handler.codec.http2.Http2ResetFrame;
-import org.apache.axis2.AxisFault;
+import io.netty.handler.codec.http2.Http2Stream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.synapse.transport.passthru.Pipe;
@@ -32,24 +36,29 @@ import org.apache.synapse.transport.passthru.config.SourceConfiguration;
 import org.wso2.carbon.inbound.endpoint.protocol.http2.common.InboundMessageHandler;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 
 /**
  * Handle Http2 Request Frames
+ *
+ * The frames of a connection are read on its event loop. A request is handed over to the pass-through worker pool
+ * once its headers are read, and its body is streamed into the pipe of the request as the DATA frames arrive. The
+ * bytes of a DATA frame are returned to the flow control window only when they are written to the pipe, so a peer
+ * sending faster than the request is mediated is held back by the window of the stream.
  */
 
 public class Http2RequestReader {
 	private static final Log log = LogFactory.getLog(Http2RequestReader.class);
 
 	private ChannelHandlerContext chContext;
-	private Map<Integer, Http2SourceRequest> requestMap;
+	private final Http2StreamTable streams = new Http2StreamTable();
+	private final Http2Connection connection;
 	private InboundMessageHandler messageHandler;
 	private SourceConfiguration sourceConfiguration;
 
-	public Http2RequestReader() {
-		requestMap = new TreeMap<>();
+	public Http2RequestReader(Http2Connection connection) {
+		this.connection = connection;
 		try {
 			sourceConfiguration =
 					PassThroughInboundEndpointHandler.getPassThroughSourceConfiguration();
@@ -68,25 +77,28 @@ public class Http2RequestReader {
 	 * @param frame
 	 */
 	public void onHeaderRead(Http2HeadersFrame frame) {
-		Http2SourceRequest request;
-		if (requestMap.containsKey(frame.streamId())) {
-			request = requestMap.get(frame.streamId());
-		} else {
-			request = new Http2SourceRequest(frame.streamId(), chContext);
+		int streamId = frame.streamId();
+		Http2SourceRequest request = streams.get(streamId);
+		if (request != null && request.isProcessedReq()) {
+			// trailers, the request is already being mediated
+			if (frame.isEndStream()) {
+				DefaultHttp2DataFrame endOfStream = new DefaultHttp2DataFrame(Unpooled.EMPTY_BUFFER, true);
+				endOfStream.setStreamId(streamId);
+				onDataRead(endOfStream);
+			}
+			return;
+		}
+		if (request == null) {
+			request = new Http2SourceRequest(streamId, chContext);
 			request.setRequestType(Http2Constants.HTTP2_CLIENT_SENT_REQEUST);
-			requestMap.put(frame.streamId(), request);
+			streams.put(streamId, request);
 		}
-		Set<CharSequence> headerSet = frame.headers().names();
-		for (CharSequence header : headerSet) {
-			request.setHeader(header.toString(), frame.headers().get(header).toString());
+		for (Map.Entry<CharSequence, CharSequence> header : frame.headers()) {
+			request.setHeader(header.getKey().toString(), header.getValue().toString());
 		}
 		if (frame.isEndStream()) {
-			try {
-				messageHandler.processRequest(request);
-				requestMap.remove(frame.streamId());
-			} catch (Exception e) {
-				log.error(e);
-			}
+			streams.remove(streamId);
+			processRequest(request);
 		}
 	}
 
@@ -97,38 +109,99 @@ public class Http2RequestReader {
 	 */
 	public void onDataRead(Http2DataFrame frame) {
 		int streamId = frame.streamId();
-		Http2SourceRequest request = null;
-
-		if (!requestMap.containsKey(streamId)) {
+		Http2SourceRequest request = streams.get(streamId);
+		if (request == null) {
+			returnBytes(streamId, frame.content().readableBytes());
 			return;
 		}
-
-		request = requestMap.get(streamId);
-
 		request.setChannel(chContext);
 
-		Pipe pipe = request.getPipe();
-		if (pipe == null) {
-			pipe = new Pipe(new HTTP2Producer(), sourceConfiguration.getBufferFactory().getBuffer(),
-			                "source", sourceConfiguration);
-			request.setPipe(pipe);
-		}
-		try {
-			pipe.produce(new HTTP2Decoder(frame));
-		} catch (IOException e) {
-			log.error(e);
+		if (request.getPipe() == null) {
+			request.setPipe(new Pipe(new HTTP2Producer(this, request),
+			                         sourceConfiguration.getBufferFactory().getBuffer(), "source",
+			                         sourceConfiguration));
 		}
+		// the frame is released by the frame reader once read, keep it until it is written to the pipe
+		frame.retain();
+		request.getPendingFrames().add(frame);
+		produce(request);
 		if (!request.isProcessedReq()) {
+			processRequest(request);
+		}
+	}
+
+	/**
+	 * Write the pending DATA frames of the stream to its pipe until the pipe is full
+	 */
+	private void produce(Http2SourceRequest request) {
+		ArrayDeque<Http2DataFrame> pendingFrames = request.getPendingFrames();
+		Http2DataFrame frame;
+		while (!request.isInputSuspended() && (frame = pendingFrames.peek()) != null) {
+			int length = frame.content().readableBytes();
 			try {
-				messageHandler.processRequest(request);
-				request.setProcessedReq(true);
-			} catch (AxisFault axisFault) {
-				log.error(axisFault);
+				request.getPipe().produce(new HTTP2Decoder(frame));
+			} catch (IOException e) {
+				log.error("Error while writing the request body of stream " + request.getStreamID(), e);
+			}
+			returnBytes(request.getStreamID(), length - frame.content().readableBytes());
+			if (frame.content().isReadable()) {
+				break;
+			}
+			pendingFrames.poll();
+			frame.release();
+			if (frame.isEndStream()) {
+				streams.remove(request.getStreamID());
+			}
+		}
+	}
+
+	/**
+	 * Resume writing the pending DATA frames of a stream once the consumer has drained its pipe. Called by the
+	 * consumer, so the frames are written on the event loop.
+	 */
+	void resumeStream(final Http2SourceRequest request) {
+		chContext.channel().eventLoop().execute(new Runnable() {
+			@Override
+			public void run() {
+				produce(request);
+				// the window updates are flushed by the connection handler only after a read
+				chContext.flush();
 			}
+		});
+	}
+
+	/**
+	 * Return the bytes read from the peer to the flow control windows of the stream and the connection. The bytes
+	 * of a closed stream are returned by the flow controller itself.
+	 */
+	private void returnBytes(int streamId, int length) {
+		Http2Stream stream = connection.stream(streamId);
+		if (length <= 0 || stream == null) {
+			return;
 		}
-		if (frame.isEndStream())
-			requestMap.remove(request.getStreamID());
+		try {
+			connection.local().flowController().consumeBytes(stream, length);
+		} catch (Http2Exception e) {
+			log.error("Error while updating the flow control window of stream " + streamId, e);
+		}
+	}
 
+	/**
+	 * Hand over the request to the pass-through worker pool, so that the event loop goes on reading the frames of
+	 * the connection while the request is mediated
+	 */
+	private void processRequest(final Http2SourceRequest request) {
+		request.setProcessedReq(true);
+		sourceConfiguration.getWorkerPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					messageHandler.processRequest(request);
+				} catch (Exception e) {
+					log.error("Error while processing the request of stream " + request.getStreamID(), e);
+				}
+			}
+		});
 	}
 
 	/**
@@ -146,8 +219,37 @@ public class Http2RequestReader {
 	 * @param frame
 	 */
 	public void onRstSteamRead(Http2ResetFrame frame) {
-		if (requestMap.containsKey(frame.streamId())) {
-			requestMap.remove(frame.streamId());
+		Http2SourceRequest request = streams.remove(frame.streamId());
+		if (request != null) {
+			closeStream(request);
+		}
+	}
+
+	/**
+	 * Release the streams of the connection once it is closed
+	 */
+	public void onChannelInactive() {
+		for (Http2SourceRequest request : streams.values()) {
+			streams.remove(request.getStreamID());
+			closeStream(request);
+		}
+	}
+
+	/**
+	 * Release the pending frames of a stream which will not complete, and fail its body. The producer error of the
+	 * pipe is what the pass-through transport raises when an HTTP/1.1 connection fails, so a consumer waiting for
+	 * the body is released with an error instead of taking a truncated body for a complete one.
+	 */
+	private void closeStream(Http2SourceRequest request) {
+		Http2DataFrame frame;
+		while ((frame = request.getPendingFrames().poll()) != null) {
+			frame.release();
+		}
+		if (request.getPipe() != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Request body of stream " + request.getStreamID() + " is incomplete, the stream was closed");
+			}
+			request.getPipe().producerError();
 		}
 	}
 
@@ -19,36 +19,42 @@
 package org.wso2.carbon.inbound.endpoint.protocol.http2;
 
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http2.Http2Frame;
-import org.apache.log4j.Logger;
+import io.netty.handler.codec.http2.Http2DataFrame;
 import org.apache.synapse.transport.passthru.Pipe;
 
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Wrapping class to carry peer's request to InboundMessageHandler
+ *
+ * Headers are kept in flat arrays in the order they were received and looked up case insensitively, which is
+ * cheaper than a sorted map for the few headers of a request. DATA frames which do not fit into the pipe are kept
+ * in order until the pipe has room again.
  */
 public class Http2SourceRequest {
+	private static final int INITIAL_HEADER_CAPACITY = 16;
+
 	private Pipe pipe = null;
-	private Logger log = Logger.getLogger(Http2SourceRequest.class);
 	private int streamID;
 	private ChannelHandlerContext channel;
-	private HashMap<Byte, Http2Frame> frames = new HashMap<Byte, Http2Frame>();
-	private Map<String, String> headers = new TreeMap<String, String>(new Comparator<String>() {
-		public int compare(String o1, String o2) {
-			return o1.compareToIgnoreCase(o2);
-		}
-	});
+	private String[] headerNames = new String[INITIAL_HEADER_CAPACITY];
+	private String[] headerValues = new String[INITIAL_HEADER_CAPACITY];
+	private int headerCount;
 	private String method = null;
 	private String uri = null;
 	private String scheme = null;
 	private boolean processedReq = false;
 
 	private String requestType = null;
-	private Map<String, String> excessHeaders = new TreeMap<String, String>();
+	private Map<String, String> excessHeaders;
+
+	// DATA frames received while the pipe is full, only accessed from the event loop of the connection
+	private final ArrayDeque<Http2DataFrame> pendingFrames = new ArrayDeque<Http2DataFrame>(4);
+	private final AtomicBoolean inputSuspended = new AtomicBoolean();
 
 	public Http2SourceRequest(int streamID, ChannelHandlerContext channel) {
 		this.streamID = streamID;
@@ -66,11 +72,9 @@ public class Http2SourceRequest {
 	public String getScheme() {
 		if (scheme != null) {
 			return scheme;
-		} else if (headers.containsKey("scheme")) {
-			return headers.get("scheme");
-		} else {
-			return "http";
 		}
+		String value = getHeader("scheme");
+		return value != null ? value : "http";
 	}
 
 	public int getStreamID() {
@@ -78,6 +82,9 @@ public class Http2SourceRequest {
 	}
 
 	public Map<String, String> getExcessHeaders() {
+		if (excessHeaders == null) {
+			return Collections.emptyMap();
+		}
 		return excessHeaders;
 	}
 
@@ -89,19 +96,23 @@ public class Http2SourceRequest {
 		this.channel = channel;
 	}
 
-	public Map<String, String> getHeaders() {
+	public int getHeaderCount() {
+		return headerCount;
+	}
+
+	public String getHeaderName(int index) {
+		return headerNames[index];
+	}
 
-		return headers;
+	public String getHeaderValue(int index) {
+		return headerValues[index];
 	}
 
 	public String getMethod() {
 		if (method != null) {
 			return method;
-		} else if (headers.containsKey("method")) {
-			return headers.get("method");
-		} else {
-			return null;
 		}
+		return getHeader("method");
 	}
 
 	public void setMethod(String method) {
@@ -109,24 +120,20 @@ public class Http2SourceRequest {
 	}
 
 	public String getHeader(String key) {
-		if (headers.containsKey(key)) {
-			return headers.get(key);
-		} else {
-			return null;
-		}
+		int index = indexOfHeader(key);
+		return index == -1 ? null : headerValues[index];
 	}
 
 	public String getUri() {
 		if (uri != null) {
 			return uri;
-		} else if (headers.containsKey("path")) {
-			uri = headers.get("path");
-			if (uri.charAt(0) != '/')
-				uri = '/' + uri;
-			return uri;
-		} else {
+		}
+		String path = getHeader("path");
+		if (path == null) {
 			return null;
 		}
+		uri = path.length() > 0 && path.charAt(0) == '/' ? path : '/' + path;
+		return uri;
 	}
 
 	public void setUri(String uri) {
@@ -135,21 +142,15 @@ public class Http2SourceRequest {
 
 	@Override
 	public String toString() {
-		String name = "";
-		name += "Stream Id:" + streamID + "/n";
-		if (headers.size() > 0) {
-			name += "Headers:/n";
-			for (Map.Entry h : headers.entrySet()) {
-				name += h.getKey() + ":" + h.getValue() + "/n";
-			}
-		}
-		if (frames.size() > 0) {
-			name += "Frames : /n";
-			for (Map.Entry h : frames.entrySet()) {
-				name += h.getKey().toString() + ":" + h.getValue() + "/n";
+		StringBuilder name = new StringBuilder();
+		name.append("Stream Id:").append(streamID).append("/n");
+		if (headerCount > 0) {
+			name.append("Headers:/n");
+			for (int i = 0; i < headerCount; i++) {
+				name.append(headerNames[i]).append(":").append(headerValues[i]).append("/n");
 			}
 		}
-		return name;
+		return name.toString();
 	}
 
 	public void setHeader(String key, String value) {
@@ -159,11 +160,33 @@ public class Http2SourceRequest {
 		if (key.equalsIgnoreCase("authority")) {
 			key = "host";
 		}
-		if (headers.containsKey(key)) {
+		if (indexOfHeader(key) != -1) {
+			if (excessHeaders == null) {
+				excessHeaders = new TreeMap<String, String>();
+			}
 			excessHeaders.put(key, value);
-		} else {
-			headers.put(key, value);
+			return;
+		}
+		if (headerCount == headerNames.length) {
+			String[] newNames = new String[headerCount << 1];
+			String[] newValues = new String[headerCount << 1];
+			System.arraycopy(headerNames, 0, newNames, 0, headerCount);
+			System.arraycopy(headerValues, 0, newValues, 0, headerCount);
+			headerNames = newNames;
+			headerValues = newValues;
+		}
+		headerNames[headerCount] = key;
+		headerValues[headerCount] = value;
+		headerCount++;
+	}
+
+	private int indexOfHeader(String key) {
+		for (int i = 0; i < headerCount; i++) {
+			if (headerNames[i].equalsIgnoreCase(key)) {
+				return i;
+			}
 		}
+		return -1;
 	}
 
 	public boolean isProcessedReq() {
@@ -181,5 +204,23 @@ public class Http2SourceRequest {
 	public void setPipe(Pipe pipe) {
 		this.pipe = pipe;
 	}
-}
 
+	ArrayDeque<Http2DataFrame> getPendingFrames() {
+		return pendingFrames;
+	}
+
+	boolean isInputSuspended() {
+		return inputSuspended.get();
+	}
+
+	void suspendInput() {
+		inputSuspended.set(true);
+	}
+
+	/**
+	 * @return true if the input was suspended, i.e. the pending frames have to be produced again
+	 */
+	boolean resumeInput() {
+		return inputSuspended.compareAndSet(true, false);
+	}
+}
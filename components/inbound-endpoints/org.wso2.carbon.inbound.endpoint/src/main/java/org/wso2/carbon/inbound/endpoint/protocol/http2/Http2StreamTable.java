@@ -0,0 +1,135 @@
+/*
+ *   Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *   WSO2 Inc. licenses this file to you under the Apache License,
+ *   Version 2.0 (the "License"); you may not use this file except
+ *   in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.wso2.carbon.inbound.endpoint.protocol.http2;
+
+/**
+ * Open addressing table of the active streams of a connection, keyed by the stream id.
+ *
+ * The table is only accessed from the event loop of the connection, so it needs neither locks nor atomics. Stream
+ * ids are kept as primitive ints and removal shifts back the following entries of the probe sequence, so that
+ * opening and closing streams does not allocate once the table has grown to the number of concurrent streams.
+ */
+public class Http2StreamTable {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[] keys;
+	private Http2SourceRequest[] values;
+	private int size;
+	private int mask;
+
+	public Http2StreamTable() {
+		keys = new int[INITIAL_CAPACITY];
+		values = new Http2SourceRequest[INITIAL_CAPACITY];
+		mask = INITIAL_CAPACITY - 1;
+	}
+
+	public Http2SourceRequest get(int streamId) {
+		int index = indexOf(streamId);
+		return index == -1 ? null : values[index];
+	}
+
+	public void put(int streamId, Http2SourceRequest request) {
+		int index = hash(streamId);
+		while (values[index] != null) {
+			if (keys[index] == streamId) {
+				values[index] = request;
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = streamId;
+		values[index] = request;
+		if (++size > (keys.length >> 1)) {
+			grow();
+		}
+	}
+
+	public Http2SourceRequest remove(int streamId) {
+		int index = indexOf(streamId);
+		if (index == -1) {
+			return null;
+		}
+		Http2SourceRequest removed = values[index];
+		values[index] = null;
+		size--;
+		// move back the entries which would not be found through the emptied slot
+		int next = (index + 1) & mask;
+		while (values[next] != null) {
+			int home = hash(keys[next]);
+			if (((next - home) & mask) >= ((next - index) & mask)) {
+				keys[index] = keys[next];
+				values[index] = values[next];
+				values[next] = null;
+				index = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return removed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Streams of the table, e.g. to release them when the connection closes
+	 */
+	public Http2SourceRequest[] values() {
+		Http2SourceRequest[] requests = new Http2SourceRequest[size];
+		int count = 0;
+		for (Http2SourceRequest request : values) {
+			if (request != null) {
+				requests[count++] = request;
+			}
+		}
+		return requests;
+	}
+
+	private int indexOf(int streamId) {
+		int index = hash(streamId);
+		while (values[index] != null) {
+			if (keys[index] == streamId) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int hash(int streamId) {
+		// client stream ids are consecutive odd numbers, spread them over the table
+		int h = streamId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		Http2SourceRequest[] oldValues = values;
+		keys = new int[oldKeys.length << 1];
+		values = new Http2SourceRequest[oldValues.length << 1];
+		mask = keys.length - 1;
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
@@ -26,6 +26,7 @@ import io.netty.handler.codec.http2.Http2ConnectionEncoder;
 import io.netty.handler.codec.http2.Http2DataFrame;
 import io.netty.handler.codec.http2.Http2GoAwayFrame;
 import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ResetFrame;
 import org.apache.axis2.AxisFault;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,7 +48,7 @@ public class InboundHttp2SourceHandler extends ChannelDuplexHandler {
 	public InboundHttp2SourceHandler(InboundHttp2Configuration config, Http2Connection connection,
 	                                 Http2ConnectionEncoder encoder) {
 		this.config = config;
-		this.reader = new Http2RequestReader();
+		this.reader = new Http2RequestReader(connection);
 		this.writer = new Http2ResponseWriter();
 		writer.setEncoder(encoder);
 		writer.setConnection(connection);
@@ -82,11 +83,20 @@ public class InboundHttp2SourceHandler extends ChannelDuplexHandler {
 		} else if (msg instanceof Http2GoAwayFrame) {
 			reader.onGoAwayRead((Http2GoAwayFrame) msg);
 
+		} else if (msg instanceof Http2ResetFrame) {
+			reader.onRstSteamRead((Http2ResetFrame) msg);
+
 		} else {
 			super.channelRead(ctx, msg);
 		}
 	}
 
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		reader.onChannelInactive();
+		super.channelInactive(ctx);
+	}
+
 	@Override
 	public void channelActive(ChannelHandlerContext ctx) throws Exception {
 		this.chContext = ctx;
@@ -72,10 +72,7 @@ import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 import javax.xml.parsers.FactoryConfigurationError;
 import java.io.InputStream;
 import java.net.SocketAddress;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -90,7 +87,6 @@ public class InboundMessageHandler {
 	public final Pattern dispatchPattern;
 	private InboundResponseSender responseSender;
 	private InboundHttp2Configuration config;
-	private Matcher patternMatcher;
 
 	public InboundMessageHandler(InboundResponseSender responseSender,
 	                             InboundHttp2Configuration config) {
@@ -171,7 +167,7 @@ public class InboundMessageHandler {
 		}
 		boolean continueDispatch = true;
 		if (dispatchPattern != null) {
-			patternMatcher = dispatchPattern.matcher(request.getUri());
+			Matcher patternMatcher = dispatchPattern.matcher(request.getUri());
 			if (!patternMatcher.matches()) {
 				if (log.isDebugEnabled()) {
 					log.debug("Requested URI does not match given dispatch regular expression.");
@@ -621,17 +617,9 @@ public class InboundMessageHandler {
 		msgContext.setProperty("OutTransportInfo", this);
 		msgContext.setServerSide(true);
 		msgContext.setProperty("TransportInURL", request.getUri());
-		TreeMap<String, String> headers1 = new TreeMap<String, String>(new Comparator<String>() {
-			public int compare(String o1, String o2) {
-				return o1.compareToIgnoreCase(o2);
-			}
-		});
-		Set entries = request.getHeaders().entrySet();
-		Iterator netConn = entries.iterator();
-
-		while (netConn.hasNext()) {
-			Map.Entry remoteAddress = (Map.Entry) netConn.next();
-			headers1.put(remoteAddress.getKey().toString(), remoteAddress.getValue().toString());
+		TreeMap<String, String> headers1 = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		for (int i = 0; i < request.getHeaderCount(); i++) {
+			headers1.put(request.getHeaderName(i), request.getHeaderValue(i));
 		}
 
 		msgContext.setProperty("TRANSPORT_HEADERS", headers1);
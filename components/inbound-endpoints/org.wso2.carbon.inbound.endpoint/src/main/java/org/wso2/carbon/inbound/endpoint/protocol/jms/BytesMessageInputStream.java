@@ -29,6 +29,8 @@ import java.io.InputStream;
  */
 public class BytesMessageInputStream extends InputStream {
     private final BytesMessage message;
+    // reused for the reads into an offset of the caller's buffer, since the message only reads from offset 0
+    private byte[] buffer;
 
     public BytesMessageInputStream(BytesMessage message) {
         this.message = message;
@@ -54,10 +56,17 @@ public class BytesMessageInputStream extends InputStream {
                 throw new JMSExceptionWrapper(ex);
             }
         } else {
-            byte[] b2 = new byte[len];
-            int c = read(b2);
+            if (buffer == null || buffer.length < len) {
+                buffer = new byte[len];
+            }
+            int c;
+            try {
+                c = message.readBytes(buffer, len);
+            } catch (JMSException ex) {
+                throw new JMSExceptionWrapper(ex);
+            }
             if (c > 0) {
-                System.arraycopy(b2, 0, b, off, c); 
+                System.arraycopy(buffer, 0, b, off, c);
             }
             return c;
         }
@@ -205,6 +205,38 @@ public class JMSConstants {
 
     public static final String JMS_RETRY_DURATION = "transport.jms.retry.duration";
 
+    /**
+     * Maximum number of messages received, injected and then committed or acknowledged together. With
+     * sequential=false a batch is committed before the mediation of its messages completes (at-most-once delivery)
+     */
+    public static final String BATCH_SIZE = "transport.jms.BatchSize";
+
+    /**
+     * Maximum time in milliseconds spent on collecting a batch before it is committed or acknowledged
+     */
+    public static final String BATCH_TIMEOUT = "transport.jms.BatchTimeout";
+
+    public static final long DEFAULT_BATCH_TIMEOUT = 1000;
+
+    /**
+     * Whether the concurrent consumers of an inbound endpoint share a single connection, false by default
+     */
+    public static final String SHARED_CONNECTION = "transport.jms.SharedConnection";
+
+    /**
+     * Maximum time in milliseconds a concurrent consumer backs off after polls which did not receive a message
+     */
+    public static final String CONSUMER_MAX_IDLE_BACKOFF = "transport.jms.ConsumerMaxIdleBackoff";
+
+    public static final long DEFAULT_CONSUMER_MAX_IDLE_BACKOFF = 1000;
+
+    /**
+     * Time window in milliseconds over which the receive rate is observed to scale the concurrent consumers
+     */
+    public static final String CONSUMER_SCALING_WINDOW = "transport.jms.ConsumerScalingWindow";
+
+    public static final long DEFAULT_CONSUMER_SCALING_WINDOW = 5000;
+
     /**
      *  JMS 2.0 Parameters
      */
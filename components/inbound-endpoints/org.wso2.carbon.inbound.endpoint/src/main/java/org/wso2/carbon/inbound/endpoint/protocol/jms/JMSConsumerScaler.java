@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.jms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Scales the number of active concurrent consumers of a JMS inbound endpoint between a minimum and a maximum based
+ * on the observed receive rate. The polls of the active consumers are counted over a time window; when nearly all
+ * of them received messages the destination is backed up and one more consumer is activated, and when none of them
+ * received a message one consumer is deactivated. Inactive consumers skip their poll cycles without touching the
+ * broker.
+ */
+public class JMSConsumerScaler {
+
+    private static final Log logger = LogFactory.getLog(JMSConsumerScaler.class.getName());
+
+    private static final double SCALE_UP_RATIO = 0.9;
+
+    private final int minConsumers;
+    private final int maxConsumers;
+    private final long window;
+    private final String name;
+
+    private volatile int activeConsumers;
+    private long windowStart;
+    private long polls;
+    private long busyPolls;
+    private long receivedMessages;
+
+    public JMSConsumerScaler(int minConsumers, int maxConsumers, long window, String name) {
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+        this.window = window;
+        this.name = name;
+        this.activeConsumers = minConsumers;
+        this.windowStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Whether the consumer with the given index should poll the broker
+     *
+     * @param consumerIndex index of the consumer starting from 0
+     * @return true if the consumer is active
+     */
+    public boolean isActive(int consumerIndex) {
+        return consumerIndex < activeConsumers;
+    }
+
+    /**
+     * Records a poll of an active consumer and re-evaluates the number of active consumers at the end of the window
+     *
+     * @param received number of messages received by the poll
+     */
+    public synchronized void recordPoll(int received) {
+        polls++;
+        if (received > 0) {
+            busyPolls++;
+            receivedMessages += received;
+        }
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - windowStart < window) {
+            return;
+        }
+        int previous = activeConsumers;
+        if (busyPolls >= polls * SCALE_UP_RATIO && activeConsumers < maxConsumers) {
+            activeConsumers++;
+        } else if (busyPolls == 0 && activeConsumers > minConsumers) {
+            activeConsumers--;
+        }
+        if (previous != activeConsumers && logger.isDebugEnabled()) {
+            logger.debug("Active consumers of JMS Inbound : " + name + " changed from " + previous + " to "
+                    + activeConsumers + ". Received " + receivedMessages + " messages in " + (currentTime - windowStart)
+                    + " milliseconds");
+        }
+        windowStart = currentTime;
+        polls = 0;
+        busyPolls = 0;
+        receivedMessages = 0;
+    }
+
+    public int getActiveConsumers() {
+        return activeConsumers;
+    }
+}
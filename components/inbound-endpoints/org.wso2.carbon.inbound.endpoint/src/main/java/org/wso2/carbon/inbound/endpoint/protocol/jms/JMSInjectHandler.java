@@ -35,9 +35,8 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMFactory;
 import org.apache.axiom.om.OMNamespace;
 import org.apache.axiom.om.util.UUIDGenerator;
+import org.apache.axis2.AxisFault;
 import org.apache.axis2.builder.Builder;
-import org.apache.axis2.builder.BuilderUtil;
-import org.apache.axis2.builder.SOAPBuilder;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.format.DataSourceMessageBuilder;
 import org.apache.axis2.transport.TransportUtils;
@@ -54,6 +53,7 @@ import org.apache.synapse.mediators.MediatorFaultHandler;
 import org.apache.synapse.mediators.base.SequenceMediator;
 import org.apache.synapse.transport.customlogsetter.CustomLogSetter;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.inbound.endpoint.common.InboundInjectionPipeline;
 import org.wso2.carbon.inbound.endpoint.protocol.generic.GenericConstants;
 import org.wso2.carbon.inbound.endpoint.protocol.jms.factory.CachedJMSConnectionFactory;
 import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
@@ -72,6 +72,7 @@ public class JMSInjectHandler {
     private boolean sequential;
     private SynapseEnvironment synapseEnvironment;
     private Properties jmsProperties;
+    private InboundInjectionPipeline injectionPipeline;
     //Following is used when using reply destination
     private Connection connection;
     private Destination replyDestination;
@@ -83,9 +84,18 @@ public class JMSInjectHandler {
         this.sequential = sequential;
         this.synapseEnvironment = synapseEnvironment;
         this.jmsProperties = jmsProperties;
+        this.injectionPipeline = new InboundInjectionPipeline(injectingSeq, synapseEnvironment);
 
     }
 
+    /**
+     * Whether the messages are mediated in the polling thread, so that the mediation completes before the message
+     * is committed or acknowledged
+     */
+    public boolean isSequential() {
+        return sequential;
+    }
+
     /**
      * Invoke the mediation logic for the passed message
      * */
@@ -170,42 +180,11 @@ public class JMSInjectHandler {
             }
             
             // Determine the message builder to use
-            Builder builder;
-            if (contentType == null) {
-                log.debug("No content type specified. Using SOAP builder.");
-                builder = new SOAPBuilder();
-            } else {
-                int index = contentType.indexOf(';');
-                String type = index > 0 ? contentType.substring(0, index) : contentType;
-                builder = BuilderUtil.getBuilderFromSelector(type, axis2MsgCtx);
-                if (builder == null) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("No message builder found for type '" + type
-                                + "'. Falling back to SOAP.");
-                    }
-                    builder = new SOAPBuilder();
-                }
-            }
+            Builder builder = injectionPipeline.getBuilder(contentType, axis2MsgCtx);
             OMElement documentElement = null;
             // set the message payload to the message context
             try {
-                if (msg instanceof TextMessage) {
-                    String message = ((TextMessage) msg).getText();
-                    InputStream in = new AutoCloseInputStream(new ByteArrayInputStream(
-                            message.getBytes()));
-                    documentElement = builder.processDocument(in, contentType, axis2MsgCtx);
-                } else if (msg instanceof BytesMessage) {
-                    if (builder instanceof DataSourceMessageBuilder) {
-                        documentElement = ((DataSourceMessageBuilder) builder).processDocument(
-                                new BytesMessageDataSource((BytesMessage) msg), contentType,
-                                axis2MsgCtx);
-                    } else {
-                        documentElement = builder.processDocument(new BytesMessageInputStream(
-                                (BytesMessage) msg), contentType, axis2MsgCtx);
-                    }
-                } else if (msg instanceof MapMessage) {
-                    documentElement = convertJMSMapToXML((MapMessage) msg);
-                }
+                documentElement = buildPayload(msg, builder, contentType, axis2MsgCtx);
             } catch (Exception ex) {
                     // Handle message building error
                     log.error("Error while building the message", ex);
@@ -236,15 +215,11 @@ public class JMSInjectHandler {
                 log.error("Sequence name not specified. Sequence : " + injectingSeq);
                 return false;
             }
-            SequenceMediator seq = (SequenceMediator) synapseEnvironment.getSynapseConfiguration()
-                    .getSequence(injectingSeq);           
+            SequenceMediator seq = injectionPipeline.getSequence();
             if (seq != null) {
                 if (log.isDebugEnabled()) {
                     log.debug("injecting message to sequence : " + injectingSeq);
                 }
-                if (!seq.isInitialized()) {
-                    seq.init(synapseEnvironment);
-                }
                 SequenceMediator faultSequence = getFaultSequence(msgCtx, inboundEndpoint);
                 MediatorFaultHandler mediatorFaultHandler = new MediatorFaultHandler(faultSequence);
                 msgCtx.pushFaultHandler(mediatorFaultHandler);
@@ -288,6 +263,31 @@ public class JMSInjectHandler {
         return false;
     }
 
+    /**
+     * Build the payload of a text, bytes or map message. A bytes message is streamed to the builder, or handed over
+     * as a data source if the builder accepts one, and a map message is converted to XML.
+     *
+     * @return the payload, or null if the message type is not supported
+     */
+    static OMElement buildPayload(Message msg, Builder builder, String contentType, MessageContext axis2MsgCtx)
+            throws AxisFault, JMSException {
+        if (msg instanceof TextMessage) {
+            String message = ((TextMessage) msg).getText();
+            InputStream in = new AutoCloseInputStream(new ByteArrayInputStream(message.getBytes()));
+            return builder.processDocument(in, contentType, axis2MsgCtx);
+        } else if (msg instanceof BytesMessage) {
+            if (builder instanceof DataSourceMessageBuilder) {
+                return ((DataSourceMessageBuilder) builder).processDocument(
+                        new BytesMessageDataSource((BytesMessage) msg), contentType, axis2MsgCtx);
+            }
+            return builder.processDocument(new BytesMessageInputStream((BytesMessage) msg), contentType,
+                    axis2MsgCtx);
+        } else if (msg instanceof MapMessage) {
+            return convertJMSMapToXML((MapMessage) msg);
+        }
+        return null;
+    }
+
     /**
      * 
      * @param message
@@ -20,6 +20,7 @@ package org.wso2.carbon.inbound.endpoint.protocol.jms;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.inbound.endpoint.protocol.jms.factory.CachedJMSConnectionFactory;
+import org.wso2.carbon.inbound.endpoint.protocol.jms.factory.SharedJMSConnection;
 
 import java.util.Date;
 import java.util.Properties;
@@ -29,7 +30,6 @@ import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.Session;
-import javax.jms.TextMessage;
 
 public class JMSPollingConsumer {
 
@@ -51,6 +51,18 @@ public class JMSPollingConsumer {
     private int retryIteration;
     private double reconnectionProgressionFactor;
     private long maxReconnectDuration;
+    private int batchSize = 1;
+    private long batchTimeout = JMSConstants.DEFAULT_BATCH_TIMEOUT;
+    // number of messages to be processed one by one after a batch is rolled back
+    private int pendingRecovery = 0;
+    private JMSConsumerScaler consumerScaler;
+    private int consumerIndex;
+    private long maxIdleBackoff = JMSConstants.DEFAULT_CONSUMER_MAX_IDLE_BACKOFF;
+    // back off of this consumer after polls which did not receive a message
+    private long idleBackoff = 0;
+    private int receivedCount;
+    // whether the consumer polled since it was last deactivated by the scaler
+    private boolean active = true;
 
     private Connection connection = null;
     private Session session = null;
@@ -59,7 +71,26 @@ public class JMSPollingConsumer {
     private Destination replyDestination = null;
     
     public JMSPollingConsumer( Properties jmsProperties, long scanInterval, String name) {
-        this.jmsConnectionFactory = new CachedJMSConnectionFactory(jmsProperties);
+        this(jmsProperties, scanInterval, name, null, null, 0);
+    }
+
+    /**
+     * Creates one of the concurrent consumers of an inbound endpoint
+     *
+     * @param sharedConnection connection shared with the other consumers, or null to use a connection of its own
+     * @param consumerScaler   scaler which decides whether this consumer is active, or null if it is always active
+     * @param consumerIndex    index of this consumer starting from 0
+     */
+    public JMSPollingConsumer(Properties jmsProperties, long scanInterval, String name,
+                              SharedJMSConnection sharedConnection, JMSConsumerScaler consumerScaler,
+                              int consumerIndex) {
+        if (sharedConnection != null) {
+            this.jmsConnectionFactory = new CachedJMSConnectionFactory(jmsProperties, sharedConnection);
+        } else {
+            this.jmsConnectionFactory = new CachedJMSConnectionFactory(jmsProperties);
+        }
+        this.consumerScaler = consumerScaler;
+        this.consumerIndex = consumerIndex;
         strUserName = jmsProperties.getProperty(JMSConstants.PARAM_JMS_USERNAME);
         strPassword = jmsProperties.getProperty(JMSConstants.PARAM_JMS_PASSWORD);
         this.name = name;
@@ -87,6 +118,31 @@ public class JMSPollingConsumer {
                 this.reconnectDuration = null;
             }
         }
+        String strBatchSize = jmsProperties.getProperty(JMSConstants.BATCH_SIZE);
+        if (strBatchSize != null) {
+            try {
+                this.batchSize = Integer.parseInt(strBatchSize.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid value for transport.jms.BatchSize : " + strBatchSize);
+            }
+        }
+
+        String strBatchTimeout = jmsProperties.getProperty(JMSConstants.BATCH_TIMEOUT);
+        if (strBatchTimeout != null) {
+            try {
+                this.batchTimeout = Long.parseLong(strBatchTimeout.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid value for transport.jms.BatchTimeout : " + strBatchTimeout);
+            }
+        }
+        String strMaxIdleBackoff = jmsProperties.getProperty(JMSConstants.CONSUMER_MAX_IDLE_BACKOFF);
+        if (strMaxIdleBackoff != null) {
+            try {
+                this.maxIdleBackoff = Long.parseLong(strMaxIdleBackoff.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid value for transport.jms.ConsumerMaxIdleBackoff : " + strMaxIdleBackoff);
+            }
+        }
         this.replyDestinationName = jmsProperties.getProperty(JMSConstants.PARAM_REPLY_DESTINATION);
         this.scanInterval = scanInterval;
         this.lastRanTime = null;
@@ -101,6 +157,10 @@ public class JMSPollingConsumer {
      */
     public void registerHandler(JMSInjectHandler injectHandler) {
         this.injectHandler = injectHandler;
+        if (isBatchingEnabled() && !injectHandler.isSequential()) {
+            logger.warn("Batches of JMS Inbound : " + name + " are committed before the mediation of their "
+                    + "messages completes since sequential is false, failed messages will not be redelivered");
+        }
     }
 
     /**
@@ -114,9 +174,22 @@ public class JMSPollingConsumer {
             // Check if the cycles are running in correct interval and start
             // scan
             long currentTime = (new Date()).getTime();
-            if (lastRanTime == null || ((lastRanTime + (scanInterval)) <= currentTime)) {
+            if (consumerScaler != null && !consumerScaler.isActive(consumerIndex)) {
+                if (active) {
+                    deactivate();
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Skip cycle since the consumer " + consumerIndex + " is not active : JMS Inbound EP ");
+                }
+            } else if (lastRanTime == null || ((lastRanTime + scanInterval + idleBackoff) <= currentTime)) {
+                active = true;
                 lastRanTime = currentTime;
+                receivedCount = 0;
                 poll();
+                if (consumerScaler != null) {
+                    consumerScaler.recordPoll(receivedCount);
+                    updateIdleBackoff();
+                }
             } else if (logger.isDebugEnabled()) {
                 logger.debug("Skip cycle since concurrent rate is higher than the scan interval : JMS Inbound EP ");
             }
@@ -128,6 +201,34 @@ public class JMSPollingConsumer {
         }
     }
 
+    /**
+     * Closes the cached consumer and session of a consumer which is no longer active, so that the broker redelivers
+     * the messages prefetched to it to the active consumers, and releases its connection.
+     */
+    private void deactivate() {
+        active = false;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Releasing the JMS resources of the inactive consumer " + consumerIndex
+                    + " : JMS Inbound EP : " + name);
+        }
+        jmsConnectionFactory.release();
+        messageConsumer = null;
+        session = null;
+        connection = null;
+    }
+
+    /**
+     * Doubles the back off of this consumer after each poll which did not receive a message, up to the maximum idle
+     * back off, so that idle concurrent consumers do not keep polling an empty destination.
+     */
+    private void updateIdleBackoff() {
+        if (receivedCount > 0) {
+            idleBackoff = 0;
+        } else {
+            idleBackoff = Math.min(maxIdleBackoff, Math.max(idleBackoff * 2, Math.max(scanInterval, 1)));
+        }
+    }
+
     /**
      * Create connection with broker and retrieve the messages. Then inject
      * according to the registered handler
@@ -175,11 +276,15 @@ public class JMSPollingConsumer {
                 logger.debug("Inbound JMS Endpoint. No JMS message received.");
                 return null;
             }
+            if (injectHandler != null && isBatchingEnabled()) {
+                pollBatches(msg);
+                return null;
+            }
             while (msg != null) {
-                if (!JMSUtils.inferJMSMessageType(msg).equals(TextMessage.class.getName())) {
-                    logger.error("JMS " +
-                            "Inbound transport support JMS TextMessage type only. Found message type "
-                            + JMSUtils.inferJMSMessageType(msg));
+                receivedCount++;
+                if (!JMSUtils.isSupportedMessageType(msg)) {
+                    logger.error("JMS Inbound transport supports JMS TextMessage, BytesMessage and MapMessage "
+                            + "types only. Found message type " + JMSUtils.inferJMSMessageType(msg));
                     return null;
                 }
 
@@ -209,15 +314,7 @@ public class JMSPollingConsumer {
                         } else {
                             // Need to create a new consumer and session since
                             // we need to rollback the message
-                            if (messageConsumer != null) {
-                                jmsConnectionFactory.closeConsumer(messageConsumer);
-                            }
-                            if (session != null) {
-                                jmsConnectionFactory.closeSession(session);
-                            }
-                            session = jmsConnectionFactory.getSession(connection);
-                            messageConsumer = jmsConnectionFactory.getMessageConsumer(session,
-                                    destination);
+                            recreateSession();
                         }
                     }
                     // if session was transacted, commit it or rollback
@@ -289,6 +386,137 @@ public class JMSPollingConsumer {
         return null;
     }
     
+    /**
+     * Batching is used only when the messages are committed or acknowledged by the consumer
+     */
+    private boolean isBatchingEnabled() {
+        return batchSize > 1 && (jmsConnectionFactory.isTransactedSession()
+                || jmsConnectionFactory.getSessionAckMode() == Session.CLIENT_ACKNOWLEDGE);
+    }
+
+    /**
+     * Receives and injects the messages in batches of up to batchSize messages or batchTimeout milliseconds, and
+     * issues a single commit or a cumulative client acknowledgement per batch. A partial batch is committed once no
+     * further message is received within the batch timeout, regardless of the receive timeout. If a message of a batch fails, the
+     * whole batch is rolled back since JMS does not allow to roll back a part of a transaction, and the redelivered
+     * messages are then processed one by one so that only the failed message is rolled back again. A message of an
+     * unsupported type is dropped by committing it on its own, as the messages of a batch before it are rolled back
+     * and processed one by one first.
+     *
+     * The batch is committed once the injection of its messages returns. With sequential=false the injection
+     * returns before the mediation completes, so the messages of a batch are committed while they are still
+     * mediated, and a message whose mediation fails is not redelivered (at-most-once delivery).
+     *
+     * @param firstMessage first message of the first batch
+     * @throws JMSException on errors while receiving the messages
+     */
+    private void pollBatches(Message firstMessage) throws JMSException {
+        Message msg = firstMessage;
+        while (msg != null) {
+            int limit = pendingRecovery > 0 ? 1 : batchSize;
+            long deadline = System.currentTimeMillis() + batchTimeout;
+            Message lastMessage = null;
+            int count = 0;
+            boolean success = true;
+            while (msg != null) {
+                receivedCount++;
+                if (!JMSUtils.isSupportedMessageType(msg)) {
+                    logger.error("JMS Inbound transport supports JMS TextMessage, BytesMessage and MapMessage "
+                            + "types only. Found message type " + JMSUtils.inferJMSMessageType(msg));
+                    if (count > 0) {
+                        // the message can not be dropped apart from the messages injected before it, roll them
+                        // back to be processed one by one until the message is received on its own
+                        rollbackBatch(lastMessage, count + 1);
+                    } else {
+                        logger.warn("Dropping the message : " + msg.getJMSMessageID() + " of unsupported type");
+                        commitBatch(msg, 1);
+                        if (pendingRecovery > 0) {
+                            pendingRecovery--;
+                        }
+                    }
+                    return;
+                }
+                if (replyDestination != null) {
+                    injectHandler.setReplyDestination(replyDestination);
+                }
+                injectHandler.setConnection(connection);
+                lastMessage = msg;
+                count++;
+                if (!injectHandler.invoke(msg, name)) {
+                    success = false;
+                    break;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (count >= limit || remaining <= 0) {
+                    break;
+                }
+                // wait no longer than the batch timeout, so that a partial batch is not held open by a blocking
+                // receive
+                msg = messageConsumer.receive(Math.max(1, remaining));
+            }
+            if (pendingRecovery > 0) {
+                pendingRecovery = Math.max(0, pendingRecovery - count);
+            }
+            if (success) {
+                commitBatch(lastMessage, count);
+            } else {
+                rollbackBatch(lastMessage, count);
+            }
+            msg = receiveMessage(messageConsumer);
+        }
+    }
+
+    private void commitBatch(Message lastMessage, int count) {
+        try {
+            if (jmsConnectionFactory.isTransactedSession() && session.getTransacted()) {
+                session.commit();
+            } else if (jmsConnectionFactory.getSessionAckMode() == Session.CLIENT_ACKNOWLEDGE) {
+                // acknowledges all the messages consumed by the session so far
+                lastMessage.acknowledge();
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Batch of " + count + " messages ending with message : "
+                        + lastMessage.getJMSMessageID() + " committed");
+            }
+        } catch (JMSException e) {
+            logger.error("Error committing the batch of " + count + " messages in JMS Inbound : " + name, e);
+        }
+    }
+
+    private void rollbackBatch(Message lastMessage, int count) {
+        if (count > 1) {
+            // redelivered messages are processed one by one to isolate the failed message
+            pendingRecovery = count;
+        }
+        try {
+            if (jmsConnectionFactory.isTransactedSession() && session.getTransacted()) {
+                session.rollback();
+            } else if (jmsConnectionFactory.getSessionAckMode() == Session.CLIENT_ACKNOWLEDGE) {
+                recreateSession();
+            }
+            if (logger.isDebugEnabled() && lastMessage != null) {
+                logger.debug("Batch of " + count + " messages ending with message : "
+                        + lastMessage.getJMSMessageID() + " rolled back");
+            }
+        } catch (JMSException e) {
+            logger.error("Error rolling back the batch of " + count + " messages in JMS Inbound : " + name, e);
+        }
+    }
+
+    /**
+     * Creates a new session and consumer, so that the unacknowledged messages of the closed session are redelivered
+     */
+    private void recreateSession() {
+        if (messageConsumer != null) {
+            jmsConnectionFactory.closeConsumer(messageConsumer);
+        }
+        if (session != null) {
+            jmsConnectionFactory.closeSession(session);
+        }
+        session = jmsConnectionFactory.getSession(connection);
+        messageConsumer = jmsConnectionFactory.getMessageConsumer(session, destination);
+    }
+
     public void destroy(){
         if (messageConsumer != null) {
             jmsConnectionFactory.closeConsumer(messageConsumer, true);
@@ -29,6 +29,7 @@ import org.apache.synapse.task.TaskStartupObserver;
 import org.wso2.carbon.inbound.endpoint.common.InboundRequestProcessorImpl;
 import org.wso2.carbon.inbound.endpoint.common.InboundTask;
 import org.wso2.carbon.inbound.endpoint.protocol.PollingConstants;
+import org.wso2.carbon.inbound.endpoint.protocol.jms.factory.SharedJMSConnection;
 
 public class JMSProcessor extends InboundRequestProcessorImpl implements TaskStartupObserver {
 
@@ -42,6 +43,10 @@ public class JMSProcessor extends InboundRequestProcessorImpl implements TaskSta
     private String injectingSeq;
     private String onErrorSeq;
     private int concurrentConsumers;
+    private int minConcurrentConsumers;
+    private boolean sharedConnection;
+    private long scalingWindow;
+    private SharedJMSConnection jmsConnection;
 
     public JMSProcessor(InboundProcessorParams params) {
         this.name = params.getName();
@@ -73,6 +78,30 @@ public class JMSProcessor extends InboundRequestProcessorImpl implements TaskSta
             }
             this.concurrentConsumers = Integer.parseInt(concurrentConsumers);
         }
+        this.minConcurrentConsumers = this.concurrentConsumers;
+        String minConcurrentConsumers = jmsProperties.getProperty(PollingConstants.INBOUND_MIN_CONCURRENT_CONSUMERS);
+        if (minConcurrentConsumers != null) {
+            int minConsumers = Integer.parseInt(minConcurrentConsumers);
+            if (minConsumers < 1 || minConsumers > this.concurrentConsumers) {
+                throw new SynapseException("Minimum number of Concurrent Consumers should be Greater than 0 and "
+                        + "not Greater than the number of Concurrent Consumers");
+            }
+            this.minConcurrentConsumers = minConsumers;
+        }
+        this.sharedConnection = false;
+        String sharedConnection = jmsProperties.getProperty(JMSConstants.SHARED_CONNECTION);
+        if (sharedConnection != null) {
+            this.sharedConnection = Boolean.parseBoolean(sharedConnection);
+        }
+        this.scalingWindow = JMSConstants.DEFAULT_CONSUMER_SCALING_WINDOW;
+        String scalingWindow = jmsProperties.getProperty(JMSConstants.CONSUMER_SCALING_WINDOW);
+        if (scalingWindow != null) {
+            try {
+                this.scalingWindow = Long.parseLong(scalingWindow);
+            } catch (NumberFormatException nfe) {
+                throw new SynapseException("Invalid numeric value for consumer scaling window.", nfe);
+            }
+        }
         this.injectingSeq = params.getInjectingSeq();
         this.onErrorSeq = params.getOnErrorSeq();
         this.synapseEnvironment = params.getSynapseEnvironment();
@@ -84,8 +113,17 @@ public class JMSProcessor extends InboundRequestProcessorImpl implements TaskSta
      */
     public void init() {
         log.info("Initializing inbound JMS listener for inbound endpoint " + name);
+        JMSConsumerScaler consumerScaler = null;
+        if (concurrentConsumers > 1) {
+            // the consumers open their sessions over a single connection instead of a connection each
+            if (sharedConnection) {
+                jmsConnection = new SharedJMSConnection();
+            }
+            consumerScaler = new JMSConsumerScaler(minConcurrentConsumers, concurrentConsumers, scalingWindow, name);
+        }
         for (int consumers = 0; consumers < concurrentConsumers; consumers++) {
-            JMSPollingConsumer jmsPollingConsumer = new JMSPollingConsumer( jmsProperties, interval, name);
+            JMSPollingConsumer jmsPollingConsumer = new JMSPollingConsumer(jmsProperties, interval, name,
+                    jmsConnection, consumerScaler, consumers);
             jmsPollingConsumer.registerHandler(new JMSInjectHandler(injectingSeq, onErrorSeq, sequential,
                     synapseEnvironment, jmsProperties));
             pollingConsumers.add(jmsPollingConsumer);
@@ -100,6 +138,9 @@ public class JMSProcessor extends InboundRequestProcessorImpl implements TaskSta
         for (JMSPollingConsumer pollingConsumer : pollingConsumers) {
             pollingConsumer.destroy();
         }
+        if (jmsConnection != null) {
+            jmsConnection.close();
+        }
         super.destroy();
     }
     /**
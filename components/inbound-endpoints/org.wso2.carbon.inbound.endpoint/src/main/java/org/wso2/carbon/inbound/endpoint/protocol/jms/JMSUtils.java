@@ -59,10 +59,24 @@ public class JMSUtils {
             return ObjectMessage.class.getName();
         } else if(inferStreamMessage(msg)) {
             return StreamMessage.class.getName();
+        } else if(inferMapMessage(msg)) {
+            return MapMessage.class.getName();
         } else {
             return null;
         }
     }
+
+    /**
+     * Whether the payload of the message can be built by the inbound JMS endpoint. Text messages are built from the
+     * text, bytes messages are streamed to the message builder without being copied and map messages are converted
+     * to XML.
+     *
+     * @param msg JMS message
+     * @return true if the message is a TextMessage, BytesMessage or MapMessage
+     */
+    public static boolean isSupportedMessageType(Message msg) {
+        return inferTextMessage(msg) || inferByteMessage(msg) || inferMapMessage(msg);
+    }
     
     public static void convertXMLtoJMSMap(OMElement element, MapMessage message) throws JMSException{
 
@@ -348,6 +362,13 @@ public class JMSUtils {
         }
         return false;
     }
+
+    private static boolean inferMapMessage(Message msg) {
+        if (msg instanceof MapMessage) {
+            return true;
+        }
+        return false;
+    }
     private static String inverseTransformHyphenatedString(String name) {
         return name.replaceAll(JMSConstants.HYPHEN_REPLACEMENT_STR, "-");
     }
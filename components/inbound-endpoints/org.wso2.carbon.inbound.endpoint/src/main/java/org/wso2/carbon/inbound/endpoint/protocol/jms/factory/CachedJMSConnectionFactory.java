@@ -33,6 +33,8 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
     private Connection cachedConnection = null;
     private Session cachedSession = null;
     private MessageConsumer cachedMessageConsumer = null;
+    private SharedJMSConnection sharedConnection = null;
+    private Connection heldSharedConnection = null;
     
     public CachedJMSConnectionFactory(Properties properties) {
         super(properties);
@@ -44,6 +46,16 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
         this.cachedConnection = cachedConnection;
         setValues(properties);
     }
+
+    /**
+     * Creates a factory which gives the connection shared with the other concurrent consumers instead of its own.
+     * The shared connection is not closed when a poll completes, regardless of the cache level.
+     */
+    public CachedJMSConnectionFactory(Properties properties, SharedJMSConnection sharedConnection) {
+        super(properties);
+        this.sharedConnection = sharedConnection;
+        setValues(properties);
+    }
     
     private void setValues(Properties properties){
         String cacheLevel = properties.getProperty(JMSConstants.PARAM_CACHE_LEVEL);
@@ -61,7 +73,10 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
 
     public Connection getConnection(String userName, String password) {
     	Connection connection;
-        if (cachedConnection == null) {
+        if (sharedConnection != null) {
+            connection = sharedConnection.getConnection(this, userName, password);
+            heldSharedConnection = connection;
+        } else if (cachedConnection == null) {
             connection = createConnection(userName, password);
         } else {
             connection = cachedConnection;
@@ -73,6 +88,9 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
         	connection.start();
         } catch (JMSException e) {
             logger.error("JMS Exception while starting connection for factory '" + this.connectionFactoryString + "' " + e.getMessage());
+            if (sharedConnection != null) {
+                sharedConnection.reset(connection);
+            }
             resetCache();
         }        
         return connection;
@@ -86,7 +104,7 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
         }else{
         	connection = super.createConnection(userName, password);
         }
-        if (this.cacheLevel >= JMSConstants.CACHE_CONNECTION) {
+        if (sharedConnection == null && this.cacheLevel >= JMSConstants.CACHE_CONNECTION) {
             cachedConnection = connection;
         }
         return connection;
@@ -144,6 +162,15 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
     }    
     
     public boolean closeConnection() {
+        if (sharedConnection != null) {
+            // the connection can not create sessions for any of the consumers, so it is closed and re-created by the
+            // next consumer polling, while the consumers keep holding it
+            if (heldSharedConnection != null) {
+                sharedConnection.reset(heldSharedConnection);
+                heldSharedConnection = null;
+            }
+            return true;
+        }
         try {
         	if(cachedConnection != null){
         		cachedConnection.close();
@@ -168,6 +195,12 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
     }
     
     public boolean closeConnection(Connection connection, boolean forcefully) {
+        if (sharedConnection != null) {
+            if (forcefully) {
+                sharedConnection.release(this);
+            }
+            return false;
+        }
         try {
             if(this.cacheLevel < JMSConstants.CACHE_CONNECTION || forcefully){
             	connection.close();
@@ -200,6 +233,17 @@ public class CachedJMSConnectionFactory extends JMSConnectionFactory {
         return false;
     }     
     
+    /**
+     * Closes the cached consumer, session and connection, and releases the shared connection, so that the messages
+     * prefetched by the consumer are given back to the broker for the other consumers.
+     */
+    public void release() {
+        resetCache();
+        if (sharedConnection != null) {
+            sharedConnection.release(this);
+        }
+    }
+
     private void resetCache(){
     	if(cachedConnection != null){
     		try{
@@ -0,0 +1,109 @@
+/*
+*  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.inbound.endpoint.protocol.jms.factory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+/**
+ * A single JMS connection shared by the concurrent consumers of an inbound endpoint. Each consumer creates its own
+ * session and message consumer over the shared connection, since a JMS connection is thread safe while sessions are
+ * not. The connection is created lazily by the first consumer and is re-created after it has been reset on a failure.
+ * The consumers holding the connection are counted, and the connection is closed when the last of them releases it.
+ */
+public class SharedJMSConnection {
+    private static final Log logger = LogFactory.getLog(SharedJMSConnection.class);
+
+    private Connection connection = null;
+
+    private final Set<Object> holders = new HashSet<Object>();
+
+    /**
+     * Gives the shared connection, creating it with the given factory if there is none. The factory holds the
+     * connection until it releases it.
+     *
+     * @param factory  factory used to create the connection
+     * @param userName user name, may be null
+     * @param password password, may be null
+     * @return the shared connection or null if the connection could not be created
+     */
+    public synchronized Connection getConnection(CachedJMSConnectionFactory factory, String userName,
+                                                 String password) {
+        holders.add(factory);
+        if (connection == null) {
+            connection = factory.createConnection(userName, password);
+        }
+        return connection;
+    }
+
+    /**
+     * Releases the connection held by the given holder, and closes it if no other holder is using it.
+     *
+     * @param holder holder of the connection
+     */
+    public synchronized void release(Object holder) {
+        if (holders.remove(holder) && holders.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the shared connection only if it is still the given connection, so that a connection re-created by
+     * another consumer is not closed.
+     *
+     * @param failedConnection connection which failed
+     */
+    public synchronized void reset(Connection failedConnection) {
+        if (connection != null && connection == failedConnection) {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Closes the shared connection regardless of its holders.
+     */
+    public synchronized void close() {
+        holders.clear();
+        closeConnection();
+    }
+
+    /**
+     * Gives the number of holders of the shared connection.
+     *
+     * @return number of holders
+     */
+    public synchronized int getHolderCount() {
+        return holders.size();
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (JMSException e) {
+                logger.error("JMS Exception while closing the shared connection.");
+            }
+            connection = null;
+        }
+    }
+}
@@ -37,11 +37,12 @@ public abstract class AbstractKafkaMessageListener {
 
     /**
      * the consumer types are high level and simple,high level is used for kafka high level configuration
-     * and simple is used for kafka low level configuration
+     * and simple is used for kafka low level configuration. batch is a high level consumer which commits the
+     * offsets itself after the messages are mediated
      */
     public static enum CONSUMER_TYPE {
 
-        HIGHLEVEL("highlevel"), SIMPLE("simple");
+        HIGHLEVEL("highlevel"), SIMPLE("simple"), BATCH("batch");
         String name;
 
         private CONSUMER_TYPE(String name) {
@@ -70,14 +71,18 @@ public abstract class AbstractKafkaMessageListener {
     }
 
     /**
-     * Poll the messages from the zookeeper and injected to the sequence
+     * Poll the messages from the zookeeper and injected to the sequence. Listeners which consume their streams on
+     * workers of their own have nothing to inject here.
      */
-    public abstract void injectMessageToESB(String name);
+    public void injectMessageToESB(String name) {
+    }
 
     /**
-     * Check ConsumerIterator whether It has next value
+     * Check ConsumerIterator whether It has next value to be injected by the polling task
      */
-    public abstract boolean hasNext();
+    public boolean hasNext() {
+        return false;
+    }
 
     /**
      * Used to check whether there are multiple topics to consume from
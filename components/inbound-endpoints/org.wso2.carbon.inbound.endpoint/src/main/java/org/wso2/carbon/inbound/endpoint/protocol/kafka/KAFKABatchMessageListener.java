@@ -0,0 +1,320 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.kafka;
+
+import org.apache.synapse.SynapseException;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * High level consumer which commits the offsets itself, only after the consumed messages are mediated (at least
+ * once delivery). Each stream consumer injects the messages of its stream in batches of up to batch.size messages;
+ * a batch ends earlier when the stream has no message within consumer.timeout.ms. The offsets are committed
+ * asynchronously by the first stream consumer which completes a batch while no other stream consumer is in the
+ * middle of a batch, since the consumer connector commits the offsets of all the streams together.
+ *
+ * When a message is not mediated successfully the consumer connector is re-created without committing, so that the
+ * messages from the last committed offsets are consumed again. The consumer connector is re-created after
+ * batch.retry.interval milliseconds, doubled for every further failure of the same message up to a minute. Once a
+ * message has failed batch.retry.count times more it is routed to the fault sequence instead, and the batch goes on
+ * so that the offsets are committed past it. The mediation result is known only when the messages are injected
+ * sequentially. With sequential=false the injection returns before the mediation completes, so the offsets are
+ * committed while the messages are still mediated and a message whose mediation fails is not consumed again
+ * (at-most-once delivery).
+ *
+ * When inject.queue.threshold is set, the stream consumers stop consuming while the synapse worker queue holds that
+ * many messages. The fetchers of the consumer connector then stop fetching once their bounded queues are full.
+ */
+public class KAFKABatchMessageListener extends KAFKAMessageListener {
+
+    private static final long MAX_RETRY_INTERVAL = 60000;
+
+    private int batchSize = KAFKAConstants.DEFAULT_BATCH_SIZE;
+    private int retryCount = KAFKAConstants.DEFAULT_BATCH_RETRY_COUNT;
+    private long retryInterval = KAFKAConstants.DEFAULT_BATCH_RETRY_INTERVAL;
+    private final ConcurrentMap<String, Integer> failedAttempts = new ConcurrentHashMap<String, Integer>();
+    private final ScheduledExecutorService rewindExecutor;
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean commitPending = new AtomicBoolean();
+    private volatile boolean rewindRequired = false;
+    private volatile long rewindTime;
+    private volatile boolean destroyed = false;
+
+    public KAFKABatchMessageListener(int threadCount, List<String> topics, Properties kafkaProperties,
+                                     InjectHandler injectHandler, String name) throws Exception {
+        super(threadCount, topics, kafkaProperties, injectHandler, name);
+        kafkaProperties.put(KAFKAConstants.AUTO_COMMIT_ENABLE, "false");
+        try {
+            if (kafkaProperties.getProperty(KAFKAConstants.BATCH_SIZE) != null) {
+                batchSize = Integer.parseInt(kafkaProperties.getProperty(KAFKAConstants.BATCH_SIZE));
+            }
+            if (kafkaProperties.getProperty(KAFKAConstants.BATCH_RETRY_COUNT) != null) {
+                retryCount = Integer.parseInt(kafkaProperties.getProperty(KAFKAConstants.BATCH_RETRY_COUNT));
+            }
+            if (kafkaProperties.getProperty(KAFKAConstants.BATCH_RETRY_INTERVAL) != null) {
+                retryInterval = Long.parseLong(kafkaProperties.getProperty(KAFKAConstants.BATCH_RETRY_INTERVAL));
+            }
+        } catch (NumberFormatException nfe) {
+            log.error("Invalid numeric value for batch size or batch retries." + nfe.getMessage(), nfe);
+            throw new SynapseException("Invalid numeric value for batch size or batch retries.", nfe);
+        }
+        if (batchSize <= 0) {
+            batchSize = KAFKAConstants.DEFAULT_BATCH_SIZE;
+        }
+        if (retryInterval <= 0) {
+            retryInterval = KAFKAConstants.DEFAULT_BATCH_RETRY_INTERVAL;
+        }
+        rewindExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "kafka-inbound-" + KAFKABatchMessageListener.this.name
+                        + "-rewind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Re-create the consumer connector without committing the offsets if a message was not mediated successfully,
+     * once the retry interval of the failure has elapsed
+     */
+    @Override
+    public synchronized boolean createKafkaConsumerConnector() throws Exception {
+        if (rewindRequired && consumerConnector != null) {
+            if (System.currentTimeMillis() < rewindTime) {
+                // the consumer connector is re-created by the rewind executor once the retry interval elapses
+                return true;
+            }
+            log.warn("Re-creating the Kafka Consumer Connector of the inbound endpoint " + name
+                    + " to consume the messages from the last committed offsets");
+            super.destroy();
+            consumerConnector.shutdown();
+            consumerConnector = null;
+            commitPending.set(false);
+            rewindRequired = false;
+        }
+        return super.createKafkaConsumerConnector();
+    }
+
+    /**
+     * Creates the worker which consumes the given stream in batches
+     *
+     * @param stream messages of the stream
+     */
+    @Override
+    Runnable createStreamConsumer(MessageStream stream) {
+        return new BatchStreamConsumer(stream);
+    }
+
+    /**
+     * Stops the stream consumers and commits the offsets of the mediated messages
+     */
+    @Override
+    public synchronized void destroy() {
+        destroyed = true;
+        rewindExecutor.shutdownNow();
+        super.destroy();
+        if (!rewindRequired && consumerConnector != null && commitPending.compareAndSet(true, false)) {
+            consumerConnector.commitOffsets();
+        }
+    }
+
+    private void commitIfPending() {
+        if (commitPending.get() && commitLock.writeLock().tryLock()) {
+            try {
+                if (!rewindRequired && commitPending.compareAndSet(true, false)) {
+                    consumerConnector.commitOffsets();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Committed the Kafka offsets of the inbound endpoint " + name);
+                    }
+                }
+            } catch (Exception e) {
+                commitPending.set(true);
+                log.error("Error while committing the Kafka offsets of the inbound endpoint " + name, e);
+            } finally {
+                commitLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Re-creates the consumer connector on the rewind executor once the given delay elapses, since the stream
+     * consumers are stopped and awaited while the consumer connector is re-created
+     *
+     * @param delay milliseconds to wait before the messages are consumed again
+     */
+    private void rewind(long delay) {
+        rewindTime = System.currentTimeMillis() + delay;
+        try {
+            rewindExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (KAFKABatchMessageListener.this) {
+                        if (destroyed) {
+                            return;
+                        }
+                        // the retry interval has elapsed, even if the clock says otherwise
+                        rewindTime = 0;
+                        try {
+                            createKafkaConsumerConnector();
+                        } catch (Exception e) {
+                            log.error("Error while re-creating the Kafka Consumer Connector of the inbound endpoint "
+                                    + name + ", it will be re-created in the next poll", e);
+                        }
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the listener is destroyed
+            if (log.isDebugEnabled()) {
+                log.debug("Kafka inbound endpoint " + name + " is destroyed, the consumer connector is not re-created");
+            }
+        }
+    }
+
+    /**
+     * Records a failed attempt to mediate the message at the given position
+     *
+     * @param position position of the message in its partition
+     * @return milliseconds to wait before the message is consumed again, or -1 if the message is not to be retried
+     * any more
+     */
+    private long recordFailure(String position) {
+        Integer attempts = failedAttempts.get(position);
+        int failures = attempts == null ? 1 : attempts + 1;
+        if (retryCount >= 0 && failures > retryCount) {
+            failedAttempts.remove(position);
+            return -1;
+        }
+        failedAttempts.put(position, failures);
+        long delay = retryInterval;
+        for (int i = 1; i < failures && delay < MAX_RETRY_INTERVAL; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, Math.max(retryInterval, MAX_RETRY_INTERVAL));
+    }
+
+    /**
+     * Routes a message which could not be mediated within the retries to the fault sequence
+     *
+     * @param msg      the message
+     * @param position position of the message in its partition
+     */
+    protected void injectToFaultSequence(byte[] msg, String position) {
+        log.error("Kafka message at " + position + " of the inbound endpoint " + name + " was not mediated after "
+                + (retryCount + 1) + " attempts, routing it to the fault sequence");
+        if (injectHandler instanceof KAFKAInjectHandler) {
+            try {
+                ((KAFKAInjectHandler) injectHandler).injectToFaultSequence(msg, name);
+            } catch (Exception e) {
+                log.error("Error while mediating a Kafka message of the inbound endpoint " + name
+                        + " with the fault sequence", e);
+            }
+        }
+    }
+
+    /**
+     * Whether the consumed messages have to be consumed again from the last committed offsets
+     */
+    boolean isRewindRequired() {
+        return rewindRequired;
+    }
+
+    private class BatchStreamConsumer implements Runnable {
+        private final MessageStream stream;
+
+        BatchStreamConsumer(MessageStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void run() {
+            while (isRunning() && !rewindRequired) {
+                try {
+                    waitForWorkerQueue();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int count = 0;
+                boolean success = true;
+                long retryDelay = retryInterval;
+                commitLock.readLock().lock();
+                try {
+                    while (count < batchSize && isRunning() && !rewindRequired && stream.hasNext()) {
+                        byte[] msg = stream.next();
+                        count++;
+                        if (inject(msg)) {
+                            if (!failedAttempts.isEmpty()) {
+                                failedAttempts.remove(stream.getPosition());
+                            }
+                            continue;
+                        }
+                        String position = stream.getPosition();
+                        retryDelay = recordFailure(position);
+                        if (retryDelay < 0) {
+                            // the batch goes on, so that the offsets are committed past the failed message
+                            injectToFaultSequence(msg, position);
+                            continue;
+                        }
+                        success = false;
+                        break;
+                    }
+                } catch (Exception e) {
+                    log.error("Error while consuming the Kafka stream of the inbound endpoint " + name, e);
+                    success = false;
+                } finally {
+                    if (!success) {
+                        // set while the commit is still held off, so that no stream consumer commits the offsets
+                        // of the failed batch
+                        rewindRequired = true;
+                    }
+                    commitLock.readLock().unlock();
+                }
+                if (!success) {
+                    // the consumed messages are consumed again once the consumer connector is re-created
+                    rewind(retryDelay);
+                    return;
+                }
+                if (count > 0) {
+                    commitPending.set(true);
+                }
+                commitIfPending();
+            }
+        }
+
+        private boolean inject(byte[] msg) {
+            try {
+                return injectHandler.invoke(msg, name);
+            } catch (Exception e) {
+                log.error("Error while mediating a Kafka message of the inbound endpoint " + name, e);
+                return false;
+            }
+        }
+    }
+}
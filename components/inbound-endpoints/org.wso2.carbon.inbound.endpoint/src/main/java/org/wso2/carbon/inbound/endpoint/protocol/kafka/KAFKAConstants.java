@@ -56,6 +56,39 @@ public class KAFKAConstants {
 
     public static final String CONSUMER_TIMEOUT = "consumer.timeout.ms";
 
+    public static final String AUTO_COMMIT_ENABLE = "auto.commit.enable";
+
+    /**
+     * Maximum number of messages injected by a stream consumer of the batch consumer type before the offsets are
+     * committed
+     */
+    public static final String BATCH_SIZE = "batch.size";
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Number of messages waiting in the synapse worker queue at which the high level and batch consumer types stop
+     * consuming until the queue drains. Not applied when 0 or less.
+     */
+    public static final String INJECT_QUEUE_THRESHOLD = "inject.queue.threshold";
+
+    /**
+     * Number of times the batch consumer type consumes a message again after its mediation failed, before the
+     * message is routed to the fault sequence and committed. The message is consumed again until it is mediated when
+     * negative.
+     */
+    public static final String BATCH_RETRY_COUNT = "batch.retry.count";
+
+    public static final int DEFAULT_BATCH_RETRY_COUNT = 3;
+
+    /**
+     * Milliseconds the batch consumer type waits before consuming a failed message again, doubled for every further
+     * failure of the message
+     */
+    public static final String BATCH_RETRY_INTERVAL = "batch.retry.interval";
+
+    public static final long DEFAULT_BATCH_RETRY_INTERVAL = 1000;
+
     public static final int SO_TIMEOUT = 100000;
 
     public static final int BUFFER_SIZE = 64 * 1024;
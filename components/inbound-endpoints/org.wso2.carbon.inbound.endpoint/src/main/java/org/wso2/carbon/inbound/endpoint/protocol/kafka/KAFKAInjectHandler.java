@@ -21,22 +21,25 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.UUIDGenerator;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.builder.Builder;
-import org.apache.axis2.builder.BuilderUtil;
-import org.apache.axis2.builder.SOAPBuilder;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.transport.TransportUtils;
 import org.apache.commons.io.input.AutoCloseInputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.SynapseConstants;
 import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.inbound.InboundEndpoint;
 import org.apache.synapse.mediators.base.SequenceMediator;
 import org.apache.synapse.transport.customlogsetter.CustomLogSetter;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.inbound.endpoint.common.InboundInjectionPipeline;
+import org.wso2.carbon.inbound.endpoint.protocol.generic.GenericConstants;
 import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * KafkaInjectHandler uses to mediate the received Kafka message
@@ -49,6 +52,7 @@ public class KAFKAInjectHandler implements InjectHandler {
     private boolean sequential;
     private SynapseEnvironment synapseEnvironment;
     private String contentType;
+    private InboundInjectionPipeline injectionPipeline;
 
     public KAFKAInjectHandler(String injectingSeq, String onErrorSeq, boolean sequential,
                               SynapseEnvironment synapseEnvironment, String contentType) {
@@ -57,6 +61,7 @@ public class KAFKAInjectHandler implements InjectHandler {
         this.sequential = sequential;
         this.synapseEnvironment = synapseEnvironment;
         this.contentType = contentType;
+        this.injectionPipeline = new InboundInjectionPipeline(injectingSeq, onErrorSeq, synapseEnvironment);
     }
 
     /**
@@ -64,8 +69,49 @@ public class KAFKAInjectHandler implements InjectHandler {
      * inject the message to the sequence
      */
     public boolean invoke(Object object, String name) {
-        byte[] msg = (byte[]) object;
+        org.apache.synapse.MessageContext msgCtx = buildMessageContext((byte[]) object, name);
+        // Inject the message to the sequence.
 
+        if (injectingSeq == null || injectingSeq.equals("")) {
+            log.error("Sequence name not specified. Sequence : " + injectingSeq);
+            return false;
+        }
+        SequenceMediator seq = injectionPipeline.getSequence();
+        if (seq != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("injecting message to sequence : " + injectingSeq);
+            }
+            // the mediation result is known only when the message is mediated sequentially
+            return synapseEnvironment.injectInbound(msgCtx, seq, sequential) || !sequential;
+        } else {
+            log.error("Sequence: " + injectingSeq + " not found");
+        }
+
+        return true;
+    }
+
+    /**
+     * Mediate the message with the error sequence of the inbound endpoint, or the fault sequence if there is none,
+     * since it could not be mediated with the injecting sequence
+     */
+    public void injectToFaultSequence(Object object, String name) {
+        org.apache.synapse.MessageContext msgCtx = buildMessageContext((byte[]) object, name);
+        msgCtx.setProperty(SynapseConstants.ERROR_CODE, GenericConstants.INBOUND_RETRIES_EXHAUSTED);
+        msgCtx.setProperty(SynapseConstants.ERROR_MESSAGE, "The message was not mediated within the retries");
+        SequenceMediator faultSequence = null;
+        if (onErrorSeq != null) {
+            faultSequence = (SequenceMediator) msgCtx.getSequence(onErrorSeq);
+        }
+        if (faultSequence == null) {
+            faultSequence = (SequenceMediator) msgCtx.getFaultSequence();
+        }
+        faultSequence.mediate(msgCtx);
+    }
+
+    /**
+     * Determine the message builder to use and set the message payload to the message context
+     */
+    private org.apache.synapse.MessageContext buildMessageContext(byte[] msg, String name) {
         org.apache.synapse.MessageContext msgCtx = createMessageContext();
         msgCtx.setProperty("inbound.endpoint.name", name);
         InboundEndpoint inboundEndpoint = msgCtx.getConfiguration().getInboundEndpoint(name);
@@ -74,29 +120,7 @@ public class KAFKAInjectHandler implements InjectHandler {
         MessageContext axis2MsgCtx = ((org.apache.synapse.core.axis2.Axis2MessageContext) msgCtx)
                 .getAxis2MessageContext();
         // Determine the message builder to use
-        Builder builder = null;
-        if (contentType == null) {
-            log.debug("No content type specified. Using SOAP builder.");
-            builder = new SOAPBuilder();
-        } else {
-            int index = contentType.indexOf(';');
-            String type = index > 0 ? contentType.substring(0, index)
-                    : contentType;
-            try {
-                builder = BuilderUtil.getBuilderFromSelector(type, axis2MsgCtx);
-            } catch (AxisFault axisFault) {
-                log.error("Error while creating message builder :: "
-                        + axisFault.getMessage(), axisFault);
-
-            }
-            if (builder == null) {
-                if (log.isDebugEnabled()) {
-                    log.debug("No message builder found for type '" + type
-                            + "'. Falling back to SOAP.");
-                }
-                builder = new SOAPBuilder();
-            }
-        }
+        Builder builder = injectionPipeline.getBuilder(contentType, axis2MsgCtx);
         OMElement documentElement = null;
         // set the message payload to the message context
         InputStream in = new AutoCloseInputStream(new ByteArrayInputStream(msg));
@@ -115,28 +139,20 @@ public class KAFKAInjectHandler implements InjectHandler {
             log.error("Error while setting message payload to the message context :: "
                     + axisFault.getMessage(), axisFault);
         }
-        // Inject the message to the sequence.
+        return msgCtx;
+    }
 
-        if (injectingSeq == null || injectingSeq.equals("")) {
-            log.error("Sequence name not specified. Sequence : " + injectingSeq);
-            return false;
-        }
-        SequenceMediator seq = (SequenceMediator) synapseEnvironment
-                .getSynapseConfiguration().getSequence(injectingSeq);        
-        if (seq != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("injecting message to sequence : " + injectingSeq);
-            }
-            if (!seq.isInitialized()) {
-                seq.init(synapseEnvironment);
-            }         
-            seq.setErrorHandler(onErrorSeq);
-            synapseEnvironment.injectInbound(msgCtx, seq, sequential);
-        } else {
-            log.error("Sequence: " + injectingSeq + " not found");
+    /**
+     * Check whether the synapse worker queue holds at least the given number of messages waiting to be mediated
+     *
+     * @param threshold number of waiting messages
+     */
+    public boolean isWorkerQueueSaturated(int threshold) {
+        ExecutorService executorService = synapseEnvironment.getExecutorService();
+        if (executorService instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executorService).getQueue().size() >= threshold;
         }
-
-        return true;
+        return false;
     }
 
     /**
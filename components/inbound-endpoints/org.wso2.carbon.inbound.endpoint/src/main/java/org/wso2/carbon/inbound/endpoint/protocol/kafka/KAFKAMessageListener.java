@@ -18,6 +18,8 @@
 package org.wso2.carbon.inbound.endpoint.protocol.kafka;
 
 import kafka.consumer.*;
+import kafka.javaapi.consumer.ConsumerConnector;
+import kafka.message.MessageAndMetadata;
 import org.I0Itec.zkclient.exception.ZkTimeoutException;
 import org.apache.synapse.SynapseException;
 
@@ -26,16 +28,62 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * High level consumer of the kafka inbound endpoint. The consumer connector creates thread.count streams per topic
+ * (or topic filter) and the partitions of a topic are distributed among its streams. Each stream is consumed by a
+ * worker thread of its own, so that all the assigned partitions are consumed and the throughput scales with the
+ * thread count up to the number of partitions. A worker injects the messages of its stream one after the other, so
+ * the messages of a partition are injected in order.
+ *
+ * When inject.queue.threshold is set, the stream consumers stop consuming while the synapse worker queue holds that
+ * many messages, which bounds the messages in flight when they are not injected sequentially. A stream consumer which
+ * fails to consume its stream waits one second before it tries again, doubling the wait for every further failure up
+ * to a minute.
+ */
 public class KAFKAMessageListener extends AbstractKafkaMessageListener {
 
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+
+    private static final long BACKPRESSURE_WAIT = 100;
+
+    private static final long ERROR_RETRY_INTERVAL = 1000;
+
+    private static final long MAX_ERROR_RETRY_INTERVAL = 60000;
+
+    protected final String name;
+    private int injectQueueThreshold = 0;
+    private ExecutorService streamConsumers;
+    private volatile boolean running;
+
     public KAFKAMessageListener(int threadCount, List<String> topics,
                                 Properties kafkaProperties, InjectHandler injectHandler)
             throws Exception {
+        this(threadCount, topics, kafkaProperties, injectHandler, null);
+    }
+
+    public KAFKAMessageListener(int threadCount, List<String> topics,
+                                Properties kafkaProperties, InjectHandler injectHandler, String name)
+            throws Exception {
         this.threadCount = threadCount;
         this.topics = topics;
         this.kafkaProperties = kafkaProperties;
         this.injectHandler = injectHandler;
+        this.name = name;
+        try {
+            if (kafkaProperties.getProperty(KAFKAConstants.INJECT_QUEUE_THRESHOLD) != null) {
+                injectQueueThreshold = Integer.parseInt(kafkaProperties
+                        .getProperty(KAFKAConstants.INJECT_QUEUE_THRESHOLD));
+            }
+        } catch (NumberFormatException nfe) {
+            log.error("Invalid numeric value for inject queue threshold." + nfe.getMessage(), nfe);
+            throw new SynapseException("Invalid numeric value for inject queue threshold.", nfe);
+        }
     }
 
     /**
@@ -53,7 +101,7 @@ public class KAFKAMessageListener extends AbstractKafkaMessageListener {
                 if (!kafkaProperties.containsKey(KAFKAConstants.CONSUMER_TIMEOUT)) {
                     kafkaProperties.put(KAFKAConstants.CONSUMER_TIMEOUT, "3000");
                 }
-                consumerConnector = Consumer.createJavaConsumerConnector(new ConsumerConfig(kafkaProperties));
+                consumerConnector = createConsumerConnector();
                 log.info("Kafka Consumer Connector is created");
                 start();
             }
@@ -73,6 +121,13 @@ public class KAFKAMessageListener extends AbstractKafkaMessageListener {
         return isCreated;
     }
 
+    /**
+     * Create the consumer connector with the kafka properties
+     */
+    protected ConsumerConnector createConsumerConnector() {
+        return Consumer.createJavaConsumerConnector(new ConsumerConfig(kafkaProperties));
+    }
+
     /**
      * Starts topics consuming the messages,the message can be consumed by topic or topic filter which are white list and black list.
      */
@@ -136,72 +191,187 @@ public class KAFKAMessageListener extends AbstractKafkaMessageListener {
     }
 
     /**
-     * Use one stream from kafka stream iterator
+     * Start a worker thread per kafka stream
      *
      * @param streams
      */
     protected void startConsumers(List<KafkaStream<byte[], byte[]>> streams) {
-        if (streams.size() >= 1) {
-            consumerIte.add(streams.get(0).iterator());
+        if (streams == null || streams.isEmpty()) {
+            return;
         }
-    }
+        if (streamConsumers == null) {
+            running = true;
+            streamConsumers = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
 
-    @Override
-    public void injectMessageToESB(String name) {
-        if (consumerIte.size() == 1) {
-            injectMessageToESB(name, consumerIte.get(0));
-        } else {
-            log.debug("There are multiple topics to consume from not a single topic");
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "kafka-inbound-" + name + "-stream-" + threadCount.incrementAndGet());
+                }
+            });
+        }
+        if (consumerIte == null) {
+            consumerIte = new ArrayList<ConsumerIterator<byte[], byte[]>>();
+        }
+        for (KafkaStream<byte[], byte[]> stream : streams) {
+            ConsumerIterator<byte[], byte[]> consumerIterator = stream.iterator();
+            consumerIte.add(consumerIterator);
+            streamConsumers.execute(createStreamConsumer(consumerIterator));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Started " + streams.size() + " stream consumers for the Kafka inbound endpoint " + name);
         }
     }
 
-    public void injectMessageToESB(String sequenceName,ConsumerIterator<byte[], byte[]> consumerIterator){
-        byte[] msg = consumerIterator.next().message();
-        injectHandler.invoke(msg, sequenceName);
+    /**
+     * Create the worker which consumes the given stream
+     *
+     * @param consumerIterator iterator of the stream
+     */
+    protected Runnable createStreamConsumer(final ConsumerIterator<byte[], byte[]> consumerIterator) {
+        return createStreamConsumer(new MessageStream() {
+            private MessageAndMetadata<byte[], byte[]> current;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    return consumerIterator.hasNext();
+                } catch (ConsumerTimeoutException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public byte[] next() {
+                current = consumerIterator.next();
+                return current.message();
+            }
+
+            @Override
+            public String getPosition() {
+                return current.topic() + "-" + current.partition() + "@" + current.offset();
+            }
+        });
     }
 
-    @Override public boolean hasNext() {
-        if (consumerIte.size() == 1) {
-            return hasNext(consumerIte.get(0));
-        } else {
-            log.debug("There are multiple topics to consume from not a single topic,");
-        }
-        return false;
+    /**
+     * Creates the worker which consumes the given stream
+     *
+     * @param stream messages of the stream
+     */
+    Runnable createStreamConsumer(MessageStream stream) {
+        return new StreamConsumer(stream);
     }
 
-    public boolean hasNext(ConsumerIterator<byte[], byte[]> consumerIterator) {
-        try {
-            return consumerIterator.hasNext();
-        } catch (ConsumerTimeoutException e) {
-            //exception ignored
-            if (log.isDebugEnabled()) {
-                log.debug("Topic has no new messages to consume.");
-            }
-            return false;
-        } catch (Exception e) {
-            //Message Listening thread is interrupted during server shutdown. This happen during ESB shutdown is
-            // triggered
-            if (log.isDebugEnabled()) {
-                log.debug("Kafka listener is interrupted by server shutdown.", e);
+    /**
+     * Whether the stream consumers should keep consuming
+     */
+    protected boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the stream consumers after the messages being injected are injected, so that the offsets committed when
+     * the consumer connector is shut down do not skip any message.
+     */
+    @Override
+    public void destroy() {
+        running = false;
+        if (streamConsumers != null) {
+            streamConsumers.shutdown();
+            try {
+                if (!streamConsumers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    log.warn("Kafka stream consumers of the inbound endpoint " + name
+                            + " did not stop within " + SHUTDOWN_TIMEOUT + " milliseconds");
+                    streamConsumers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                streamConsumers.shutdownNow();
+                Thread.currentThread().interrupt();
             }
-            return false;
+            streamConsumers = null;
         }
     }
 
-    @Override
-    public boolean hasMultipleTopicsToConsume() {
-        if (consumerIte.size() > 1) {
-            return true;
-        } else {
-            return false;
+    /**
+     * Waits while the synapse worker queue holds inject.queue.threshold messages
+     */
+    protected void waitForWorkerQueue() throws InterruptedException {
+        if (injectQueueThreshold <= 0 || !(injectHandler instanceof KAFKAInjectHandler)) {
+            return;
+        }
+        KAFKAInjectHandler kafkaInjectHandler = (KAFKAInjectHandler) injectHandler;
+        while (isRunning() && kafkaInjectHandler.isWorkerQueueSaturated(injectQueueThreshold)) {
+            Thread.sleep(BACKPRESSURE_WAIT);
         }
     }
 
-    @Override
-    public void consumeMultipleTopics(String name) {
-        for (ConsumerIterator<byte[], byte[]> consumerIterator : consumerIte) {
-            if (hasNext(consumerIterator)) {
-                injectMessageToESB(name, consumerIterator);
+    /**
+     * Messages of a Kafka stream
+     */
+    interface MessageStream {
+
+        /**
+         * Whether there is a message, waiting up to consumer.timeout.ms for one
+         */
+        boolean hasNext();
+
+        byte[] next();
+
+        /**
+         * Topic, partition and offset of the message last returned by next
+         */
+        String getPosition();
+    }
+
+    /**
+     * Consumes a kafka stream until the listener is destroyed. The stream iterator times out after
+     * consumer.timeout.ms when there are no messages, which lets the worker notice the shutdown.
+     */
+    private class StreamConsumer implements Runnable {
+        private final MessageStream stream;
+
+        StreamConsumer(MessageStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void run() {
+            long retryDelay = ERROR_RETRY_INTERVAL;
+            while (isRunning()) {
+                try {
+                    waitForWorkerQueue();
+                    if (stream.hasNext()) {
+                        injectHandler.invoke(stream.next(), name);
+                    }
+                    retryDelay = ERROR_RETRY_INTERVAL;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    if (!isRunning()) {
+                        return;
+                    }
+                    log.error("Error while consuming the Kafka stream of the inbound endpoint " + name
+                            + ", retrying in " + retryDelay + " milliseconds", e);
+                    try {
+                        pause(retryDelay);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    retryDelay = Math.min(retryDelay * 2, MAX_ERROR_RETRY_INTERVAL);
+                }
+            }
+        }
+
+        /**
+         * Sleeps for the given time unless the listener is destroyed meanwhile
+         */
+        private void pause(long millis) throws InterruptedException {
+            long end = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (isRunning() && remaining > 0) {
+                Thread.sleep(Math.min(remaining, BACKPRESSURE_WAIT));
+                remaining = end - System.currentTimeMillis();
             }
         }
     }
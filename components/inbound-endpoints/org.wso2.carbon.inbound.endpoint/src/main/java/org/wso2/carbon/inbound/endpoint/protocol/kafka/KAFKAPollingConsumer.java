@@ -88,7 +88,7 @@ public class KAFKAPollingConsumer {
                                 AbstractKafkaMessageListener.CONSUMER_TYPE.HIGHLEVEL
                                         .getName())) {
                     messageListener = new KAFKAMessageListener(threadCount, topics,
-                            kafkaProperties, injectHandler);
+                            kafkaProperties, injectHandler, name);
                     //Start a low level listener
                 } else if (kafkaProperties
                         .getProperty(KAFKAConstants.CONSUMER_TYPE)
@@ -97,6 +97,14 @@ public class KAFKAPollingConsumer {
                                         .getName())) {
                     messageListener = new SimpleKafkaMessageListener(
                             kafkaProperties, injectHandler);
+                    //Start a high level listener which commits the offsets after mediation
+                } else if (kafkaProperties
+                        .getProperty(KAFKAConstants.CONSUMER_TYPE)
+                        .equalsIgnoreCase(
+                                AbstractKafkaMessageListener.CONSUMER_TYPE.BATCH
+                                        .getName())) {
+                    messageListener = new KAFKABatchMessageListener(threadCount, topics,
+                            kafkaProperties, injectHandler, name);
                 }
             } catch (Exception e) {
                 log.error("The consumer type should be high level or simple." + e.getMessage(), e);
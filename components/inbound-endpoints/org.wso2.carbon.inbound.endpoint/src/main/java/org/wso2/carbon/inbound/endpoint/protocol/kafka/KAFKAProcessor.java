@@ -123,6 +123,9 @@ public class KAFKAProcessor extends InboundRequestProcessorImpl implements TaskS
     @Override
     public void destroy() {
         try {
+            if (pollingConsumer != null && pollingConsumer.messageListener != null) {
+                pollingConsumer.messageListener.destroy();
+            }
             if (pollingConsumer != null && pollingConsumer.messageListener != null &&
                 pollingConsumer.messageListener.consumerConnector != null) {
                 pollingConsumer.messageListener.consumerConnector.shutdown();
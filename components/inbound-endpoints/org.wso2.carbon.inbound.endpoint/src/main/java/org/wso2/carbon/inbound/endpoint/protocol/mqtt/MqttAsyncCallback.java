@@ -25,6 +25,7 @@ import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttException;
 
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
@@ -41,13 +42,14 @@ public class MqttAsyncCallback extends OneTimeTriggerAbstractCallback implements
 
     private MqttListener asycClient;
 
-    private MqttInjectHandler injectHandler;
+    private volatile MqttInjectHandler injectHandler;
     private MqttConnectionFactory confac;
     private MqttAsyncClient mqttAsyncClient;
     private Properties mqttProperties;
     private MqttConnectOptions connectOptions;
     private MqttConnectionConsumer connectionConsumer;
     private MqttConnectionListener connectionListener;
+    private MqttMessageDispatcher dispatcher;
 
     public MqttAsyncCallback(MqttAsyncClient mqttAsyncClient, MqttInjectHandler injectHandler,
                              MqttConnectionFactory confac, MqttConnectOptions connectOptions,
@@ -58,6 +60,31 @@ public class MqttAsyncCallback extends OneTimeTriggerAbstractCallback implements
         this.connectOptions = connectOptions;
         this.mqttProperties = mqttProperties;
 
+        int workerCount = MqttConstants.DEFAULT_DISPATCH_WORKER_COUNT;
+        int queueSize = MqttConstants.DEFAULT_DISPATCH_QUEUE_SIZE;
+        try {
+            if (mqttProperties.getProperty(MqttConstants.MQTT_DISPATCH_WORKER_COUNT) != null) {
+                workerCount = Integer.parseInt(mqttProperties.getProperty(MqttConstants.MQTT_DISPATCH_WORKER_COUNT));
+            }
+            if (mqttProperties.getProperty(MqttConstants.MQTT_DISPATCH_QUEUE_SIZE) != null) {
+                queueSize = Integer.parseInt(mqttProperties.getProperty(MqttConstants.MQTT_DISPATCH_QUEUE_SIZE));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for the MQTT dispatch worker count or queue size. Using the defaults.", e);
+        }
+        // messages are mediated on the callback thread unless workers are configured
+        if (workerCount > 0) {
+            boolean dropWhenFull = Boolean.parseBoolean(
+                    mqttProperties.getProperty(MqttConstants.MQTT_DISPATCH_DROP_WHEN_FULL));
+            dispatcher = new MqttMessageDispatcher(mqttAsyncClient.getClientId(), workerCount,
+                    Math.max(1, queueSize), dropWhenFull);
+            String qos = mqttProperties.getProperty(MqttConstants.MQTT_QOS);
+            if (qos != null && !"0".equals(qos.trim())) {
+                log.warn("The dispatch workers of the MQTT client " + mqttAsyncClient.getClientId() + " only help "
+                        + "QoS 0 messages. QoS " + qos.trim() + " messages are acknowledged when the callback "
+                        + "returns, so the callback still waits until each of them is mediated.");
+            }
+        }
     }
 
     /**
@@ -101,26 +128,60 @@ public class MqttAsyncCallback extends OneTimeTriggerAbstractCallback implements
         }
     }
 
-    public void messageArrived(String topic, MqttMessage mqttMessage) throws MqttException {
+    /**
+     * The client acknowledges a QoS 1 or 2 message when this returns. By default the message is mediated on the
+     * callback thread and acknowledged whatever the sequence did with it. When workers are configured, an exception
+     * is thrown if such a message could not be built or injected. The client then reconnects and the broker
+     * redelivers the message. A message dropped by the sequence is still acknowledged.
+     */
+    public void messageArrived(final String topic, final MqttMessage mqttMessage) throws MqttException {
         if (log.isDebugEnabled()) {
             log.debug("Received Message: Topic:" + topic + "  Message: " + mqttMessage);
         }
         MqttClientManager clientManager = MqttClientManager.getInstance();
         String inboundIdentifier = clientManager.buildIdentifier
                 (mqttAsyncClient.getClientId(), confac.getServerHost(), confac.getServerPort());
-        if (super.isInboundRunnerMode()) {
+        final boolean inboundRunnerMode = super.isInboundRunnerMode();
+        if (inboundRunnerMode) {
             //register tenant loading flag for inbound identifier
             clientManager.registerInboundTenantLoadingFlag(inboundIdentifier);
             //this is a blocking call
             super.startInboundTenantLoading(inboundIdentifier);
             //un-register tenant loading flag for inbound identifier
             clientManager.unRegisterInboundTenantLoadingFlag(inboundIdentifier);
+        }
+
+        if (dispatcher == null) {
+            mediate(mqttMessage, topic, inboundRunnerMode);
+            return;
+        }
+        boolean successful;
+        try {
+            successful = dispatcher.dispatch(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    inject(mqttMessage, topic, inboundRunnerMode);
+                    return true;
+                }
+            }, mqttMessage.getQos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MqttException(e);
+        }
+        if (!successful && mqttMessage.getQos() > 0) {
+            log.error("MQTT message of the topic " + topic + " was not mediated successfully by the inbound "
+                    + "endpoint " + name + ". The message is not acknowledged.");
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION);
+        }
+    }
 
+    /**
+     * Mediate the message, logging any error
+     */
+    private void mediate(MqttMessage mqttMessage, String topic, boolean inboundRunnerMode) {
+        if (inboundRunnerMode) {
             try {
-                PrivilegedCarbonContext.startTenantFlow();
-                PrivilegedCarbonContext privilegedCarbonContext =
-                        PrivilegedCarbonContext.getThreadLocalCarbonContext();
-                privilegedCarbonContext.setTenantDomain(super.tenantDomain, true);
+                startTenantFlow();
                 injectHandler.invoke(mqttMessage, name, topic);
             } finally {
                 PrivilegedCarbonContext.endTenantFlow();
@@ -130,6 +191,28 @@ public class MqttAsyncCallback extends OneTimeTriggerAbstractCallback implements
         }
     }
 
+    /**
+     * Mediate the message, throwing the error if it could not be built or injected
+     */
+    private void inject(MqttMessage mqttMessage, String topic, boolean inboundRunnerMode) throws Exception {
+        if (inboundRunnerMode) {
+            try {
+                startTenantFlow();
+                injectHandler.inject(mqttMessage, name, topic);
+            } finally {
+                PrivilegedCarbonContext.endTenantFlow();
+            }
+        } else {
+            injectHandler.inject(mqttMessage, name, topic);
+        }
+    }
+
+    private void startTenantFlow() {
+        PrivilegedCarbonContext.startTenantFlow();
+        PrivilegedCarbonContext privilegedCarbonContext = PrivilegedCarbonContext.getThreadLocalCarbonContext();
+        privilegedCarbonContext.setTenantDomain(super.tenantDomain, true);
+    }
+
     public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
     }
 
@@ -154,6 +237,9 @@ public class MqttAsyncCallback extends OneTimeTriggerAbstractCallback implements
         if (connectionListener != null) {
             this.connectionListener.shutdown();
         }
+        if (dispatcher != null) {
+            dispatcher.shutdown(MqttConstants.DISPATCH_SHUTDOWN_TIMEOUT);
+        }
     }
 
     /**
@@ -34,6 +34,24 @@ public class MqttConstants {
     public static final String MQTT_TEMP_STORE = "mqtt.temporary.store.directory";
     public static final String MQTT_CLIENT_ID = "mqtt.client.id";
     public static final String MQTT_RECONNECTION_INTERVAL = "mqtt.reconnection.interval";
+    /**
+     * Workers which mediate the received messages. With 0 workers the messages are mediated on the callback thread.
+     *
+     * This setting only helps QoS 0 subscriptions. The Paho client acknowledges a QoS 1 or 2 message when the
+     * callback returns and has no manual acknowledgement, so the callback thread still blocks until a QoS 1 or 2
+     * message is mediated, including the keep-alive stall while a sequence is slow, and such messages are mediated
+     * one after the other regardless of the number of workers.
+     */
+    public static final String MQTT_DISPATCH_WORKER_COUNT = "mqtt.dispatch.worker.count";
+    public static final String MQTT_DISPATCH_QUEUE_SIZE = "mqtt.dispatch.queue.size";
+    /**
+     * Whether QoS 0 messages are dropped while the dispatch queue is full, instead of blocking the callback thread
+     */
+    public static final String MQTT_DISPATCH_DROP_WHEN_FULL = "mqtt.dispatch.drop.when.full";
+
+    public static final int DEFAULT_DISPATCH_WORKER_COUNT = 0;
+    public static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1000;
+    public static final long DISPATCH_SHUTDOWN_TIMEOUT = 30000;
 
     //SSL related parameters
     public static final String MQTT_SSL_ENABLE = "mqtt.ssl.enable";
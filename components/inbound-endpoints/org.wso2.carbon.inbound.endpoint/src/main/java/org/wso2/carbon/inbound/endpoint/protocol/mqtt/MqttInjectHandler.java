@@ -18,10 +18,7 @@ package org.wso2.carbon.inbound.endpoint.protocol.mqtt;
 
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.UUIDGenerator;
-import org.apache.axis2.AxisFault;
 import org.apache.axis2.builder.Builder;
-import org.apache.axis2.builder.BuilderUtil;
-import org.apache.axis2.builder.SOAPBuilder;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.transport.TransportUtils;
 import org.apache.commons.io.input.AutoCloseInputStream;
@@ -33,6 +30,7 @@ import org.apache.synapse.inbound.InboundEndpoint;
 import org.apache.synapse.mediators.base.SequenceMediator;
 import org.apache.synapse.transport.customlogsetter.CustomLogSetter;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.wso2.carbon.inbound.endpoint.common.InboundInjectionPipeline;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
@@ -44,10 +42,10 @@ public class MqttInjectHandler {
     private static final Log log = LogFactory.getLog(MqttInjectHandler.class);
 
     private String injectingSeq;
-    private String onErrorSeq;
     private boolean sequential;
     private String contentType;
     private SynapseEnvironment synapseEnvironment;
+    private InboundInjectionPipeline injectionPipeline;
 
     /**
      * constructor initialize parameters and synapseEnvironment
@@ -61,10 +59,10 @@ public class MqttInjectHandler {
                              boolean sequential, SynapseEnvironment synapseEnvironment,
                              String contentType) {
         this.injectingSeq = injectingSeq;
-        this.onErrorSeq = onErrorSeq;
         this.sequential = sequential;
         this.synapseEnvironment = synapseEnvironment;
         this.contentType = contentType;
+        this.injectionPipeline = new InboundInjectionPipeline(injectingSeq, onErrorSeq, synapseEnvironment);
     }
 
     /**
@@ -74,90 +72,72 @@ public class MqttInjectHandler {
      * @return
      */
     public boolean invoke(MqttMessage mqttMessage, String name, String topicName) {
-
         try {
-            org.apache.synapse.MessageContext msgCtx = createMessageContext();
-
-            msgCtx.setProperty(MqttConstants.MQTT_TOPIC_NAME, topicName);
+            return inject(mqttMessage, name, topicName);
+        } catch (Exception e) {
+            log.error("Error while processing the MQTT Message");
+        }
+        return true;
+    }
 
-            if (name != null) {
-                InboundEndpoint inboundEndpoint = msgCtx.getConfiguration().getInboundEndpoint(name);
-                CustomLogSetter.getInstance().setLogAppender(inboundEndpoint.getArtifactContainerName());
-            }
+    /**
+     * inject mqtt message into esb sequence, failing if the message could not be built or injected
+     *
+     * @param mqttMessage
+     * @return false if the message was not injected or the sequence did not mediate it further
+     * @throws Exception if the message could not be built or injected
+     */
+    public boolean inject(MqttMessage mqttMessage, String name, String topicName) throws Exception {
+        org.apache.synapse.MessageContext msgCtx = createMessageContext();
 
-            String message = mqttMessage.toString();
+        msgCtx.setProperty(MqttConstants.MQTT_TOPIC_NAME, topicName);
 
-            if (log.isDebugEnabled()) {
-                log.debug("Processed MQTT Message of Content-type : "
-                        + contentType);
-            }
-            MessageContext axis2MsgCtx =
-                    ((org.apache.synapse.core.axis2.Axis2MessageContext) msgCtx)
-                            .getAxis2MessageContext();
-            // Determine the message builder to use
-
-            Builder builder = null;
-            if (contentType == null) {
-                log.debug("No content type specified. Using SOAP builder.");
-                builder = new SOAPBuilder();
-            } else {
-                int index = contentType.indexOf(';');
-                String type = index > 0 ? contentType.substring(0, index)
-                        : contentType;
-                try {
-                    builder = BuilderUtil.getBuilderFromSelector(type, axis2MsgCtx);
-                } catch (AxisFault axisFault) {
-                    log.error("Error while creating message builder :: "
-                            + axisFault.getMessage());
-
-                }
-                if (builder == null) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("No message builder found for type '" + type
-                                + "'. Falling back to SOAP.");
-                    }
-                    builder = new SOAPBuilder();
-                }
-            }
+        if (name != null) {
+            InboundEndpoint inboundEndpoint = msgCtx.getConfiguration().getInboundEndpoint(name);
+            CustomLogSetter.getInstance().setLogAppender(inboundEndpoint.getArtifactContainerName());
+        }
 
-            OMElement documentElement = null;
+        String message = mqttMessage.toString();
 
-            InputStream in = new AutoCloseInputStream(new ByteArrayInputStream(
-                    message.getBytes()));
-            documentElement = builder.processDocument(in, contentType,
-                    axis2MsgCtx);
+        if (log.isDebugEnabled()) {
+            log.debug("Processed MQTT Message of Content-type : "
+                    + contentType);
+        }
+        MessageContext axis2MsgCtx =
+                ((org.apache.synapse.core.axis2.Axis2MessageContext) msgCtx)
+                        .getAxis2MessageContext();
+        // Determine the message builder to use
+
+        Builder builder = injectionPipeline.getBuilder(contentType, axis2MsgCtx);
+
+        OMElement documentElement = null;
+
+        InputStream in = new AutoCloseInputStream(new ByteArrayInputStream(
+                message.getBytes()));
+        documentElement = builder.processDocument(in, contentType,
+                axis2MsgCtx);
+
+        // Inject the message to the sequence.
+        msgCtx.setEnvelope(TransportUtils
+                .createSOAPEnvelope(documentElement));
+        if (injectingSeq == null || ("").equals(injectingSeq)) {
+            log.error("Sequence name not specified. Sequence : "
+                    + injectingSeq);
+            return false;
+        }
+        SequenceMediator seq = injectionPipeline.getSequence();
 
-            // Inject the message to the sequence.
-            msgCtx.setEnvelope(TransportUtils
-                    .createSOAPEnvelope(documentElement));
-            if (injectingSeq == null || ("").equals(injectingSeq)) {
-                log.error("Sequence name not specified. Sequence : "
-                        + injectingSeq);
-                return false;
+        if (seq != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("injecting message to sequence : " + injectingSeq);
             }
-            SequenceMediator seq = (SequenceMediator) synapseEnvironment
-                    .getSynapseConfiguration().getSequence(injectingSeq);
-
-            if (seq != null) {
-                if (!seq.isInitialized()) {
-                    seq.init(synapseEnvironment);
-                }
-                seq.setErrorHandler(onErrorSeq);
-                if (log.isDebugEnabled()) {
-                    log.debug("injecting message to sequence : " + injectingSeq);
-                }
-                if (!synapseEnvironment.injectInbound(msgCtx, seq, this.sequential)) {
-                    return false;
-                }
-            } else {
-                log.error("Sequence: " + injectingSeq + " not found");
+            if (!synapseEnvironment.injectInbound(msgCtx, seq, this.sequential)) {
+                return false;
             }
-
-        } catch (Exception e) {
-            log.error("Error while processing the MQTT Message");
+        } else {
+            log.error("Sequence: " + injectingSeq + " not found");
         }
         return true;
-
     }
 
     /**
@@ -0,0 +1,214 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.mqtt;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.commons.jmx.MBeanRegistrar;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mediates the messages received by an MQTT client on a bounded pool of workers, so that the callback thread of
+ * the client is not blocked by slow sequences.
+ *
+ * Only QoS 0 messages benefit from the workers. They are queued and the callback returns without waiting for the
+ * mediation. While the queue is full the callback waits for room in it, unless dropping is enabled, in which case
+ * the message is dropped, which is within the at most once guarantee of QoS 0.
+ *
+ * The client acknowledges a QoS 1 or 2 message when the callback returns and has no manual acknowledgement, so for
+ * those messages the callback still waits until the message is mediated, and a slow sequence still stalls the
+ * callback thread of the client as it does without workers. The client delivers the messages one at a time on its
+ * callback thread, hence QoS 1 and 2 messages are mediated one after the other regardless of the number of workers.
+ *
+ * The queue depth, the dispatched and dropped counts and the dispatch latency are exposed over JMX.
+ */
+public class MqttMessageDispatcher implements MqttMessageDispatcherMBean {
+
+    private static final Log log = LogFactory.getLog(MqttMessageDispatcher.class);
+
+    private static final String MBEAN_CATEGORY = "MqttMessageDispatcher";
+
+    private final String name;
+    private final ThreadPoolExecutor workerPool;
+    private final boolean dropWhenFull;
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalDispatchLatency = new AtomicLong();
+    private final AtomicLong maxDispatchLatency = new AtomicLong();
+
+    /**
+     * @param name         identifies the client in the logs and as the MBean name
+     * @param workerCount  number of workers
+     * @param queueSize    maximum number of messages waiting for a worker
+     * @param dropWhenFull whether QoS 0 messages are dropped instead of waiting while the queue is full
+     */
+    public MqttMessageDispatcher(String name, int workerCount, int queueSize, boolean dropWhenFull) {
+        this.name = name;
+        this.dropWhenFull = dropWhenFull;
+        this.workerPool = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize));
+        // the messages which wait for room are queued directly, so the workers have to be running
+        this.workerPool.prestartAllCoreThreads();
+        MBeanRegistrar.getInstance().registerMBean(this, MBEAN_CATEGORY, name);
+    }
+
+    /**
+     * Dispatch the mediation of a message to the workers
+     *
+     * @param mediation mediates the message and gives whether it was mediated successfully
+     * @param qos       QoS level of the message
+     * @return false if a QoS 1 or 2 message was not mediated successfully
+     * @throws InterruptedException if interrupted while waiting for a QoS 1 or 2 message
+     */
+    public boolean dispatch(final Callable<Boolean> mediation, int qos) throws InterruptedException {
+        final long arrivalTime = System.nanoTime();
+        FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                recordDispatchLatency(System.nanoTime() - arrivalTime);
+                return mediation.call();
+            }
+        });
+        if (qos == 0 && dropWhenFull) {
+            try {
+                workerPool.execute(task);
+            } catch (RejectedExecutionException e) {
+                long dropped = droppedCount.incrementAndGet();
+                log.warn("Dispatch queue of the MQTT client " + name + " is full. Dropped a QoS 0 "
+                        + "message, " + dropped + " dropped so far.");
+            }
+            return true;
+        }
+        if (workerPool.isShutdown()) {
+            return false;
+        }
+        // wait for room in the queue instead of rejecting the message
+        workerPool.getQueue().put(task);
+        if (workerPool.isShutdown() && workerPool.remove(task)) {
+            return false;
+        }
+        // the client does not acknowledge QoS 0 messages, so the callback does not wait for their mediation
+        return qos == 0 || isSuccessful(task);
+    }
+
+    private boolean isSuccessful(Future<Boolean> result) throws InterruptedException {
+        try {
+            return Boolean.TRUE.equals(result.get());
+        } catch (ExecutionException e) {
+            log.error("Error while mediating the MQTT message of the client " + name, e.getCause());
+            return false;
+        } catch (CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Cancel the messages which were not mediated, so that the callbacks waiting for them are released
+     */
+    private void cancel(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            if (task instanceof Future) {
+                ((Future) task).cancel(false);
+            }
+        }
+    }
+
+    private void recordDispatchLatency(long latency) {
+        dispatchedCount.incrementAndGet();
+        totalDispatchLatency.addAndGet(latency);
+        long max = maxDispatchLatency.get();
+        while (latency > max && !maxDispatchLatency.compareAndSet(max, latency)) {
+            max = maxDispatchLatency.get();
+        }
+    }
+
+    /**
+     * Number of messages waiting for a worker
+     */
+    @Override
+    public int getQueueDepth() {
+        return workerPool.getQueue().size();
+    }
+
+    /**
+     * Number of messages handed over to a worker
+     */
+    @Override
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * Number of QoS 0 messages dropped since the queue was full
+     */
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Average time in milliseconds the messages waited for a worker
+     */
+    @Override
+    public double getAverageDispatchLatency() {
+        long count = dispatchedCount.get();
+        return count == 0 ? 0 : totalDispatchLatency.get() / (count * 1000000.0);
+    }
+
+    /**
+     * Maximum time in milliseconds a message waited for a worker
+     */
+    @Override
+    public double getMaxDispatchLatency() {
+        return maxDispatchLatency.get() / 1000000.0;
+    }
+
+    /**
+     * Stops accepting messages and waits for the queued messages to be mediated
+     *
+     * @param timeout maximum time to wait in milliseconds
+     */
+    public void shutdown(long timeout) {
+        workerPool.shutdown();
+        MBeanRegistrar.getInstance().unRegisterMBean(MBEAN_CATEGORY, name);
+        try {
+            if (!workerPool.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Messages of the MQTT client " + name + " are still being mediated.");
+                cancel(workerPool.shutdownNow());
+            }
+        } catch (InterruptedException e) {
+            cancel(workerPool.shutdownNow());
+            Thread.currentThread().interrupt();
+        }
+        log.info("MQTT client " + name + " dispatched " + getDispatchedCount() + " messages with an "
+                + "average dispatch latency of " + getAverageDispatchLatency() + " ms and a maximum of "
+                + getMaxDispatchLatency() + " ms. Dropped " + getDroppedCount() + " QoS 0 messages.");
+    }
+}
@@ -21,9 +21,9 @@ package org.wso2.carbon.inbound.endpoint.protocol.rabbitmq;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConsumerCancelledException;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.ShutdownSignalException;
-import com.rabbitmq.client.QueueingConsumer;
 
 import org.apache.axiom.om.OMException;
 import org.apache.commons.lang.StringUtils;
@@ -33,10 +33,31 @@ import org.apache.commons.logging.LogFactory;
 import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Consumes the messages of a queue with a push based consumer, which hands the deliveries over to a fixed pool of
+ * workers. The consumer is blocked while all the workers are busy, so that the broker stops delivering once the
+ * prefetch count is reached.
+ *
+ * Unless auto ack is enabled, the messages mediated successfully are acknowledged together with a multiple ack once
+ * rabbitmq.consumer.ack.batch.size of them have completed, or when no other message is being mediated. A multiple
+ * ack only covers the messages delivered before the oldest message which is still being mediated. Messages which
+ * could not be mediated are requeued, and messages which could not be built are rejected without requeueing so that
+ * they are dead lettered if the queue has a dead letter exchange.
+ */
 public class RabbitMQConnectionConsumer {
     private static final Log log = LogFactory.getLog(RabbitMQConnectionConsumer.class);
+
+    private static final long SHUTDOWN_CHECK_INTERVAL = 1000;
     private RabbitMQConnectionFactory rabbitMQConnectionFactory;
     private Properties rabbitMQProperties;
 
@@ -52,26 +73,44 @@ public class RabbitMQConnectionConsumer {
     private Connection connection = null;
     private Channel channel = null;
     private boolean autoAck = false;
-    private QueueingConsumer queueingConsumer;
+    private DeliveryConsumer deliveryConsumer;
+    private int workerCount = 1;
+    private int ackBatchSize = 1;
+    private ExecutorService workerPool;
+    private Semaphore workerPermits;
     private String queueName, routeKey, exchangeName;
     private Hashtable<String, String> rabbitMQProps = new Hashtable<>();
     private RabbitMQInjectHandler injectHandler;
     private String consumerTagString;
 
     private volatile boolean connected = false;
-    private volatile boolean idle = false;
 
     public RabbitMQConnectionConsumer(RabbitMQConnectionFactory rabbitMQConnectionFactory, Properties rabbitMQProperties, RabbitMQInjectHandler injectHandler) {
         this.rabbitMQConnectionFactory = rabbitMQConnectionFactory;
         this.rabbitMQProperties = rabbitMQProperties;
         this.injectHandler = injectHandler;
         this.rabbitMQProperties.putAll(rabbitMQProps);
+
+        String workerCountStringValue = rabbitMQProperties.getProperty(RabbitMQConstants.CONSUMER_WORKER_COUNT);
+        String ackBatchSizeStringValue = rabbitMQProperties.getProperty(RabbitMQConstants.CONSUMER_ACK_BATCH_SIZE);
+        try {
+            if (!StringUtils.isEmpty(workerCountStringValue)) {
+                workerCount = Math.max(1, Integer.parseInt(workerCountStringValue));
+            }
+            if (!StringUtils.isEmpty(ackBatchSizeStringValue)) {
+                ackBatchSize = Math.max(1, Integer.parseInt(ackBatchSizeStringValue));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Format error in rabbitmq.consumer.worker.count or rabbitmq.consumer.ack.batch.size parameter. "
+                    + "Using the defaults.", e);
+        }
     }
 
     public void execute() {
 
         try {
             workerState = STATE_STARTED;
+            startWorkers();
             initConsumer();
 
             while (workerState == STATE_STARTED) {
@@ -83,8 +122,6 @@ public class RabbitMQConnectionConsumer {
                                 " was disconnected", sse);
                         waitForConnection();
                     }
-                } catch (OMException e){
-                    log.error("Invalid Message Format while consuming the message", e);
                 } catch (IOException e) {
                     log.error("RabbitMQ Listener of the inbound " + inboundName +
                             " was disconnected", e);
@@ -94,11 +131,20 @@ public class RabbitMQConnectionConsumer {
         } catch (IOException e) {
             handleException("Error initializing consumer for inbound " + inboundName, e);
         } finally {
+            shutdownWorkers();
             closeConnection();
             workerState = STATE_STOPPED;
         }
     }
 
+    /**
+     * Creates the pool of workers which mediate the delivered messages
+     */
+    void startWorkers() {
+        workerPool = Executors.newFixedThreadPool(workerCount);
+        workerPermits = new Semaphore(workerCount);
+    }
+
     private void waitForConnection() throws IOException {
         int retryInterval = rabbitMQConnectionFactory.getRetryInterval();
         int retryCountMax = rabbitMQConnectionFactory.getRetryCount();
@@ -127,78 +173,40 @@ public class RabbitMQConnectionConsumer {
 
     /**
      * Used to start message consuming messages. This method is called in startup and when
-     * connection is re-connected. This method will request for the connection and create
-     * channel, queues, exchanges and bind queues to exchanges before consuming messages
+     * connection is re-connected. The deliveries are handled by the delivery consumer, so this
+     * method only waits until the consumer is shut down or cancelled by the broker
      *
      * @throws ShutdownSignalException
      * @throws IOException
      */
     private void startConsumer() throws ShutdownSignalException, IOException {
         connection = getConnection();
-        if (channel == null || !channel.isOpen()) {
-            channel = connection.createChannel();
-            log.debug("Channel is not open. Creating a new channel for inbound " + inboundName);
-        }
-        //set the qos value for the consumer//
-        String qos = rabbitMQProperties.getProperty(RabbitMQConstants.CONSUMER_QOS);
-        if (qos != null && !"".equals(qos)) {
-            channel.basicQos(Integer.parseInt(qos));
-        }
 
         //unable to connect to the queue
-        if (queueingConsumer == null) {
+        if (deliveryConsumer == null) {
             workerState = STATE_STOPPED;
             return;
         }
 
         while (isActive()) {
             try {
-                if (!channel.isOpen()) {
-                    channel = queueingConsumer.getChannel();
+                if (!deliveryConsumer.awaitTermination(SHUTDOWN_CHECK_INTERVAL)) {
+                    continue;
                 }
-                channel.txSelect();
-            } catch (IOException e) {
-                log.error("Error while starting transaction", e);
-                continue;
-            }
-
-            boolean successful = false;
-
-            RabbitMQMessage message = null;
-            try {
-                message = getConsumerDelivery(queueingConsumer);
             } catch (InterruptedException e) {
                 log.error("Error while consuming message", e);
                 continue;
             }
-
-            if (message != null) {
-                idle = false;
-                try {
-                    successful = injectHandler.invoke(message);
-                } finally {
-                    if (successful) {
-                        try {
-                            if (!autoAck) {
-                                channel.basicAck(message.getDeliveryTag(), false);
-                            }
-                            channel.txCommit();
-                        } catch (IOException e) {
-                            log.error("Error while committing transaction", e);
-                        }
-                    } else {
-                        try {
-                            channel.txRollback();
-                        } catch (IOException e) {
-                            log.error("Error while trying to roll back transaction", e);
-                        }
-                    }
-                }
-            } else {
-                idle = true;
+            if (deliveryConsumer.getShutdownSignal() != null) {
+                throw deliveryConsumer.getShutdownSignal();
+            }
+            if (isActive()) {
+                // the consumer was cancelled by the broker, e.g. since the queue was deleted
+                log.warn("RabbitMQ consumer of the inbound " + inboundName + " was cancelled by the broker. "
+                        + "Consuming the queue '" + queueName + "' again.");
+                initConsumer();
             }
         }
-
     }
 
     /**
@@ -260,71 +268,86 @@ public class RabbitMQConnectionConsumer {
             log.debug("Channel is not open. Creating a new channel for inbound " + inboundName);
         }
 
-        queueingConsumer = new QueueingConsumer(channel);
+        //set the qos value for the consumer, which has to be set before consuming
+        String qos = rabbitMQProperties.getProperty(RabbitMQConstants.CONSUMER_QOS);
+        if (qos != null && !"".equals(qos)) {
+            channel.basicQos(Integer.parseInt(qos));
+        } else if (workerCount > 1 && !autoAck) {
+            // do not let the consumer buffer the whole queue while the workers are busy
+            channel.basicQos(workerCount * 2);
+        }
+
+        deliveryConsumer = new DeliveryConsumer(channel);
 
         consumerTagString = rabbitMQProperties.getProperty(RabbitMQConstants.CONSUMER_TAG);
         if (consumerTagString != null) {
-            channel.basicConsume(queueName, autoAck, consumerTagString, queueingConsumer);
+            channel.basicConsume(queueName, autoAck, consumerTagString, deliveryConsumer);
             log.debug("Start consuming queue '" + queueName + "' with consumer tag '" + consumerTagString + "' for inbound " + inboundName);
         } else {
-            consumerTagString = channel.basicConsume(queueName, autoAck, queueingConsumer);
+            consumerTagString = channel.basicConsume(queueName, autoAck, deliveryConsumer);
             log.debug("Start consuming queue '" + queueName + "' with consumer tag '" + consumerTagString + "' for inbound " + inboundName);
         }
     }
 
     /**
-     * Returns the delivery from the consumer
+     * Creates the message from a delivery of the consumer
      *
-     * @param consumer the consumer to get the delivery
+     * @param envelope   envelope of the delivery
+     * @param properties properties of the delivery
+     * @param body       body of the delivery
      * @return RabbitMQMessage consumed by the consumer
-     * @throws InterruptedException on error
      */
-    private RabbitMQMessage getConsumerDelivery(QueueingConsumer consumer)
-            throws InterruptedException, ShutdownSignalException {
+    private RabbitMQMessage createMessage(Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
         RabbitMQMessage message = new RabbitMQMessage();
-        QueueingConsumer.Delivery delivery = null;
-        try {
-            log.debug("Waiting for next delivery from queue for inbound " + inboundName);
-            delivery = consumer.nextDelivery();
-        } catch (ShutdownSignalException e) {
-            return null;
-        } catch (InterruptedException e) {
-            return null;
-        } catch (ConsumerCancelledException e) {
-            return null;
-        }
-
-        if (delivery != null) {
-            AMQP.BasicProperties properties = delivery.getProperties();
-            Map<String, Object> headers = properties.getHeaders();
-            message.setBody(delivery.getBody());
-            message.setDeliveryTag(delivery.getEnvelope().getDeliveryTag());
-            message.setReplyTo(properties.getReplyTo());
-            message.setMessageId(properties.getMessageId());
-
-            // Content type is as set in delivered message. If not, from inbound parameters.
-            String contentType = properties.getContentType();
-            if (contentType == null) {
-                contentType = rabbitMQProperties.getProperty(RabbitMQConstants.CONTENT_TYPE);
-            }
-            message.setContentType(contentType);
-
-            message.setContentEncoding(properties.getContentEncoding());
-            message.setCorrelationId(properties.getCorrelationId());
-            if (headers != null) {
-                message.setHeaders(headers);
-                if (headers.get(RabbitMQConstants.SOAP_ACTION) != null) {
-                    message.setSoapAction(headers.get(
-                            RabbitMQConstants.SOAP_ACTION).toString());
-                }
+        Map<String, Object> headers = properties.getHeaders();
+        message.setBody(body);
+        message.setDeliveryTag(envelope.getDeliveryTag());
+        message.setReplyTo(properties.getReplyTo());
+        message.setMessageId(properties.getMessageId());
+
+        // Content type is as set in delivered message. If not, from inbound parameters.
+        String contentType = properties.getContentType();
+        if (contentType == null) {
+            contentType = rabbitMQProperties.getProperty(RabbitMQConstants.CONTENT_TYPE);
+        }
+        message.setContentType(contentType);
+
+        message.setContentEncoding(properties.getContentEncoding());
+        message.setCorrelationId(properties.getCorrelationId());
+        if (headers != null) {
+            message.setHeaders(headers);
+            if (headers.get(RabbitMQConstants.SOAP_ACTION) != null) {
+                message.setSoapAction(headers.get(
+                        RabbitMQConstants.SOAP_ACTION).toString());
             }
-        } else {
-            log.debug("Queue delivery item is null for inbound " + inboundName);
-            return null;
         }
         return message;
     }
 
+    /**
+     * Waits for the workers to complete the delivered messages and acknowledges them
+     */
+    private void shutdownWorkers() {
+        if (workerPool == null) {
+            return;
+        }
+        workerPool.shutdown();
+        try {
+            if (!workerPool.awaitTermination(RabbitMQConstants.DEFAULT_WORKER_SHUTDOWN_TIMEOUT,
+                    TimeUnit.MILLISECONDS)) {
+                log.warn("Messages of the inbound " + inboundName + " are still being mediated. "
+                        + "They will be redelivered.");
+                workerPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (deliveryConsumer != null) {
+            deliveryConsumer.acknowledgeCompleted();
+        }
+    }
+
     private void closeConnection() {
         if (connection != null && connection.isOpen()) {
             try {
@@ -377,6 +400,10 @@ public class RabbitMQConnectionConsumer {
 
     protected void requestShutdown() {
         workerState = STATE_SHUTTING_DOWN;
+        if (deliveryConsumer != null) {
+            deliveryConsumer.cancel();
+        }
+        shutdownWorkers();
         closeConnection();
     }
 
@@ -385,4 +412,154 @@ public class RabbitMQConnectionConsumer {
         throw new RabbitMQException(msg, e);
     }
 
-}
\ No newline at end of file
+    /**
+     * Push based consumer of a channel, which hands the deliveries over to the workers and acknowledges the
+     * messages completed by them. The delivery tags are only valid within the channel, so the acknowledgement
+     * state is kept per consumer.
+     */
+    class DeliveryConsumer extends DefaultConsumer {
+
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile ShutdownSignalException shutdownSignal;
+        // delivery tags of the messages handed over to the workers
+        private final NavigableSet<Long> inFlight = new TreeSet<>();
+        // delivery tags of the messages mediated successfully which are not acknowledged yet
+        private final NavigableSet<Long> completed = new TreeSet<>();
+
+        DeliveryConsumer(Channel channel) {
+            super(channel);
+        }
+
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+                                   byte[] body) {
+            final RabbitMQMessage message = createMessage(envelope, properties, body);
+            try {
+                // blocks the delivery of further messages while all the workers are busy
+                workerPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!autoAck) {
+                synchronized (this) {
+                    inFlight.add(message.getDeliveryTag());
+                }
+            }
+            try {
+                workerPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            process(message);
+                        } finally {
+                            workerPermits.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                workerPermits.release();
+                if (!autoAck) {
+                    synchronized (this) {
+                        inFlight.remove(message.getDeliveryTag());
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Inbound " + inboundName + " is shutting down. The message will be redelivered.");
+                }
+            }
+        }
+
+        @Override
+        public void handleCancel(String consumerTag) {
+            terminated.countDown();
+        }
+
+        @Override
+        public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+            shutdownSignal = sig;
+            terminated.countDown();
+        }
+
+        private void process(RabbitMQMessage message) {
+            boolean successful = false;
+            boolean requeue = true;
+            try {
+                successful = injectHandler.invoke(message);
+            } catch (OMException e) {
+                log.error("Invalid Message Format while consuming the message", e);
+                requeue = false;
+            } catch (Exception e) {
+                log.error("Error while mediating the message of the inbound " + inboundName, e);
+            } finally {
+                if (!autoAck) {
+                    complete(message.getDeliveryTag(), successful, requeue);
+                }
+            }
+        }
+
+        private synchronized void complete(long deliveryTag, boolean successful, boolean requeue) {
+            inFlight.remove(deliveryTag);
+            try {
+                if (successful) {
+                    completed.add(deliveryTag);
+                } else {
+                    getChannel().basicNack(deliveryTag, false, requeue);
+                }
+                if (completed.size() >= ackBatchSize || inFlight.isEmpty()) {
+                    ack();
+                }
+            } catch (IOException e) {
+                log.error("Error while acknowledging the messages of the inbound " + inboundName, e);
+            } catch (ShutdownSignalException e) {
+                log.debug("Channel of the inbound " + inboundName + " is closed. Unacknowledged messages will "
+                        + "be redelivered.");
+            }
+        }
+
+        /**
+         * Acknowledges all the completed messages which were delivered before the oldest message in flight
+         */
+        private void ack() throws IOException {
+            NavigableSet<Long> ackable = inFlight.isEmpty() ? completed
+                    : completed.headSet(inFlight.first(), false);
+            if (ackable.isEmpty()) {
+                return;
+            }
+            getChannel().basicAck(ackable.last(), true);
+            ackable.clear();
+        }
+
+        synchronized void acknowledgeCompleted() {
+            if (autoAck) {
+                return;
+            }
+            try {
+                ack();
+            } catch (IOException e) {
+                log.error("Error while acknowledging the messages of the inbound " + inboundName, e);
+            } catch (ShutdownSignalException e) {
+                log.debug("Channel of the inbound " + inboundName + " is closed. Unacknowledged messages will "
+                        + "be redelivered.");
+            }
+        }
+
+        void cancel() {
+            try {
+                getChannel().basicCancel(getConsumerTag());
+            } catch (IOException e) {
+                log.debug("Error while cancelling the consumer of the inbound " + inboundName, e);
+            } catch (ShutdownSignalException e) {
+                log.debug("Channel of the inbound " + inboundName + " is already closed.");
+            }
+        }
+
+        boolean awaitTermination(long timeout) throws InterruptedException {
+            return terminated.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        ShutdownSignalException getShutdownSignal() {
+            return shutdownSignal;
+        }
+    }
+}
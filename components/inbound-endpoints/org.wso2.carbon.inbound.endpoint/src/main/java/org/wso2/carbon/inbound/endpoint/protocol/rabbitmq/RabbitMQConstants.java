@@ -76,6 +76,8 @@ public class RabbitMQConstants {
 
     public static final String CONSUMER_QOS = "rabbitmq.channel.consumer.qos";
     public static final String CONSUMER_TAG = "rabbitmq.consumer.tag";
+    public static final String CONSUMER_WORKER_COUNT = "rabbitmq.consumer.worker.count";
+    public static final String CONSUMER_ACK_BATCH_SIZE = "rabbitmq.consumer.ack.batch.size";
 
     public static final String DEFAULT_CONTENT_TYPE = "text/plain";
     public static final int DEFAULT_RETRY_INTERVAL = 30000;
@@ -83,6 +85,7 @@ public class RabbitMQConstants {
     public static final int DEFAULT_THREAD_COUNT = 20;
     public static final int DEFAULT_DELIVERY_MODE = 2; //Default is persistent
     public static final int DEFAULT_REPLY_TO_TIMEOUT = 30000;
+    public static final int DEFAULT_WORKER_SHUTDOWN_TIMEOUT = 30000;
 }
 
 
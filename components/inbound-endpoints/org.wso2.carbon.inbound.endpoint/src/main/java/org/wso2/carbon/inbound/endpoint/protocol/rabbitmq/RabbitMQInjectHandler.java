@@ -22,8 +22,6 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.UUIDGenerator;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.builder.Builder;
-import org.apache.axis2.builder.BuilderUtil;
-import org.apache.axis2.builder.SOAPBuilder;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.transport.TransportUtils;
 import org.apache.commons.logging.Log;
@@ -31,6 +29,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.mediators.base.SequenceMediator;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.inbound.endpoint.common.InboundInjectionPipeline;
 import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 
 import java.io.ByteArrayInputStream;
@@ -43,16 +42,16 @@ public class RabbitMQInjectHandler {
     private static final Log log = LogFactory.getLog(RabbitMQInjectHandler.class);
 
     private String injectingSeq;
-    private String onErrorSeq;
     private boolean sequential;
     private SynapseEnvironment synapseEnvironment;
+    private InboundInjectionPipeline injectionPipeline;
 
     public RabbitMQInjectHandler(String injectingSeq, String onErrorSeq, boolean sequential,
                                  SynapseEnvironment synapseEnvironment) {
         this.injectingSeq = injectingSeq;
-        this.onErrorSeq = onErrorSeq;
         this.sequential = sequential;
         this.synapseEnvironment = synapseEnvironment;
+        this.injectionPipeline = new InboundInjectionPipeline(injectingSeq, onErrorSeq, synapseEnvironment);
     }
 
     /**
@@ -74,31 +73,13 @@ public class RabbitMQInjectHandler {
         }
 
         String contentType = message.getContentType();
-        Builder builder = null;
         if (contentType == null) {
             log.warn("Unable to determine content type for message " +
                     msgCtx.getMessageID() + " setting to text/plain");
             contentType = RabbitMQConstants.DEFAULT_CONTENT_TYPE;
             message.setContentType(contentType);
         }
-
-        int index = contentType.indexOf(';');
-        String type = index > 0 ? contentType.substring(0, index)
-                                : contentType;
-        try {
-            builder = BuilderUtil.getBuilderFromSelector(type, axis2MsgCtx);
-        } catch (AxisFault axisFault) {
-            log.error("Error while creating message builder :: "
-                      + axisFault.getMessage());
-
-        }
-        if (builder == null) {
-            if (log.isDebugEnabled()) {
-                log.debug("No message builder found for type '" + type
-                          + "'. Falling back to SOAP.");
-            }
-            builder = new SOAPBuilder();
-        }
+        Builder builder = injectionPipeline.getBuilder(contentType, axis2MsgCtx);
 
         OMElement documentElement = null;
         // set the message payload to the message context
@@ -124,16 +105,11 @@ public class RabbitMQInjectHandler {
             log.error("Sequence name not specified. Sequence : " + injectingSeq);
             return false;
         }
-        SequenceMediator seq = (SequenceMediator) synapseEnvironment
-                .getSynapseConfiguration().getSequence(injectingSeq);        
+        SequenceMediator seq = injectionPipeline.getSequence();
         if (seq != null) {
             if (log.isDebugEnabled()) {
                 log.debug("injecting message to sequence : " + injectingSeq);
             }
-            if (!seq.isInitialized()) {
-                seq.init(synapseEnvironment);
-            }
-            seq.setErrorHandler(onErrorSeq);
             synapseEnvironment.injectInbound(msgCtx, seq, sequential);
         } else {
             log.error("Sequence: " + injectingSeq + " not found");
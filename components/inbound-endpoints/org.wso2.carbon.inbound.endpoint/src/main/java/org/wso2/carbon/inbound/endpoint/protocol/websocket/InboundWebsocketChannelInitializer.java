@@ -35,6 +35,7 @@ public class InboundWebsocketChannelInitializer extends ChannelInitializer<Socke
 
     private InboundWebsocketSSLConfiguration sslConfiguration;
     private int clientBroadcastLevel;
+    private String slowConsumerPolicy;
     private String outflowDispatchSequence;
     private String outflowErrorSequence;
     private ArrayList<AbstractSubprotocolHandler> subprotocolHandlers;
@@ -50,6 +51,10 @@ public class InboundWebsocketChannelInitializer extends ChannelInitializer<Socke
         this.clientBroadcastLevel = clientBroadcastLevel;
     }
 
+    public void setSlowConsumerPolicy(String slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
     public void setOutflowDispatchSequence(String outflowDispatchSequence){
         this.outflowDispatchSequence = outflowDispatchSequence;
     }
@@ -76,6 +81,7 @@ public class InboundWebsocketChannelInitializer extends ChannelInitializer<Socke
         p.addLast("frameAggregator", new WebSocketFrameAggregator(Integer.MAX_VALUE));
         InboundWebsocketSourceHandler sourceHandler = new InboundWebsocketSourceHandler();
         sourceHandler.setClientBroadcastLevel(clientBroadcastLevel);
+        sourceHandler.setSlowConsumerPolicy(slowConsumerPolicy);
         if (outflowDispatchSequence != null)
             sourceHandler.setOutflowDispatchSequence(outflowDispatchSequence);
         if (outflowErrorSequence != null)
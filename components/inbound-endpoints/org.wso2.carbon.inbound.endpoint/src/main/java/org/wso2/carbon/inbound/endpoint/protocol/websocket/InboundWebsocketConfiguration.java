@@ -23,6 +23,7 @@ public class InboundWebsocketConfiguration {
     private String bossThreadPoolSize;
     private String workerThreadPoolSize;
     private int broadcastLevel;
+    private String slowConsumerPolicy;
     private String outFlowDispatchSequence;
     private String outFlowErrorSequence;
     private String subprotocolHandler;
@@ -33,6 +34,7 @@ public class InboundWebsocketConfiguration {
         this.bossThreadPoolSize = builder.bossThreadPoolSize;
         this.workerThreadPoolSize = builder.workerThreadPoolSize;
         this.broadcastLevel = builder.broadcastLevel;
+        this.slowConsumerPolicy = builder.slowConsumerPolicy;
         this.outFlowDispatchSequence = builder.outFlowDispatchSequence;
         this.outFlowErrorSequence = builder.outFlowErrorSequence;
         this.subprotocolHandler = builder.subprotocolHandler;
@@ -58,6 +60,10 @@ public class InboundWebsocketConfiguration {
         return broadcastLevel;
     }
 
+    public String getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
     public String getOutFlowDispatchSequence() {
         return outFlowDispatchSequence;
     }
@@ -76,6 +82,7 @@ public class InboundWebsocketConfiguration {
         private String bossThreadPoolSize;
         private String workerThreadPoolSize;
         private int broadcastLevel;
+        private String slowConsumerPolicy;
         private String outFlowDispatchSequence;
         private String outFlowErrorSequence;
         private String subprotocolHandler;
@@ -104,6 +111,11 @@ public class InboundWebsocketConfiguration {
             return this;
         }
 
+        public InboundWebsocketConfigurationBuilder slowConsumerPolicy(String slowConsumerPolicy) {
+            this.slowConsumerPolicy = slowConsumerPolicy;
+            return this;
+        }
+
         public InboundWebsocketConfigurationBuilder outFlowDispatchSequence(String outFlowDispatchSequence) {
             this.outFlowDispatchSequence = outFlowDispatchSequence;
             return this;
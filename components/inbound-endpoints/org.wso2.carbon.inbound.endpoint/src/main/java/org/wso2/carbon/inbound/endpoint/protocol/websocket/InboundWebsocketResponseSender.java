@@ -114,12 +114,14 @@ public class InboundWebsocketResponseSender implements InboundResponseSender {
             String endpointName =
                     WebsocketEndpointManager.getInstance().getEndpointName(sourceHandler.getPort(),
                             sourceHandler.getTenantDomain());
-            pathManager.broadcastOnSubscriberPath(frame, endpointName, subscriberPath);
+            pathManager.broadcastOnSubscriberPath(frame, endpointName, subscriberPath,
+                    sourceHandler.getSlowConsumerPolicy());
         } else if (clientBroadcastLevel == 2) {
             String endpointName =
                     WebsocketEndpointManager.getInstance().getEndpointName(sourceHandler.getPort(),
                             sourceHandler.getTenantDomain());
-            pathManager.exclusiveBroadcastOnSubscriberPath(frame, endpointName, subscriberPath, ctx);
+            pathManager.exclusiveBroadcastOnSubscriberPath(frame, endpointName, subscriberPath, ctx,
+                    sourceHandler.getSlowConsumerPolicy());
         }
     }
 
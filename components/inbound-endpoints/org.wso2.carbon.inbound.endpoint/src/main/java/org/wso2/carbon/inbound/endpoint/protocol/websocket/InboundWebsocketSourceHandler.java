@@ -89,6 +89,7 @@ public class InboundWebsocketSourceHandler extends ChannelInboundHandlerAdapter
     private static ArrayList<String> contentTypes = new ArrayList<>();
     private static ArrayList<String> otherSubprotocols = new ArrayList<>();
     private int clientBroadcastLevel;
+    private String slowConsumerPolicy = InboundWebsocketConstants.SLOW_CONSUMER_POLICY_BUFFER;
     private String outflowDispatchSequence;
     private String outflowErrorSequence;
     private ChannelPromise handshakeFuture;
@@ -371,6 +372,14 @@ public class InboundWebsocketSourceHandler extends ChannelInboundHandlerAdapter
         this.clientBroadcastLevel = clientBroadcastLevel;
     }
 
+    public String getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public void setSlowConsumerPolicy(String slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
     protected void handleException(String msg) {
         log.error(msg);
         throw new SynapseException(msg);
@@ -126,6 +126,7 @@ public class WebsocketEndpointManager extends AbstractInboundEndpointManager {
                 .channel(NioServerSocketChannel.class);
         InboundWebsocketChannelInitializer handler = new InboundWebsocketChannelInitializer();
         handler.setClientBroadcastLevel(config.getBroadcastLevel());
+        handler.setSlowConsumerPolicy(config.getSlowConsumerPolicy());
         handler.setOutflowDispatchSequence(config.getOutFlowDispatchSequence());
         handler.setOutflowErrorSequence(config.getOutFlowErrorSequence());
         handler.setSubprotocolHandlers(SubprotocolBuilderUtil.stringToSubprotocolHandlers(config.getSubprotocolHandler()));
@@ -158,6 +159,7 @@ public class WebsocketEndpointManager extends AbstractInboundEndpointManager {
         InboundWebsocketChannelInitializer handler = new InboundWebsocketChannelInitializer();
         handler.setSslConfiguration(sslConfiguration);
         handler.setClientBroadcastLevel(config.getBroadcastLevel());
+        handler.setSlowConsumerPolicy(config.getSlowConsumerPolicy());
         handler.setOutflowDispatchSequence(config.getOutFlowDispatchSequence());
         handler.setOutflowErrorSequence(config.getOutFlowErrorSequence());
         handler.setSubprotocolHandlers(SubprotocolBuilderUtil.stringToSubprotocolHandlers(config.getSubprotocolHandler()));
@@ -194,6 +196,8 @@ public class WebsocketEndpointManager extends AbstractInboundEndpointManager {
                         InboundWebsocketConstants.INBOUND_WORKER_THREAD_POOL_SIZE))
                 .broadcastLevel(validateBroadcastLevelParam(params.getProperties().getProperty(
                         InboundWebsocketConstants.WEBSOCKET_CLIENT_SIDE_BROADCAST_LEVEL)))
+                .slowConsumerPolicy(validateSlowConsumerPolicyParam(params.getProperties().getProperty(
+                        InboundWebsocketConstants.WEBSOCKET_SLOW_CONSUMER_POLICY)))
                 .outFlowDispatchSequence(params.getProperties().getProperty(
                         InboundWebsocketConstants.WEBSOCKET_OUTFLOW_DISPATCH_SEQUENCE))
                 .outFlowErrorSequence(params.getProperties().getProperty(
@@ -221,6 +225,21 @@ public class WebsocketEndpointManager extends AbstractInboundEndpointManager {
         return broadcastLevel;
     }
 
+    protected String validateSlowConsumerPolicyParam(String slowConsumerPolicyParam) {
+        if (slowConsumerPolicyParam == null || slowConsumerPolicyParam.trim().isEmpty()) {
+            return InboundWebsocketConstants.SLOW_CONSUMER_POLICY_BUFFER;
+        }
+        String slowConsumerPolicy = slowConsumerPolicyParam.trim().toLowerCase();
+        if (!InboundWebsocketConstants.SLOW_CONSUMER_POLICY_BUFFER.equals(slowConsumerPolicy) &&
+                !InboundWebsocketConstants.SLOW_CONSUMER_POLICY_DROP.equals(slowConsumerPolicy) &&
+                !InboundWebsocketConstants.SLOW_CONSUMER_POLICY_CLOSE.equals(slowConsumerPolicy)) {
+            String msg = "Validation failed. Unknown slow consumer policy " + slowConsumerPolicyParam;
+            log.error(msg);
+            throw new SynapseException(msg);
+        }
+        return slowConsumerPolicy;
+    }
+
     public InboundWebsocketSSLConfiguration buildSSLConfiguration(InboundProcessorParams params) {
         return new InboundWebsocketSSLConfiguration.SSLConfigurationBuilder(
                 params.getProperties().getProperty(
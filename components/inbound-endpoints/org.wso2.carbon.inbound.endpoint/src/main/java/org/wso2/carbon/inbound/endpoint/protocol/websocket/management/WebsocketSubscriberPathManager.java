@@ -16,102 +16,352 @@
 
 package org.wso2.carbon.inbound.endpoint.protocol.websocket.management;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.apache.log4j.Logger;
 import org.wso2.carbon.inbound.endpoint.protocol.websocket.InboundWebsocketChannelContext;
+import org.wso2.carbon.inbound.endpoint.protocol.websocket.InboundWebsocketConstants;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Registry of the channels subscribed to the subscriber paths of the WebSocket inbound endpoints.
+ *
+ * The subscribers of a path are striped by the event loop of their channel, and each stripe is a copy-on-write
+ * array, so that broadcasts read the subscribers without locking while joins and leaves, which are rare compared
+ * to broadcasts, copy the stripe under the lock of the path. A broadcast encodes the frame once and hands the
+ * encoded frame to each event loop as a single task, which writes it to the channels of the loop and then flushes
+ * them, so a broadcast costs one task per event loop rather than one per subscriber.
+ */
 public class WebsocketSubscriberPathManager {
 
-    private static WebsocketSubscriberPathManager instance = null;
+    private static final Logger log = Logger.getLogger(WebsocketSubscriberPathManager.class);
 
-    private ConcurrentHashMap<String, ConcurrentHashMap<String, List<InboundWebsocketChannelContext>>>
-            inboundSubscriberPathMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, List<InboundWebsocketChannelContext>>>();
+    private static final WebsocketSubscriberPathManager instance = new WebsocketSubscriberPathManager();
 
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, SubscriberGroup>> inboundSubscriberPathMap =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, SubscriberGroup>>();
 
     public static WebsocketSubscriberPathManager getInstance() {
-        if (instance == null) {
-            instance = new WebsocketSubscriberPathManager();
-        }
         return instance;
     }
 
-
     public void addChannelContext(String inboundName,
                                   String subscriberPath,
                                   InboundWebsocketChannelContext ctx) {
-        ConcurrentHashMap<String, List<InboundWebsocketChannelContext>> subscriberPathMap =
-                inboundSubscriberPathMap.get(inboundName);
+        ConcurrentHashMap<String, SubscriberGroup> subscriberPathMap = inboundSubscriberPathMap.get(inboundName);
         if (subscriberPathMap == null) {
-            subscriberPathMap = new ConcurrentHashMap<String, List<InboundWebsocketChannelContext>>();
-            ArrayList<InboundWebsocketChannelContext> listContext = new ArrayList<InboundWebsocketChannelContext>();
-            listContext.add(ctx);
-            subscriberPathMap.put(subscriberPath, listContext);
-            inboundSubscriberPathMap.put(inboundName, subscriberPathMap);
-        } else {
-            List<InboundWebsocketChannelContext> listContext = subscriberPathMap.get(subscriberPath);
-            if (listContext == null) {
-                listContext = new ArrayList<InboundWebsocketChannelContext>();
-                listContext.add(ctx);
-                subscriberPathMap.put(subscriberPath, listContext);
-            } else {
-                listContext.add(ctx);
+            subscriberPathMap = new ConcurrentHashMap<String, SubscriberGroup>();
+            ConcurrentHashMap<String, SubscriberGroup> existing =
+                    inboundSubscriberPathMap.putIfAbsent(inboundName, subscriberPathMap);
+            if (existing != null) {
+                subscriberPathMap = existing;
+            }
+        }
+        while (true) {
+            SubscriberGroup group = subscriberPathMap.get(subscriberPath);
+            if (group == null) {
+                group = new SubscriberGroup();
+                SubscriberGroup existing = subscriberPathMap.putIfAbsent(subscriberPath, group);
+                if (existing != null) {
+                    group = existing;
+                }
+            }
+            if (group.add(ctx)) {
+                return;
             }
+            // the last subscriber of the group left meanwhile, retry with a new group
+            subscriberPathMap.remove(subscriberPath, group);
         }
     }
 
     public void removeChannelContext(String inboundName,
                                      String subscriberPath,
                                      InboundWebsocketChannelContext ctx) {
-        ConcurrentHashMap<String, List<InboundWebsocketChannelContext>> subscriberPathMap =
-                inboundSubscriberPathMap.get(inboundName);
-        List<InboundWebsocketChannelContext> listContext = subscriberPathMap.get(subscriberPath);
-        for (Object context : listContext.toArray()) {
-            if (((InboundWebsocketChannelContext) context).getChannelIdentifier()
-                    .equals(ctx.getChannelIdentifier())) {
-                listContext.remove(context);
-                break;
-            }
-        }
-        if (listContext.isEmpty()) {
-            listContext.clear();
-            subscriberPathMap.remove(subscriberPath);
+        ConcurrentHashMap<String, SubscriberGroup> subscriberPathMap = inboundSubscriberPathMap.get(inboundName);
+        if (subscriberPathMap == null) {
+            return;
         }
-        if (subscriberPathMap.isEmpty()) {
-            subscriberPathMap.clear();
-            inboundSubscriberPathMap.remove(inboundName);
+        SubscriberGroup group = subscriberPathMap.get(subscriberPath);
+        if (group != null && group.remove(ctx)) {
+            subscriberPathMap.remove(subscriberPath, group);
         }
     }
 
     public List<InboundWebsocketChannelContext> getSubscriberPathChannelContextList(String inboundName,
                                                                                     String subscriberPath) {
-        return inboundSubscriberPathMap.get(inboundName).get(subscriberPath);
+        SubscriberGroup group = getSubscriberGroup(inboundName, subscriberPath);
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        List<InboundWebsocketChannelContext> contextList = new ArrayList<InboundWebsocketChannelContext>();
+        for (Stripe stripe : group.stripes) {
+            Collections.addAll(contextList, stripe.subscribers);
+        }
+        return contextList;
     }
 
     public void broadcastOnSubscriberPath(WebSocketFrame frame,
                                           String inboundName,
                                           String subscriberPath) {
-        List<InboundWebsocketChannelContext> contextList =
-                getSubscriberPathChannelContextList(inboundName, subscriberPath);
-        for (InboundWebsocketChannelContext context : contextList) {
-            WebSocketFrame duplicatedFrame = frame.duplicate();
-            context.writeToChannel(duplicatedFrame);
-        }
+        broadcastOnSubscriberPath(frame, inboundName, subscriberPath,
+                                  InboundWebsocketConstants.SLOW_CONSUMER_POLICY_BUFFER);
+    }
+
+    /**
+     * Broadcast a frame to the subscribers of a path
+     *
+     * @param slowConsumerPolicy what to do with subscribers which are not writable, i.e. whose outbound buffer is
+     *                           above its high water mark, one of buffer, drop and close
+     */
+    public void broadcastOnSubscriberPath(WebSocketFrame frame,
+                                          String inboundName,
+                                          String subscriberPath,
+                                          String slowConsumerPolicy) {
+        broadcast(frame, inboundName, subscriberPath, null, slowConsumerPolicy);
     }
 
     public void exclusiveBroadcastOnSubscriberPath(WebSocketFrame frame,
                                                    String inboundName,
                                                    String subscriberPath,
                                                    InboundWebsocketChannelContext ctx) {
-        List<InboundWebsocketChannelContext> contextList =
-                getSubscriberPathChannelContextList(inboundName, subscriberPath);
-        for (InboundWebsocketChannelContext context : contextList) {
-            if (!context.getChannelIdentifier().equals(ctx.getChannelIdentifier())) {
-                WebSocketFrame duplicatedFrame = frame.duplicate();
-                context.writeToChannel(duplicatedFrame);
+        exclusiveBroadcastOnSubscriberPath(frame, inboundName, subscriberPath, ctx,
+                                           InboundWebsocketConstants.SLOW_CONSUMER_POLICY_BUFFER);
+    }
+
+    /**
+     * Broadcast a frame to the subscribers of a path other than the given one
+     *
+     * @see #broadcastOnSubscriberPath(WebSocketFrame, String, String, String)
+     */
+    public void exclusiveBroadcastOnSubscriberPath(WebSocketFrame frame,
+                                                   String inboundName,
+                                                   String subscriberPath,
+                                                   InboundWebsocketChannelContext ctx,
+                                                   String slowConsumerPolicy) {
+        broadcast(frame, inboundName, subscriberPath, ctx.getChannelIdentifier(), slowConsumerPolicy);
+    }
+
+    private void broadcast(WebSocketFrame frame, String inboundName, String subscriberPath,
+                           String excludedChannelIdentifier, String slowConsumerPolicy) {
+        SubscriberGroup group = getSubscriberGroup(inboundName, subscriberPath);
+        if (group == null) {
+            return;
+        }
+        Stripe[] stripes = group.stripes;
+        if (stripes.length == 0) {
+            return;
+        }
+        ByteBuf encodedFrame = encode(frame);
+        try {
+            for (Stripe stripe : stripes) {
+                ByteBuf stripeFrame = encodedFrame.retainedDuplicate();
+                try {
+                    stripe.eventLoop.execute(new BroadcastTask(stripe.subscribers, stripeFrame,
+                                                               excludedChannelIdentifier, slowConsumerPolicy));
+                } catch (RejectedExecutionException e) {
+                    // the event loop is shutting down, so are the channels of the stripe
+                    stripeFrame.release();
+                    log.warn("Could not broadcast on subscriber path " + subscriberPath + " of inbound endpoint " +
+                             inboundName + " to the channels of a terminated event loop");
+                }
+            }
+        } finally {
+            encodedFrame.release();
+        }
+    }
+
+    private SubscriberGroup getSubscriberGroup(String inboundName, String subscriberPath) {
+        ConcurrentHashMap<String, SubscriberGroup> subscriberPathMap = inboundSubscriberPathMap.get(inboundName);
+        return subscriberPathMap == null ? null : subscriberPathMap.get(subscriberPath);
+    }
+
+    /**
+     * Encode a frame as a server to client frame of RFC 6455, i.e. without a mask. The payload of the frame is not
+     * copied, the encoded frame holds a reference to it.
+     */
+    private static ByteBuf encode(WebSocketFrame frame) {
+        ByteBuf payload = frame.content();
+        int length = payload.readableBytes();
+        ByteBuf header = Unpooled.buffer(length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10);
+        int b0 = frame.rsv() % 8 << 4 | getOpcode(frame);
+        if (frame.isFinalFragment()) {
+            b0 |= 0x80;
+        }
+        header.writeByte(b0);
+        if (length <= 125) {
+            header.writeByte(length);
+        } else if (length <= 0xFFFF) {
+            header.writeByte(126);
+            header.writeShort(length);
+        } else {
+            header.writeByte(127);
+            header.writeLong(length);
+        }
+        return Unpooled.wrappedBuffer(header, payload.retainedDuplicate());
+    }
+
+    private static int getOpcode(WebSocketFrame frame) {
+        if (frame instanceof TextWebSocketFrame) {
+            return 0x1;
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            return 0x2;
+        } else if (frame instanceof ContinuationWebSocketFrame) {
+            return 0x0;
+        } else if (frame instanceof CloseWebSocketFrame) {
+            return 0x8;
+        } else if (frame instanceof PingWebSocketFrame) {
+            return 0x9;
+        } else if (frame instanceof PongWebSocketFrame) {
+            return 0xA;
+        }
+        throw new IllegalArgumentException("Cannot broadcast WebSocket frame of type " +
+                                           frame.getClass().getName());
+    }
+
+    /**
+     * Writes an encoded frame to the subscribers of an event loop and flushes them once all are written. Runs on
+     * the event loop, and releases the encoded frame when done.
+     */
+    private static class BroadcastTask implements Runnable {
+        private final InboundWebsocketChannelContext[] subscribers;
+        private final ByteBuf encodedFrame;
+        private final String excludedChannelIdentifier;
+        private final String slowConsumerPolicy;
+
+        BroadcastTask(InboundWebsocketChannelContext[] subscribers, ByteBuf encodedFrame,
+                      String excludedChannelIdentifier, String slowConsumerPolicy) {
+            this.subscribers = subscribers;
+            this.encodedFrame = encodedFrame;
+            this.excludedChannelIdentifier = excludedChannelIdentifier;
+            this.slowConsumerPolicy = slowConsumerPolicy;
+        }
+
+        @Override
+        public void run() {
+            boolean[] written = new boolean[subscribers.length];
+            try {
+                for (int i = 0; i < subscribers.length; i++) {
+                    InboundWebsocketChannelContext context = subscribers[i];
+                    Channel channel = context.getChannelHandlerContext().channel();
+                    if (!channel.isActive() || context.getChannelIdentifier().equals(excludedChannelIdentifier)) {
+                        continue;
+                    }
+                    if (!channel.isWritable()) {
+                        if (InboundWebsocketConstants.SLOW_CONSUMER_POLICY_DROP.equals(slowConsumerPolicy)) {
+                            continue;
+                        } else if (InboundWebsocketConstants.SLOW_CONSUMER_POLICY_CLOSE.equals(slowConsumerPolicy)) {
+                            if (log.isDebugEnabled()) {
+                                log.debug("Closing slow WebSocket subscriber " + context.getChannelIdentifier());
+                            }
+                            channel.close();
+                            continue;
+                        }
+                    }
+                    channel.write(encodedFrame.retainedDuplicate(), channel.voidPromise());
+                    written[i] = true;
+                }
+                for (int i = 0; i < subscribers.length; i++) {
+                    if (written[i]) {
+                        subscribers[i].getChannelHandlerContext().channel().flush();
+                    }
+                }
+            } finally {
+                encodedFrame.release();
+            }
+        }
+    }
+
+    /**
+     * Subscribers of the channels of an event loop
+     */
+    private static class Stripe {
+        private final EventLoop eventLoop;
+        private volatile InboundWebsocketChannelContext[] subscribers;
+
+        Stripe(EventLoop eventLoop, InboundWebsocketChannelContext[] subscribers) {
+            this.eventLoop = eventLoop;
+            this.subscribers = subscribers;
+        }
+    }
+
+    /**
+     * Subscribers of a path. Joins and leaves are serialized on the group, broadcasts read the volatile stripes
+     * without locking. A group is closed when its last subscriber leaves, so that a join racing with the removal of
+     * the group from the registry retries with a new group.
+     */
+    private static class SubscriberGroup {
+        private volatile Stripe[] stripes = new Stripe[0];
+        private int size;
+        private boolean closed;
+
+        synchronized boolean add(InboundWebsocketChannelContext ctx) {
+            if (closed) {
+                return false;
+            }
+            EventLoop eventLoop = ctx.getChannelHandlerContext().channel().eventLoop();
+            for (Stripe stripe : stripes) {
+                if (stripe.eventLoop == eventLoop) {
+                    InboundWebsocketChannelContext[] subscribers = stripe.subscribers;
+                    InboundWebsocketChannelContext[] newSubscribers =
+                            new InboundWebsocketChannelContext[subscribers.length + 1];
+                    System.arraycopy(subscribers, 0, newSubscribers, 0, subscribers.length);
+                    newSubscribers[subscribers.length] = ctx;
+                    stripe.subscribers = newSubscribers;
+                    size++;
+                    return true;
+                }
+            }
+            Stripe[] newStripes = new Stripe[stripes.length + 1];
+            System.arraycopy(stripes, 0, newStripes, 0, stripes.length);
+            newStripes[stripes.length] = new Stripe(eventLoop, new InboundWebsocketChannelContext[]{ctx});
+            stripes = newStripes;
+            size++;
+            return true;
+        }
+
+        /**
+         * @return true if the group is empty, and so closed, after the removal
+         */
+        synchronized boolean remove(InboundWebsocketChannelContext ctx) {
+            Stripe[] currentStripes = stripes;
+            for (int s = 0; s < currentStripes.length; s++) {
+                InboundWebsocketChannelContext[] subscribers = currentStripes[s].subscribers;
+                for (int i = 0; i < subscribers.length; i++) {
+                    if (subscribers[i].getChannelIdentifier().equals(ctx.getChannelIdentifier())) {
+                        if (subscribers.length == 1) {
+                            Stripe[] newStripes = new Stripe[currentStripes.length - 1];
+                            System.arraycopy(currentStripes, 0, newStripes, 0, s);
+                            System.arraycopy(currentStripes, s + 1, newStripes, s, currentStripes.length - s - 1);
+                            stripes = newStripes;
+                        } else {
+                            InboundWebsocketChannelContext[] newSubscribers =
+                                    new InboundWebsocketChannelContext[subscribers.length - 1];
+                            System.arraycopy(subscribers, 0, newSubscribers, 0, i);
+                            System.arraycopy(subscribers, i + 1, newSubscribers, i, subscribers.length - i - 1);
+                            currentStripes[s].subscribers = newSubscribers;
+                        }
+                        if (--size == 0) {
+                            closed = true;
+                        }
+                        return closed;
+                    }
+                }
             }
+            return false;
         }
     }
 
@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.common;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMElement;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.builder.Builder;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.mediators.base.SequenceMediator;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Tests that the injection pipeline resolves the builders and prepares the injecting sequence once, and resolves
+ * them again when the configuration changes.
+ */
+public class InboundInjectionPipelineTest extends TestCase {
+
+    private static final String SEQUENCE = "inject";
+
+    private SynapseConfiguration synapseConfiguration;
+    private InboundInjectionPipeline pipeline;
+
+    @Override
+    protected void setUp() throws Exception {
+        synapseConfiguration = new SynapseConfiguration();
+        pipeline = new InboundInjectionPipeline(SEQUENCE, "onError", createEnvironment());
+    }
+
+    public void testSequenceIsPreparedOnce() {
+        CountingSequence seq = addSequence();
+
+        assertSame(seq, pipeline.getSequence());
+        assertSame(seq, pipeline.getSequence());
+        assertEquals(1, seq.inits);
+        assertEquals(1, seq.errorHandlers);
+        assertEquals("onError", seq.getErrorHandler());
+    }
+
+    public void testUpdatedSequenceIsResolvedAgain() {
+        CountingSequence seq = addSequence();
+        pipeline.getSequence();
+
+        CountingSequence updated = new CountingSequence();
+        synapseConfiguration.updateSequence(SEQUENCE, updated);
+        assertSame(updated, pipeline.getSequence());
+        assertEquals(1, updated.inits);
+        assertEquals("onError", updated.getErrorHandler());
+        assertEquals(1, seq.inits);
+    }
+
+    public void testDestroyedSequenceIsInitializedAgain() {
+        CountingSequence seq = addSequence();
+        pipeline.getSequence();
+
+        seq.destroy();
+        assertSame(seq, pipeline.getSequence());
+        assertTrue(seq.isInitialized());
+        assertEquals(2, seq.inits);
+    }
+
+    public void testRemovedSequenceIsNotFound() {
+        addSequence();
+        pipeline.getSequence();
+
+        synapseConfiguration.removeSequence(SEQUENCE);
+        assertNull(pipeline.getSequence());
+    }
+
+    public void testBuilderIsResolvedOncePerAxisConfiguration() throws Exception {
+        Builder xmlBuilder = new NamedBuilder();
+        AxisConfiguration axisConfiguration = new AxisConfiguration();
+        axisConfiguration.addMessageBuilder("application/xml", xmlBuilder);
+        MessageContext msgCtx = createMessageContext(axisConfiguration);
+
+        assertSame(xmlBuilder, pipeline.getBuilder("application/xml; charset=UTF-8", msgCtx));
+        axisConfiguration.addMessageBuilder("application/xml", new NamedBuilder());
+        assertSame(xmlBuilder, pipeline.getBuilder("application/xml; charset=UTF-8", msgCtx));
+
+        AxisConfiguration replaced = new AxisConfiguration();
+        Builder replacedBuilder = new NamedBuilder();
+        replaced.addMessageBuilder("application/xml", replacedBuilder);
+        assertSame(replacedBuilder, pipeline.getBuilder("application/xml; charset=UTF-8",
+                createMessageContext(replaced)));
+    }
+
+    private CountingSequence addSequence() {
+        CountingSequence seq = new CountingSequence();
+        synapseConfiguration.addSequence(SEQUENCE, seq);
+        return seq;
+    }
+
+    private SynapseEnvironment createEnvironment() {
+        return (SynapseEnvironment) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{SynapseEnvironment.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getSynapseConfiguration".equals(method.getName())) {
+                            return synapseConfiguration;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static MessageContext createMessageContext(AxisConfiguration axisConfiguration) {
+        MessageContext msgCtx = new MessageContext();
+        msgCtx.setConfigurationContext(new ConfigurationContext(axisConfiguration));
+        return msgCtx;
+    }
+
+    /**
+     * Sequence which counts its initializations and error handler updates
+     */
+    private static class CountingSequence extends SequenceMediator {
+
+        private int inits;
+        private int errorHandlers;
+
+        @Override
+        public synchronized void init(SynapseEnvironment se) {
+            inits++;
+            super.init(se);
+        }
+
+        @Override
+        public void setErrorHandler(String errorHandler) {
+            errorHandlers++;
+            super.setErrorHandler(errorHandler);
+        }
+    }
+
+    private static class NamedBuilder implements Builder {
+        @Override
+        public OMElement processDocument(InputStream inputStream, String contentType, MessageContext messageContext)
+                throws AxisFault {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.file;
+
+import junit.framework.TestCase;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.commons.vfs.VFSConstants;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that the inbound file endpoint processes the files of a directory on its worker threads, moves the processed
+ * and the failed files and releases their locks.
+ */
+public class FilePollingConsumerTest extends TestCase {
+
+    private static final int PROCESSING_THREADS = 3;
+
+    private File directory;
+    private File source;
+    private File processed;
+    private File failed;
+    private FilePollingConsumer consumer;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("file-polling", "");
+        assertTrue(directory.delete());
+        source = new File(directory, "in");
+        processed = new File(directory, "processed");
+        failed = new File(directory, "failed");
+        assertTrue(source.mkdirs());
+        assertTrue(processed.mkdirs());
+        assertTrue(failed.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (consumer != null) {
+            consumer.destroy();
+        }
+        delete(directory);
+    }
+
+    public void testFilesAreProcessedInParallel() throws Exception {
+        write("a.txt");
+        write("b.txt");
+        write("c.txt");
+        write("fail.txt");
+        final CountDownLatch processing = new CountDownLatch(PROCESSING_THREADS);
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> notConcurrent = Collections.synchronizedSet(new HashSet<String>());
+        consumer = createConsumer(new TestInjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name, Map<String, Object> transportHeaders) {
+                String fileName = ((FileObject) object).getName().getBaseName();
+                threads.add(Thread.currentThread().getName());
+                processing.countDown();
+                try {
+                    // the files are held until as many are processed at once as there are worker threads
+                    if (!processing.await(5, TimeUnit.SECONDS)) {
+                        notConcurrent.add(fileName);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if ("fail.txt".equals(fileName)) {
+                    throw new SynapseException("Failed to mediate " + fileName);
+                }
+                return true;
+            }
+        });
+
+        consumer.poll();
+
+        assertTrue("files were not processed concurrently : " + notConcurrent, notConcurrent.isEmpty());
+        assertEquals(PROCESSING_THREADS, threads.size());
+        assertEquals(new HashSet<String>(Arrays.asList("a.txt", "b.txt", "c.txt")), list(processed));
+        assertEquals(Collections.singleton("fail.txt"), list(failed));
+        // the locks of the processed and the failed files are released
+        assertTrue(list(source).isEmpty());
+    }
+
+    public void testFailedRecordReleasesOnlyItsOwnLock() throws Exception {
+        write("old.txt");
+        // the file failed to be moved in an earlier poll
+        assertTrue(new File(source, "old.txt.fail").createNewFile());
+        // lock of the directory itself, held by someone else
+        File directoryLock = new File(directory, "in.lock");
+        assertTrue(directoryLock.createNewFile());
+        consumer = createConsumer(new TestInjectHandler());
+
+        consumer.poll();
+
+        assertEquals(Collections.singleton("old.txt"), list(processed));
+        assertTrue(list(source).isEmpty());
+        assertTrue(directoryLock.exists());
+    }
+
+    private FilePollingConsumer createConsumer(FileInjectHandler injectHandler) {
+        FilePollingConsumer consumer = new FilePollingConsumer(createProperties(), "test", null, 0);
+        consumer.registerHandler(injectHandler);
+        return consumer;
+    }
+
+    private Properties createProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(VFSConstants.TRANSPORT_FILE_FILE_URI, source.toURI().toString());
+        properties.setProperty(VFSConstants.TRANSPORT_FILE_ACTION_AFTER_PROCESS, "MOVE");
+        properties.setProperty(VFSConstants.TRANSPORT_FILE_MOVE_AFTER_PROCESS, processed.toURI().toString());
+        properties.setProperty(VFSConstants.TRANSPORT_FILE_ACTION_AFTER_FAILURE, "MOVE");
+        properties.setProperty(VFSConstants.TRANSPORT_FILE_MOVE_AFTER_FAILURE, failed.toURI().toString());
+        properties.setProperty(InboundFileConstants.PROCESSING_THREADS, String.valueOf(PROCESSING_THREADS));
+        return properties;
+    }
+
+    private void write(String name) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(source, name));
+        try {
+            out.write(name.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Set<String> list(File directory) {
+        String[] names = directory.list();
+        return names == null ? Collections.<String>emptySet() : new HashSet<String>(Arrays.asList(names));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Inject handler which accepts every file without mediating it
+     */
+    private class TestInjectHandler extends FileInjectHandler {
+
+        TestInjectHandler() {
+            super("inject", null, true, null, createProperties());
+        }
+
+        @Override
+        public boolean invoke(Object object, String name, Map<String, Object> transportHeaders) {
+            return true;
+        }
+    }
+}
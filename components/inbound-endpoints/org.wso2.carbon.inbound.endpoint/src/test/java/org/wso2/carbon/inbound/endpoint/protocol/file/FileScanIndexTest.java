@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.file;
+
+import junit.framework.TestCase;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Tests the index of the handled files used by the incremental scan of the inbound file endpoint.
+ */
+public class FileScanIndexTest extends TestCase {
+
+    private File directory;
+    private File indexFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("scan-index", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        indexFile = new File(directory, "index" + File.separator + "scan.idx");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(directory);
+    }
+
+    public void testNewFileIsChangedUntilRecorded() throws Exception {
+        FileObject file = write("a.xml", "<a/>");
+        FileScanIndex index = new FileScanIndex(indexFile);
+
+        assertTrue(index.isChanged(file));
+        assertEquals(Collections.singleton("a.xml"), index.getPending());
+        // a file which was not recorded, e.g. since its processing failed, is handled again
+        assertTrue(index.isChanged(file));
+
+        index.record(file);
+        assertFalse(index.isChanged(file));
+        assertTrue(index.getPending().isEmpty());
+    }
+
+    public void testModifiedFileIsChanged() throws Exception {
+        FileObject file = write("a.xml", "<a/>");
+        FileScanIndex index = new FileScanIndex(indexFile);
+        index.record(file);
+
+        file = write("a.xml", "<a>modified</a>");
+        assertTrue(index.isChanged(file));
+    }
+
+    public void testMovedFileIsRemoved() throws Exception {
+        FileObject file = write("a.xml", "<a/>");
+        FileScanIndex index = new FileScanIndex(indexFile);
+        index.isChanged(file);
+        assertTrue(new File(directory, "a.xml").delete());
+        file = resolve("a.xml");
+
+        index.record(file);
+        assertTrue(index.getPending().isEmpty());
+        write("a.xml", "<a/>");
+        assertTrue(index.isChanged(resolve("a.xml")));
+    }
+
+    public void testIndexSurvivesRestart() throws Exception {
+        FileObject file = write("a.xml", "<a/>");
+        FileScanIndex index = new FileScanIndex(indexFile);
+        index.isChanged(file);
+        index.record(file);
+        index.save();
+
+        FileScanIndex reloaded = new FileScanIndex(indexFile);
+        assertFalse(reloaded.isChanged(resolve("a.xml")));
+    }
+
+    public void testPendingFileIsNotPersisted() throws Exception {
+        FileObject file = write("a.xml", "<a/>");
+        FileScanIndex index = new FileScanIndex(indexFile);
+        index.isChanged(file);
+        index.save();
+
+        FileScanIndex reloaded = new FileScanIndex(indexFile);
+        assertTrue(reloaded.isChanged(resolve("a.xml")));
+    }
+
+    public void testRetainRemovesDeletedFiles() throws Exception {
+        FileScanIndex index = new FileScanIndex(indexFile);
+        FileObject first = write("a.xml", "<a/>");
+        FileObject second = write("b.xml", "<b/>");
+        index.record(first);
+        index.record(second);
+        index.isChanged(write("c.xml", "<c/>"));
+
+        index.retain(Collections.singleton("b.xml"));
+        assertTrue(index.getPending().isEmpty());
+        assertTrue(index.isChanged(first));
+        assertFalse(index.isChanged(second));
+    }
+
+    private FileObject write(String name, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(directory, name));
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return resolve(name);
+    }
+
+    private FileObject resolve(String name) throws IOException {
+        FileObject file = VFS.getManager().resolveFile(new File(directory, name).toURI().toString());
+        // the file system caches the state of the files
+        file.refresh();
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.http;
+
+import junit.framework.TestCase;
+import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
+
+import java.util.regex.Pattern;
+
+/**
+ * Tests the matching of the dispatch patterns of the HTTP inbound endpoints, with and without a regex, and the
+ * resolution of the tenant of a request URI over the tenant trie of the dispatch table.
+ */
+public class InboundHttpDispatchTableTest extends TestCase {
+
+    private static final String SUPER_TENANT = MultitenantConstants.SUPER_TENANT_DOMAIN_NAME;
+
+    public void testLiteralPatternMatchesOnlyItself() {
+        InboundHttpDispatchTable.Entry entry = entry(SUPER_TENANT, "/services/Echo");
+
+        assertTrue(entry.matchesDispatchPattern("/services/Echo"));
+        assertFalse(entry.matchesDispatchPattern("/services/Echo/"));
+        assertFalse(entry.matchesDispatchPattern("/services/EchoService"));
+        assertFalse(entry.matchesDispatchPattern("/services"));
+    }
+
+    public void testPatternWithRegexIsNotMatchedLiterally() {
+        // . is a regex, so the pattern is not matched as the plain path it looks like
+        InboundHttpDispatchTable.Entry dot = entry(SUPER_TENANT, "/services/Echo.v1");
+        assertTrue(dot.matchesDispatchPattern("/services/Echo.v1"));
+        assertTrue(dot.matchesDispatchPattern("/services/Echo-v1"));
+
+        InboundHttpDispatchTable.Entry alternation = entry(SUPER_TENANT, "/services/(Echo|Ping)");
+        assertTrue(alternation.matchesDispatchPattern("/services/Ping"));
+        assertFalse(alternation.matchesDispatchPattern("/services/(Echo|Ping)"));
+
+        // patterns are compiled with comments enabled, so white space is not part of the path
+        InboundHttpDispatchTable.Entry spaced = entry(SUPER_TENANT, "/services/ Echo");
+        assertTrue(spaced.matchesDispatchPattern("/services/Echo"));
+        assertFalse(spaced.matchesDispatchPattern("/services/ Echo"));
+    }
+
+    public void testPrefixPattern() {
+        InboundHttpDispatchTable.Entry entry = entry(SUPER_TENANT, "/services/.*");
+
+        assertTrue(entry.matchesDispatchPattern("/services/"));
+        assertTrue(entry.matchesDispatchPattern("/services/Echo"));
+        assertTrue(entry.matchesDispatchPattern("/services/Echo/echoString?in=a"));
+        assertFalse(entry.matchesDispatchPattern("/service/Echo"));
+        assertFalse(entry.matchesDispatchPattern("/services"));
+    }
+
+    public void testPrefixPatternWithRegexIsMatchedAsRegex() {
+        InboundHttpDispatchTable.Entry entry = entry(SUPER_TENANT, "/services/[A-Z].*");
+
+        assertTrue(entry.matchesDispatchPattern("/services/Echo"));
+        assertFalse(entry.matchesDispatchPattern("/services/echo"));
+        assertFalse(entry.matchesDispatchPattern("/services/[A-Z]"));
+    }
+
+    public void testEntryWithoutPatternMatchesEveryUri() {
+        InboundHttpDispatchTable.Entry entry = new InboundHttpDispatchTable.Entry(SUPER_TENANT, "ep", null, null);
+
+        assertTrue(entry.matchesDispatchPattern("/anything"));
+    }
+
+    public void testUriWithoutTenantIsOfTheSuperTenant() {
+        InboundHttpDispatchTable table = InboundHttpDispatchTable.EMPTY.with(entry("foo.com", null));
+
+        assertEquals(SUPER_TENANT, table.resolveTenantDomain("/services/Echo"));
+        assertEquals(SUPER_TENANT, table.resolveTenantDomain("/"));
+    }
+
+    public void testUnknownTenantFallsBack() {
+        InboundHttpDispatchTable table = InboundHttpDispatchTable.EMPTY.with(entry(SUPER_TENANT, null))
+                .with(entry("foo.com", null));
+
+        // a tenant which is not in the table is taken from the URI, and has no entry to dispatch to
+        assertEquals("bar.com", table.resolveTenantDomain("/t/bar.com/services/Echo"));
+        assertNull(table.getEntry("bar.com"));
+        // the super tenant entry is not reachable through the tenant trie
+        assertEquals(SUPER_TENANT, table.resolveTenantDomain("/services/Echo"));
+        assertNotNull(table.getEntry(SUPER_TENANT));
+    }
+
+    public void testLongestTenantDomainIsResolved() {
+        InboundHttpDispatchTable table = InboundHttpDispatchTable.EMPTY.with(entry("foo.com", null))
+                .with(entry("foo.com.au", null));
+
+        assertEquals("foo.com", table.resolveTenantDomain("/t/foo.com/services/Echo"));
+        assertEquals("foo.com", table.resolveTenantDomain("/t/foo.com"));
+        assertEquals("foo.com.au", table.resolveTenantDomain("/t/foo.com.au/services/Echo"));
+        // a prefix of a known tenant domain is a tenant of its own
+        assertEquals("foo.co", table.resolveTenantDomain("/t/foo.co/services/Echo"));
+        assertEquals("foo.com.a", table.resolveTenantDomain("/t/foo.com.a/services/Echo"));
+    }
+
+    public void testRemovedTenantIsNotResolvedFromTheTrie() {
+        InboundHttpDispatchTable table = InboundHttpDispatchTable.EMPTY.with(entry("foo.com", "/a"));
+        InboundHttpDispatchTable updated = table.with(entry("foo.com", "/b")).without("bar.com");
+
+        assertEquals("/b", updated.getEntry("foo.com").getDispatchPattern().pattern());
+        assertEquals("/a", table.getEntry("foo.com").getDispatchPattern().pattern());
+
+        InboundHttpDispatchTable removed = updated.without("foo.com");
+        assertTrue(removed.isEmpty());
+        assertNull(removed.getEntry(removed.resolveTenantDomain("/t/foo.com/services/Echo")));
+    }
+
+    private static InboundHttpDispatchTable.Entry entry(String tenantDomain, String dispatchPattern) {
+        // compiled as the endpoint manager compiles the dispatch patterns
+        Pattern pattern = dispatchPattern == null ? null
+                : Pattern.compile(dispatchPattern, Pattern.COMMENTS | Pattern.DOTALL);
+        return new InboundHttpDispatchTable.Entry(tenantDomain, tenantDomain + "-ep", pattern, null);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.http.config;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+
+/**
+ * Tests the resizing of the worker pool of an HTTP inbound endpoint, and the rejection of the requests it cannot
+ * take, which the source handler answers with 503.
+ */
+public class InboundHttpWorkerPoolTest extends TestCase {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<InboundHttpWorkerPool> pools = new ArrayList<InboundHttpWorkerPool>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        for (InboundHttpWorkerPool pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    public void testGrowsWhileRequestsWaitAndShrinksWhenIdle() throws Exception {
+        InboundHttpWorkerPool pool = pool("resize", "1", "4", "100", null);
+        assertTrue(pool.execute(blocked()));
+        assertTrue(pool.execute(blocked()));
+        assertTrue(pool.execute(blocked()));
+        Thread.sleep(20);
+
+        resize(pool);
+        assertEquals(2, pool.getCorePoolSize());
+
+        release.countDown();
+        waitUntilIdle(pool);
+        resize(pool);
+        assertEquals(1, pool.getCorePoolSize());
+    }
+
+    public void testDoesNotGrowBeyondMaxSize() throws Exception {
+        InboundHttpWorkerPool pool = pool("max", "1", "2", "100", null);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pool.execute(blocked()));
+        }
+        Thread.sleep(20);
+
+        for (int i = 0; i < 3; i++) {
+            resize(pool);
+        }
+        assertEquals(2, pool.getCorePoolSize());
+        assertEquals(2, pool.getMaxPoolSize());
+    }
+
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        InboundHttpWorkerPool pool = pool("full", "1", "1", "1", null);
+        assertTrue(pool.execute(blocked()));
+        assertTrue(pool.execute(blocked()));
+
+        assertFalse(pool.execute(blocked()));
+        assertEquals(1, pool.getRejectedCount());
+        assertEquals(0, pool.getShedCount());
+    }
+
+    public void testShedsWhileQueueWaitSloIsBreached() throws Exception {
+        InboundHttpWorkerPool pool = pool("slo", "1", "1", "100", "50");
+        assertTrue(pool.execute(blocked()));
+        assertTrue(pool.execute(blocked()));
+        Thread.sleep(100);
+
+        assertFalse(pool.execute(blocked()));
+        assertEquals(1, pool.getShedCount());
+        assertEquals(0, pool.getRejectedCount());
+
+        // requests are taken again once the queue is drained
+        release.countDown();
+        waitUntilIdle(pool);
+        assertTrue(pool.execute(blocked()));
+        waitUntilIdle(pool);
+        assertEquals(3, pool.getCompletedCount());
+    }
+
+    public void testReplacingPoolKeepsMBean() throws Exception {
+        ObjectName objectName = new ObjectName("org.apache.synapse:Type=InboundHttpWorkerPool,Name=replaced");
+        InboundHttpWorkerPool previous = new InboundHttpWorkerPool("replaced", configuration("1", "1", "1", null));
+        // the previous pool is shut down before the new pool registers its MBean under the same name
+        previous.shutdown();
+        InboundHttpWorkerPool pool = pool("replaced", "1", "1", "1", null);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+        pool.shutdown();
+        pools.remove(pool);
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+
+    public void testConfigurationsWithSameValuesAreEqual() {
+        WorkerPoolConfiguration configuration = configuration("1", "4", "100", "50");
+
+        assertEquals(configuration, configuration("1", "4", "100", "50"));
+        assertEquals(configuration.hashCode(), configuration("1", "4", "100", "50").hashCode());
+        assertFalse(configuration.equals(configuration("1", "8", "100", "50")));
+        assertFalse(configuration.equals(configuration("1", "4", "100", null)));
+    }
+
+    private InboundHttpWorkerPool pool(String name, String coreSize, String maxSize, String queueLength,
+                                       String queueWaitSlo) {
+        InboundHttpWorkerPool pool = new InboundHttpWorkerPool(name,
+                configuration(coreSize, maxSize, queueLength, queueWaitSlo));
+        pools.add(pool);
+        return pool;
+    }
+
+    private static WorkerPoolConfiguration configuration(String coreSize, String maxSize, String queueLength,
+                                                         String queueWaitSlo) {
+        return new WorkerPoolConfiguration(coreSize, maxSize, "60", queueLength, queueWaitSlo, null, null);
+    }
+
+    private Runnable blocked() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static void resize(InboundHttpWorkerPool pool) throws Exception {
+        Method resize = InboundHttpWorkerPool.class.getDeclaredMethod("resize");
+        resize.setAccessible(true);
+        resize.invoke(pool);
+    }
+
+    private static void waitUntilIdle(InboundHttpWorkerPool pool) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((pool.getQueueSize() > 0 || pool.getActiveCount() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getQueueSize());
+        assertEquals(0, pool.getActiveCount());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *   Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *   WSO2 Inc. licenses this file to you under the Apache License,
+ *   Version 2.0 (the "License"); you may not use this file except
+ *   in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.wso2.carbon.inbound.endpoint.protocol.http2;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the table of the active streams of an HTTP/2 connection
+ */
+public class Http2StreamTableTest extends TestCase {
+
+	private final Http2StreamTable table = new Http2StreamTable();
+
+	public void testPutGetRemove() {
+		Http2SourceRequest first = request(1);
+		Http2SourceRequest second = request(3);
+		table.put(1, first);
+		table.put(3, second);
+
+		assertEquals(2, table.size());
+		assertSame(first, table.get(1));
+		assertSame(second, table.get(3));
+		assertNull(table.get(5));
+
+		assertSame(first, table.remove(1));
+		assertNull(table.get(1));
+		assertNull(table.remove(1));
+		assertSame(second, table.get(3));
+		assertEquals(1, table.size());
+	}
+
+	public void testPutReplacesStream() {
+		Http2SourceRequest replaced = request(1);
+		table.put(1, request(1));
+		table.put(1, replaced);
+
+		assertEquals(1, table.size());
+		assertSame(replaced, table.get(1));
+	}
+
+	public void testGrowsWithConcurrentStreams() {
+		for (int streamId = 1; streamId < 2000; streamId += 2) {
+			table.put(streamId, request(streamId));
+		}
+
+		assertEquals(1000, table.size());
+		for (int streamId = 1; streamId < 2000; streamId += 2) {
+			assertEquals(streamId, table.get(streamId).getStreamID());
+		}
+		assertNull(table.get(2001));
+	}
+
+	public void testRemoveKeepsFollowingStreamsReachable() {
+		for (int streamId = 1; streamId < 200; streamId += 2) {
+			table.put(streamId, request(streamId));
+		}
+		for (int streamId = 1; streamId < 200; streamId += 4) {
+			assertEquals(streamId, table.remove(streamId).getStreamID());
+		}
+
+		assertEquals(50, table.size());
+		for (int streamId = 1; streamId < 200; streamId += 2) {
+			Http2SourceRequest request = table.get(streamId);
+			if (streamId % 4 == 1) {
+				assertNull(request);
+			} else {
+				assertEquals(streamId, request.getStreamID());
+			}
+		}
+	}
+
+	public void testValues() {
+		table.put(1, request(1));
+		table.put(3, request(3));
+		table.put(5, request(5));
+		table.remove(3);
+
+		HashSet<Integer> streamIds = new HashSet<Integer>();
+		for (Http2SourceRequest request : table.values()) {
+			streamIds.add(request.getStreamID());
+		}
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 5)), streamIds);
+	}
+
+	public void testMatchesHashMap() {
+		Map<Integer, Http2SourceRequest> expected = new HashMap<Integer, Http2SourceRequest>();
+		Random random = new Random(42);
+		int nextStreamId = 1;
+		for (int i = 0; i < 20000; i++) {
+			if (expected.isEmpty() || random.nextInt(3) > 0 && expected.size() < 300) {
+				Http2SourceRequest request = request(nextStreamId);
+				table.put(nextStreamId, request);
+				expected.put(nextStreamId, request);
+				nextStreamId += 2;
+			} else {
+				// streams complete in any order
+				int streamId = 1 + 2 * random.nextInt(nextStreamId / 2);
+				assertSame(expected.remove(streamId), table.remove(streamId));
+			}
+			assertEquals(expected.size(), table.size());
+		}
+		for (int streamId = 1; streamId < nextStreamId; streamId += 2) {
+			assertSame(expected.get(streamId), table.get(streamId));
+		}
+	}
+
+	private static Http2SourceRequest request(int streamId) {
+		return new Http2SourceRequest(streamId, null);
+	}
+}
@@ -0,0 +1,376 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.jms;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMElement;
+import org.apache.axis2.builder.ApplicationXMLBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.transport.TransportUtils;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import javax.jms.BytesMessage;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageEOFException;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+/**
+ * Tests the batched receive of the JMS polling consumer on a transacted session, against a broker which redelivers
+ * the messages of a rolled back transaction, and the payloads built for the supported message types.
+ */
+public class JMSPollingConsumerTest extends TestCase {
+
+    private FakeBroker broker;
+    private RecordingInjectHandler injectHandler;
+    private JMSPollingConsumer consumer;
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new FakeBroker();
+        Properties properties = new Properties();
+        properties.setProperty(JMSConstants.SESSION_TRANSACTED, "true");
+        properties.setProperty(JMSConstants.BATCH_SIZE, "3");
+        properties.setProperty(JMSConstants.BATCH_TIMEOUT, "60000");
+        consumer = new JMSPollingConsumer(properties, 1000, "testInbound");
+        injectHandler = new RecordingInjectHandler(properties);
+        consumer.registerHandler(injectHandler);
+        setField("session", broker.session);
+        setField("messageConsumer", broker.consumer);
+    }
+
+    public void testBatchIsCommittedOnce() throws Exception {
+        broker.send(text("m1"), text("m2"), text("m3"), text("m4"), text("m5"));
+        pollUntilEmpty();
+
+        assertEquals(ids("m1", "m2", "m3", "m4", "m5"), injectHandler.injected);
+        assertEquals(ids("m1", "m2", "m3", "m4", "m5"), broker.committedIds());
+        assertEquals(2, broker.commits);
+        assertEquals(0, broker.rollbacks);
+    }
+
+    public void testFailedMessageIsIsolated() throws Exception {
+        broker.send(text("m1"), text("m2"), text("m3"), text("m4"));
+        injectHandler.failOnce.add("m2");
+        pollUntilEmpty();
+
+        assertEquals(1, broker.rollbacks);
+        // the rolled back batch is processed one by one, then batching resumes
+        assertEquals(ids("m1", "m2", "m1", "m2", "m3", "m4"), injectHandler.injected);
+        assertEquals(ids("m1", "m2", "m3", "m4"), broker.committedIds());
+    }
+
+    public void testUnsupportedMessageIsDropped() throws Exception {
+        broker.send(object("poison"), text("m1"));
+        pollUntilEmpty();
+
+        assertEquals(ids("m1"), injectHandler.injected);
+        assertEquals(ids("poison", "m1"), broker.committedIds());
+        assertEquals(0, broker.rollbacks);
+    }
+
+    public void testUnsupportedMessageInBatchIsDroppedAfterRollingBackTheMessagesBeforeIt() throws Exception {
+        broker.send(text("m1"), text("m2"), object("poison"), text("m3"));
+        int polls = pollUntilEmpty();
+
+        assertTrue("Unsupported message is redelivered forever", polls < 10);
+        assertEquals(1, broker.rollbacks);
+        assertEquals(ids("m1", "m2", "m1", "m2", "m3"), injectHandler.injected);
+        assertEquals(ids("m1", "m2", "poison", "m3"), broker.committedIds());
+        assertTrue(broker.queue.isEmpty());
+        assertTrue(broker.delivered.isEmpty());
+    }
+
+    public void testPartialBatchIsCommittedByTheDeadline() throws Exception {
+        // a receive timeout of 0 blocks until a message arrives
+        setField("iReceiveTimeout", 0);
+        setField("batchTimeout", 200L);
+        broker.send(text("m1"));
+        pollUntilEmpty();
+
+        // the second message never arrives, and the first one is committed once the batch timeout elapses
+        assertEquals(ids("m1"), injectHandler.injected);
+        assertEquals(ids("m1"), broker.committedIds());
+        assertEquals(1, broker.commits);
+        assertTrue(broker.lastTimeout > 0 && broker.lastTimeout <= 200);
+    }
+
+    public void testBytesMessageIsBuilt() throws Exception {
+        broker.send(bytes("b1", "<order><id>1</id></order>"), text("m1"));
+        pollUntilEmpty();
+
+        assertEquals(ids("b1", "m1"), injectHandler.injected);
+        assertEquals(ids("b1", "m1"), broker.committedIds());
+        OMElement payload = injectHandler.payloads.get(0);
+        assertEquals("order", payload.getLocalName());
+        assertEquals("1", payload.getFirstElement().getText());
+        assertEquals("m1", injectHandler.payloads.get(1).getText());
+    }
+
+    public void testMapMessageIsBuilt() throws Exception {
+        Map<String, Object> entries = new LinkedHashMap<String, Object>();
+        entries.put("name", "John");
+        entries.put("age", 30);
+        broker.send(map("p1", entries));
+        pollUntilEmpty();
+
+        assertEquals(ids("p1"), injectHandler.injected);
+        assertEquals(ids("p1"), broker.committedIds());
+        OMElement payload = injectHandler.payloads.get(0);
+        assertEquals(JMSConstants.JMS_MAP_QNAME, payload.getQName());
+        Iterator children = payload.getChildElements();
+        OMElement name = (OMElement) children.next();
+        assertEquals("name", name.getLocalName());
+        assertEquals("John", name.getText());
+        OMElement age = (OMElement) children.next();
+        assertEquals("age", age.getLocalName());
+        assertEquals("30", age.getText());
+        assertFalse(children.hasNext());
+    }
+
+    private int pollUntilEmpty() throws Exception {
+        Method pollBatches = JMSPollingConsumer.class.getDeclaredMethod("pollBatches", Message.class);
+        pollBatches.setAccessible(true);
+        int polls = 0;
+        Message msg = broker.receive();
+        while (msg != null && polls < 10) {
+            try {
+                pollBatches.invoke(consumer, msg);
+            } catch (InvocationTargetException e) {
+                throw (Exception) e.getCause();
+            }
+            polls++;
+            msg = broker.receive();
+        }
+        return polls;
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = JMSPollingConsumer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(consumer, value);
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<String>();
+        for (String id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static Message text(String id) {
+        return message(TextMessage.class, id);
+    }
+
+    private static Message object(String id) {
+        return message(ObjectMessage.class, id);
+    }
+
+    private static Message bytes(String id, String content) throws Exception {
+        final ByteArrayInputStream in = new ByteArrayInputStream(content.getBytes("UTF-8"));
+        return message(BytesMessage.class, id, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws MessageEOFException {
+                if ("readBytes".equals(method.getName())) {
+                    byte[] b = (byte[]) args[0];
+                    // -1 once the body is read, as for a JMS bytes message
+                    return in.read(b, 0, args.length > 1 ? (Integer) args[1] : b.length);
+                } else if ("readByte".equals(method.getName())) {
+                    int b = in.read();
+                    if (b < 0) {
+                        throw new MessageEOFException("End of the message body");
+                    }
+                    return (byte) b;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Message map(String id, final Map<String, Object> entries) {
+        return message(MapMessage.class, id, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("getMapNames".equals(name)) {
+                    return Collections.enumeration(entries.keySet());
+                } else if ("getString".equals(name)) {
+                    return String.valueOf(entries.get(args[0]));
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Message message(Class<? extends Message> type, String id) {
+        return message(type, id, null);
+    }
+
+    /**
+     * Message of the given type and id, with the body read through the given handler
+     */
+    private static Message message(Class<? extends Message> type, final String id, final InvocationHandler body) {
+        return (Message) Proxy.newProxyInstance(JMSPollingConsumerTest.class.getClassLoader(), new Class[]{type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("getJMSMessageID".equals(name) || "toString".equals(name)) {
+                            return id;
+                        } else if ("getText".equals(name)) {
+                            return "<text>" + id + "</text>";
+                        } else if ("hashCode".equals(name)) {
+                            return System.identityHashCode(proxy);
+                        } else if ("equals".equals(name)) {
+                            return proxy == args[0];
+                        } else if (body != null) {
+                            return body.invoke(proxy, method, args);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * A queue with a single transacted session. The messages received within a transaction are redelivered in order
+     * when it is rolled back. A receive on the empty queue returns right away, recording the time it would wait.
+     */
+    private static class FakeBroker {
+
+        private final LinkedList<Message> queue = new LinkedList<Message>();
+        private final List<Message> delivered = new ArrayList<Message>();
+        private final List<Message> committed = new ArrayList<Message>();
+        private int commits = 0;
+        private int rollbacks = 0;
+        private long lastTimeout = -1;
+
+        private final Session session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{Session.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("getTransacted".equals(name)) {
+                            return true;
+                        } else if ("commit".equals(name)) {
+                            committed.addAll(delivered);
+                            delivered.clear();
+                            commits++;
+                        } else if ("rollback".equals(name)) {
+                            queue.addAll(0, delivered);
+                            delivered.clear();
+                            rollbacks++;
+                        }
+                        return null;
+                    }
+                });
+
+        private final MessageConsumer consumer = (MessageConsumer) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{MessageConsumer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("receive".equals(method.getName())) {
+                            if (queue.isEmpty()) {
+                                if (args == null) {
+                                    // would block forever
+                                    assertTrue("Uncommitted messages are held by a blocking receive",
+                                            delivered.isEmpty());
+                                } else {
+                                    lastTimeout = (Long) args[0];
+                                }
+                            }
+                            return receive();
+                        }
+                        return null;
+                    }
+                });
+
+        private void send(Message... messages) {
+            for (Message message : messages) {
+                queue.add(message);
+            }
+        }
+
+        private Message receive() {
+            Message message = queue.poll();
+            if (message != null) {
+                delivered.add(message);
+            }
+            return message;
+        }
+
+        private List<String> committedIds() throws Exception {
+            List<String> ids = new ArrayList<String>();
+            for (Message message : committed) {
+                ids.add(message.getJMSMessageID());
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Records the injected messages and their payloads instead of mediating them, and fails the given messages the
+     * first time.
+     */
+    private static class RecordingInjectHandler extends JMSInjectHandler {
+
+        private final List<String> injected = new ArrayList<String>();
+        private final List<OMElement> payloads = new ArrayList<OMElement>();
+        private final Set<String> failOnce = new HashSet<String>();
+
+        private RecordingInjectHandler(Properties properties) {
+            super("main", "fault", true, null, properties);
+        }
+
+        @Override
+        public boolean invoke(Object object, String name) {
+            try {
+                Message msg = (Message) object;
+                String id = msg.getJMSMessageID();
+                injected.add(id);
+                OMElement payload = buildPayload(msg, new ApplicationXMLBuilder(), "application/xml",
+                        new MessageContext());
+                // the body content of the envelope which is injected
+                payload = TransportUtils.createSOAPEnvelope(payload).getBody().getFirstElement();
+                payload.build();
+                payloads.add(payload);
+                return !failOnce.remove(id);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
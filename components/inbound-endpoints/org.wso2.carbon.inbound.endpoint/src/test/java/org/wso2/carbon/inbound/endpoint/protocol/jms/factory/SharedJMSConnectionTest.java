@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.jms.factory;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import javax.jms.Connection;
+
+/**
+ * Tests that the connection shared by the concurrent consumers of a JMS inbound endpoint is closed only when the
+ * last consumer releases it, or when it can not create sessions.
+ */
+public class SharedJMSConnectionTest extends TestCase {
+
+    private SharedJMSConnection sharedConnection;
+    private List<Connection> created;
+    private List<Connection> closed;
+
+    @Override
+    protected void setUp() throws Exception {
+        sharedConnection = new SharedJMSConnection();
+        created = new ArrayList<Connection>();
+        closed = new ArrayList<Connection>();
+    }
+
+    public void testConsumersShareOneConnection() {
+        CachedJMSConnectionFactory first = factory();
+        CachedJMSConnectionFactory second = factory();
+
+        Connection connection = first.getConnection(null, null);
+        assertSame(connection, second.getConnection(null, null));
+        assertEquals(1, created.size());
+        assertEquals(2, sharedConnection.getHolderCount());
+    }
+
+    public void testConnectionIsClosedOnLastRelease() {
+        CachedJMSConnectionFactory first = factory();
+        CachedJMSConnectionFactory second = factory();
+        Connection connection = first.getConnection(null, null);
+        second.getConnection(null, null);
+
+        first.closeConnection(connection, true);
+        assertTrue(closed.isEmpty());
+        // releasing twice does not release the reference of the other consumer
+        first.closeConnection(connection, true);
+        assertTrue(closed.isEmpty());
+
+        second.closeConnection(connection, true);
+        assertEquals(1, closed.size());
+        assertSame(connection, closed.get(0));
+        assertEquals(0, sharedConnection.getHolderCount());
+    }
+
+    public void testClosingWithoutForceKeepsConnection() {
+        CachedJMSConnectionFactory first = factory();
+        Connection connection = first.getConnection(null, null);
+
+        first.closeConnection(connection);
+        assertTrue(closed.isEmpty());
+        assertSame(connection, first.getConnection(null, null));
+    }
+
+    public void testConnectionWithoutSessionIsReset() {
+        CachedJMSConnectionFactory first = factory();
+        CachedJMSConnectionFactory second = factory();
+        Connection connection = first.getConnection(null, null);
+        second.getConnection(null, null);
+
+        // a consumer which could not get a session closes the connection, although the other consumer holds it
+        first.closeConnection();
+        assertEquals(1, closed.size());
+        assertSame(connection, closed.get(0));
+        Connection recreated = first.getConnection(null, null);
+        assertNotSame(connection, recreated);
+        assertEquals(2, created.size());
+        assertEquals(2, sharedConnection.getHolderCount());
+
+        // the other consumer failing on the closed connection does not close the re-created one
+        second.closeConnection();
+        assertEquals(1, closed.size());
+        assertSame(recreated, second.getConnection(null, null));
+    }
+
+    public void testReleasedConsumerDoesNotCloseConnectionOfOthers() {
+        CachedJMSConnectionFactory first = factory();
+        CachedJMSConnectionFactory second = factory();
+        Connection connection = first.getConnection(null, null);
+        second.getConnection(null, null);
+
+        first.release();
+        assertTrue(closed.isEmpty());
+        second.release();
+        assertEquals(1, closed.size());
+        assertSame(connection, closed.get(0));
+    }
+
+    public void testConnectionIsRecreatedAfterLastRelease() {
+        CachedJMSConnectionFactory first = factory();
+        Connection connection = first.getConnection(null, null);
+        first.release();
+
+        Connection recreated = first.getConnection(null, null);
+        assertNotSame(connection, recreated);
+        assertEquals(2, created.size());
+    }
+
+    public void testResetClosesOnlyTheFailedConnection() {
+        CachedJMSConnectionFactory first = factory();
+        CachedJMSConnectionFactory second = factory();
+        Connection failed = first.getConnection(null, null);
+        sharedConnection.reset(failed);
+        assertEquals(1, closed.size());
+
+        Connection recreated = second.getConnection(null, null);
+        assertNotSame(failed, recreated);
+        // a late reset of the failed connection does not close the new one
+        sharedConnection.reset(failed);
+        assertEquals(1, closed.size());
+        // both consumers still hold the recreated connection
+        first.release();
+        assertEquals(1, closed.size());
+        second.release();
+        assertEquals(2, closed.size());
+    }
+
+    public void testCloseClosesRegardlessOfHolders() {
+        factory().getConnection(null, null);
+        factory().getConnection(null, null);
+
+        sharedConnection.close();
+        assertEquals(1, closed.size());
+        assertEquals(0, sharedConnection.getHolderCount());
+    }
+
+    private CachedJMSConnectionFactory factory() {
+        return new CachedJMSConnectionFactory(new Properties(), sharedConnection) {
+            @Override
+            public Connection createConnection(String userName, String password) {
+                Connection connection = connection();
+                created.add(connection);
+                return connection;
+            }
+        };
+    }
+
+    private Connection connection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("close".equals(name)) {
+                            closed.add((Connection) proxy);
+                        } else if ("hashCode".equals(name)) {
+                            return System.identityHashCode(proxy);
+                        } else if ("equals".equals(name)) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.kafka;
+
+import junit.framework.TestCase;
+import kafka.javaapi.consumer.ConsumerConnector;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that the batch message listener commits the offsets only after the messages of the batches are mediated,
+ * that a failed batch is never committed but consumed again, and that a message which keeps failing is routed to the
+ * fault sequence once the retries are exhausted.
+ */
+public class KAFKABatchMessageListenerTest extends TestCase {
+
+    private final AtomicInteger commits = new AtomicInteger();
+    private final AtomicInteger committedOffset = new AtomicInteger();
+    private final AtomicInteger consumedOffset = new AtomicInteger();
+    private final CountDownLatch rewound = new CountDownLatch(1);
+    private final List<String> faulted = Collections.synchronizedList(new ArrayList<String>());
+    private final List<TestListener> listeners = new ArrayList<TestListener>();
+    private volatile boolean running = true;
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (TestListener listener : listeners) {
+            listener.destroy();
+        }
+    }
+
+    public void testBatchesAreCommittedAfterMediation() throws Exception {
+        final List<Integer> commitsAtInjection = Collections.synchronizedList(new ArrayList<Integer>());
+        TestListener listener = listener(2, new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                commitsAtInjection.add(commits.get());
+                return true;
+            }
+        });
+
+        listener.createStreamConsumer(stream(true, "m1", "m2", "m3", "m4", "m5")).run();
+
+        // batches of m1 m2, m3 m4 and m5 are committed after their messages are injected
+        assertEquals(Arrays.asList(0, 0, 1, 1, 2), commitsAtInjection);
+        assertEquals(3, commits.get());
+        assertFalse(listener.isRewindRequired());
+    }
+
+    public void testFailedBatchIsNotCommitted() throws Exception {
+        final List<String> injected = Collections.synchronizedList(new ArrayList<String>());
+        TestListener listener = listener(10, new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                String msg = new String((byte[]) object);
+                injected.add(msg);
+                return !"m2".equals(msg);
+            }
+        });
+
+        listener.createStreamConsumer(stream(true, "m1", "m2", "m3")).run();
+
+        assertEquals(Arrays.asList("m1", "m2"), injected);
+        assertEquals(0, commits.get());
+        // the consumer connector is re-created once the retry interval elapses instead of in the next poll
+        assertTrue(rewound.await(5, TimeUnit.SECONDS));
+        assertFalse(listener.isRewindRequired());
+    }
+
+    public void testExceptionFailsBatch() throws Exception {
+        TestListener listener = listener(10, new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                throw new IllegalStateException("mediation failed");
+            }
+        });
+
+        listener.createStreamConsumer(stream(true, "m1")).run();
+
+        assertEquals(0, commits.get());
+        assertTrue(rewound.await(5, TimeUnit.SECONDS));
+        assertFalse(listener.isRewindRequired());
+    }
+
+    public void testPoisonMessageIsRoutedToFaultSequenceAfterRetries() throws Exception {
+        final List<String> injected = Collections.synchronizedList(new ArrayList<String>());
+        Properties properties = new Properties();
+        properties.setProperty(KAFKAConstants.BATCH_RETRY_COUNT, "2");
+        properties.setProperty(KAFKAConstants.BATCH_RETRY_INTERVAL, "50");
+        TestListener listener = listener(10, properties, new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                String msg = new String((byte[]) object);
+                injected.add(msg);
+                return !"poison".equals(msg);
+            }
+        });
+        List<String> partition = Arrays.asList("m1", "poison", "m3");
+
+        long start = System.currentTimeMillis();
+        int rounds = 0;
+        do {
+            if (rounds++ > 0) {
+                // the consumer connector is re-created by the listener once the retry interval elapses
+                waitForRewind(listener);
+            }
+            running = true;
+            listener.createStreamConsumer(stream(true, partition.subList(committedOffset.get(), partition.size())
+                    .toArray(new String[0]))).run();
+        } while (listener.isRewindRequired() && rounds < 10);
+        long elapsed = System.currentTimeMillis() - start;
+
+        // consumed again from the last committed offset twice, waiting 50 and 100 milliseconds
+        assertEquals(3, rounds);
+        assertTrue("retry intervals were not applied : " + elapsed, elapsed >= 150);
+        assertEquals(Arrays.asList("m1", "poison", "m1", "poison", "m1", "poison", "m3"), injected);
+        assertEquals(Collections.singletonList("poison"), faulted);
+        // the batch is committed past the poison message
+        assertEquals(1, commits.get());
+        assertEquals(3, committedOffset.get());
+        assertFalse(listener.isRewindRequired());
+    }
+
+    public void testConsumerConnectorIsNotRecreatedBeforeRetryInterval() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(KAFKAConstants.BATCH_RETRY_INTERVAL, "60000");
+        TestListener listener = listener(10, properties, new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                return false;
+            }
+        });
+
+        listener.createStreamConsumer(stream(true, "m1")).run();
+        assertTrue(listener.isRewindRequired());
+
+        // the poll of the inbound endpoint does not re-create the consumer connector within the retry interval
+        assertTrue(listener.createKafkaConsumerConnector());
+        assertTrue(listener.isRewindRequired());
+        assertFalse(rewound.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    public void testFailedBatchIsNotCommittedByOtherStreamConsumers() throws Exception {
+        final CountDownLatch failingInjected = new CountDownLatch(1);
+        final CountDownLatch otherBatchDone = new CountDownLatch(1);
+        Properties properties = new Properties();
+        properties.setProperty(KAFKAConstants.BATCH_RETRY_INTERVAL, "60000");
+        TestListener listener = listener(10, properties, new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                if ("failing".equals(new String((byte[]) object))) {
+                    failingInjected.countDown();
+                    try {
+                        // fail while the other stream consumer is trying to commit its completed batch
+                        otherBatchDone.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return false;
+                }
+                return true;
+            }
+        });
+
+        Thread failing = new Thread(listener.createStreamConsumer(stream(false, "failing")));
+        final KAFKABatchMessageListener.MessageStream succeeding = stream(false, "succeeding");
+        Thread other = new Thread(listener.createStreamConsumer(new KAFKABatchMessageListener.MessageStream() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    // complete the batch while the failing batch is in progress
+                    failingInjected.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (succeeding.hasNext()) {
+                    return true;
+                }
+                otherBatchDone.countDown();
+                return false;
+            }
+
+            @Override
+            public byte[] next() {
+                return succeeding.next();
+            }
+
+            @Override
+            public String getPosition() {
+                return succeeding.getPosition();
+            }
+        }));
+        failing.start();
+        other.start();
+        failing.join(10000);
+        other.join(10000);
+        running = false;
+
+        assertFalse(failing.isAlive());
+        assertFalse(other.isAlive());
+        assertEquals(0, commits.get());
+        assertTrue(listener.isRewindRequired());
+    }
+
+    private TestListener listener(int batchSize, InjectHandler injectHandler) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(KAFKAConstants.BATCH_RETRY_INTERVAL, "10");
+        return listener(batchSize, properties, injectHandler);
+    }
+
+    private TestListener listener(int batchSize, Properties properties, InjectHandler injectHandler)
+            throws Exception {
+        properties.setProperty(KAFKAConstants.BATCH_SIZE, String.valueOf(batchSize));
+        TestListener listener = new TestListener(properties, injectHandler);
+        listener.consumerConnector = listener.createConsumerConnector();
+        listeners.add(listener);
+        return listener;
+    }
+
+    private void waitForRewind(KAFKABatchMessageListener listener) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.isRewindRequired() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse("consumer connector was not re-created", listener.isRewindRequired());
+    }
+
+    /**
+     * Stream of the given messages from the last committed offset, which stops the listener once it is drained if
+     * stopWhenDrained is set
+     */
+    private KAFKABatchMessageListener.MessageStream stream(final boolean stopWhenDrained, String... messages) {
+        final LinkedList<String> queue = new LinkedList<String>(Arrays.asList(messages));
+        consumedOffset.set(committedOffset.get());
+        return new KAFKABatchMessageListener.MessageStream() {
+            private String current;
+
+            @Override
+            public synchronized boolean hasNext() {
+                if (queue.isEmpty()) {
+                    if (stopWhenDrained) {
+                        running = false;
+                    }
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public synchronized byte[] next() {
+                current = queue.poll();
+                consumedOffset.incrementAndGet();
+                return current.getBytes();
+            }
+
+            @Override
+            public synchronized String getPosition() {
+                return "test-0@" + current;
+            }
+        };
+    }
+
+    private class TestListener extends KAFKABatchMessageListener {
+
+        TestListener(Properties properties, InjectHandler injectHandler) throws Exception {
+            super(1, Collections.singletonList("test"), properties, injectHandler, "testInbound");
+        }
+
+        @Override
+        protected boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        protected ConsumerConnector createConsumerConnector() {
+            return (ConsumerConnector) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[]{ConsumerConnector.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("commitOffsets".equals(method.getName())) {
+                                commits.incrementAndGet();
+                                committedOffset.set(consumedOffset.get());
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        @Override
+        public void start() {
+            rewound.countDown();
+        }
+
+        @Override
+        protected void injectToFaultSequence(byte[] msg, String position) {
+            faulted.add(new String(msg));
+        }
+    }
+}
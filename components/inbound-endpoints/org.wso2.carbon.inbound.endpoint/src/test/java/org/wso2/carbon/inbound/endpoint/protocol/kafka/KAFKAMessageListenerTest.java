@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.kafka;
+
+import junit.framework.TestCase;
+import kafka.consumer.FetchedDataChunk;
+import kafka.consumer.KafkaStream;
+import kafka.consumer.PartitionTopicInfo;
+import kafka.javaapi.consumer.ConsumerConnector;
+import kafka.message.ByteBufferMessageSet;
+import kafka.message.Message;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests that the high level message listener consumes every stream on a worker of its own, that a stream consumer
+ * backs off when its stream keeps failing, and that it stops consuming while the worker queue is saturated.
+ */
+public class KAFKAMessageListenerTest extends TestCase {
+
+    private static final String TOPIC = "test";
+
+    private final List<KAFKAMessageListener> listeners = new ArrayList<KAFKAMessageListener>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (KAFKAMessageListener listener : listeners) {
+            listener.destroy();
+        }
+    }
+
+    public void testEveryStreamIsConsumedOnItsOwnWorker() throws Exception {
+        final Map<String, List<String>> injectedByThread = new HashMap<String, List<String>>();
+        final CountDownLatch injected = new CountDownLatch(6);
+        KAFKAMessageListener listener = listener(3, new Properties(), new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                synchronized (injectedByThread) {
+                    String thread = Thread.currentThread().getName();
+                    if (!injectedByThread.containsKey(thread)) {
+                        injectedByThread.put(thread, new ArrayList<String>());
+                    }
+                    injectedByThread.get(thread).add(new String((byte[]) object));
+                }
+                injected.countDown();
+                return true;
+            }
+        }, Arrays.asList(stream(0, "p0-m1", "p0-m2"), stream(1, "p1-m1", "p1-m2"), stream(2, "p2-m1", "p2-m2")));
+
+        listener.start();
+
+        assertTrue(injected.await(5, TimeUnit.SECONDS));
+        synchronized (injectedByThread) {
+            // the messages of a partition are injected in order by the worker of its stream
+            assertEquals(3, injectedByThread.size());
+            Set<List<String>> partitions = new HashSet<List<String>>(injectedByThread.values());
+            assertTrue(partitions.contains(Arrays.asList("p0-m1", "p0-m2")));
+            assertTrue(partitions.contains(Arrays.asList("p1-m1", "p1-m2")));
+            assertTrue(partitions.contains(Arrays.asList("p2-m1", "p2-m2")));
+        }
+    }
+
+    public void testFailingStreamIsRetriedWithBackoff() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        KAFKAMessageListener listener = listener(1, new Properties(), new InjectHandler() {
+            @Override
+            public boolean invoke(Object object, String name) {
+                return true;
+            }
+        }, Collections.singletonList(stream(0)));
+        listener.start();
+        Thread consumer = new Thread(listener.createStreamConsumer(new KAFKAMessageListener.MessageStream() {
+            @Override
+            public boolean hasNext() {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("Iterator is in failed state");
+            }
+
+            @Override
+            public byte[] next() {
+                return null;
+            }
+
+            @Override
+            public String getPosition() {
+                return null;
+            }
+        }));
+        consumer.start();
+
+        Thread.sleep(500);
+        // retried after one second rather than right away
+        assertEquals(1, attempts.get());
+        // the wait ends when the listener is destroyed
+        listener.destroy();
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+    }
+
+    public void testStreamIsNotConsumedWhileWorkerQueueIsSaturated() throws Exception {
+        final CountDownLatch injected = new CountDownLatch(2);
+        final AtomicInteger queued = new AtomicInteger(1);
+        Properties properties = new Properties();
+        properties.setProperty(KAFKAConstants.INJECT_QUEUE_THRESHOLD, "1");
+        KAFKAMessageListener listener = listener(1, properties,
+                new KAFKAInjectHandler("inject", null, false, null, null) {
+                    @Override
+                    public boolean invoke(Object object, String name) {
+                        injected.countDown();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isWorkerQueueSaturated(int threshold) {
+                        return queued.get() >= threshold;
+                    }
+                }, Collections.singletonList(stream(0, "m1", "m2")));
+
+        listener.start();
+
+        assertFalse(injected.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(2, injected.getCount());
+        queued.set(0);
+        assertTrue(injected.await(5, TimeUnit.SECONDS));
+    }
+
+    private KAFKAMessageListener listener(int threadCount, Properties properties, InjectHandler injectHandler,
+                                          final List<KafkaStream<byte[], byte[]>> streams) throws Exception {
+        KAFKAMessageListener listener = new KAFKAMessageListener(threadCount, Collections.singletonList(TOPIC),
+                properties, injectHandler, "testInbound");
+        listener.consumerConnector = (ConsumerConnector) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{ConsumerConnector.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("createMessageStreams".equals(method.getName())) {
+                            return Collections.singletonMap(TOPIC, streams);
+                        }
+                        return null;
+                    }
+                });
+        listeners.add(listener);
+        return listener;
+    }
+
+    /**
+     * Stream of a partition holding the given messages, which times out after 50 milliseconds once it is drained
+     */
+    private static KafkaStream<byte[], byte[]> stream(int partition, String... messages) {
+        BlockingQueue<FetchedDataChunk> queue = new LinkedBlockingQueue<FetchedDataChunk>();
+        if (messages.length > 0) {
+            List<Message> messageList = new ArrayList<Message>();
+            for (String message : messages) {
+                messageList.add(new Message(message.getBytes()));
+            }
+            ByteBufferMessageSet messageSet = new ByteBufferMessageSet(
+                    new kafka.javaapi.message.ByteBufferMessageSet(messageList).getBuffer());
+            PartitionTopicInfo topicInfo = new PartitionTopicInfo(TOPIC, partition, queue, new AtomicLong(),
+                    new AtomicLong(), new AtomicInteger(), "test");
+            queue.add(new FetchedDataChunk(messageSet, topicInfo, 0));
+        }
+        return new KafkaStream<byte[], byte[]>(queue, 50, new kafka.serializer.DefaultDecoder(null),
+                new kafka.serializer.DefaultDecoder(null), "test");
+    }
+}
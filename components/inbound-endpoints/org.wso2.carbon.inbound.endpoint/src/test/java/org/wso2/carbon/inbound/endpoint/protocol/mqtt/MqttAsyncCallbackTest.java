@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.mqtt;
+
+import junit.framework.TestCase;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests when the callback withholds the acknowledgement of a received MQTT message.
+ */
+public class MqttAsyncCallbackTest extends TestCase {
+
+    private MqttAsyncCallback callback;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (callback != null) {
+            callback.shutdown();
+        }
+    }
+
+    public void testDroppedMessageIsAcknowledgedByDefault() throws Exception {
+        TestInjectHandler injectHandler = new TestInjectHandler(false, null);
+        callback = createCallback(injectHandler, new Properties());
+
+        callback.messageArrived("test", message(1));
+        callback.messageArrived("test", message(2));
+        assertEquals(2, injectHandler.invocations.get());
+    }
+
+    public void testFailedMessageIsAcknowledgedByDefault() throws Exception {
+        TestInjectHandler injectHandler = new TestInjectHandler(true, new IllegalStateException("build failed"));
+        callback = createCallback(injectHandler, new Properties());
+
+        callback.messageArrived("test", message(1));
+        assertEquals(1, injectHandler.invocations.get());
+    }
+
+    public void testDroppedMessageIsAcknowledgedWithWorkers() throws Exception {
+        TestInjectHandler injectHandler = new TestInjectHandler(false, null);
+        callback = createCallback(injectHandler, workers());
+
+        callback.messageArrived("test", message(1));
+        assertEquals(1, injectHandler.invocations.get());
+    }
+
+    public void testFailedMessageIsNotAcknowledgedWithWorkers() throws Exception {
+        TestInjectHandler injectHandler = new TestInjectHandler(true, new IllegalStateException("build failed"));
+        callback = createCallback(injectHandler, workers());
+
+        try {
+            callback.messageArrived("test", message(1));
+            fail("QoS 1 message was acknowledged although it could not be injected");
+        } catch (MqttException e) {
+            assertEquals(MqttException.REASON_CODE_CLIENT_EXCEPTION, e.getReasonCode());
+        }
+        // QoS 0 messages are not acknowledged, so there is nothing to withhold
+        callback.messageArrived("test", message(0));
+    }
+
+    private static Properties workers() {
+        Properties properties = new Properties();
+        properties.setProperty(MqttConstants.MQTT_DISPATCH_WORKER_COUNT, "1");
+        return properties;
+    }
+
+    private static MqttMessage message(int qos) {
+        MqttMessage message = new MqttMessage("<test/>".getBytes());
+        message.setQos(qos);
+        return message;
+    }
+
+    private static MqttAsyncCallback createCallback(MqttInjectHandler injectHandler, Properties properties)
+            throws MqttException {
+        properties.setProperty(MqttConstants.MQTT_SERVER_HOST_NAME, "localhost");
+        properties.setProperty(MqttConstants.MQTT_SERVER_PORT, "1883");
+        properties.setProperty(MqttConstants.MQTT_TOPIC_NAME, "test");
+        MqttAsyncClient client = new MqttAsyncClient("tcp://localhost:1883", "testClient", new MemoryPersistence());
+        MqttAsyncCallback callback = new MqttAsyncCallback(client, injectHandler,
+                new MqttConnectionFactory(properties), new MqttConnectOptions(), properties);
+        callback.setName("testInbound");
+        return callback;
+    }
+
+    /**
+     * Inject handler whose sequence drops the messages or which fails to build them
+     */
+    private static class TestInjectHandler extends MqttInjectHandler {
+
+        private final boolean mediated;
+        private final Exception error;
+        private final AtomicInteger invocations = new AtomicInteger();
+
+        TestInjectHandler(boolean mediated, Exception error) {
+            super("testSequence", "testErrorSequence", false, null, "application/xml");
+            this.mediated = mediated;
+            this.error = error;
+        }
+
+        @Override
+        public boolean inject(MqttMessage mqttMessage, String name, String topicName) throws Exception {
+            invocations.incrementAndGet();
+            if (error != null) {
+                throw error;
+            }
+            return mediated;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.mqtt;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests the QoS aware dispatch of the received MQTT messages to the workers.
+ */
+public class MqttMessageDispatcherTest extends TestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    private MqttMessageDispatcher dispatcher;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown(TIMEOUT);
+        }
+    }
+
+    public void testQos0WaitsForRoomByDefault() throws Exception {
+        dispatcher = new MqttMessageDispatcher("testClient", 1, 1, false);
+        assertTrue(dispatcher.dispatch(blocked(), 0));
+        assertTrue(dispatcher.dispatch(blocked(), 0));
+
+        Thread callback = dispatchAsync(blocked(), 0, new AtomicBoolean());
+        callback.join(200);
+        assertTrue("QoS 0 message was not queued while the queue was full", callback.isAlive());
+
+        release.countDown();
+        callback.join(TIMEOUT);
+        assertFalse(callback.isAlive());
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    public void testQos0IsDroppedWhenEnabled() throws Exception {
+        dispatcher = new MqttMessageDispatcher("testClient", 1, 1, true);
+        assertTrue(dispatcher.dispatch(blocked(), 0));
+        assertTrue(dispatcher.dispatch(blocked(), 0));
+
+        assertTrue(dispatcher.dispatch(blocked(), 0));
+        assertEquals(1, dispatcher.getDroppedCount());
+    }
+
+    public void testQos1WaitsForMediationResult() throws Exception {
+        dispatcher = new MqttMessageDispatcher("testClient", 2, 10, true);
+        AtomicBoolean result = new AtomicBoolean();
+        Thread callback = dispatchAsync(blocked(), 1, result);
+        callback.join(200);
+        assertTrue("QoS 1 message was acknowledged before it was mediated", callback.isAlive());
+
+        release.countDown();
+        callback.join(TIMEOUT);
+        assertFalse(callback.isAlive());
+        assertTrue(result.get());
+        assertEquals(1, dispatcher.getDispatchedCount());
+    }
+
+    public void testFailedQos1MediationIsReported() throws Exception {
+        dispatcher = new MqttMessageDispatcher("testClient", 1, 10, false);
+        assertFalse(dispatcher.dispatch(result(false), 1));
+        assertFalse(dispatcher.dispatch(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                throw new IllegalStateException("mediation failed");
+            }
+        }, 2));
+        assertTrue(dispatcher.dispatch(result(true), 1));
+    }
+
+    public void testQos1IsNotAcceptedAfterShutdown() throws Exception {
+        dispatcher = new MqttMessageDispatcher("testClient", 1, 10, false);
+        dispatcher.shutdown(TIMEOUT);
+        assertFalse(dispatcher.dispatch(result(true), 1));
+    }
+
+    private Callable<Boolean> blocked() {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                return true;
+            }
+        };
+    }
+
+    private static Callable<Boolean> result(final boolean successful) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return successful;
+            }
+        };
+    }
+
+    private Thread dispatchAsync(final Callable<Boolean> mediation, final int qos, final AtomicBoolean result) {
+        Thread callback = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(dispatcher.dispatch(mediation, qos));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        callback.start();
+        return callback;
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.inbound.endpoint.protocol.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the acknowledgement of the messages mediated by the workers of the RabbitMQ consumer.
+ */
+public class RabbitMQConnectionConsumerTest extends TestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    private final List<String> acknowledgements = new ArrayList<String>();
+    private final Map<Long, CountDownLatch> mediations = new ConcurrentHashMap<Long, CountDownLatch>();
+    private final Map<Long, RuntimeException> failures = new ConcurrentHashMap<Long, RuntimeException>();
+    private RabbitMQConnectionConsumer consumer;
+    private RabbitMQConnectionConsumer.DeliveryConsumer deliveryConsumer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (CountDownLatch mediation : mediations.values()) {
+            mediation.countDown();
+        }
+        ((ExecutorService) getField("workerPool")).shutdownNow();
+    }
+
+    public void testCompletedMessagesAreAcknowledgedInBatches() throws Exception {
+        start(4, 2);
+        deliver(1, 2, 3, 4);
+
+        complete(1);
+        assertEquals(Arrays.<String>asList(), acknowledgements());
+        complete(2);
+        assertEquals(Arrays.asList("ack 2 multiple"), acknowledgements());
+        complete(3);
+        assertEquals(Arrays.asList("ack 2 multiple"), acknowledgements());
+        // nothing else is in flight, so the last message is acknowledged without waiting for a full batch
+        complete(4);
+        assertEquals(Arrays.asList("ack 2 multiple", "ack 4 multiple"), acknowledgements());
+    }
+
+    public void testMultipleAckDoesNotCoverMessageInFlight() throws Exception {
+        start(3, 2);
+        deliver(1, 2, 3);
+
+        complete(2);
+        complete(3);
+        assertEquals(Arrays.<String>asList(), acknowledgements());
+        complete(1);
+        assertEquals(Arrays.asList("ack 3 multiple"), acknowledgements());
+    }
+
+    public void testAckCoversMessagesBeforeOldestInFlight() throws Exception {
+        start(3, 2);
+        deliver(1, 2, 3);
+
+        complete(1);
+        complete(3);
+        assertEquals(Arrays.asList("ack 1 multiple"), acknowledgements());
+        complete(2);
+        assertEquals(Arrays.asList("ack 1 multiple", "ack 3 multiple"), acknowledgements());
+    }
+
+    public void testFailedMessageIsRequeued() throws Exception {
+        start(2, 1);
+        failures.put(1L, new IllegalStateException("mediation failed"));
+        deliver(1, 2);
+
+        complete(1);
+        assertEquals(Arrays.asList("nack 1 requeue"), acknowledgements());
+        complete(2);
+        assertEquals(Arrays.asList("nack 1 requeue", "ack 2 multiple"), acknowledgements());
+    }
+
+    public void testInvalidMessageIsRejectedWithoutRequeue() throws Exception {
+        start(1, 1);
+        failures.put(1L, new OMException("invalid message"));
+        deliver(1);
+
+        complete(1);
+        assertEquals(Arrays.asList("nack 1 reject"), acknowledgements());
+    }
+
+    public void testAutoAckedMessagesAreNotAcknowledged() throws Exception {
+        start(2, 1);
+        // auto ack is read from the properties when the consumer is initialized
+        setField("autoAck", true);
+        deliver(1, 2);
+
+        complete(1);
+        complete(2);
+        assertEquals(Arrays.<String>asList(), acknowledgements());
+    }
+
+    private void start(int workers, int ackBatchSize) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(RabbitMQConstants.CONSUMER_WORKER_COUNT, String.valueOf(workers));
+        properties.setProperty(RabbitMQConstants.CONSUMER_ACK_BATCH_SIZE, String.valueOf(ackBatchSize));
+        consumer = new RabbitMQConnectionConsumer(null, properties, new RabbitMQInjectHandler("main", "fault", true,
+                null) {
+            @Override
+            public boolean invoke(RabbitMQMessage message) {
+                try {
+                    mediations.get(message.getDeliveryTag()).await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                RuntimeException failure = failures.get(message.getDeliveryTag());
+                if (failure != null) {
+                    throw failure;
+                }
+                return true;
+            }
+        });
+        consumer.setInboundName("testInbound");
+        consumer.startWorkers();
+        deliveryConsumer = consumer.new DeliveryConsumer(channel());
+    }
+
+    private void deliver(long... deliveryTags) {
+        for (long deliveryTag : deliveryTags) {
+            mediations.put(deliveryTag, new CountDownLatch(1));
+            deliveryConsumer.handleDelivery("consumer", new Envelope(deliveryTag, false, "", "queue"),
+                    new AMQP.BasicProperties.Builder().build(), new byte[0]);
+        }
+    }
+
+    /**
+     * Completes the mediation of the given message and waits until the worker has acknowledged it
+     */
+    private void complete(long deliveryTag) throws Exception {
+        Semaphore workerPermits = (Semaphore) getField("workerPermits");
+        int idle = workerPermits.availablePermits();
+        mediations.get(deliveryTag).countDown();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (workerPermits.availablePermits() <= idle) {
+            assertTrue("Message " + deliveryTag + " was not completed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private List<String> acknowledgements() {
+        synchronized (acknowledgements) {
+            return new ArrayList<String>(acknowledgements);
+        }
+    }
+
+    private Channel channel() {
+        return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Channel.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        synchronized (acknowledgements) {
+                            if ("basicAck".equals(name)) {
+                                acknowledgements.add("ack " + args[0] + ((Boolean) args[1] ? " multiple" : ""));
+                            } else if ("basicNack".equals(name)) {
+                                acknowledgements.add("nack " + args[0]
+                                        + ((Boolean) args[2] ? " requeue" : " reject"));
+                            }
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private Object getField(String name) throws Exception {
+        Field field = RabbitMQConnectionConsumer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(consumer);
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = RabbitMQConnectionConsumer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(consumer, value);
+    }
+}
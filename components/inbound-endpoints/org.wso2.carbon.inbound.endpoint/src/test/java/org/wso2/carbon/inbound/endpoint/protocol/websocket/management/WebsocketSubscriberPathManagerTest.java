@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.inbound.endpoint.protocol.websocket.management;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.EventLoop;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.CharsetUtil;
+import junit.framework.TestCase;
+import org.wso2.carbon.inbound.endpoint.protocol.websocket.InboundWebsocketChannelContext;
+import org.wso2.carbon.inbound.endpoint.protocol.websocket.InboundWebsocketConstants;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tests the registry of the subscribers of the WebSocket subscriber paths, which stripes them by event loop, and the
+ * encode once broadcast to them.
+ */
+public class WebsocketSubscriberPathManagerTest extends TestCase {
+
+    private static final String INBOUND = "testInbound";
+    private static final String PATH = "/chat";
+
+    private WebsocketSubscriberPathManager manager;
+
+    @Override
+    protected void setUp() throws Exception {
+        manager = new WebsocketSubscriberPathManager();
+    }
+
+    public void testSubscribersAreListedUntilTheyLeave() {
+        RecordingEventLoop eventLoop = new RecordingEventLoop();
+        InboundWebsocketChannelContext first = subscriber("first", eventLoop.proxy);
+        InboundWebsocketChannelContext second = subscriber("second", eventLoop.proxy);
+        manager.addChannelContext(INBOUND, PATH, first);
+        manager.addChannelContext(INBOUND, PATH, second);
+
+        assertEquals(Arrays.asList(first, second), manager.getSubscriberPathChannelContextList(INBOUND, PATH));
+        assertTrue(manager.getSubscriberPathChannelContextList(INBOUND, "/other").isEmpty());
+        assertTrue(manager.getSubscriberPathChannelContextList("otherInbound", PATH).isEmpty());
+
+        manager.removeChannelContext(INBOUND, PATH, first);
+        assertEquals(Arrays.asList(second), manager.getSubscriberPathChannelContextList(INBOUND, PATH));
+        manager.removeChannelContext(INBOUND, PATH, second);
+        assertTrue(manager.getSubscriberPathChannelContextList(INBOUND, PATH).isEmpty());
+    }
+
+    public void testRemovingUnknownSubscriberIsIgnored() {
+        InboundWebsocketChannelContext subscriber = subscriber("first", new RecordingEventLoop().proxy);
+        manager.removeChannelContext(INBOUND, PATH, subscriber);
+
+        manager.addChannelContext(INBOUND, PATH, subscriber);
+        manager.removeChannelContext(INBOUND, PATH, subscriber("unknown", new RecordingEventLoop().proxy));
+        assertEquals(Arrays.asList(subscriber), manager.getSubscriberPathChannelContextList(INBOUND, PATH));
+    }
+
+    public void testPathCanBeJoinedAgainOnceEmpty() {
+        RecordingEventLoop eventLoop = new RecordingEventLoop();
+        InboundWebsocketChannelContext first = subscriber("first", eventLoop.proxy);
+        manager.addChannelContext(INBOUND, PATH, first);
+        manager.removeChannelContext(INBOUND, PATH, first);
+
+        InboundWebsocketChannelContext second = subscriber("second", eventLoop.proxy);
+        manager.addChannelContext(INBOUND, PATH, second);
+        assertEquals(Arrays.asList(second), manager.getSubscriberPathChannelContextList(INBOUND, PATH));
+    }
+
+    public void testBroadcastSubmitsOneTaskPerEventLoop() {
+        RecordingEventLoop firstLoop = new RecordingEventLoop();
+        RecordingEventLoop secondLoop = new RecordingEventLoop();
+        manager.addChannelContext(INBOUND, PATH, subscriber("a", firstLoop.proxy));
+        manager.addChannelContext(INBOUND, PATH, subscriber("b", secondLoop.proxy));
+        manager.addChannelContext(INBOUND, PATH, subscriber("c", firstLoop.proxy));
+        WebSocketFrame frame = new TextWebSocketFrame("hello");
+
+        manager.broadcastOnSubscriberPath(frame, INBOUND, PATH);
+
+        assertEquals(1, firstLoop.tasks.size());
+        assertEquals(1, secondLoop.tasks.size());
+        firstLoop.runTasks();
+        secondLoop.runTasks();
+        // the encoded frame does not hold the payload once the tasks are done
+        assertEquals(1, frame.refCnt());
+        frame.release();
+    }
+
+    public void testRejectedBroadcastReleasesFrame() {
+        RecordingEventLoop terminated = new RecordingEventLoop();
+        terminated.rejecting = true;
+        RecordingEventLoop running = new RecordingEventLoop();
+        manager.addChannelContext(INBOUND, PATH, subscriber("a", terminated.proxy));
+        manager.addChannelContext(INBOUND, PATH, subscriber("b", running.proxy));
+        WebSocketFrame frame = new TextWebSocketFrame("hello");
+
+        manager.broadcastOnSubscriberPath(frame, INBOUND, PATH);
+
+        // the subscribers of the other event loops still get the frame
+        assertEquals(1, running.tasks.size());
+        running.runTasks();
+        assertEquals(1, frame.refCnt());
+        frame.release();
+    }
+
+    public void testBroadcastWritesEncodedFrame() {
+        EmbeddedChannel first = channel();
+        EmbeddedChannel second = channel();
+        manager.addChannelContext(INBOUND, PATH, subscriber(first));
+        manager.addChannelContext(INBOUND, PATH, subscriber(second));
+        WebSocketFrame frame = new TextWebSocketFrame("hello");
+
+        manager.broadcastOnSubscriberPath(frame, INBOUND, PATH);
+        first.runPendingTasks();
+        second.runPendingTasks();
+
+        assertFrame("hello", first);
+        assertFrame("hello", second);
+        assertEquals(1, frame.refCnt());
+        frame.release();
+    }
+
+    public void testExclusiveBroadcastSkipsSender() {
+        EmbeddedChannel sender = channel();
+        EmbeddedChannel other = channel();
+        InboundWebsocketChannelContext senderContext = subscriber(sender);
+        manager.addChannelContext(INBOUND, PATH, senderContext);
+        manager.addChannelContext(INBOUND, PATH, subscriber(other));
+        WebSocketFrame frame = new TextWebSocketFrame("hello");
+
+        manager.exclusiveBroadcastOnSubscriberPath(frame, INBOUND, PATH, senderContext);
+        sender.runPendingTasks();
+        other.runPendingTasks();
+
+        assertNull(sender.readOutbound());
+        assertFrame("hello", other);
+        frame.release();
+    }
+
+    public void testSlowConsumerIsBufferedByDefault() {
+        EmbeddedChannel slow = slowChannel();
+        manager.addChannelContext(INBOUND, PATH, subscriber(slow));
+        WebSocketFrame frame = new TextWebSocketFrame("hello");
+
+        manager.broadcastOnSubscriberPath(frame, INBOUND, PATH);
+        slow.runPendingTasks();
+
+        releaseFiller(slow);
+        assertFrame("hello", slow);
+        frame.release();
+    }
+
+    public void testSlowConsumerIsSkippedWithDropPolicy() {
+        EmbeddedChannel slow = slowChannel();
+        EmbeddedChannel fast = channel();
+        manager.addChannelContext(INBOUND, PATH, subscriber(slow));
+        manager.addChannelContext(INBOUND, PATH, subscriber(fast));
+        WebSocketFrame frame = new TextWebSocketFrame("hello");
+
+        manager.broadcastOnSubscriberPath(frame, INBOUND, PATH, InboundWebsocketConstants.SLOW_CONSUMER_POLICY_DROP);
+        slow.runPendingTasks();
+        fast.runPendingTasks();
+
+        releaseFiller(slow);
+        assertNull(slow.readOutbound());
+        assertTrue(slow.isActive());
+        assertFrame("hello", fast);
+        frame.release();
+    }
+
+    public void testSlowConsumerIsClosedWithClosePolicy() {
+        EmbeddedChannel slow = slowChannel();
+        manager.addChannelContext(INBOUND, PATH, subscriber(slow));
+        WebSocketFrame frame = new TextWebSocketFrame("hello");
+
+        manager.broadcastOnSubscriberPath(frame, INBOUND, PATH, InboundWebsocketConstants.SLOW_CONSUMER_POLICY_CLOSE);
+        slow.runPendingTasks();
+
+        assertFalse(slow.isActive());
+        assertEquals(1, frame.refCnt());
+        frame.release();
+    }
+
+    private static void assertFrame(String text, EmbeddedChannel channel) {
+        ByteBuf written = channel.readOutbound();
+        assertNotNull(written);
+        try {
+            // final text frame, unmasked as sent by a server
+            assertEquals(0x81, written.readUnsignedByte());
+            assertEquals(text.length(), written.readUnsignedByte());
+            assertEquals(text, written.toString(CharsetUtil.UTF_8));
+        } finally {
+            written.release();
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    private static EmbeddedChannel channel() {
+        return new EmbeddedChannel(DefaultChannelId.newInstance(), new ChannelInboundHandlerAdapter());
+    }
+
+    /**
+     * Channel whose outbound buffer is above its high water mark, due to a filler buffer written but not flushed
+     */
+    private static EmbeddedChannel slowChannel() {
+        EmbeddedChannel channel = channel();
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+        channel.write(Unpooled.buffer().writeZero(8));
+        assertFalse(channel.isWritable());
+        return channel;
+    }
+
+    private static void releaseFiller(EmbeddedChannel channel) {
+        channel.flush();
+        ByteBuf filler = channel.readOutbound();
+        assertEquals(8, filler.readableBytes());
+        filler.release();
+    }
+
+    private static InboundWebsocketChannelContext subscriber(EmbeddedChannel channel) {
+        return new InboundWebsocketChannelContext(channel.pipeline().firstContext());
+    }
+
+    /**
+     * Subscriber whose channel is not active, so the broadcast tasks skip it
+     */
+    private static InboundWebsocketChannelContext subscriber(final String id, final EventLoop eventLoop) {
+        final Channel channel = (Channel) Proxy.newProxyInstance(WebsocketSubscriberPathManagerTest.class
+                .getClassLoader(), new Class[]{Channel.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("eventLoop".equals(name)) {
+                            return eventLoop;
+                        } else if ("toString".equals(name)) {
+                            return id;
+                        } else if ("isActive".equals(name)) {
+                            return false;
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+        ChannelHandlerContext ctx = (ChannelHandlerContext) Proxy.newProxyInstance(
+                WebsocketSubscriberPathManagerTest.class.getClassLoader(), new Class[]{ChannelHandlerContext.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("channel".equals(method.getName())) {
+                            return channel;
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+        return new InboundWebsocketChannelContext(ctx);
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if (method.getReturnType() == boolean.class) {
+            return false;
+        }
+        return null;
+    }
+
+    /**
+     * Event loop which records the submitted tasks instead of running them, or rejects them once terminated
+     */
+    private static class RecordingEventLoop {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+        private boolean rejecting;
+
+        private final EventLoop proxy = (EventLoop) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{EventLoop.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("execute".equals(method.getName())) {
+                            if (rejecting) {
+                                throw new RejectedExecutionException("event executor terminated");
+                            }
+                            tasks.add((Runnable) args[0]);
+                            return null;
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+
+        private void runTasks() {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+}
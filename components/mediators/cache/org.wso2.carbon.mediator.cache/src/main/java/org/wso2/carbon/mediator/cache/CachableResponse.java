@@ -88,6 +88,17 @@ public class CachableResponse implements Serializable {
 	 * */
 	private Map<String,Object> headerProperties;
 
+	/**
+	 * This holds the tiered store of the cache mediator which keeps this response, if the response is not kept in
+	 * the mediator cache. The collector stores the filled response back to the same store.
+	 */
+	private transient TieredResponseStore responseStore;
+
+	/**
+	 * This holds whether the response envelope was checked to be well formed when it was first served.
+	 */
+	private transient volatile boolean envelopeVerified;
+
 	/**
 	 * This method checks whether this cached response is expired or not
 	 *
@@ -259,4 +270,40 @@ public class CachableResponse implements Serializable {
 		this.headerProperties = headerProperties;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * This method gives the tiered store which keeps this response
+	 *
+	 * @return the tiered response store, or null if the response is kept in the mediator cache
+	 */
+	public TieredResponseStore getResponseStore() {
+		return responseStore;
+	}
+
+	/**
+	 * This method sets the tiered store which keeps this response
+	 *
+	 * @param responseStore tiered response store to be set
+	 */
+	public void setResponseStore(TieredResponseStore responseStore) {
+		this.responseStore = responseStore;
+	}
+
+	/**
+	 * This method checks whether the response envelope was checked to be well formed
+	 *
+	 * @return true if the response envelope was checked
+	 */
+	public boolean isEnvelopeVerified() {
+		return envelopeVerified;
+	}
+
+	/**
+	 * This method sets whether the response envelope was checked to be well formed
+	 *
+	 * @param envelopeVerified whether the response envelope was checked
+	 */
+	public void setEnvelopeVerified(boolean envelopeVerified) {
+		this.envelopeVerified = envelopeVerified;
+	}
+
+}
@@ -19,6 +19,7 @@ package org.wso2.carbon.mediator.cache;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.cache.CacheBuilder;
+import org.apache.axiom.om.OMException;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.Constants;
@@ -26,25 +27,26 @@ import org.apache.axis2.clustering.ClusteringFault;
 import org.apache.axis2.clustering.state.Replicator;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.OperationContext;
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.synapse.FaultHandler;
 import org.apache.synapse.ManagedLifecycle;
 import org.apache.synapse.Mediator;
 import org.apache.synapse.MessageContext;
-import org.apache.synapse.SynapseException;
 import org.apache.synapse.SynapseLog;
 import org.apache.synapse.config.SynapseConfiguration;
 import org.apache.synapse.continuation.ContinuationStackManager;
+import org.apache.synapse.continuation.SeqContinuationState;
 import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.core.axis2.Axis2MessageContext;
 import org.apache.synapse.core.axis2.Axis2Sender;
 import org.apache.synapse.debug.constructs.EnclosedInlinedSequence;
 import org.apache.synapse.mediators.AbstractMediator;
 import org.apache.synapse.mediators.base.SequenceMediator;
-import org.apache.synapse.util.FixedByteArrayOutputStream;
-import org.apache.synapse.util.MessageHelper;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.mediator.cache.digest.DigestGenerator;
 import org.wso2.carbon.mediator.cache.util.RequestHash;
 import org.wso2.carbon.mediator.cache.util.SOAPMessageHelper;
+import org.wso2.carbon.mediator.cache.util.SizeLimitedOutputStream;
 
 import javax.cache.Cache;
 import javax.cache.CacheConfiguration;
@@ -57,13 +59,14 @@ import javax.management.MalformedObjectNameException;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.MBeanRegistrationException;
-import javax.xml.soap.SOAPException;
 import javax.xml.stream.XMLStreamException;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -103,10 +106,16 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 	private int inMemoryCacheSize = CachingConstants.DEFAULT_CACHE_SIZE;
 
 	/**
-	 * The size of the messages to be cached in memory. Disk based and hirearchycal caching is not implemented yet.
+	 * The number of messages to be cached off-heap once they are evicted from the memory. If this is 0 then
+	 * responses are not tiered.
 	 */
 	private int diskCacheSize = 0;
 
+	/**
+	 * The maximum number of bytes of the messages cached off-heap.
+	 */
+	private long diskCacheMaxBytes = CachingConstants.DEFAULT_DISK_CACHE_MAX_BYTES;
+
 	/**
 	 * The time duration for which the cache is kept.
 	 */
@@ -125,10 +134,27 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 	private String onCacheHitRef = null;
 
 	/**
-	 * The maximum size of the messages to be cached. This is specified in bytes.
+	 * The maximum size of the messages to be cached. This is specified in bytes. Requests larger than this skip the
+	 * cache, and responses larger than this are not cached.
 	 */
 	private int maxMessageSize = 0;
 
+	/**
+	 * Whether the concurrent misses of the same request should be coalesced, so that only one of them is sent to the
+	 * backend while the others wait for its response.
+	 */
+	private boolean singleFlight = false;
+
+	/**
+	 * The maximum time in milliseconds a coalesced request waits for the response of the request in flight.
+	 */
+	private long singleFlightTimeout = CachingConstants.DEFAULT_SINGLE_FLIGHT_TIMEOUT;
+
+	/**
+	 * Whether the expired response should be served to the coalesced requests while it is being refreshed.
+	 */
+	private boolean serveStale = false;
+
 	/**
 	 * Prefix of the cache key
 	 */
@@ -144,11 +170,42 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 	 */
 	private static AtomicBoolean mediatorCacheInit = new AtomicBoolean(false);
 
+	/**
+	 * Two tier (heap and off-heap) store of this mediator, used to keep the responses when the disk implementation
+	 * is configured.
+	 */
+	private TieredResponseStore responseStore = null;
+
+	/**
+	 * The tiered stores of the initialized cache mediators, exposed through the cache MBean.
+	 */
+	private static final Set<TieredResponseStore> responseStores =
+			Collections.newSetFromMap(new ConcurrentHashMap<TieredResponseStore, Boolean>());
+
+	/**
+	 * Coalesces the concurrent misses of the same request hash when single flight is enabled. Each mediator has its
+	 * own, so that requests of the same hash sent through different cache mediators are not coalesced. The collector
+	 * reaches it through the message property set by the leader.
+	 */
+	private RequestCoalescer requestCoalescer = null;
+
 	@Override
 	public void init(SynapseEnvironment se) {
 		if (onCacheHitSequence != null) {
 			onCacheHitSequence.init(se);
 		}
+		if (!collector && diskCacheSize > 0) {
+			if (CachingConstants.SCOPE_DISTRIBUTED.equals(scope)) {
+				log.warn("The disk implementation of the cache mediator is kept in the local node, the responses of " +
+				         "the distributed cache : " + cacheKey + " are kept in the mediator cache");
+			} else {
+				responseStore = new TieredResponseStore(inMemoryCacheSize, diskCacheSize, diskCacheMaxBytes);
+				responseStores.add(responseStore);
+			}
+		}
+		if (!collector && singleFlight) {
+			requestCoalescer = new RequestCoalescer();
+		}
 		exposeData(se.createMessageContext());
 	}
 
@@ -157,6 +214,13 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		if (onCacheHitSequence != null) {
 			onCacheHitSequence.destroy();
 		}
+		if (responseStore != null) {
+			responseStores.remove(responseStore);
+			responseStore.clear();
+		}
+		if (requestCoalescer != null) {
+			requestCoalescer.shutdown();
+		}
 	}
 
 	@Override
@@ -183,23 +247,11 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 			}
 		}
 
-		// if maxMessageSize is specified check for the message size before processing
-		if (maxMessageSize > 0) {
-			FixedByteArrayOutputStream fbaos = new FixedByteArrayOutputStream(maxMessageSize);
-			try {
-				MessageHelper.cloneSOAPEnvelope(synCtx.getEnvelope()).serialize(fbaos);
-			} catch (XMLStreamException e) {
-				handleException("Error in checking the message size", e, synCtx);
-			} catch (SynapseException syne) {
-				synLog.traceOrDebug("Message size exceeds the upper bound for caching, request will not be cached");
-				return true;
-			} finally {
-				try {
-					fbaos.close();
-				} catch (IOException e) {
-					handleException("Error occurred while closing the FixedByteArrayOutputStream ", e, synCtx);
-				}
-			}
+		// if maxMessageSize is specified check for the size of the request before processing, the size of the
+		// response is checked when it is serialized to be cached
+		if (maxMessageSize > 0 && !synCtx.isResponse() && exceedsMaxMessageSize(synCtx)) {
+			synLog.traceOrDebug("Message size exceeds the upper bound for caching, request will not be cached");
+			return true;
 		}
 
 		ConfigurationContext cfgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext().getConfigurationContext();
@@ -231,6 +283,23 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		return result;
 	}
 
+	/**
+	 * Checks whether the size of the message exceeds the maxMessageSize. The envelope is serialized to a stream which
+	 * only counts the bytes and stops the serialization as soon as the limit is crossed, without copying the envelope
+	 * or keeping the serialized bytes.
+	 *
+	 * @param synCtx the current message
+	 * @return true if the message is larger than the maxMessageSize
+	 */
+	private boolean exceedsMaxMessageSize(MessageContext synCtx) {
+		try {
+			return !new SizeLimitedOutputStream(maxMessageSize, false).serialize(synCtx.getEnvelope());
+		} catch (XMLStreamException e) {
+			handleException("Error in checking the message size", e, synCtx);
+		}
+		return false;
+	}
+
 	/**
 	 * Process a response message through this cache mediator. This finds the Cache used, and
 	 * updates it for the corresponding request hash
@@ -250,6 +319,43 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		OperationContext operationContext = msgCtx.getOperationContext();
 		CachableResponse response = (CachableResponse) operationContext.getProperty(CachingConstants.CACHED_OBJECT);
 
+		boolean stored = false;
+		RequestCoalescer coalescer = getRequestCoalescer(synCtx);
+		try {
+			stored = storeResponse(synCtx, msgCtx, response, synLog);
+		} finally {
+			// release the requests waiting on this response, if the request led a request in flight
+			if (coalescer != null && stored) {
+				coalescer.complete(response.getRequestHash(), response);
+			} else if (coalescer != null) {
+				// the response could not be cached, release the requests waiting on it to go to the backend
+				coalescer.discard(response != null ? response.getRequestHash() : getRequestHash(synCtx));
+			}
+			// the leader brought back a response, its faults are no longer the faults of the request in flight
+			InFlightRequestFaultHandler faultHandler =
+					(InFlightRequestFaultHandler) synCtx.getProperty(CachingConstants.IN_FLIGHT_FAULT_HANDLER);
+			if (faultHandler != null) {
+				faultHandler.remove();
+			}
+		}
+		if (stored) {
+			// Finally, we may need to replicate the changes in the cache
+			Replicator.replicate(cfgCtx);
+		}
+	}
+
+	/**
+	 * Stores the response message in the cache against the request hash of the cached object.
+	 *
+	 * @param synCtx   the current message (response)
+	 * @param msgCtx   the Axis2 message context of the response
+	 * @param response cached object of the request, may be null
+	 * @param synLog   the Synapse log to use
+	 * @return true if the response was stored in the cache
+	 */
+	private boolean storeResponse(MessageContext synCtx, org.apache.axis2.context.MessageContext msgCtx,
+	                              CachableResponse response, SynapseLog synLog) {
+
 		if (response != null) {
 			if (synLog.isTraceOrDebugEnabled()) {
 				synLog.traceOrDebug("Storing the response message into the cache at scope : " + scope + " with ID : "
@@ -261,47 +367,65 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 				                    cacheKey);
 			}
 
-			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			// the size is checked against the serialized bytes which are cached, without serializing twice
+			SizeLimitedOutputStream outStream =
+					new SizeLimitedOutputStream(maxMessageSize > 0 ? maxMessageSize : Long.MAX_VALUE);
 			try {
-				synCtx.getEnvelope().serialize(outStream);
+				if (!outStream.serialize(synCtx.getEnvelope())) {
+					synLog.traceOrDebug("Message size exceeds the upper bound for caching, response will not be " +
+					                    "cached");
+					return false;
+				}
 				response.setResponseEnvelope(outStream.toByteArray());
 				if (msgCtx.isDoingREST()) {
 					response.setSOAP11(synCtx.isSOAP11());
 					Map<String, String> headers =
 							(Map) msgCtx.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
 					String messageType = (String) msgCtx.getProperty(Constants.Configuration.MESSAGE_TYPE);
-					Map<String, Object> headerProperties = new HashMap<String, Object>();
-					//Individually copying All TRANSPORT_HEADERS to headerProperties Map instead putting whole
-					//TRANSPORT_HEADERS map as single Key/Value pair to fix hazelcast serialization issue.
-					for (Map.Entry<String, String> entry : headers.entrySet()) {
-						headerProperties.put(entry.getKey(), entry.getValue());
-					}
-					headerProperties.put(Constants.Configuration.MESSAGE_TYPE, messageType);
-					response.setHeaderProperties(headerProperties);
+					response.setHeaderProperties(getHeaderProperties(headers, messageType));
 				}
 
 			} catch (XMLStreamException e) {
 				handleException("Unable to set the response to the Cache", e, synCtx);
-			} finally {
-				try {
-					outStream.close();
-				} catch (IOException e) {
-					handleException("Error occurred while closing the FixedByteArrayOutputStream ", e, synCtx);
-				}
 			}
 
 			if (response.getTimeout() > 0) {
 				response.setExpireTimeMillis(System.currentTimeMillis() + response.getTimeout());
 			}
 
-			getMediatorCache().put(response.getRequestHash(), response);
-			// Finally, we may need to replicate the changes in the cache
-			Replicator.replicate(cfgCtx);
+			putResponse(response.getRequestHash(), response);
+			return true;
 		} else {
 			synLog.auditWarn("A response message without a valid mapping to the " +
 			                 "request hash found. Unable to store the response in cache");
+			return false;
+		}
+	}
+
+	/**
+	 * This method gives the request hash the current message was mapped to by the request cache mediator.
+	 *
+	 * @param synCtx the current message
+	 * @return request hash or null if the request was not looked up in the cache
+	 */
+	private String getRequestHash(MessageContext synCtx) {
+		Object requestHash = synCtx.getProperty(CachingConstants.REQUEST_HASH);
+		if (requestHash == null) {
+			OperationContext opCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext().getOperationContext();
+			requestHash = opCtx != null ? opCtx.getProperty(CachingConstants.REQUEST_HASH) : null;
 		}
+		return (String) requestHash;
+	}
 
+	/**
+	 * This method gives the request coalescer of the cache mediator the current message leads a request in flight
+	 * of.
+	 *
+	 * @param synCtx the current message
+	 * @return request coalescer or null if the message is not the leader of a request in flight
+	 */
+	private RequestCoalescer getRequestCoalescer(MessageContext synCtx) {
+		return (RequestCoalescer) synCtx.getProperty(CachingConstants.REQUEST_COALESCER);
 	}
 
 	/**
@@ -336,106 +460,338 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		}
 
 		RequestHash hash = new RequestHash(requestHash);
-		CachableResponse cachedResponse = getMediatorCache().get(requestHash);
+		CachableResponse cachedResponse = getResponse(requestHash);
 		org.apache.axis2.context.MessageContext msgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext();
 		opCtx.setProperty(CachingConstants.REQUEST_HASH, requestHash);
 
-		byte[] responseEnvelop;
+		if (cachedResponse != null && cachedResponse.getResponseEnvelope() != null && !cachedResponse.isExpired()) {
+			if (serveCachedResponse(synCtx, synLog, cachedResponse)) {
+				// stop any following mediators from executing
+				return false;
+			}
+			// the corrupt response was evicted, handle the request as a cache miss
+			cachedResponse = null;
+		}
+
+		if (requestCoalescer != null && synCtx.isContinuationEnabled() && coalesceRequest(synCtx, synLog, requestHash,
+		                                                                      cachedResponse)) {
+			// the message is either served or parked, stop any following mediators from executing
+			return false;
+		}
+
+		if (cachedResponse != null && cachedResponse.getResponseEnvelope() != null) {
+			cachedResponse.reincarnate(timeout);
+			if (synLog.isTraceOrDebugEnabled()) {
+				synLog.traceOrDebug("Existing cached response has expired. Resetting cache element");
+			}
+			putResponse(hash.getRequestHash(), cachedResponse);
+			opCtx.setProperty(CachingConstants.CACHED_OBJECT, cachedResponse);
+			Replicator.replicate(opCtx);
+		} else {
+			cacheNewResponse(msgCtx, hash);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Serves the request from the cached response. The envelope of the message is replaced by the cached response
+	 * and the onCacheHit sequence is executed if specified, otherwise the response is sent back to the client. If the
+	 * cached response is not a well formed envelope it is evicted and the request is not served.
+	 *
+	 * @param synCtx         incoming request message
+	 * @param synLog         the Synapse log to use
+	 * @param cachedResponse cached response to be served
+	 * @return true if the request was served, in which case the following mediators should not be executed
+	 */
+	private boolean serveCachedResponse(MessageContext synCtx, SynapseLog synLog, CachableResponse cachedResponse) {
+
+		org.apache.axis2.context.MessageContext msgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext();
+		OperationContext opCtx = msgCtx.getOperationContext();
 		Map<String, Object> headerProperties;
-		if (cachedResponse != null && (responseEnvelop = cachedResponse.getResponseEnvelope()) != null) {
-			// get the response from the cache and attach to the context and change the
-			// direction of the message
-			if (!cachedResponse.isExpired()) {
-				if (synLog.isTraceOrDebugEnabled()) {
-					synLog.traceOrDebug("Cache-hit for message ID : " + synCtx.getMessageID());
-				}
-				cachedResponse.setInUse(true);
-				// mark as a response and replace envelope from cache
-				synCtx.setResponse(true);
-				opCtx.setProperty(CachingConstants.CACHED_OBJECT, cachedResponse);
-
-				SOAPEnvelope omSOAPEnv = null;
-
-				try {
-					if (msgCtx.isDoingREST()) {
-						if ((headerProperties = cachedResponse.getHeaderProperties()) != null) {
-
-							omSOAPEnv = SOAPMessageHelper.buildSOAPEnvelopeFromBytes(responseEnvelop, cachedResponse.isSOAP11());
-							msgCtx.removeProperty("NO_ENTITY_BODY");
-							msgCtx.removeProperty(Constants.Configuration.CONTENT_TYPE);
-							msgCtx.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headerProperties);
-							msgCtx.setProperty(Constants.Configuration.MESSAGE_TYPE,
-							                   headerProperties.get(Constants.Configuration.MESSAGE_TYPE));
-						}
-
-					} else {
-						omSOAPEnv = SOAPMessageHelper.buildSOAPEnvelopeFromBytes(responseEnvelop, msgCtx.isSOAP11());
-						//finally set soap envelope by obtaining built response envelope
-						cachedResponse.setResponseEnvelope(omSOAPEnv.toString().getBytes());
-					}
-
-					if (omSOAPEnv != null) {
-						synCtx.setEnvelope(omSOAPEnv);
-					}
-				} catch (AxisFault axisFault) {
-					handleException("Error setting response envelope from cache : "
-					                + cacheKey, synCtx);
-				} catch (IOException ioe) {
-					handleException("Error setting response envelope from cache : "
-					                + cacheKey, ioe, synCtx);
-				} catch (SOAPException soape) {
-					handleException("Error setting response envelope from cache : "
-					                + cacheKey, soape, synCtx);
-				}
 
-				// take specified action on cache hit
-				if (onCacheHitSequence != null) {
-					// if there is an onCacheHit use that for the mediation
-					synLog.traceOrDebug("Delegating message to the onCachingHit "
-					                    + "Anonymous sequence");
-					ContinuationStackManager.addReliantContinuationState(synCtx, 0, getMediatorPosition());
-					if (onCacheHitSequence.mediate(synCtx)) {
-						ContinuationStackManager.removeReliantContinuationState(synCtx);
-					}
-
-				} else if (onCacheHitRef != null) {
-					if (synLog.isTraceOrDebugEnabled()) {
-						synLog.traceOrDebug("Delegating message to the onCachingHit " +
-						                    "sequence : " + onCacheHitRef);
-					}
-					ContinuationStackManager.updateSeqContinuationState(synCtx, getMediatorPosition());
-					synCtx.getSequence(onCacheHitRef).mediate(synCtx);
-
-				} else {
-
-					if (synLog.isTraceOrDebugEnabled()) {
-						synLog.traceOrDebug("Request message " + synCtx.getMessageID() +
-						                    " was served from the cache : " + cacheKey);
-					}
-					// send the response back if there is not onCacheHit is specified
-					synCtx.setTo(null);
-					Axis2Sender.sendBack(synCtx);
+		// the envelope is not built here, it will be parsed only if a mediator in the onCacheHit sequence reads it,
+		// otherwise the cached bytes are streamed back when it is serialized
+		SOAPEnvelope omSOAPEnv = createCachedEnvelope(cachedResponse, synLog);
+		if (omSOAPEnv == null) {
+			return false;
+		}
+
+		// get the response from the cache and attach to the context and change the
+		// direction of the message
+		if (synLog.isTraceOrDebugEnabled()) {
+			synLog.traceOrDebug("Cache-hit for message ID : " + synCtx.getMessageID());
+		}
+		cachedResponse.setInUse(true);
+		// mark as a response and replace envelope from cache
+		synCtx.setResponse(true);
+		opCtx.setProperty(CachingConstants.CACHED_OBJECT, cachedResponse);
 
+		try {
+			if (msgCtx.isDoingREST()) {
+				if ((headerProperties = cachedResponse.getHeaderProperties()) != null) {
+
+					msgCtx.removeProperty("NO_ENTITY_BODY");
+					msgCtx.removeProperty(Constants.Configuration.CONTENT_TYPE);
+					msgCtx.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headerProperties);
+					msgCtx.setProperty(Constants.Configuration.MESSAGE_TYPE,
+					                   headerProperties.get(Constants.Configuration.MESSAGE_TYPE));
+					synCtx.setEnvelope(omSOAPEnv);
 				}
-				// stop any following mediators from executing
-				return false;
 
 			} else {
-				cachedResponse.reincarnate(timeout);
-				if (synLog.isTraceOrDebugEnabled()) {
-					synLog.traceOrDebug("Existing cached response has expired. Resetting cache element");
-				}
-				getMediatorCache().put(hash.getRequestHash(), cachedResponse);
-				opCtx.setProperty(CachingConstants.CACHED_OBJECT, cachedResponse);
-				Replicator.replicate(opCtx);
+				synCtx.setEnvelope(omSOAPEnv);
 			}
-		} else {
-			cacheNewResponse(msgCtx, hash);
+		} catch (AxisFault axisFault) {
+			handleException("Error setting response envelope from cache : "
+			                + cacheKey, synCtx);
 		}
 
+		// take specified action on cache hit
+		if (onCacheHitSequence != null) {
+			// if there is an onCacheHit use that for the mediation
+			synLog.traceOrDebug("Delegating message to the onCachingHit "
+			                    + "Anonymous sequence");
+			ContinuationStackManager.addReliantContinuationState(synCtx, 0, getMediatorPosition());
+			if (onCacheHitSequence.mediate(synCtx)) {
+				ContinuationStackManager.removeReliantContinuationState(synCtx);
+			}
+
+		} else if (onCacheHitRef != null) {
+			if (synLog.isTraceOrDebugEnabled()) {
+				synLog.traceOrDebug("Delegating message to the onCachingHit " +
+				                    "sequence : " + onCacheHitRef);
+			}
+			ContinuationStackManager.updateSeqContinuationState(synCtx, getMediatorPosition());
+			synCtx.getSequence(onCacheHitRef).mediate(synCtx);
+
+		} else {
+
+			if (synLog.isTraceOrDebugEnabled()) {
+				synLog.traceOrDebug("Request message " + synCtx.getMessageID() +
+				                    " was served from the cache : " + cacheKey);
+			}
+			// send the response back if there is not onCacheHit is specified
+			synCtx.setTo(null);
+			Axis2Sender.sendBack(synCtx);
+
+		}
 		return true;
 	}
 
+	/**
+	 * Creates the deferred envelope of the cached response. A deferred envelope is parsed only when it is read or
+	 * sent back, so the cached bytes are checked to be well formed the first time the response is served, while the
+	 * request can still be handled as a cache miss. A response which fails the check is evicted.
+	 *
+	 * @param cachedResponse cached response
+	 * @param synLog         the Synapse log to use
+	 * @return envelope over the cached bytes, or null if they are not a well formed envelope
+	 */
+	SOAPEnvelope createCachedEnvelope(CachableResponse cachedResponse, SynapseLog synLog) {
+		byte[] responseEnvelope = cachedResponse.getResponseEnvelope();
+		try {
+			if (!cachedResponse.isEnvelopeVerified() && !SOAPMessageHelper.isWellFormed(responseEnvelope)) {
+				throw new OMException("The cached envelope is not well formed");
+			}
+			SOAPEnvelope envelope = SOAPMessageHelper.createDeferredSOAPEnvelope(responseEnvelope);
+			cachedResponse.setEnvelopeVerified(true);
+			return envelope;
+		} catch (OMException e) {
+			synLog.auditWarn("Evicting the corrupt response cached for the request hash : " +
+			                 cachedResponse.getRequestHash() + " in the cache : " + cacheKey + ", " + e.getMessage());
+			removeResponse(cachedResponse);
+			return null;
+		}
+	}
+
+	/**
+	 * Coalesces a cache miss with the request of the same hash which is already in flight to the backend. If there
+	 * is no request in flight this message becomes the leader and continues to the backend. Otherwise the expired
+	 * response is served if serving stale responses is enabled, or the message is parked until the leader's response
+	 * is collected or the single flight timeout elapses.
+	 *
+	 * @param synCtx         incoming request message
+	 * @param synLog         the Synapse log to use
+	 * @param requestHash    hash of the request
+	 * @param cachedResponse response found in the cache for the request hash, may be null
+	 * @return true if the message was served or parked, false if it should continue to the backend
+	 */
+	private boolean coalesceRequest(MessageContext synCtx, SynapseLog synLog, String requestHash,
+	                                CachableResponse cachedResponse) {
+
+		CachableResponse staleResponse = null;
+		if (serveStale && cachedResponse != null && cachedResponse.getResponseEnvelope() != null) {
+			// the cached response is reset when the leader is sent to the backend, hence keep a copy to serve
+			staleResponse = copyResponse(cachedResponse);
+		}
+
+		RequestCoalescer.InFlightRequest newRequest = new RequestCoalescer.InFlightRequest(requestHash, staleResponse);
+		RequestCoalescer.InFlightRequest inFlightRequest = requestCoalescer.lead(newRequest, singleFlightTimeout);
+		if (inFlightRequest == null) {
+			if (synLog.isTraceOrDebugEnabled()) {
+				synLog.traceOrDebug("Request message " + synCtx.getMessageID() + " is in flight for the request " +
+				                    "hash : " + requestHash);
+			}
+			// the collector completes the request in flight of this mediator with the response of the leader
+			synCtx.setProperty(CachingConstants.REQUEST_COALESCER, requestCoalescer);
+			// release the waiting requests at once if the leader faults instead of bringing back a response, the
+			// collector removes the fault handler when the response is brought back
+			InFlightRequestFaultHandler faultHandler =
+					new InFlightRequestFaultHandler(requestCoalescer, newRequest, synCtx.getFaultStack());
+			synCtx.setProperty(CachingConstants.IN_FLIGHT_FAULT_HANDLER, faultHandler);
+			synCtx.pushFaultHandler(faultHandler);
+			return false;
+		}
+
+		if (inFlightRequest.getStaleResponse() != null) {
+			if (synLog.isTraceOrDebugEnabled()) {
+				synLog.traceOrDebug("Serving the expired response for message ID : " + synCtx.getMessageID() +
+				                    " while it is being refreshed");
+			}
+			if (serveCachedResponse(synCtx, synLog, inFlightRequest.getStaleResponse())) {
+				return true;
+			}
+		}
+
+		ContinuationStackManager.updateSeqContinuationState(synCtx, getMediatorPosition());
+		final MessageContext parkedCtx = synCtx;
+		if (inFlightRequest.park(synCtx.getEnvironment().getExecutorService(), new RequestCoalescer.Waiter() {
+			@Override
+			public void release(CachableResponse response) {
+				releaseParkedMessage(parkedCtx, response);
+			}
+		})) {
+			if (synLog.isTraceOrDebugEnabled()) {
+				synLog.traceOrDebug("Request message " + synCtx.getMessageID() + " is waiting for the request " +
+				                    "in flight for the request hash : " + requestHash);
+			}
+			return true;
+		}
+
+		// the request in flight completed in the meantime, check the cache again
+		CachableResponse filledResponse = getResponse(requestHash);
+		return filledResponse != null && filledResponse.getResponseEnvelope() != null &&
+		       !filledResponse.isExpired() && serveCachedResponse(synCtx, synLog, filledResponse);
+	}
+
+	/**
+	 * Releases a message parked on a request in flight. The message is served from the collected response if there
+	 * is one, otherwise the mediation continues from the mediator following this cache mediator.
+	 *
+	 * @param synCtx   parked message
+	 * @param response collected response or null if the response was not collected within the single flight timeout
+	 */
+	private void releaseParkedMessage(MessageContext synCtx, CachableResponse response) {
+
+		SynapseLog synLog = getLog(synCtx);
+		String requestHash = (String) synCtx.getProperty(CachingConstants.REQUEST_HASH);
+		if (response == null || response.getResponseEnvelope() == null) {
+			response = getResponse(requestHash);
+		}
+		if (response != null && response.getResponseEnvelope() != null && !response.isExpired()) {
+			if (serveCachedResponse(synCtx, synLog, response)) {
+				return;
+			}
+			// the corrupt response was evicted
+			response = null;
+		}
+
+		if (synLog.isTraceOrDebugEnabled()) {
+			synLog.traceOrDebug("Response for the request hash : " + requestHash + " was not collected, message " +
+			                    synCtx.getMessageID() + " continues to the backend");
+		}
+		org.apache.axis2.context.MessageContext msgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext();
+		try {
+			if (response != null) {
+				msgCtx.getOperationContext().setProperty(CachingConstants.CACHED_OBJECT, response);
+			} else {
+				cacheNewResponse(msgCtx, new RequestHash(requestHash));
+			}
+		} catch (ClusteringFault clusteringFault) {
+			synLog.traceOrDebug("Unable to replicate Cache mediator state among the cluster");
+		}
+		continueMediation(synCtx);
+	}
+
+	/**
+	 * Continues the mediation of a released message from the continuation state stack, in the same way the
+	 * SynapseCallbackReceiver continues the mediation of the sequence which sent the request.
+	 *
+	 * @param synCtx released message
+	 */
+	private void continueMediation(MessageContext synCtx) {
+		boolean result;
+		do {
+			SeqContinuationState seqContinuationState =
+					(SeqContinuationState) ContinuationStackManager.peakContinuationStateStack(synCtx);
+			if (seqContinuationState == null) {
+				break;
+			}
+			SequenceMediator sequenceMediator = ContinuationStackManager.retrieveSequence(synCtx,
+			                                                                               seqContinuationState);
+			result = sequenceMediator.mediate(synCtx, seqContinuationState);
+		} while (result && !synCtx.getContinuationStateStack().isEmpty());
+	}
+
+	/**
+	 * Fault handler pushed for the leader of a request in flight. If the leader faults, e.g. the backend can not be
+	 * reached or does not respond in time, the request in flight is discarded so that the waiting requests are
+	 * released at once, and the fault is handed over to the next fault handler as if this one was not there. A
+	 * sequence pops only its own onError handler from the top of the fault stack, so this handler is removed from the
+	 * fault stack of the leader when its response is collected, wherever it is in the stack by then.
+	 */
+	private static class InFlightRequestFaultHandler extends FaultHandler {
+
+		private final RequestCoalescer requestCoalescer;
+
+		private final RequestCoalescer.InFlightRequest inFlightRequest;
+
+		private final Stack faultStack;
+
+		private InFlightRequestFaultHandler(RequestCoalescer requestCoalescer,
+		                                    RequestCoalescer.InFlightRequest inFlightRequest, Stack faultStack) {
+			this.requestCoalescer = requestCoalescer;
+			this.inFlightRequest = inFlightRequest;
+			this.faultStack = faultStack;
+		}
+
+		/**
+		 * Removes this fault handler from the fault stack of the leader.
+		 */
+		void remove() {
+			if (faultStack != null) {
+				faultStack.remove(this);
+			}
+		}
+
+		@Override
+		public void onFault(MessageContext synCtx) {
+			requestCoalescer.discard(inFlightRequest);
+			Stack faultStack = synCtx.getFaultStack();
+			if (faultStack != null && !faultStack.isEmpty()) {
+				((FaultHandler) faultStack.pop()).handleFault(synCtx);
+			}
+		}
+	}
+
+	/**
+	 * Creates a copy of the cached response which is not affected when the original is reincarnated.
+	 *
+	 * @param response cached response to be copied
+	 * @return copy of the response
+	 */
+	private CachableResponse copyResponse(CachableResponse response) {
+		CachableResponse copy = new CachableResponse();
+		copy.setRequestHash(response.getRequestHash());
+		copy.setResponseEnvelope(response.getResponseEnvelope());
+		copy.setHeaderProperties(response.getHeaderProperties());
+		copy.setSOAP11(response.isSOAP11());
+		copy.setTimeout(response.getTimeout());
+		copy.setExpireTimeMillis(response.getExpireTimeMillis());
+		return copy;
+	}
+
 	/**
 	 * Caches the CachableResponse object with currently available attributes against the requestHash in Cache<String,
 	 * CachableResponse>
@@ -450,11 +806,78 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		CachableResponse response = new CachableResponse();
 		response.setRequestHash(requestHash.getRequestHash());
 		response.setTimeout(timeout);
-		getMediatorCache().put(requestHash.getRequestHash(), response);
+		putResponse(requestHash.getRequestHash(), response);
 		opCtx.setProperty(CachingConstants.CACHED_OBJECT, response);
 		Replicator.replicate(opCtx);
 	}
 
+	/**
+	 * Looks up the cached response for the request hash from the tiered store of this mediator if it has one, or
+	 * from the mediator cache otherwise
+	 *
+	 * @param requestHash hash of the request
+	 * @return cached response or null if not found
+	 */
+	private CachableResponse getResponse(String requestHash) {
+		if (responseStore != null) {
+			return responseStore.get(requestHash);
+		}
+		return getMediatorCache().get(requestHash);
+	}
+
+	/**
+	 * Stores the response against the request hash in the tiered store of this mediator if it has one, or else in
+	 * the tiered store the response was taken from, which is how a collector stores the response in the store of the
+	 * mediator which cached the request. Other responses are stored in the mediator cache.
+	 *
+	 * @param requestHash hash of the request
+	 * @param response    response to be cached
+	 */
+	private void putResponse(String requestHash, CachableResponse response) {
+		TieredResponseStore store = responseStore != null ? responseStore : response.getResponseStore();
+		if (store != null) {
+			store.put(requestHash, response);
+		} else {
+			getMediatorCache().put(requestHash, response);
+		}
+	}
+
+	/**
+	 * Copies the transport headers of the response to be cached. The Content-Length header is not copied, since the
+	 * cached envelope is the mediated one and the received Content-Length may not match it.
+	 *
+	 * @param headers     transport headers of the response
+	 * @param messageType message type of the response
+	 * @return header properties to be cached with the response
+	 */
+	static Map<String, Object> getHeaderProperties(Map<String, String> headers, String messageType) {
+		Map<String, Object> headerProperties = new HashMap<String, Object>();
+		//Individually copying All TRANSPORT_HEADERS to headerProperties Map instead putting whole
+		//TRANSPORT_HEADERS map as single Key/Value pair to fix hazelcast serialization issue.
+		for (Map.Entry<String, String> entry : headers.entrySet()) {
+			if (!HTTPConstants.HEADER_CONTENT_LENGTH.equalsIgnoreCase(entry.getKey())) {
+				headerProperties.put(entry.getKey(), entry.getValue());
+			}
+		}
+		headerProperties.put(Constants.Configuration.MESSAGE_TYPE, messageType);
+		return headerProperties;
+	}
+
+	/**
+	 * Removes the cached response from the tiered store of this mediator if it has one, or else from the tiered
+	 * store the response was taken from, or from the mediator cache.
+	 *
+	 * @param response cached response to be removed
+	 */
+	private void removeResponse(CachableResponse response) {
+		TieredResponseStore store = responseStore != null ? responseStore : response.getResponseStore();
+		if (store != null) {
+			store.remove(response.getRequestHash());
+		} else {
+			getMediatorCache().remove(response.getRequestHash());
+		}
+	}
+
 	/**
 	 * Exposes the whole mediator cache through jmx MBean
 	 *
@@ -524,6 +947,15 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		}
 	}
 
+	/**
+	 * Gives the two tier response stores of the initialized cache mediators configured with the disk implementation
+	 *
+	 * @return tiered response stores
+	 */
+	public static Collection<TieredResponseStore> getResponseStores() {
+		return Collections.unmodifiableSet(responseStores);
+	}
+
 	/**
 	 * This methods gives the ID of the cache configuration.
 	 *
@@ -635,6 +1067,24 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		this.diskCacheSize = diskCacheSize;
 	}
 
+	/**
+	 * This method gives the maximum number of bytes of the messages to be cached in disk.
+	 *
+	 * @return disk cache size in bytes.
+	 */
+	public long getDiskCacheMaxBytes() {
+		return diskCacheMaxBytes;
+	}
+
+	/**
+	 * This method sets the maximum number of bytes of the messages to be cached in disk.
+	 *
+	 * @param diskCacheMaxBytes value(number of bytes) to be set as the maximum disk cache size.
+	 */
+	public void setDiskCacheMaxBytes(long diskCacheMaxBytes) {
+		this.diskCacheMaxBytes = diskCacheMaxBytes;
+	}
+
 	/**
 	 * This method gives the timeout period in milliseconds.
 	 *
@@ -707,6 +1157,60 @@ public class CacheMediator extends AbstractMediator implements ManagedLifecycle,
 		this.maxMessageSize = maxMessageSize;
 	}
 
+	/**
+	 * This method gives whether the concurrent misses of the same request are coalesced.
+	 *
+	 * @return true if single flight is enabled.
+	 */
+	public boolean isSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * This method sets whether the concurrent misses of the same request are coalesced.
+	 *
+	 * @param singleFlight boolean value to be set as single flight.
+	 */
+	public void setSingleFlight(boolean singleFlight) {
+		this.singleFlight = singleFlight;
+	}
+
+	/**
+	 * This method gives the maximum time a coalesced request waits for the request in flight.
+	 *
+	 * @return single flight timeout in milliseconds.
+	 */
+	public long getSingleFlightTimeout() {
+		return singleFlightTimeout;
+	}
+
+	/**
+	 * This method sets the maximum time a coalesced request waits for the request in flight.
+	 *
+	 * @param singleFlightTimeout single flight timeout in milliseconds to be set.
+	 */
+	public void setSingleFlightTimeout(long singleFlightTimeout) {
+		this.singleFlightTimeout = singleFlightTimeout;
+	}
+
+	/**
+	 * This method gives whether the expired response is served while it is being refreshed.
+	 *
+	 * @return true if stale responses are served.
+	 */
+	public boolean isServeStale() {
+		return serveStale;
+	}
+
+	/**
+	 * This method sets whether the expired response is served while it is being refreshed.
+	 *
+	 * @param serveStale boolean value to be set as serve stale.
+	 */
+	public void setServeStale(boolean serveStale) {
+		this.serveStale = serveStale;
+	}
+
 	@Override
 	public Mediator getInlineSequence(SynapseConfiguration synCfg, int inlinedSeqIdentifier) {
 		if (inlinedSeqIdentifier == 0) {
@@ -31,6 +31,12 @@ public final class CachingConstants {
 	/** String key to store the the request hash in the message contetx */
 	public static final String REQUEST_HASH = "requestHash";
 
+	/** String key to store the request coalescer of the leader of a request in flight in the message context */
+	public static final String REQUEST_COALESCER = "cacheRequestCoalescer";
+
+	/** String key to store the fault handler pushed for the leader of a request in flight in the message context */
+	public static final String IN_FLIGHT_FAULT_HANDLER = "cacheInFlightFaultHandler";
+
 	/** String key to store the cached response in the message context */
 	public static final String CACHED_OBJECT = "CachableResponse";
 
@@ -61,6 +67,12 @@ public final class CachingConstants {
 	/** Default cache size (in-memory) */
 	public static final int DEFAULT_CACHE_SIZE = 1000;
 
+	/** Default maximum number of bytes of the responses cached off-heap (disk implementation) */
+	public static final long DEFAULT_DISK_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+	/** Default time in milliseconds a coalesced request waits for the request in flight */
+	public static final long DEFAULT_SINGLE_FLIGHT_TIMEOUT = 10000L;
+
 	/** Primary cache name */
 	public static final String MEDIATOR_CACHE = "mediatorCache";
 
@@ -77,12 +77,96 @@ public class MediatorCacheInvalidator implements MediatorCacheInvalidatorMBean {
 
 			Caching.getCacheManager(CachingConstants.CACHE_MANAGER).getCache(CachingConstants.MEDIATOR_CACHE)
 			       .removeAll();
+			for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+				responseStore.clear();
+			}
 			log.info("Total mediator cache has been invalidated.");
 		} catch (CacheException cacheException) {
 			throw new CacheException("Error occurred while invalidating mediator cache. " + cacheException);
 		}
 	}
 
+	@Override
+	public long getHeapTierHits() {
+		long hits = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			hits += responseStore.getHeapStatistics().getHits();
+		}
+		return hits;
+	}
+
+	@Override
+	public long getHeapTierMisses() {
+		long misses = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			misses += responseStore.getHeapStatistics().getMisses();
+		}
+		return misses;
+	}
+
+	@Override
+	public long getHeapTierEvictions() {
+		long evictions = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			evictions += responseStore.getHeapStatistics().getEvictions();
+		}
+		return evictions;
+	}
+
+	@Override
+	public int getHeapTierSize() {
+		int size = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			size += responseStore.getHeapSize();
+		}
+		return size;
+	}
+
+	@Override
+	public long getOffHeapTierHits() {
+		long hits = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			hits += responseStore.getOffHeapStatistics().getHits();
+		}
+		return hits;
+	}
+
+	@Override
+	public long getOffHeapTierMisses() {
+		long misses = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			misses += responseStore.getOffHeapStatistics().getMisses();
+		}
+		return misses;
+	}
+
+	@Override
+	public long getOffHeapTierEvictions() {
+		long evictions = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			evictions += responseStore.getOffHeapStatistics().getEvictions();
+		}
+		return evictions;
+	}
+
+	@Override
+	public int getOffHeapTierSize() {
+		int size = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			size += responseStore.getOffHeapSize();
+		}
+		return size;
+	}
+
+	@Override
+	public long getOffHeapTierUsedBytes() {
+		long usedBytes = 0;
+		for (TieredResponseStore responseStore : CacheMediator.getResponseStores()) {
+			usedBytes += responseStore.getOffHeapUsedBytes();
+		}
+		return usedBytes;
+	}
+
 	/**
 	 * This method gives the tenant domain.
 	 *
@@ -28,4 +28,49 @@ public interface MediatorCacheInvalidatorMBean {
 	 */
 	void invalidateMediatorCache();
 
+	/**
+	 * @return number of hits in the heap tier of the tiered response stores
+	 */
+	long getHeapTierHits();
+
+	/**
+	 * @return number of misses in the heap tier of the tiered response stores
+	 */
+	long getHeapTierMisses();
+
+	/**
+	 * @return number of responses evicted from the heap tier of the tiered response stores
+	 */
+	long getHeapTierEvictions();
+
+	/**
+	 * @return number of responses in the heap tier of the tiered response stores
+	 */
+	int getHeapTierSize();
+
+	/**
+	 * @return number of hits in the off-heap tier of the tiered response stores
+	 */
+	long getOffHeapTierHits();
+
+	/**
+	 * @return number of misses in the off-heap tier of the tiered response stores
+	 */
+	long getOffHeapTierMisses();
+
+	/**
+	 * @return number of responses evicted from the off-heap tier of the tiered response stores
+	 */
+	long getOffHeapTierEvictions();
+
+	/**
+	 * @return number of responses in the off-heap tier of the tiered response stores
+	 */
+	int getOffHeapTierSize();
+
+	/**
+	 * @return number of bytes taken by the responses in the off-heap tier of the tiered response stores
+	 */
+	long getOffHeapTierUsedBytes();
+
 }
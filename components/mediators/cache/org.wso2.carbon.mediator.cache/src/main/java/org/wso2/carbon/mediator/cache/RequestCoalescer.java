@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the concurrent cache misses of the same request hash (single flight). The first miss of a request hash
+ * becomes the leader and is sent to the backend, while the following misses of the same request hash are parked
+ * until the request in flight is completed with the response of the leader. Parked messages do not hold a worker
+ * thread; they are released on the executor they were parked with either with the collected response or, when the
+ * request in flight is discarded, to continue the mediation on their own.
+ *
+ * A request in flight is discarded when the leader fails without a cacheable response, or when the wait time
+ * elapses, whichever comes first.
+ */
+public class RequestCoalescer {
+
+	/**
+	 * Log object to use when logging is required in this class.
+	 */
+	private static final Log log = LogFactory.getLog(RequestCoalescer.class);
+
+	/**
+	 * Requests in flight to the backend indexed by the request hash.
+	 */
+	private final ConcurrentMap<String, InFlightRequest> inFlightRequests =
+			new ConcurrentHashMap<String, InFlightRequest>();
+
+	/**
+	 * Timer used to discard the requests in flight once the maximum wait time elapses.
+	 */
+	private final ScheduledThreadPoolExecutor timer;
+
+	public RequestCoalescer() {
+		this(new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "cache-mediator-coalescer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+	}
+
+	RequestCoalescer(ScheduledThreadPoolExecutor timer) {
+		this.timer = timer;
+		// the wait of a completed request in flight is cancelled, do not keep it queued until it elapses
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Registers the request in flight for its request hash if there is none, in which case the caller becomes its
+	 * leader.
+	 *
+	 * @param inFlightRequest request in flight to be registered
+	 * @param maxWaitTime     time in milliseconds after which the request in flight is discarded and the parked
+	 *                        messages are released
+	 * @return null if the caller became the leader, or the existing request in flight
+	 */
+	public InFlightRequest lead(final InFlightRequest inFlightRequest, long maxWaitTime) {
+		InFlightRequest existing = inFlightRequests.putIfAbsent(inFlightRequest.requestHash, inFlightRequest);
+		if (existing != null) {
+			return existing;
+		}
+		inFlightRequest.setTimeout(timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (inFlightRequests.remove(inFlightRequest.requestHash, inFlightRequest)) {
+					if (log.isDebugEnabled()) {
+						log.debug("Response for the request hash : " + inFlightRequest.requestHash + " was not " +
+						          "collected within the maximum wait time, releasing the parked messages");
+					}
+					inFlightRequest.release(null);
+				}
+			}
+		}, maxWaitTime, TimeUnit.MILLISECONDS));
+		return null;
+	}
+
+	/**
+	 * Completes the request in flight for the request hash with the collected response, releasing the parked
+	 * messages.
+	 *
+	 * @param requestHash hash of the request
+	 * @param response    collected response
+	 */
+	public void complete(String requestHash, CachableResponse response) {
+		InFlightRequest inFlightRequest = inFlightRequests.remove(requestHash);
+		if (inFlightRequest != null) {
+			inFlightRequest.release(response);
+		}
+	}
+
+	/**
+	 * Discards the request in flight for the request hash without a response, releasing the parked messages to
+	 * continue the mediation on their own.
+	 *
+	 * @param requestHash hash of the request
+	 */
+	public void discard(String requestHash) {
+		if (requestHash == null) {
+			return;
+		}
+		InFlightRequest inFlightRequest = inFlightRequests.remove(requestHash);
+		if (inFlightRequest != null) {
+			inFlightRequest.release(null);
+		}
+	}
+
+	/**
+	 * Discards the given request in flight if it is still registered, so that a late failure of a leader does not
+	 * discard a later request in flight of the same request hash.
+	 *
+	 * @param inFlightRequest request in flight
+	 */
+	public void discard(InFlightRequest inFlightRequest) {
+		if (inFlightRequests.remove(inFlightRequest.requestHash, inFlightRequest)) {
+			inFlightRequest.release(null);
+		}
+	}
+
+	/**
+	 * Discards all the requests in flight, releasing the parked messages to continue the mediation on their own, and
+	 * stops the timer. Called when the cache mediator owning this coalescer is destroyed.
+	 */
+	public void shutdown() {
+		for (InFlightRequest inFlightRequest : inFlightRequests.values()) {
+			discard(inFlightRequest);
+		}
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Callback used to release a parked message.
+	 */
+	public interface Waiter {
+
+		/**
+		 * Releases the parked message.
+		 *
+		 * @param response collected response, or null if the request in flight was discarded
+		 */
+		void release(CachableResponse response);
+	}
+
+	/**
+	 * A request in flight to the backend together with the messages parked on it.
+	 */
+	public static class InFlightRequest {
+
+		private final String requestHash;
+
+		private final CachableResponse staleResponse;
+
+		private final List<Executor> executors = new ArrayList<Executor>();
+
+		private final List<Waiter> waiters = new ArrayList<Waiter>();
+
+		private ScheduledFuture<?> timeout;
+
+		private boolean released = false;
+
+		/**
+		 * @param requestHash   hash of the request
+		 * @param staleResponse expired response of the request hash which can be served while the leader is in
+		 *                      flight, may be null
+		 */
+		public InFlightRequest(String requestHash, CachableResponse staleResponse) {
+			this.requestHash = requestHash;
+			this.staleResponse = staleResponse;
+		}
+
+		/**
+		 * This method gives the hash of the request in flight.
+		 *
+		 * @return request hash
+		 */
+		public String getRequestHash() {
+			return requestHash;
+		}
+
+		/**
+		 * This method gives the expired response which was in the cache when the leader was sent to the backend.
+		 *
+		 * @return stale response or null if there was none
+		 */
+		public CachableResponse getStaleResponse() {
+			return staleResponse;
+		}
+
+		/**
+		 * Parks a message until the request in flight is completed or discarded.
+		 *
+		 * @param executor executor to release the message on
+		 * @param waiter   callback to release the message
+		 * @return false if the request in flight was already released, in which case the message is not parked
+		 */
+		public synchronized boolean park(Executor executor, Waiter waiter) {
+			if (released) {
+				return false;
+			}
+			executors.add(executor);
+			waiters.add(waiter);
+			return true;
+		}
+
+		private synchronized void setTimeout(ScheduledFuture<?> timeout) {
+			if (released) {
+				timeout.cancel(false);
+			} else {
+				this.timeout = timeout;
+			}
+		}
+
+		private void release(final CachableResponse response) {
+			List<Executor> releaseExecutors;
+			List<Waiter> callbacks;
+			synchronized (this) {
+				released = true;
+				if (timeout != null) {
+					timeout.cancel(false);
+					timeout = null;
+				}
+				releaseExecutors = new ArrayList<Executor>(executors);
+				callbacks = new ArrayList<Waiter>(waiters);
+				executors.clear();
+				waiters.clear();
+			}
+			for (int i = 0; i < callbacks.size(); i++) {
+				final Waiter waiter = callbacks.get(i);
+				releaseExecutors.get(i).execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							waiter.release(response);
+						} catch (Exception e) {
+							log.error("Error while releasing a message parked on the cache for the request hash : " +
+							          requestHash, e);
+						}
+					}
+				});
+			}
+		}
+	}
+}
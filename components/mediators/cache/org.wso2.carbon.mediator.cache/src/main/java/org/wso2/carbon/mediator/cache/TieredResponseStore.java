@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two tier store for the cached responses of a cache mediator. The hot responses are kept in a bounded heap tier
+ * which is ordered by access, and the responses evicted from the heap tier are demoted to an off-heap tier where the
+ * response envelope is kept in a direct buffer outside of the java heap. A hit in the off-heap tier promotes the
+ * response back to the heap tier.
+ *
+ * The heap tier is split into segments by the request hash, each one an LRU of its own, so that concurrent hits on
+ * different requests do not wait on a single lock. The off-heap tier is a single direct buffer of a fixed number of
+ * bytes, allocated on the first demotion and reused for the lifetime of the store. The buffer is divided into
+ * blocks and a demoted envelope takes as many blocks as it needs, so the tier never holds more than its byte
+ * capacity and demotion does not allocate direct memory. The least recently used responses are evicted to make
+ * room, and an envelope larger than the whole tier is not demoted.
+ *
+ * The store belongs to a single cache mediator, which creates it when it is configured with the disk
+ * implementation.
+ */
+public class TieredResponseStore {
+
+	/**
+	 * Log object to use when logging is required in this class.
+	 */
+	private static final Log log = LogFactory.getLog(TieredResponseStore.class);
+
+	/**
+	 * Size of the blocks the off-heap tier is divided into.
+	 */
+	static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * Maximum number of heap segments.
+	 */
+	private static final int MAX_SEGMENTS = 16;
+
+	/**
+	 * Minimum number of responses per heap segment, small heap tiers are not split.
+	 */
+	private static final int MIN_SEGMENT_CAPACITY = 64;
+
+	private final HeapSegment[] heapSegments;
+
+	private final OffHeapTier offHeapTier;
+
+	private final TierStatistics heapStatistics = new TierStatistics();
+
+	private final TierStatistics offHeapStatistics = new TierStatistics();
+
+	/**
+	 * @param heapCapacity     maximum number of responses in the heap tier
+	 * @param offHeapCapacity  maximum number of responses in the off-heap tier, 0 to disable the off-heap tier
+	 * @param offHeapSizeBytes maximum number of bytes of the response envelopes in the off-heap tier
+	 */
+	public TieredResponseStore(int heapCapacity, int offHeapCapacity, long offHeapSizeBytes) {
+		int segmentCount = 1;
+		while (segmentCount < MAX_SEGMENTS && heapCapacity / (segmentCount * 2) >= MIN_SEGMENT_CAPACITY) {
+			segmentCount *= 2;
+		}
+		heapSegments = new HeapSegment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			// spread the remainder so that the segment capacities add up to the heap capacity
+			heapSegments[i] = new HeapSegment(heapCapacity / segmentCount + (i < heapCapacity % segmentCount ? 1 : 0));
+		}
+
+		int blockCount = (int) Math.min(Integer.MAX_VALUE / BLOCK_SIZE, Math.max(0, offHeapSizeBytes / BLOCK_SIZE));
+		offHeapTier = offHeapCapacity > 0 && blockCount > 0 ? new OffHeapTier(offHeapCapacity, blockCount) : null;
+		if (log.isDebugEnabled()) {
+			log.debug("Tiered response store created with heap capacity : " + heapCapacity + " in " + segmentCount +
+			          " segments, off-heap capacity : " + offHeapCapacity + " and off-heap size : " +
+			          (long) blockCount * BLOCK_SIZE + " bytes");
+		}
+	}
+
+	/**
+	 * Gives the response for the given request hash looking up the heap tier first and then the off-heap tier. An
+	 * off-heap hit is promoted back to the heap tier.
+	 *
+	 * @param requestHash hash of the request
+	 * @return the cached response or null if there is no response for the request hash
+	 */
+	public CachableResponse get(String requestHash) {
+		CachableResponse response = getSegment(requestHash).get(requestHash);
+		if (response != null) {
+			heapStatistics.hits.incrementAndGet();
+			return response;
+		}
+		heapStatistics.misses.incrementAndGet();
+
+		response = offHeapTier != null ? offHeapTier.remove(requestHash) : null;
+		if (response == null) {
+			offHeapStatistics.misses.incrementAndGet();
+			return null;
+		}
+		offHeapStatistics.hits.incrementAndGet();
+		putInHeap(requestHash, response);
+		return response;
+	}
+
+	/**
+	 * Stores the response against the given request hash in the heap tier.
+	 *
+	 * @param requestHash hash of the request
+	 * @param response    response to be stored
+	 */
+	public void put(String requestHash, CachableResponse response) {
+		if (offHeapTier != null) {
+			offHeapTier.discard(requestHash);
+		}
+		putInHeap(requestHash, response);
+	}
+
+	/**
+	 * Removes the response of the given request hash from both tiers.
+	 *
+	 * @param requestHash hash of the request
+	 */
+	public void remove(String requestHash) {
+		getSegment(requestHash).remove(requestHash);
+		if (offHeapTier != null) {
+			offHeapTier.discard(requestHash);
+		}
+	}
+
+	/**
+	 * Removes all the responses from both tiers. The off-heap buffer is kept to be reused.
+	 */
+	public void clear() {
+		for (HeapSegment segment : heapSegments) {
+			segment.clear();
+		}
+		if (offHeapTier != null) {
+			offHeapTier.clear();
+		}
+	}
+
+	/**
+	 * This method gives the statistics of the heap tier.
+	 *
+	 * @return heap tier statistics
+	 */
+	public TierStatistics getHeapStatistics() {
+		return heapStatistics;
+	}
+
+	/**
+	 * This method gives the statistics of the off-heap tier.
+	 *
+	 * @return off-heap tier statistics
+	 */
+	public TierStatistics getOffHeapStatistics() {
+		return offHeapStatistics;
+	}
+
+	/**
+	 * This method gives the number of responses in the heap tier.
+	 *
+	 * @return heap tier size
+	 */
+	public int getHeapSize() {
+		int size = 0;
+		for (HeapSegment segment : heapSegments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * This method gives the number of responses in the off-heap tier.
+	 *
+	 * @return off-heap tier size
+	 */
+	public int getOffHeapSize() {
+		return offHeapTier != null ? offHeapTier.size() : 0;
+	}
+
+	/**
+	 * This method gives the number of bytes taken by the responses in the off-heap tier, in whole blocks.
+	 *
+	 * @return off-heap tier size in bytes
+	 */
+	public long getOffHeapUsedBytes() {
+		return offHeapTier != null ? offHeapTier.usedBytes() : 0;
+	}
+
+	private HeapSegment getSegment(String requestHash) {
+		int h = requestHash.hashCode();
+		h ^= (h >>> 16);
+		return heapSegments[h & (heapSegments.length - 1)];
+	}
+
+	private void putInHeap(String requestHash, CachableResponse response) {
+		response.setResponseStore(this);
+		Map.Entry<String, CachableResponse> evicted = getSegment(requestHash).put(requestHash, response);
+		if (evicted != null) {
+			heapStatistics.evictions.incrementAndGet();
+			demote(evicted.getKey(), evicted.getValue());
+		}
+	}
+
+	/**
+	 * Moves the response evicted from the heap tier to the off-heap tier. Responses which are not yet filled or
+	 * expired are dropped. The envelope is copied, so a response which is being served is not affected.
+	 */
+	private void demote(String requestHash, CachableResponse response) {
+		if (offHeapTier == null || response.getResponseEnvelope() == null || response.isExpired()) {
+			return;
+		}
+		offHeapStatistics.evictions.addAndGet(offHeapTier.store(requestHash, response));
+	}
+
+	/**
+	 * Hit, miss and eviction counters of a tier.
+	 */
+	public static class TierStatistics {
+
+		private final AtomicLong hits = new AtomicLong();
+
+		private final AtomicLong misses = new AtomicLong();
+
+		private final AtomicLong evictions = new AtomicLong();
+
+		public long getHits() {
+			return hits.get();
+		}
+
+		public long getMisses() {
+			return misses.get();
+		}
+
+		public long getEvictions() {
+			return evictions.get();
+		}
+	}
+
+	/**
+	 * A segment of the heap tier, an LRU of a fixed number of responses.
+	 */
+	private static class HeapSegment {
+
+		private final LinkedHashMap<String, CachableResponse> responses;
+
+		/**
+		 * Eldest entry removed by the last put, a put evicts at most one entry.
+		 */
+		private Map.Entry<String, CachableResponse> evicted;
+
+		HeapSegment(final int capacity) {
+			responses = new LinkedHashMap<String, CachableResponse>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachableResponse> eldest) {
+					if (size() > capacity) {
+						evicted = eldest;
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		synchronized CachableResponse get(String requestHash) {
+			return responses.get(requestHash);
+		}
+
+		/**
+		 * @return the entry evicted to make room for the response, or null
+		 */
+		synchronized Map.Entry<String, CachableResponse> put(String requestHash, CachableResponse response) {
+			responses.put(requestHash, response);
+			Map.Entry<String, CachableResponse> eldest = evicted;
+			evicted = null;
+			return eldest;
+		}
+
+		synchronized void remove(String requestHash) {
+			responses.remove(requestHash);
+		}
+
+		synchronized void clear() {
+			responses.clear();
+		}
+
+		synchronized int size() {
+			return responses.size();
+		}
+	}
+
+	/**
+	 * The off-heap tier, a direct buffer divided into blocks of {@link #BLOCK_SIZE} bytes. The envelope of a
+	 * response is written into free blocks, which need not be adjacent, and the blocks are freed when the response is
+	 * promoted or evicted. The small properties of the responses are kept in the heap.
+	 */
+	private static class OffHeapTier {
+
+		private final int maxResponses;
+
+		private final int blockCount;
+
+		private final LinkedHashMap<String, OffHeapResponse> responses =
+				new LinkedHashMap<String, OffHeapResponse>(16, 0.75f, true);
+
+		private final int[] freeBlocks;
+
+		private int freeBlockCount;
+
+		private ByteBuffer region;
+
+		OffHeapTier(int maxResponses, int blockCount) {
+			this.maxResponses = maxResponses;
+			this.blockCount = blockCount;
+			this.freeBlocks = new int[blockCount];
+			freeAllBlocks();
+		}
+
+		/**
+		 * Writes the envelope of the response into the tier, evicting the least recently used responses as needed
+		 *
+		 * @return number of responses evicted
+		 */
+		synchronized int store(String requestHash, CachableResponse response) {
+			byte[] envelope = response.getResponseEnvelope();
+			int blocksNeeded = (envelope.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			if (blocksNeeded > blockCount) {
+				if (log.isDebugEnabled()) {
+					log.debug("Response of " + envelope.length + " bytes for the request hash : " + requestHash +
+					          " is larger than the off-heap tier, it is not demoted");
+				}
+				return 0;
+			}
+			discard(requestHash);
+
+			int evictions = 0;
+			Iterator<OffHeapResponse> itr = responses.values().iterator();
+			while ((freeBlockCount < blocksNeeded || responses.size() >= maxResponses) && itr.hasNext()) {
+				OffHeapResponse eldest = itr.next();
+				itr.remove();
+				release(eldest);
+				evictions++;
+			}
+
+			if (region == null) {
+				region = ByteBuffer.allocateDirect(blockCount * BLOCK_SIZE);
+			}
+			int[] blocks = new int[blocksNeeded];
+			for (int i = 0; i < blocksNeeded; i++) {
+				int block = freeBlocks[--freeBlockCount];
+				int offset = i * BLOCK_SIZE;
+				region.clear();
+				region.position(block * BLOCK_SIZE);
+				region.put(envelope, offset, Math.min(BLOCK_SIZE, envelope.length - offset));
+				blocks[i] = block;
+			}
+			responses.put(requestHash, new OffHeapResponse(response, blocks));
+			return evictions;
+		}
+
+		/**
+		 * Removes the response and reads its envelope back into the heap
+		 *
+		 * @return the response, or null if the tier does not hold a response for the request hash
+		 */
+		synchronized CachableResponse remove(String requestHash) {
+			OffHeapResponse offHeapResponse = responses.remove(requestHash);
+			if (offHeapResponse == null) {
+				return null;
+			}
+			byte[] envelope = new byte[offHeapResponse.length];
+			int[] blocks = offHeapResponse.blocks;
+			for (int i = 0; i < blocks.length; i++) {
+				int offset = i * BLOCK_SIZE;
+				region.clear();
+				region.position(blocks[i] * BLOCK_SIZE);
+				region.get(envelope, offset, Math.min(BLOCK_SIZE, envelope.length - offset));
+			}
+			release(offHeapResponse);
+			return offHeapResponse.toCachableResponse(envelope);
+		}
+
+		synchronized void discard(String requestHash) {
+			OffHeapResponse offHeapResponse = responses.remove(requestHash);
+			if (offHeapResponse != null) {
+				release(offHeapResponse);
+			}
+		}
+
+		synchronized void clear() {
+			responses.clear();
+			freeAllBlocks();
+		}
+
+		synchronized int size() {
+			return responses.size();
+		}
+
+		synchronized long usedBytes() {
+			return (long) (blockCount - freeBlockCount) * BLOCK_SIZE;
+		}
+
+		private void release(OffHeapResponse offHeapResponse) {
+			for (int block : offHeapResponse.blocks) {
+				freeBlocks[freeBlockCount++] = block;
+			}
+		}
+
+		private void freeAllBlocks() {
+			for (int i = 0; i < blockCount; i++) {
+				// lowest blocks are handed out first
+				freeBlocks[i] = blockCount - 1 - i;
+			}
+			freeBlockCount = blockCount;
+		}
+	}
+
+	/**
+	 * Response kept in the off-heap tier, the blocks holding its envelope and the properties of the response.
+	 */
+	private static class OffHeapResponse {
+
+		private final int[] blocks;
+
+		private final int length;
+
+		private final String requestHash;
+
+		private final String responseHash;
+
+		private final long expireTimeMillis;
+
+		private final long timeout;
+
+		private final boolean isSOAP11;
+
+		private final Map<String, Object> headerProperties;
+
+		OffHeapResponse(CachableResponse response, int[] blocks) {
+			this.blocks = blocks;
+			length = response.getResponseEnvelope().length;
+			requestHash = response.getRequestHash();
+			responseHash = response.getResponseHash();
+			expireTimeMillis = response.getExpireTimeMillis();
+			timeout = response.getTimeout();
+			isSOAP11 = response.isSOAP11();
+			headerProperties = response.getHeaderProperties();
+		}
+
+		CachableResponse toCachableResponse(byte[] envelope) {
+			CachableResponse response = new CachableResponse();
+			response.setResponseEnvelope(envelope);
+			response.setRequestHash(requestHash);
+			response.setResponseHash(responseHash);
+			response.setExpireTimeMillis(expireTimeMillis);
+			response.setTimeout(timeout);
+			response.setSOAP11(isSOAP11);
+			response.setHeaderProperties(headerProperties);
+			return response;
+		}
+	}
+}
@@ -39,11 +39,12 @@ import java.util.Properties;
 *
 * <pre>
 * &lt;cache [id="string"] [hashGenerator="class"] [timeout="seconds"]
-*      [scope=(per-host | per-mediator)] collector=(true | false) [maxMessageSize="in-bytes"]&gt;
+*      [scope=(per-host | per-mediator)] collector=(true | false) [maxMessageSize="in-bytes"]
+*      [singleFlight=(true | false)] [singleFlightTimeout="in-milliseconds"] [serveStale=(true | false)]&gt;
 *   &lt;onCacheHit [sequence="key"]&gt;
 *     (mediator)+
 *   &lt;/onCacheHit&gt;?
-*   &lt;implementation type=(memory | disk) maxSize="int"/&gt;
+*   &lt;implementation type=(memory | disk) maxSize="int" [maxBytes="in-bytes"]/&gt;
 * &lt;/cache&gt;
 * </pre>
 */
@@ -74,6 +75,21 @@ public class CacheMediatorFactory extends AbstractMediatorFactory {
 	 */
 	private static final QName ATT_MAX_MSG_SIZE = new QName("maxMessageSize");
 
+	/**
+	 * QName of the single flight (request coalescing) flag
+	 */
+	private static final QName ATT_SINGLE_FLIGHT = new QName("singleFlight");
+
+	/**
+	 * QName of the maximum time a coalesced request waits for the request in flight
+	 */
+	private static final QName ATT_SINGLE_FLIGHT_TIMEOUT = new QName("singleFlightTimeout");
+
+	/**
+	 * QName of the flag to serve expired responses while they are refreshed
+	 */
+	private static final QName ATT_SERVE_STALE = new QName("serveStale");
+
 	/**
 	 * QName of the timeout
 	 */
@@ -99,6 +115,11 @@ public class CacheMediatorFactory extends AbstractMediatorFactory {
 	 */
 	private static final QName ATT_SIZE = new QName("maxSize");
 
+	/**
+	 * QName of the maximum number of bytes of the disk implementation
+	 */
+	private static final QName ATT_MAX_BYTES = new QName("maxBytes");
+
 	/**
 	 * QName of the onCacheHit mediator sequence reference
 	 */
@@ -188,6 +209,21 @@ public class CacheMediatorFactory extends AbstractMediatorFactory {
 				cache.setMaxMessageSize(Integer.parseInt(maxMessageSizeAttr.getAttributeValue()));
 			}
 
+			OMAttribute singleFlightAttr = elem.getAttribute(ATT_SINGLE_FLIGHT);
+			if (singleFlightAttr != null && "true".equals(singleFlightAttr.getAttributeValue())) {
+				cache.setSingleFlight(true);
+			}
+
+			OMAttribute singleFlightTimeoutAttr = elem.getAttribute(ATT_SINGLE_FLIGHT_TIMEOUT);
+			if (singleFlightTimeoutAttr != null && singleFlightTimeoutAttr.getAttributeValue() != null) {
+				cache.setSingleFlightTimeout(Long.parseLong(singleFlightTimeoutAttr.getAttributeValue()));
+			}
+
+			OMAttribute serveStaleAttr = elem.getAttribute(ATT_SERVE_STALE);
+			if (serveStaleAttr != null && "true".equals(serveStaleAttr.getAttributeValue())) {
+				cache.setServeStale(true);
+			}
+
 			OMElement onCacheHitElem = elem.getFirstChildWithName(ON_CACHE_HIT_Q);
 			if (onCacheHitElem != null) {
 				OMAttribute sequenceAttr = onCacheHitElem.getAttribute(ATT_SEQUENCE);
@@ -209,12 +245,15 @@ public class CacheMediatorFactory extends AbstractMediatorFactory {
 					    sizeAttr.getAttributeValue() != null) {
 						cache.setInMemoryCacheSize(Integer.parseInt(sizeAttr.getAttributeValue()));
 					} else if (CachingConstants.TYPE_DISK.equals(type)) {
-						log.warn("Disk based and hierarchical caching is not implemented yet");
 						if (sizeAttr != null && sizeAttr.getAttributeValue() != null) {
 							cache.setDiskCacheSize(Integer.parseInt(sizeAttr.getAttributeValue()));
 						} else {
 							cache.setDiskCacheSize(DEFAULT_DISK_CACHE_SIZE);
 						}
+						OMAttribute maxBytesAttr = implElem.getAttribute(ATT_MAX_BYTES);
+						if (maxBytesAttr != null && maxBytesAttr.getAttributeValue() != null) {
+							cache.setDiskCacheMaxBytes(Long.parseLong(maxBytesAttr.getAttributeValue()));
+						}
 					} else {
 						handleException("unknown implementation type for the Cache mediator");
 					}
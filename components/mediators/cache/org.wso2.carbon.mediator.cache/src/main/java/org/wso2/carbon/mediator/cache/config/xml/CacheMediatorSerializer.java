@@ -24,6 +24,7 @@ import org.apache.synapse.config.xml.AbstractMediatorSerializer;
 import org.apache.synapse.config.xml.MediatorSerializer;
 import org.apache.synapse.config.xml.MediatorSerializerFinder;
 import org.wso2.carbon.mediator.cache.CacheMediator;
+import org.wso2.carbon.mediator.cache.CachingConstants;
 
 import java.util.List;
 
@@ -32,11 +33,12 @@ import java.util.List;
  * <p/>
  * <pre>
  * &lt;cache [id="string"] [hashGenerator="class"] [timeout="seconds"]
- *      [scope=(per-host | per-mediator)] collector=(true | false) [maxMessageSize="in-bytes"]&gt;
+ *      [scope=(per-host | per-mediator)] collector=(true | false) [maxMessageSize="in-bytes"]
+ *      [singleFlight=(true | false)] [singleFlightTimeout="in-milliseconds"] [serveStale=(true | false)]&gt;
  *   &lt;onCacheHit [sequence="key"]&gt;
  *     (mediator)+
  *   &lt;/onCacheHit&gt;?
- *   &lt;implementation type=(memory | disk) maxSize="int"/&gt;
+ *   &lt;implementation type=(memory | disk) maxSize="int" [maxBytes="in-bytes"]/&gt;
  * &lt;/cache&gt;
  * </pre>
  */
@@ -82,6 +84,17 @@ public class CacheMediatorSerializer extends AbstractMediatorSerializer {
 						                      Integer.toString(mediator.getMaxMessageSize())));
 			}
 
+			if (mediator.isSingleFlight()) {
+				cache.addAttribute(fac.createOMAttribute("singleFlight", nullNS, "true"));
+				if (mediator.getSingleFlightTimeout() != CachingConstants.DEFAULT_SINGLE_FLIGHT_TIMEOUT) {
+					cache.addAttribute(fac.createOMAttribute("singleFlightTimeout", nullNS,
+					                                         Long.toString(mediator.getSingleFlightTimeout())));
+				}
+				if (mediator.isServeStale()) {
+					cache.addAttribute(fac.createOMAttribute("serveStale", nullNS, "true"));
+				}
+			}
+
 			if (mediator.getOnCacheHitRef() != null) {
 				OMElement onCacheHit = fac.createOMElement("onCacheHit", synNS);
 				onCacheHit.addAttribute(
@@ -107,6 +120,10 @@ public class CacheMediatorSerializer extends AbstractMediatorSerializer {
 				implElem.addAttribute(fac.createOMAttribute("type", nullNS, "disk"));
 				implElem.addAttribute(fac.createOMAttribute("maxSize", nullNS,
 				                                            Integer.toString(mediator.getDiskCacheSize())));
+				if (mediator.getDiskCacheMaxBytes() != CachingConstants.DEFAULT_DISK_CACHE_MAX_BYTES) {
+					implElem.addAttribute(fac.createOMAttribute("maxBytes", nullNS,
+					                                            Long.toString(mediator.getDiskCacheMaxBytes())));
+				}
 				cache.addChild(implElem);
 			}
 		}
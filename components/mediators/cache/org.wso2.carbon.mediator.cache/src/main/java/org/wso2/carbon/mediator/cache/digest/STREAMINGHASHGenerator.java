@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache.digest;
+
+import org.apache.axiom.om.OMAttribute;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMProcessingInstruction;
+import org.apache.axiom.om.OMText;
+import org.apache.axis2.context.MessageContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.mediator.cache.CachingException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * This is a streaming implementation of the
+ * <a href="http://www.ietf.org/rfc/rfc2803.txt">DOMHASH algorithm</a> over the SOAP body.
+ * Instead of computing a new MessageDigest and a temporary byte[] per node, the digest is
+ * calculated in a single non recursive pass over the nodes of the body using digest instances
+ * which are kept per thread and reused across messages. The generated keys are identical to the
+ * keys generated by the {@link DOMHASHGenerator}, so this can be used as a drop in
+ * replacement of the default generator.
+ *
+ * @see org.wso2.carbon.mediator.cache.digest.DOMHASHGenerator
+ */
+public class STREAMINGHASHGenerator extends DOMHASHGenerator {
+
+	private static final Log log = LogFactory.getLog(STREAMINGHASHGenerator.class);
+
+	/** Reusable per thread digest state */
+	private static final ThreadLocal<DigestState> digestState = new ThreadLocal<DigestState>() {
+		@Override
+		protected DigestState initialValue() {
+			return new DigestState();
+		}
+	};
+
+	/**
+	 * This is the implementation of the getDigest method which generates the DOMHASH of the
+	 * SOAP body in a single pass over its nodes. Similar to the DOMHASHGenerator this does
+	 * not consider the SOAP headers in generating the digest.
+	 *
+	 * @param msgContext - MessageContext on which the XML node identifier will be generated
+	 * @return Object representing the DOMHASH value of the normalized XML node
+	 * @throws CachingException if there is an error in generating the digest key
+	 */
+	public String getDigest(MessageContext msgContext) throws CachingException {
+
+		OMElement body = msgContext.getEnvelope().getBody();
+		if (body != null) {
+			byte[] digest = getStreamingDigest(body);
+			return digest != null ? getStringRepresentation(digest) : null;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Calculates the MD5 DOMHASH of the given element walking through the nodes of the element
+	 * in document order. The tree is only read, so it is left intact for the mediators which
+	 * follow. The tree is walked directly rather than through an XMLStreamReader, since the
+	 * message is built before the key is computed and reading a built tree through a stream
+	 * reader costs more than the hashing itself.
+	 *
+	 * @param element - OMElement to be subjected to the key generation
+	 * @return byte[] representing the calculated digest over the provided element
+	 * @throws CachingException if the algorithm is not available
+	 */
+	public byte[] getStreamingDigest(OMElement element) throws CachingException {
+
+		DigestState state = digestState.get();
+		try {
+			state.reset();
+			state.startElement(element);
+			OMElement current = element;
+			OMNode node = element.getFirstOMChild();
+			while (true) {
+				if (node == null) {
+					// all the children of the current element are digested
+					state.endElement();
+					if (current == element) {
+						break;
+					}
+					node = current.getNextOMSibling();
+					current = (OMElement) current.getParent();
+					continue;
+				}
+				switch (node.getType()) {
+					case OMNode.ELEMENT_NODE:
+						current = (OMElement) node;
+						state.startElement(current);
+						node = current.getFirstOMChild();
+						continue;
+					case OMNode.TEXT_NODE:
+						state.text((OMText) node);
+						break;
+					case OMNode.PI_NODE:
+						state.processingInstruction((OMProcessingInstruction) node);
+						break;
+					default:
+						// comments, white spaces, CDATA and entity references do not contribute
+						// to the DOMHASH similar to the DOMHASHGenerator
+						break;
+				}
+				node = node.getNextOMSibling();
+			}
+			return state.result();
+		} catch (NoSuchAlgorithmException e) {
+			handleException("Can not locate the algorithm provided for the digest generation : " +
+			                MD5_DIGEST_ALGORITHM, e);
+		}
+		return null;
+	}
+
+	private void handleException(String message, Throwable cause) throws CachingException {
+		log.debug(message, cause);
+		throw new CachingException(message, cause);
+	}
+
+	/**
+	 * Holds the reusable digests and buffers used while walking through a single message. One
+	 * MessageDigest is kept per depth of the tree, and the digests of the children of each open
+	 * element are buffered until the end of the element since the DOMHASH of an element contains
+	 * the number of its child elements before the digests of the children.
+	 */
+	private static class DigestState {
+
+		private static final int INITIAL_DEPTH = 16;
+
+		private static final int DIGEST_LENGTH = 16;
+
+		private MessageDigest[] levels = new MessageDigest[INITIAL_DEPTH];
+
+		private byte[][] children = new byte[INITIAL_DEPTH][];
+
+		private int[] childLengths = new int[INITIAL_DEPTH];
+
+		private int[] childElements = new int[INITIAL_DEPTH];
+
+		private MessageDigest scratch;
+
+		private byte[] encodeBuffer = new byte[1024];
+
+		private String[] attributeNames = new String[8];
+
+		private String[] attributeValues = new String[8];
+
+		private int depth;
+
+		/**
+		 * Resets the state to be used for a new message. Depth 0 is used as the document level
+		 * which collects the digest of the root element.
+		 */
+		void reset() throws NoSuchAlgorithmException {
+			if (scratch == null) {
+				scratch = MessageDigest.getInstance(MD5_DIGEST_ALGORITHM);
+			}
+			for (int i = 0; i <= depth && i < levels.length; i++) {
+				if (levels[i] != null) {
+					levels[i].reset();
+				}
+				childLengths[i] = 0;
+				childElements[i] = 0;
+			}
+			scratch.reset();
+			depth = 0;
+		}
+
+		void startElement(OMElement element) throws NoSuchAlgorithmException {
+			childElements[depth]++;
+			depth++;
+			ensureDepth();
+			MessageDigest md = levels[depth];
+			childLengths[depth] = 0;
+			childElements[depth] = 0;
+
+			updateInt(md, 1);
+			OMNamespace namespace = element.getNamespace();
+			if (namespace != null) {
+				update(md, namespace.getNamespaceURI());
+				md.update((byte) 0);
+				md.update((byte) ':');
+			}
+			update(md, element.getLocalName());
+			md.update((byte) 0);
+			md.update((byte) 0);
+
+			int count = collectAttributes(element);
+			updateInt(md, count);
+			for (int i = 0; i < count; i++) {
+				scratch.update((byte) 0);
+				scratch.update((byte) 0);
+				scratch.update((byte) 0);
+				scratch.update((byte) 2);
+				update(scratch, attributeNames[i]);
+				scratch.update((byte) 0);
+				scratch.update((byte) 0);
+				update(scratch, attributeValues[i]);
+				md.update(scratch.digest());
+			}
+		}
+
+		void endElement() {
+			MessageDigest md = levels[depth];
+			updateInt(md, childElements[depth]);
+			md.update(children[depth], 0, childLengths[depth]);
+			byte[] digest = md.digest();
+			depth--;
+			appendChild(digest);
+		}
+
+		void text(OMText text) {
+			scratch.update((byte) 0);
+			scratch.update((byte) 0);
+			scratch.update((byte) 0);
+			scratch.update((byte) 3);
+			update(scratch, text.getText());
+			appendChild(scratch.digest());
+		}
+
+		void processingInstruction(OMProcessingInstruction pi) {
+			scratch.update((byte) 0);
+			scratch.update((byte) 0);
+			scratch.update((byte) 0);
+			scratch.update((byte) 7);
+			update(scratch, pi.getTarget());
+			scratch.update((byte) 0);
+			scratch.update((byte) 0);
+			update(scratch, pi.getValue());
+			appendChild(scratch.digest());
+		}
+
+		/**
+		 * Gives the digest of the root element, which is the only child collected at the
+		 * document level.
+		 */
+		byte[] result() {
+			if (childLengths[0] < DIGEST_LENGTH) {
+				return new byte[0];
+			}
+			return Arrays.copyOf(children[0], DIGEST_LENGTH);
+		}
+
+		private void appendChild(byte[] digest) {
+			byte[] buffer = children[depth];
+			int length = childLengths[depth];
+			if (buffer == null) {
+				buffer = new byte[DIGEST_LENGTH * 8];
+				children[depth] = buffer;
+			} else if (length + digest.length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + digest.length));
+				children[depth] = buffer;
+			}
+			System.arraycopy(digest, 0, buffer, length, digest.length);
+			childLengths[depth] = length + digest.length;
+		}
+
+		private void ensureDepth() throws NoSuchAlgorithmException {
+			if (depth >= levels.length) {
+				int newLength = levels.length * 2;
+				levels = Arrays.copyOf(levels, newLength);
+				children = Arrays.copyOf(children, newLength);
+				childLengths = Arrays.copyOf(childLengths, newLength);
+				childElements = Arrays.copyOf(childElements, newLength);
+			}
+			if (levels[depth] == null) {
+				levels[depth] = MessageDigest.getInstance(MD5_DIGEST_ALGORITHM);
+			}
+		}
+
+		/**
+		 * Collects the attributes of the current element sorted by the expanded name, which is the
+		 * same order used by DOMHASHGenerator#getAttributesWithoutNS
+		 */
+		private int collectAttributes(OMElement element) {
+			int size = 0;
+			for (Iterator itr = element.getAllAttributes(); itr.hasNext();) {
+				OMAttribute attribute = (OMAttribute) itr.next();
+				String localName = attribute.getLocalName();
+				if (localName.equals("xmlns") || localName.startsWith("xmlns:")) {
+					continue;
+				}
+				if (size == attributeNames.length) {
+					attributeNames = Arrays.copyOf(attributeNames, size * 2);
+					attributeValues = Arrays.copyOf(attributeValues, size * 2);
+				}
+				OMNamespace namespace = attribute.getNamespace();
+				String name = namespace != null ? namespace.getNamespaceURI() + ":" + localName : localName;
+				String value = attribute.getAttributeValue();
+				// insertion sort, attribute lists are small; duplicates replace the earlier value
+				int pos = size;
+				boolean replaced = false;
+				for (int j = 0; j < size; j++) {
+					int cmp = name.compareTo(attributeNames[j]);
+					if (cmp == 0) {
+						attributeValues[j] = value;
+						replaced = true;
+						break;
+					} else if (cmp < 0) {
+						pos = j;
+						break;
+					}
+				}
+				if (!replaced) {
+					System.arraycopy(attributeNames, pos, attributeNames, pos + 1, size - pos);
+					System.arraycopy(attributeValues, pos, attributeValues, pos + 1, size - pos);
+					attributeNames[pos] = name;
+					attributeValues[pos] = value;
+					size++;
+				}
+			}
+			return size;
+		}
+
+		private static void updateInt(MessageDigest md, int value) {
+			md.update((byte) (value >>> 24));
+			md.update((byte) (value >>> 16));
+			md.update((byte) (value >>> 8));
+			md.update((byte) value);
+		}
+
+		/**
+		 * Updates the digest with the UnicodeBigUnmarked (UTF-16BE) encoding of the given string
+		 */
+		private void update(MessageDigest md, String value) {
+			int length = value.length();
+			int offset = 0;
+			while (offset < length) {
+				int chunk = Math.min(length - offset, encodeBuffer.length / 2);
+				for (int i = 0; i < chunk; i++) {
+					char c = value.charAt(offset + i);
+					encodeBuffer[2 * i] = (byte) (c >>> 8);
+					encodeBuffer[2 * i + 1] = (byte) c;
+				}
+				md.update(encodeBuffer, 0, chunk * 2);
+				offset += chunk;
+			}
+		}
+
+	}
+}
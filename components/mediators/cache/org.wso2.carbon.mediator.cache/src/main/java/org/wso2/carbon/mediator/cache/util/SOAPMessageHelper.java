@@ -17,6 +17,8 @@
  */
 package org.wso2.carbon.mediator.cache.util;
 
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.om.util.StAXUtils;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.saaj.MessageFactoryImpl;
 import org.apache.axis2.saaj.util.IDGenerator;
@@ -27,6 +29,8 @@ import javax.xml.soap.MessageFactory;
 import javax.xml.soap.MimeHeaders;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
@@ -35,6 +39,48 @@ import java.io.IOException;
  */
 public class SOAPMessageHelper {
 
+	/**
+	 * Creates a deferred SOAPEnvelope over the provided bytes. Unlike buildSOAPEnvelopeFromBytes this does not parse
+	 * the message upfront; the envelope is materialized only as far as it is navigated, and when it is serialized
+	 * without being read the bytes are streamed to the output without building the object model. The SOAP version is
+	 * taken from the envelope namespace of the bytes.
+	 *
+	 * @param data byte array of the SOAPEnvelope
+	 * @return OM representation of SOAPEnvelope backed by the provided bytes
+	 */
+	public static SOAPEnvelope createDeferredSOAPEnvelope(byte[] data) {
+		return (SOAPEnvelope) OMXMLBuilderFactory.createSOAPModelBuilder(new ByteArrayInputStream(data), "UTF-8")
+		                                         .getDocumentElement();
+	}
+
+	/**
+	 * Checks whether the provided bytes are a well formed XML document, reading through them without building the
+	 * object model.
+	 *
+	 * @param data byte array of the SOAPEnvelope
+	 * @return true if the bytes are well formed
+	 */
+	public static boolean isWellFormed(byte[] data) {
+		XMLStreamReader reader = null;
+		try {
+			reader = StAXUtils.createXMLStreamReader(new ByteArrayInputStream(data), "UTF-8");
+			while (reader.hasNext()) {
+				reader.next();
+			}
+			return true;
+		} catch (XMLStreamException e) {
+			return false;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException ignore) {
+					// nothing to release for an in memory stream
+				}
+			}
+		}
+	}
+
 	/**
 	 *  Builds the SOAPEnvelope from provided bytes and returns the OM representation of SOAPEnvelope
 	 *
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache.util;
+
+import org.apache.axiom.om.OMException;
+import org.apache.axiom.om.OMNode;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream which keeps the bytes written to it as long as they do not exceed the given limit. A write which
+ * exceeds the limit fails, so that serializing a message larger than the maximum message size stops at the limit
+ * instead of serializing the rest of the message. Use {@link #serialize(OMNode)} to serialize a message into this
+ * stream and learn whether it fits within the limit.
+ */
+public class SizeLimitedOutputStream extends OutputStream {
+
+	/**
+	 * Thrown when a write exceeds the limit, to abort the serialization. Only the stream throws it and only the
+	 * stream catches it, so it is allocated once and carries no stack trace.
+	 */
+	private static final IOException LIMIT_EXCEEDED = new IOException("The size limit is exceeded") {
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	};
+
+	/**
+	 * Maximum number of bytes allowed to be written.
+	 */
+	private final long limit;
+
+	/**
+	 * Bytes written so far, or null if the bytes are not kept or the limit is exceeded.
+	 */
+	private ByteArrayOutputStream buffer;
+
+	/**
+	 * Number of bytes written so far.
+	 */
+	private long count = 0;
+
+	/**
+	 * Whether a write exceeded the limit.
+	 */
+	private boolean limitExceeded = false;
+
+	/**
+	 * SizeLimitedOutputStream constructor sets the maximum number of bytes allowed to be written and keeps the
+	 * bytes written
+	 *
+	 * @param limit maximum number of bytes allowed to be written
+	 */
+	public SizeLimitedOutputStream(long limit) {
+		this(limit, true);
+	}
+
+	/**
+	 * SizeLimitedOutputStream constructor sets the maximum number of bytes allowed to be written
+	 *
+	 * @param limit     maximum number of bytes allowed to be written
+	 * @param keepBytes whether the bytes written should be kept, or only counted
+	 */
+	public SizeLimitedOutputStream(long limit, boolean keepBytes) {
+		this.limit = limit;
+		if (keepBytes) {
+			buffer = new ByteArrayOutputStream();
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		increment(1);
+		if (buffer != null) {
+			buffer.write(b);
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		increment(len);
+		if (buffer != null) {
+			buffer.write(b, off, len);
+		}
+	}
+
+	/**
+	 * Serializes the given node into this stream. The serialization stops as soon as the limit is exceeded.
+	 *
+	 * @param node node to be serialized, e.g. the SOAP envelope of a message
+	 * @return true if the node was serialized within the limit, false if the limit is exceeded
+	 * @throws XMLStreamException if the node can not be serialized for another reason
+	 */
+	public boolean serialize(OMNode node) throws XMLStreamException {
+		try {
+			node.serialize(this);
+		} catch (XMLStreamException e) {
+			if (!limitExceeded) {
+				throw e;
+			}
+		} catch (OMException e) {
+			if (!limitExceeded) {
+				throw e;
+			}
+		}
+		return !limitExceeded;
+	}
+
+	/**
+	 * This method gives the number of bytes written within the limit
+	 *
+	 * @return number of bytes written
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * This method checks whether a write exceeded the limit
+	 *
+	 * @return true if the limit is exceeded
+	 */
+	public boolean isLimitExceeded() {
+		return limitExceeded;
+	}
+
+	/**
+	 * This method gives the bytes written
+	 *
+	 * @return bytes written, or null if the bytes are not kept or the limit is exceeded
+	 */
+	public byte[] toByteArray() {
+		return buffer != null ? buffer.toByteArray() : null;
+	}
+
+	private void increment(int len) throws IOException {
+		if (limitExceeded || count + len > limit) {
+			limitExceeded = true;
+			buffer = null;
+			throw LIMIT_EXCEEDED;
+		}
+		count += len;
+	}
+}
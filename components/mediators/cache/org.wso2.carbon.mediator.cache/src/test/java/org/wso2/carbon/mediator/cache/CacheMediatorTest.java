@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.OperationContext;
+import org.apache.axis2.context.ServiceGroupContext;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.InOutAxisOperation;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.FaultHandler;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseLog;
+import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.mediators.AbstractMediator;
+import org.apache.synapse.mediators.MediatorFaultHandler;
+import org.apache.synapse.mediators.MediatorLog;
+import org.apache.synapse.mediators.base.SequenceMediator;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+import javax.xml.namespace.QName;
+
+/**
+ * Tests serving the cached responses of the CacheMediator through the deferred envelope, the maximum message size
+ * and the fault handling of the leader of a request in flight.
+ */
+public class CacheMediatorTest extends TestCase {
+
+    private final SynapseLog synLog = new MediatorLog(LogFactory.getLog(CacheMediatorTest.class), false,
+            new Axis2MessageContext(new org.apache.axis2.context.MessageContext(), null, null));
+
+    public void testCacheHitIsServedThroughDeferredEnvelope() throws Exception {
+        byte[] cached = serialize(createEnvelope());
+        TieredResponseStore store = new TieredResponseStore(10, 10, 1024 * 1024);
+        CachableResponse response = createResponse("a", cached);
+        store.put("a", response);
+
+        SOAPEnvelope envelope = new CacheMediator().createCachedEnvelope(store.get("a"), synLog);
+        assertNotNull(envelope);
+        assertEquals("IBM", envelope.getBody().getFirstElement().getText());
+        assertEquals(new String(cached, "UTF-8"), new String(serialize(envelope), "UTF-8"));
+        assertTrue(response.isEnvelopeVerified());
+
+        // a verified response is served again without being checked
+        assertNotNull(new CacheMediator().createCachedEnvelope(store.get("a"), synLog));
+        assertSame(response, store.get("a"));
+    }
+
+    public void testCorruptCachedResponseIsEvicted() throws Exception {
+        byte[] cached = serialize(createEnvelope());
+        byte[] corrupt = new byte[cached.length - 20];
+        System.arraycopy(cached, 0, corrupt, 0, corrupt.length);
+        TieredResponseStore store = new TieredResponseStore(10, 10, 1024 * 1024);
+        store.put("a", createResponse("a", corrupt));
+        store.put("b", createResponse("b", cached));
+
+        assertNull(new CacheMediator().createCachedEnvelope(store.get("a"), synLog));
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+
+    public void testContentLengthIsNotCached() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("content-length", "42");
+        headers.put(HTTPConstants.HEADER_CONTENT_TYPE, "application/xml");
+
+        Map<String, Object> headerProperties = CacheMediator.getHeaderProperties(headers, "application/xml");
+        assertFalse(headerProperties.containsKey("content-length"));
+        assertEquals("application/xml", headerProperties.get(HTTPConstants.HEADER_CONTENT_TYPE));
+        assertEquals("application/xml", headerProperties.get(Constants.Configuration.MESSAGE_TYPE));
+    }
+
+    public void testLeaderFaultHandlerIsRemovedWhenResponseIsCollected() throws Exception {
+        final boolean[] onErrorInvoked = new boolean[1];
+        SequenceMediator onError = new SequenceMediator();
+        onError.setName("onError");
+        onError.addChild(new AbstractMediator() {
+            public boolean mediate(MessageContext synCtx) {
+                onErrorInvoked[0] = true;
+                return true;
+            }
+        });
+        SynapseConfiguration synapseConfig = new SynapseConfiguration();
+        synapseConfig.addSequence("onError", onError);
+
+        TieredResponseStore store = new TieredResponseStore(10, 10, 1024 * 1024);
+        CacheMediator cache = new CacheMediator();
+        cache.setSingleFlight(true);
+        setField(cache, "responseStore", store);
+        setField(cache, "requestCoalescer", new RequestCoalescer());
+        SequenceMediator sequence = new SequenceMediator();
+        sequence.setName("main");
+        sequence.setErrorHandler("onError");
+        sequence.addChild(cache);
+
+        // the leader of the request in flight continues through the sequence to the backend
+        MessageContext request = createMessageContext(synapseConfig, createOperationContext());
+        assertTrue(sequence.mediate(request));
+        String requestHash = (String) request.getProperty(CachingConstants.REQUEST_HASH);
+        assertNotNull(requestHash);
+        Stack faultStack = request.getFaultStack();
+        assertEquals(2, faultStack.size());
+        assertTrue(faultStack.get(0) instanceof MediatorFaultHandler);
+
+        // the collector completes the request in flight with the response of the leader
+        CacheMediator collector = new CacheMediator();
+        collector.setCollector(true);
+        MessageContext response = createMessageContext(synapseConfig,
+                ((Axis2MessageContext) request).getAxis2MessageContext().getOperationContext());
+        for (Object key : request.getPropertyKeySet()) {
+            response.setProperty((String) key, request.getProperty((String) key));
+        }
+        response.setResponse(true);
+        assertTrue(collector.mediate(response));
+        assertNotNull(store.get(requestHash).getResponseEnvelope());
+
+        // a later fault of the leader is handled by the onError sequence, which is now on top of the fault stack
+        assertEquals(1, faultStack.size());
+        ((FaultHandler) faultStack.pop()).handleFault(request);
+        assertTrue(onErrorInvoked[0]);
+    }
+
+    public void testRequestBeyondMaxMessageSizeSkipsCache() throws Exception {
+        CacheMediator cache = new CacheMediator();
+        cache.setMaxMessageSize(serialize(createEnvelope()).length - 1);
+        MessageContext request = createMessageContext(new SynapseConfiguration(), createOperationContext());
+
+        assertTrue(cache.mediate(request));
+        assertNull(request.getProperty(CachingConstants.REQUEST_HASH));
+        assertEquals("IBM", request.getEnvelope().getBody().getFirstElement().getText());
+    }
+
+    private static CachableResponse createResponse(String requestHash, byte[] envelope) {
+        CachableResponse response = new CachableResponse();
+        response.setRequestHash(requestHash);
+        response.setResponseEnvelope(envelope);
+        response.setTimeout(60000);
+        response.setExpireTimeMillis(System.currentTimeMillis() + 60000);
+        return response;
+    }
+
+    private static SOAPEnvelope createEnvelope() {
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = factory.getDefaultEnvelope();
+        factory.createOMElement("getQuote", null, envelope.getBody()).setText("IBM");
+        return envelope;
+    }
+
+    private static byte[] serialize(SOAPEnvelope envelope) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        envelope.serialize(out);
+        return out.toByteArray();
+    }
+
+    private static MessageContext createMessageContext(SynapseConfiguration synapseConfig,
+                                                       OperationContext operationContext) throws Exception {
+        org.apache.axis2.context.MessageContext axis2MsgCtx = new org.apache.axis2.context.MessageContext();
+        axis2MsgCtx.setConfigurationContext(operationContext.getConfigurationContext());
+        axis2MsgCtx.setOperationContext(operationContext);
+        MessageContext synCtx = new Axis2MessageContext(axis2MsgCtx, synapseConfig, createEnvironment());
+        synCtx.setEnvelope(createEnvelope());
+        synCtx.setContinuationEnabled(true);
+        return synCtx;
+    }
+
+    private static OperationContext createOperationContext() throws Exception {
+        AxisConfiguration axisConfig = new AxisConfiguration();
+        AxisService service = new AxisService("test");
+        axisConfig.addService(service);
+        ServiceGroupContext serviceGroupContext =
+                new ConfigurationContext(axisConfig).createServiceGroupContext(service.getAxisServiceGroup());
+        return serviceGroupContext.getServiceContext(service).createOperationContext(
+                new InOutAxisOperation(new QName("mediate")));
+    }
+
+    private static SynapseEnvironment createEnvironment() {
+        return (SynapseEnvironment) Proxy.newProxyInstance(CacheMediatorTest.class.getClassLoader(),
+                new Class[]{SynapseEnvironment.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                    }
+                });
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = CacheMediator.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the leader and follower behaviour of the RequestCoalescer, and the release of the parked messages on
+ * completion, discard, timeout and shutdown.
+ */
+public class RequestCoalescerTest extends TestCase {
+
+    private static final long NO_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ScheduledThreadPoolExecutor timer;
+    private RequestCoalescer coalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        timer = new ScheduledThreadPoolExecutor(1);
+        coalescer = new RequestCoalescer(timer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        timer.shutdownNow();
+    }
+
+    public void testFirstMissLeads() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        assertNull(coalescer.lead(leader, NO_TIMEOUT));
+
+        RequestCoalescer.InFlightRequest follower = new RequestCoalescer.InFlightRequest("hash", null);
+        assertSame(leader, coalescer.lead(follower, NO_TIMEOUT));
+        assertNull(coalescer.lead(new RequestCoalescer.InFlightRequest("other", null), NO_TIMEOUT));
+    }
+
+    public void testStaleResponseOfLeaderIsShared() {
+        CachableResponse stale = response("hash");
+        coalescer.lead(new RequestCoalescer.InFlightRequest("hash", stale), NO_TIMEOUT);
+        RequestCoalescer.InFlightRequest inFlight =
+                coalescer.lead(new RequestCoalescer.InFlightRequest("hash", null), NO_TIMEOUT);
+        assertSame(stale, inFlight.getStaleResponse());
+    }
+
+    public void testCompleteReleasesFollowersWithResponse() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        RecordingWaiter first = new RecordingWaiter();
+        RecordingWaiter second = new RecordingWaiter();
+        assertTrue(leader.park(DIRECT, first));
+        assertTrue(leader.park(DIRECT, second));
+
+        CachableResponse response = response("hash");
+        coalescer.complete("hash", response);
+
+        assertEquals(Collections.singletonList(response), first.responses);
+        assertEquals(Collections.singletonList(response), second.responses);
+        // the next miss leads a new request in flight
+        assertNull(coalescer.lead(new RequestCoalescer.InFlightRequest("hash", null), NO_TIMEOUT));
+    }
+
+    public void testCompleteCancelsTimeout() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        assertEquals(1, timer.getQueue().size());
+
+        coalescer.complete("hash", response("hash"));
+        assertEquals(0, timer.getQueue().size());
+    }
+
+    public void testDiscardCancelsTimeout() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        coalescer.discard(leader);
+        assertEquals(0, timer.getQueue().size());
+    }
+
+    public void testDiscardReleasesFollowersWithoutResponse() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        RecordingWaiter waiter = new RecordingWaiter();
+        leader.park(DIRECT, waiter);
+
+        coalescer.discard(leader);
+        assertEquals(Collections.<CachableResponse>singletonList(null), waiter.responses);
+        assertNull(coalescer.lead(new RequestCoalescer.InFlightRequest("hash", null), NO_TIMEOUT));
+    }
+
+    public void testDiscardByRequestHash() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        RecordingWaiter waiter = new RecordingWaiter();
+        leader.park(DIRECT, waiter);
+
+        coalescer.discard((String) null);
+        coalescer.discard("other");
+        assertTrue(waiter.responses.isEmpty());
+
+        coalescer.discard("hash");
+        assertEquals(Collections.<CachableResponse>singletonList(null), waiter.responses);
+    }
+
+    public void testLateDiscardDoesNotReleaseNewerRequestInFlight() {
+        RequestCoalescer.InFlightRequest first = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(first, NO_TIMEOUT);
+        coalescer.complete("hash", response("hash"));
+
+        RequestCoalescer.InFlightRequest second = new RequestCoalescer.InFlightRequest("hash", null);
+        assertNull(coalescer.lead(second, NO_TIMEOUT));
+        RecordingWaiter waiter = new RecordingWaiter();
+        second.park(DIRECT, waiter);
+
+        // the first leader faults after its response was collected
+        coalescer.discard(first);
+        assertTrue(waiter.responses.isEmpty());
+        assertSame(second, coalescer.lead(new RequestCoalescer.InFlightRequest("hash", null), NO_TIMEOUT));
+    }
+
+    public void testParkAfterReleaseIsRefused() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        coalescer.complete("hash", response("hash"));
+
+        RecordingWaiter waiter = new RecordingWaiter();
+        assertFalse(leader.park(DIRECT, waiter));
+        assertTrue(waiter.responses.isEmpty());
+    }
+
+    public void testTimeoutReleasesFollowers() throws Exception {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, 50);
+        final CountDownLatch released = new CountDownLatch(1);
+        final List<CachableResponse> responses = Collections.synchronizedList(new ArrayList<CachableResponse>());
+        leader.park(DIRECT, new RequestCoalescer.Waiter() {
+            @Override
+            public void release(CachableResponse response) {
+                responses.add(response);
+                released.countDown();
+            }
+        });
+
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.<CachableResponse>singletonList(null), responses);
+        // the late response of the leader does not release anything twice
+        coalescer.complete("hash", response("hash"));
+        assertEquals(1, responses.size());
+        assertNull(coalescer.lead(new RequestCoalescer.InFlightRequest("hash", null), NO_TIMEOUT));
+    }
+
+    public void testFailingWaiterDoesNotStopOthers() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        leader.park(DIRECT, new RequestCoalescer.Waiter() {
+            @Override
+            public void release(CachableResponse response) {
+                throw new IllegalStateException("failing waiter");
+            }
+        });
+        RecordingWaiter waiter = new RecordingWaiter();
+        leader.park(DIRECT, waiter);
+
+        coalescer.complete("hash", response("hash"));
+        assertEquals(1, waiter.responses.size());
+    }
+
+    public void testFollowersAreReleasedOnTheirExecutor() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor queueing = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        RecordingWaiter waiter = new RecordingWaiter();
+        leader.park(queueing, waiter);
+
+        coalescer.complete("hash", response("hash"));
+        assertTrue(waiter.responses.isEmpty());
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(1, waiter.responses.size());
+    }
+
+    public void testShutdownReleasesFollowersAndStopsTimer() {
+        RequestCoalescer.InFlightRequest leader = new RequestCoalescer.InFlightRequest("hash", null);
+        coalescer.lead(leader, NO_TIMEOUT);
+        RecordingWaiter waiter = new RecordingWaiter();
+        leader.park(DIRECT, waiter);
+
+        coalescer.shutdown();
+        assertEquals(Collections.<CachableResponse>singletonList(null), waiter.responses);
+        assertTrue(timer.isShutdown());
+    }
+
+    public void testCoalescersDoNotShareRequestsInFlight() {
+        RequestCoalescer other = new RequestCoalescer(new ScheduledThreadPoolExecutor(1));
+        try {
+            coalescer.lead(new RequestCoalescer.InFlightRequest("hash", null), NO_TIMEOUT);
+            assertNull(other.lead(new RequestCoalescer.InFlightRequest("hash", null), NO_TIMEOUT));
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    private static CachableResponse response(String requestHash) {
+        CachableResponse response = new CachableResponse();
+        response.setRequestHash(requestHash);
+        response.setResponseEnvelope(new byte[]{1, 2, 3});
+        return response;
+    }
+
+    private static class RecordingWaiter implements RequestCoalescer.Waiter {
+
+        private final List<CachableResponse> responses = new ArrayList<CachableResponse>();
+
+        @Override
+        public void release(CachableResponse response) {
+            responses.add(response);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the promotion, demotion and eviction of the responses of the TieredResponseStore.
+ */
+public class TieredResponseStoreTest extends TestCase {
+
+    private static final int BLOCK_SIZE = TieredResponseStore.BLOCK_SIZE;
+
+    private static final long LARGE_OFF_HEAP = 1024 * BLOCK_SIZE;
+
+    public void testHeapHit() {
+        TieredResponseStore store = new TieredResponseStore(10, 10, LARGE_OFF_HEAP);
+        CachableResponse response = createResponse("a", 100);
+        store.put("a", response);
+
+        assertSame(response, store.get("a"));
+        assertSame(store, response.getResponseStore());
+        assertEquals(1, store.getHeapStatistics().getHits());
+        assertEquals(0, store.getHeapStatistics().getMisses());
+        assertNull(store.get("b"));
+        assertEquals(1, store.getHeapStatistics().getMisses());
+        assertEquals(1, store.getOffHeapStatistics().getMisses());
+    }
+
+    public void testDemotionOnHeapEviction() {
+        TieredResponseStore store = new TieredResponseStore(2, 10, LARGE_OFF_HEAP);
+        store.put("a", createResponse("a", 100));
+        store.put("b", createResponse("b", 100));
+        store.put("c", createResponse("c", 100));
+
+        assertEquals(2, store.getHeapSize());
+        assertEquals(1, store.getOffHeapSize());
+        assertEquals(1, store.getHeapStatistics().getEvictions());
+        assertEquals(BLOCK_SIZE, store.getOffHeapUsedBytes());
+    }
+
+    public void testHeapEvictsLeastRecentlyUsed() {
+        TieredResponseStore store = new TieredResponseStore(2, 10, LARGE_OFF_HEAP);
+        CachableResponse a = createResponse("a", 100);
+        store.put("a", a);
+        store.put("b", createResponse("b", 100));
+        // a is used after b, so b is the one to be demoted
+        assertSame(a, store.get("a"));
+        store.put("c", createResponse("c", 100));
+
+        assertSame(a, store.get("a"));
+        assertEquals(0, store.getOffHeapStatistics().getHits());
+        assertNotNull(store.get("b"));
+        assertEquals(1, store.getOffHeapStatistics().getHits());
+    }
+
+    public void testPromotionOnOffHeapHit() {
+        TieredResponseStore store = new TieredResponseStore(2, 10, LARGE_OFF_HEAP);
+        CachableResponse a = createResponse("a", 10000);
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("Content-Type", "text/xml");
+        a.setHeaderProperties(headers);
+        a.setResponseHash("response-a");
+        a.setSOAP11(true);
+        store.put("a", a);
+        store.put("b", createResponse("b", 100));
+        store.put("c", createResponse("c", 100));
+        assertEquals(1, store.getOffHeapSize());
+
+        CachableResponse promoted = store.get("a");
+        assertNotNull(promoted);
+        assertNotSame(a, promoted);
+        assertTrue(Arrays.equals(a.getResponseEnvelope(), promoted.getResponseEnvelope()));
+        assertEquals("a", promoted.getRequestHash());
+        assertEquals("response-a", promoted.getResponseHash());
+        assertEquals(a.getExpireTimeMillis(), promoted.getExpireTimeMillis());
+        assertEquals(a.getTimeout(), promoted.getTimeout());
+        assertTrue(promoted.isSOAP11());
+        assertEquals(headers, promoted.getHeaderProperties());
+        assertSame(store, promoted.getResponseStore());
+        assertEquals(1, store.getOffHeapStatistics().getHits());
+
+        // the promotion demotes the least recently used response of the heap tier, b
+        assertEquals(2, store.getHeapSize());
+        assertEquals(1, store.getOffHeapSize());
+        assertSame(promoted, store.get("a"));
+        assertEquals(1, store.getOffHeapStatistics().getHits());
+    }
+
+    public void testUnfilledAndExpiredResponsesAreNotDemoted() {
+        TieredResponseStore store = new TieredResponseStore(1, 10, LARGE_OFF_HEAP);
+        CachableResponse unfilled = new CachableResponse();
+        unfilled.setRequestHash("a");
+        unfilled.setTimeout(10000);
+        store.put("a", unfilled);
+        CachableResponse expired = createResponse("b", 100);
+        expired.setExpireTimeMillis(System.currentTimeMillis() - 1);
+        store.put("b", expired);
+        store.put("c", createResponse("c", 100));
+
+        assertEquals(1, store.getHeapSize());
+        assertEquals(0, store.getOffHeapSize());
+        assertEquals(2, store.getHeapStatistics().getEvictions());
+        assertNull(store.get("a"));
+        assertNull(store.get("b"));
+    }
+
+    public void testOffHeapEvictionByCount() {
+        TieredResponseStore store = new TieredResponseStore(1, 2, LARGE_OFF_HEAP);
+        for (String hash : new String[]{"a", "b", "c", "d"}) {
+            store.put(hash, createResponse(hash, 100));
+        }
+        // a, b and c were demoted in that order, a was evicted from the off-heap tier
+        assertEquals(2, store.getOffHeapSize());
+        assertEquals(1, store.getOffHeapStatistics().getEvictions());
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+
+    public void testOffHeapEvictionByBytes() {
+        // three blocks, a response of one and a half blocks takes two of them
+        TieredResponseStore store = new TieredResponseStore(1, 100, 3 * BLOCK_SIZE);
+        int size = BLOCK_SIZE + BLOCK_SIZE / 2;
+        store.put("a", createResponse("a", size));
+        store.put("b", createResponse("b", size));
+        assertEquals(1, store.getOffHeapSize());
+        assertEquals(2 * BLOCK_SIZE, store.getOffHeapUsedBytes());
+
+        store.put("c", createResponse("c", size));
+        assertEquals(1, store.getOffHeapSize());
+        assertEquals(2 * BLOCK_SIZE, store.getOffHeapUsedBytes());
+        assertEquals(1, store.getOffHeapStatistics().getEvictions());
+
+        // demoting c evicts b, then the small response d fits in the remaining block without evicting
+        store.put("d", createResponse("d", 10));
+        store.put("e", createResponse("e", 10));
+        assertEquals(2, store.getOffHeapSize());
+        assertEquals(3 * BLOCK_SIZE, store.getOffHeapUsedBytes());
+        assertEquals(2, store.getOffHeapStatistics().getEvictions());
+        assertNull(store.get("a"));
+        assertNull(store.get("b"));
+        assertEnvelope("c", store.get("c"));
+    }
+
+    public void testResponseLargerThanOffHeapTierIsNotDemoted() {
+        TieredResponseStore store = new TieredResponseStore(1, 100, 2 * BLOCK_SIZE);
+        store.put("small", createResponse("small", 100));
+        store.put("large", createResponse("large", 3 * BLOCK_SIZE));
+        assertEquals(1, store.getOffHeapSize());
+
+        store.put("other", createResponse("other", 100));
+        // the large response is dropped and the small one is kept
+        assertEquals(1, store.getOffHeapSize());
+        assertEquals(0, store.getOffHeapStatistics().getEvictions());
+        assertNull(store.get("large"));
+        assertNotNull(store.get("small"));
+    }
+
+    public void testBlocksAreReused() {
+        TieredResponseStore store = new TieredResponseStore(1, 100, 4 * BLOCK_SIZE);
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            store.put("key" + i, createResponse("key" + i, random.nextInt(3 * BLOCK_SIZE)));
+            assertTrue(store.getOffHeapUsedBytes() <= 4 * BLOCK_SIZE);
+            if (i % 3 == 0) {
+                CachableResponse promoted = store.get("key" + (i - 1));
+                if (promoted != null) {
+                    assertEnvelope("key" + (i - 1), promoted);
+                }
+            }
+        }
+    }
+
+    public void testPutReplacesOffHeapResponse() {
+        TieredResponseStore store = new TieredResponseStore(1, 10, LARGE_OFF_HEAP);
+        store.put("a", createResponse("a", 100));
+        store.put("b", createResponse("b", 100));
+        assertEquals(1, store.getOffHeapSize());
+
+        CachableResponse refreshed = createResponse("a", 200);
+        store.put("a", refreshed);
+        // the stale copy of a is dropped from the off-heap tier, b is demoted in its place
+        assertEquals(1, store.getOffHeapSize());
+        assertSame(refreshed, store.get("a"));
+        assertEquals(BLOCK_SIZE, store.getOffHeapUsedBytes());
+    }
+
+    public void testClear() {
+        TieredResponseStore store = new TieredResponseStore(1, 10, LARGE_OFF_HEAP);
+        store.put("a", createResponse("a", 100));
+        store.put("b", createResponse("b", 100));
+        store.clear();
+
+        assertEquals(0, store.getHeapSize());
+        assertEquals(0, store.getOffHeapSize());
+        assertEquals(0, store.getOffHeapUsedBytes());
+        assertNull(store.get("a"));
+        assertNull(store.get("b"));
+
+        store.put("c", createResponse("c", 100));
+        store.put("d", createResponse("d", 100));
+        assertEnvelope("c", store.get("c"));
+    }
+
+    public void testOffHeapTierDisabled() {
+        TieredResponseStore store = new TieredResponseStore(1, 0, LARGE_OFF_HEAP);
+        store.put("a", createResponse("a", 100));
+        store.put("b", createResponse("b", 100));
+        assertEquals(0, store.getOffHeapSize());
+        assertNull(store.get("a"));
+    }
+
+    public void testStoresAreIndependent() {
+        TieredResponseStore first = new TieredResponseStore(10, 10, LARGE_OFF_HEAP);
+        TieredResponseStore second = new TieredResponseStore(10, 10, LARGE_OFF_HEAP);
+        first.put("a", createResponse("a", 100));
+
+        assertNotNull(first.get("a"));
+        assertNull(second.get("a"));
+        assertEquals(0, second.getHeapStatistics().getHits());
+    }
+
+    public void testSegmentedHeapTierIsBounded() {
+        TieredResponseStore store = new TieredResponseStore(1000, 0, 0);
+        for (int i = 0; i < 5000; i++) {
+            store.put("key" + i, createResponse("key" + i, 10));
+        }
+        assertEquals(1000, store.getHeapSize());
+        assertEquals(4000, store.getHeapStatistics().getEvictions());
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final TieredResponseStore store = new TieredResponseStore(200, 200, 64 * BLOCK_SIZE);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 20000; i++) {
+                            String hash = "key" + random.nextInt(1000);
+                            CachableResponse response = store.get(hash);
+                            if (response == null) {
+                                store.put(hash, createResponse(hash, random.nextInt(2 * BLOCK_SIZE)));
+                            } else {
+                                assertEnvelope(hash, response);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(store.getHeapSize() <= 200);
+        assertTrue(store.getOffHeapSize() <= 200);
+        assertTrue(store.getOffHeapUsedBytes() <= 64 * BLOCK_SIZE);
+    }
+
+    /**
+     * Response whose envelope is derived from the request hash, so that a promoted envelope can be checked
+     */
+    private static CachableResponse createResponse(String requestHash, int size) {
+        CachableResponse response = new CachableResponse();
+        response.setRequestHash(requestHash);
+        response.setResponseEnvelope(envelope(requestHash, size));
+        response.setTimeout(60000);
+        response.setExpireTimeMillis(System.currentTimeMillis() + 60000);
+        return response;
+    }
+
+    private static byte[] envelope(String requestHash, int size) {
+        byte[] envelope = new byte[size];
+        Random random = new Random(requestHash.hashCode());
+        random.nextBytes(envelope);
+        return envelope;
+    }
+
+    private static void assertEnvelope(String requestHash, CachableResponse response) {
+        byte[] envelope = response.getResponseEnvelope();
+        assertTrue("Envelope of " + requestHash + " differs",
+                   Arrays.equals(envelope(requestHash, envelope.length), envelope));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache.digest;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.context.MessageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time the STREAMINGHASHGenerator and the DOMHASHGenerator take to compute the key of a request, for
+ * SOAP payloads and for the XML which JSON payloads are built into, of about 1KB, 100KB and 5MB. The payload is
+ * built before the measurement, as the cache mediator builds the message before computing its key. Run with the
+ * main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class STREAMINGHASHGeneratorBenchmark {
+
+    @Param({"SOAP", "JSON"})
+    public String payloadType;
+
+    @Param({"1024", "102400", "5242880"})
+    public int payloadSize;
+
+    private final DOMHASHGenerator domGenerator = new DOMHASHGenerator();
+    private final STREAMINGHASHGenerator streamingGenerator = new STREAMINGHASHGenerator();
+    private MessageContext msgContext;
+
+    @Setup
+    public void setUp() throws Exception {
+        String payload = "SOAP".equals(payloadType) ? soapPayload(payloadSize) : jsonPayload(payloadSize);
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = factory.getDefaultEnvelope();
+        envelope.getBody().addChild(AXIOMUtil.stringToOM(payload));
+        envelope.build();
+        msgContext = new MessageContext();
+        msgContext.setEnvelope(envelope);
+    }
+
+    @Benchmark
+    public String domHash() throws Exception {
+        return domGenerator.getDigest(msgContext);
+    }
+
+    @Benchmark
+    public String streamingHash() throws Exception {
+        return streamingGenerator.getDigest(msgContext);
+    }
+
+    /**
+     * Namespace qualified order request with attributes, of about the given size
+     */
+    private static String soapPayload(int size) {
+        StringBuilder xml = new StringBuilder("<m:placeOrders xmlns:m=\"http://services.samples\" "
+                + "xmlns:x=\"http://services.samples/xsd\">");
+        for (int i = 0; xml.length() < size; i++) {
+            xml.append("<m:order id=\"").append(i).append("\" type=\"buy\"><x:symbol>IBM</x:symbol>")
+                    .append("<x:quantity>").append(100 + i).append("</x:quantity><x:price currency=\"USD\">")
+                    .append(140 + i % 10).append(".25</x:price></m:order>");
+        }
+        return xml.append("</m:placeOrders>").toString();
+    }
+
+    /**
+     * XML of a JSON payload of about the given size, as the JSON message builder builds it, with the elements of
+     * an array preceded by the xml-multiple processing instruction
+     */
+    private static String jsonPayload(int size) {
+        StringBuilder xml = new StringBuilder("<jsonObject><?xml-multiple orders?>");
+        for (int i = 0; xml.length() < size; i++) {
+            xml.append("<orders><id>").append(i).append("</id><type>buy</type><symbol>IBM</symbol><quantity>")
+                    .append(100 + i).append("</quantity><price>").append(140 + i % 10)
+                    .append(".25</price></orders>");
+        }
+        return xml.append("</jsonObject>").toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(STREAMINGHASHGeneratorBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
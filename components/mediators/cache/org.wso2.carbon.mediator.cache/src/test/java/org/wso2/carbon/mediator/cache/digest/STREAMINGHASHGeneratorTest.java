@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache.digest;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.context.MessageContext;
+
+import java.util.Arrays;
+
+/**
+ * Checks that the STREAMINGHASHGenerator gives the same digests as the DOMHASHGenerator, since the keys of the
+ * cached responses depend on it.
+ */
+public class STREAMINGHASHGeneratorTest extends TestCase {
+
+    private final DOMHASHGenerator domGenerator = new DOMHASHGenerator();
+    private final STREAMINGHASHGenerator streamingGenerator = new STREAMINGHASHGenerator();
+
+    public void testSimpleElement() throws Exception {
+        assertSameDigest("<getQuote><symbol>IBM</symbol></getQuote>");
+    }
+
+    public void testEmptyElement() throws Exception {
+        assertSameDigest("<getQuote/>");
+    }
+
+    public void testDefaultNamespace() throws Exception {
+        assertSameDigest("<getQuote xmlns=\"http://services.samples\"><symbol>IBM</symbol></getQuote>");
+    }
+
+    public void testPrefixedNamespaces() throws Exception {
+        assertSameDigest("<m:getQuote xmlns:m=\"http://services.samples\" xmlns:x=\"http://services.samples/xsd\">" +
+                         "<x:symbol>IBM</x:symbol><m:symbol>MSFT</m:symbol></m:getQuote>");
+    }
+
+    public void testRedeclaredNamespaces() throws Exception {
+        assertSameDigest("<a xmlns=\"urn:a\"><b xmlns=\"urn:b\"><c xmlns=\"\">text</c></b>" +
+                         "<p:d xmlns:p=\"urn:d\"><p:e xmlns:p=\"urn:e\"/></p:d></a>");
+    }
+
+    public void testNamespacePrefixDoesNotChangeDigest() throws Exception {
+        String prefixed = "<m:getQuote xmlns:m=\"http://services.samples\"><m:symbol>IBM</m:symbol></m:getQuote>";
+        String unprefixed = "<getQuote xmlns=\"http://services.samples\"><symbol>IBM</symbol></getQuote>";
+        assertSameDigest(prefixed);
+        assertTrue(Arrays.equals(streamingDigest(prefixed), streamingDigest(unprefixed)));
+    }
+
+    public void testAttributes() throws Exception {
+        assertSameDigest("<order id=\"1\" type=\"buy\" amount=\"100\"><item code=\"A\" qty=\"2\"/></order>");
+    }
+
+    public void testAttributeOrderDoesNotChangeDigest() throws Exception {
+        String ordered = "<order amount=\"100\" id=\"1\" type=\"buy\"/>";
+        String unordered = "<order type=\"buy\" id=\"1\" amount=\"100\"/>";
+        assertSameDigest(unordered);
+        assertTrue(Arrays.equals(streamingDigest(ordered), streamingDigest(unordered)));
+    }
+
+    public void testNamespacedAttributes() throws Exception {
+        assertSameDigest("<order xmlns:a=\"urn:a\" xmlns:b=\"urn:b\" b:id=\"2\" a:id=\"1\" id=\"0\"/>");
+    }
+
+    public void testManyAttributes() throws Exception {
+        StringBuilder xml = new StringBuilder("<order");
+        for (int i = 20; i > 0; i--) {
+            xml.append(" attr").append(i).append("=\"value").append(i).append('"');
+        }
+        xml.append("/>");
+        assertSameDigest(xml.toString());
+    }
+
+    public void testWhitespace() throws Exception {
+        assertSameDigest("<getQuote>\n    <symbol> IBM </symbol>\n    <symbol>\tMSFT\n</symbol>\n</getQuote>");
+    }
+
+    public void testWhitespaceChangesDigest() throws Exception {
+        String compact = "<getQuote><symbol>IBM</symbol></getQuote>";
+        String indented = "<getQuote>\n  <symbol>IBM</symbol>\n</getQuote>";
+        assertSameDigest(indented);
+        assertFalse(Arrays.equals(streamingDigest(compact), streamingDigest(indented)));
+    }
+
+    public void testMixedContent() throws Exception {
+        assertSameDigest("<p>Hello <b>bold</b> and <i>italic</i> text</p>");
+    }
+
+    public void testEscapedText() throws Exception {
+        assertSameDigest("<text a=\"&lt;&amp;&quot;\">&lt;tag&gt; &amp; more</text>");
+    }
+
+    public void testNonAsciiText() throws Exception {
+        assertSameDigest("<text name=\"été\">مرحبا 你好 😀</text>");
+    }
+
+    public void testLongText() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        assertSameDigest("<text attr=\"" + text + "\">" + text + "</text>");
+    }
+
+    public void testCommentsAndProcessingInstructions() throws Exception {
+        assertSameDigest("<getQuote><!-- comment --><?target data?><symbol>IBM</symbol></getQuote>");
+    }
+
+    public void testDeepNesting() throws Exception {
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            xml.append("<level").append(i).append(" depth=\"").append(i).append("\">text");
+        }
+        for (int i = 39; i >= 0; i--) {
+            xml.append("</level").append(i).append('>');
+        }
+        assertSameDigest(xml.toString());
+    }
+
+    public void testManyChildren() throws Exception {
+        StringBuilder xml = new StringBuilder("<list>");
+        for (int i = 0; i < 200; i++) {
+            xml.append("<item>").append(i).append("</item>");
+        }
+        xml.append("</list>");
+        assertSameDigest(xml.toString());
+    }
+
+    public void testReuseAcrossMessages() throws Exception {
+        String deep = "<a><b><c><d><e>text</e></d></c></b></a>";
+        String shallow = "<a>text</a>";
+        byte[] first = streamingDigest(shallow);
+        streamingDigest(deep);
+        assertTrue(Arrays.equals(first, streamingDigest(shallow)));
+        assertSameDigest(deep);
+    }
+
+    public void testElementIsLeftIntact() throws Exception {
+        String xml = "<getQuote xmlns=\"http://services.samples\"><symbol>IBM</symbol></getQuote>";
+        OMElement element = AXIOMUtil.stringToOM(xml);
+        streamingGenerator.getStreamingDigest(element);
+        assertEquals("IBM", element.getFirstElement().getText());
+        assertTrue(Arrays.equals(domGenerator.getDigest(element, DOMHASHGenerator.MD5_DIGEST_ALGORITHM),
+                                 streamingGenerator.getStreamingDigest(element)));
+    }
+
+    public void testMessageContextDigest() throws Exception {
+        String[] payloads = {
+                "<getQuote xmlns=\"http://services.samples\"><symbol>IBM</symbol></getQuote>",
+                "<m:order xmlns:m=\"urn:m\" id=\"1\">\n  <m:item qty=\"2\">A</m:item>\n</m:order>"
+        };
+        for (String payload : payloads) {
+            assertEquals(domGenerator.getDigest(createMessageContext(payload)),
+                         streamingGenerator.getDigest(createMessageContext(payload)));
+        }
+    }
+
+    private void assertSameDigest(String xml) throws Exception {
+        byte[] expected = domGenerator.getDigest(AXIOMUtil.stringToOM(xml), DOMHASHGenerator.MD5_DIGEST_ALGORITHM);
+        byte[] actual = streamingDigest(xml);
+        assertEquals(16, expected.length);
+        assertTrue("Digests differ for " + xml, Arrays.equals(expected, actual));
+    }
+
+    private byte[] streamingDigest(String xml) throws Exception {
+        return streamingGenerator.getStreamingDigest(AXIOMUtil.stringToOM(xml));
+    }
+
+    private static MessageContext createMessageContext(String payload) throws Exception {
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = factory.getDefaultEnvelope();
+        envelope.getBody().addChild(AXIOMUtil.stringToOM(payload));
+        MessageContext msgContext = new MessageContext();
+        msgContext.setEnvelope(envelope);
+        return msgContext;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.cache.util;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests that the SizeLimitedOutputStream keeps the serialized message up to the limit and stops the serialization
+ * once the limit is exceeded.
+ */
+public class SizeLimitedOutputStreamTest extends TestCase {
+
+    public void testBytesWithinLimitAreKept() throws Exception {
+        SizeLimitedOutputStream out = new SizeLimitedOutputStream(4);
+        out.write(1);
+        out.write(new byte[]{0, 2, 3, 4, 0}, 1, 3);
+
+        assertFalse(out.isLimitExceeded());
+        assertEquals(4, out.getCount());
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3, 4}, out.toByteArray()));
+    }
+
+    public void testWriteBeyondLimitFails() throws Exception {
+        SizeLimitedOutputStream out = new SizeLimitedOutputStream(4);
+        out.write(new byte[]{1, 2, 3}, 0, 3);
+        try {
+            out.write(new byte[]{4, 5}, 0, 2);
+            fail("The write beyond the limit should fail");
+        } catch (IOException expected) {
+            // the serialization is aborted
+        }
+        try {
+            out.write(6);
+            fail("The writes following the limit should fail");
+        } catch (IOException expected) {
+            // the serialization is aborted
+        }
+
+        assertTrue(out.isLimitExceeded());
+        assertEquals(3, out.getCount());
+        assertNull(out.toByteArray());
+    }
+
+    public void testBytesAreOnlyCounted() throws Exception {
+        SizeLimitedOutputStream out = new SizeLimitedOutputStream(4, false);
+        out.write(new byte[]{1, 2, 3, 4}, 0, 4);
+
+        assertFalse(out.isLimitExceeded());
+        assertEquals(4, out.getCount());
+        assertNull(out.toByteArray());
+    }
+
+    public void testSerializedEnvelopeMatchesFullSerialization() throws Exception {
+        SOAPEnvelope envelope = createEnvelope(1);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        envelope.serialize(expected);
+
+        SizeLimitedOutputStream withinLimit = new SizeLimitedOutputStream(expected.size());
+        assertTrue(withinLimit.serialize(envelope));
+        assertFalse(withinLimit.isLimitExceeded());
+        assertTrue(Arrays.equals(expected.toByteArray(), withinLimit.toByteArray()));
+
+        SizeLimitedOutputStream beyondLimit = new SizeLimitedOutputStream(expected.size() - 1);
+        assertFalse(beyondLimit.serialize(envelope));
+        assertTrue(beyondLimit.isLimitExceeded());
+        assertNull(beyondLimit.toByteArray());
+    }
+
+    public void testSerializationStopsAtLimit() throws Exception {
+        SOAPEnvelope envelope = createEnvelope(100000);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        envelope.serialize(full);
+
+        SizeLimitedOutputStream out = new SizeLimitedOutputStream(1024, false);
+        assertFalse(out.serialize(envelope));
+        assertTrue(out.getCount() <= 1024);
+        assertTrue(full.size() > 100 * 1024);
+
+        // the envelope can still be serialized after an aborted serialization
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        envelope.serialize(again);
+        assertTrue(Arrays.equals(full.toByteArray(), again.toByteArray()));
+    }
+
+    private static SOAPEnvelope createEnvelope(int symbols) {
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = factory.getDefaultEnvelope();
+        OMElement getQuote = factory.createOMElement("getQuote", null, envelope.getBody());
+        for (int i = 0; i < symbols; i++) {
+            factory.createOMElement("symbol", null, getQuote).setText("IBM");
+        }
+        return envelope;
+    }
+}
@@ -29,12 +29,19 @@ import org.wso2.carbon.mediator.datamapper.engine.output.formatters.MapOutputFor
 import org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants;
 import org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineUtils;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import static org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants.EQUALS_SIGN;
+import static org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants.INPUT_JSON_BINDING_NAME;
+import static org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants.INPUT_VARIABLE_PREFIX;
+import static org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants.PROPERTIES_JSON_BINDING_NAME;
 import static org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants.PROPERTIES_OBJECT_NAME;
 
 /**
@@ -45,6 +52,8 @@ public class ScriptExecutor implements Executor {
 
     private static final Log log = LogFactory.getLog(ScriptExecutor.class);
     private ScriptEngine scriptEngine;
+    // mapping functions compiled by this executor, released with the mapping resource they belong to
+    private final Map<JSFunction, CompiledMapping> compiledMappings = new WeakHashMap<>();
 
     /**
      * Create a script executor of the provided script executor type
@@ -72,11 +81,7 @@ public class ScriptExecutor implements Executor {
     public Model execute(MappingResource mappingResource, String inputVariable, String properties)
             throws JSException, SchemaException {
         try {
-            JSFunction jsFunction = mappingResource.getFunction();
-            injectPropertiesToEngine(properties);
-            injectInputVariableToEngine(mappingResource.getInputSchema().getName(), inputVariable);
-            scriptEngine.eval(jsFunction.getFunctionBody());
-            Object result = scriptEngine.eval(jsFunction.getFunctionName());
+            Object result = getCompiledMapping(mappingResource).execute(inputVariable, properties);
             if (result instanceof Map) {
                 return new MapModel((Map<String, Object>) result);
             } else if (result instanceof String) {
@@ -91,12 +96,67 @@ public class ScriptExecutor implements Executor {
         throw new JSException("Failed to execute mapping function");
     }
 
-    private void injectInputVariableToEngine(String inputSchemaName, String inputVariable) throws ScriptException {
-        scriptEngine.eval("var input" + inputSchemaName.replace(':', '_').replace('=', '_').replace(',', '_') + "="
-                + inputVariable);
+    /**
+     * Returns the mapping function of the resource compiled for this executor, compiling it on the first use.
+     * Executors are used by one message at a time, so the cache needs no locking.
+     */
+    private CompiledMapping getCompiledMapping(MappingResource mappingResource)
+            throws ScriptException, SchemaException {
+        JSFunction jsFunction = mappingResource.getFunction();
+        CompiledMapping compiledMapping = compiledMappings.get(jsFunction);
+        if (compiledMapping == null) {
+            compiledMapping = new CompiledMapping(jsFunction, mappingResource.getInputSchema().getName());
+            compiledMappings.put(jsFunction, compiledMapping);
+        }
+        return compiledMapping;
     }
 
-    private void injectPropertiesToEngine(String properties) throws ScriptException {
-        scriptEngine.eval("var " + PROPERTIES_OBJECT_NAME + EQUALS_SIGN + properties);
+    private static String getInputVariableName(String inputSchemaName) {
+        return INPUT_VARIABLE_PREFIX + inputSchemaName.replace(':', '_').replace('=', '_').replace(',', '_');
+    }
+
+    /**
+     * Mapping function evaluated once into its own bindings, so that mappings sharing this executor do not see
+     * each other's functions. The input and the properties are bound as JSON strings and parsed by a script which
+     * is compiled once, rather than spliced into a new script for every message.
+     */
+    private class CompiledMapping {
+        private final Bindings bindings;
+        private final String inputVariableName;
+        private final String invocationScript;
+        private final CompiledScript compiledInvocation;
+
+        CompiledMapping(JSFunction jsFunction, String inputSchemaName) throws ScriptException {
+            bindings = scriptEngine.createBindings();
+            inputVariableName = getInputVariableName(inputSchemaName);
+            invocationScript = "var " + inputVariableName + EQUALS_SIGN + "JSON.parse(" + INPUT_JSON_BINDING_NAME
+                    + ");" + "var " + PROPERTIES_OBJECT_NAME + EQUALS_SIGN + "JSON.parse("
+                    + PROPERTIES_JSON_BINDING_NAME + ");" + jsFunction.getFunctionName() + ";";
+            if (scriptEngine instanceof Compilable) {
+                Compilable compilable = (Compilable) scriptEngine;
+                compilable.compile(jsFunction.getFunctionBody()).eval(bindings);
+                compiledInvocation = compilable.compile(invocationScript);
+            } else {
+                scriptEngine.eval(jsFunction.getFunctionBody(), bindings);
+                compiledInvocation = null;
+            }
+        }
+
+        Object execute(String inputVariable, String properties) throws ScriptException {
+            bindings.put(INPUT_JSON_BINDING_NAME, inputVariable);
+            bindings.put(PROPERTIES_JSON_BINDING_NAME, properties);
+            try {
+                if (compiledInvocation != null) {
+                    return compiledInvocation.eval(bindings);
+                }
+                return scriptEngine.eval(invocationScript, bindings);
+            } finally {
+                // do not hold on to the message until the next one is mapped
+                bindings.put(INPUT_JSON_BINDING_NAME, null);
+                bindings.put(PROPERTIES_JSON_BINDING_NAME, null);
+                bindings.put(inputVariableName, null);
+                bindings.put(PROPERTIES_OBJECT_NAME, null);
+            }
+        }
     }
 }
@@ -40,7 +40,7 @@ public class MappingHandler implements InputVariableNotifier, OutputVariableNoti
 
     private String dmExecutorPoolSize;
     private String inputVariable;
-    private String outputVariable;
+    private Object outputVariable;
     private MappingResource mappingResource;
     private OutputMessageBuilder outputMessageBuilder;
     private Executor scriptExecutor;
@@ -60,7 +60,12 @@ public class MappingHandler implements InputVariableNotifier, OutputVariableNoti
         this.mappingResource = mappingResource;
     }
 
-    public String doMap(InputStream inputMsg, Map<String, Map<String, Object>> propertiesMap)
+    /**
+     * Map the input message
+     *
+     * @return the output message, an {@link org.apache.axiom.om.OMElement} for XML output or a String otherwise
+     */
+    public Object doMap(InputStream inputMsg, Map<String, Map<String, Object>> propertiesMap)
             throws ReaderException, InterruptedException, IOException, SchemaException, JSException {
         this.scriptExecutor = ScriptExecutorFactory.getScriptExecutor(dmExecutorPoolSize);
         this.propertiesInJSON = propertiesMapToJSON(propertiesMap);
@@ -92,7 +97,7 @@ public class MappingHandler implements InputVariableNotifier, OutputVariableNoti
 
     @Override
     public void notifyOutputVariable(Object variable) {
-        outputVariable = (String) variable;
+        outputVariable = variable;
     }
 
     /**
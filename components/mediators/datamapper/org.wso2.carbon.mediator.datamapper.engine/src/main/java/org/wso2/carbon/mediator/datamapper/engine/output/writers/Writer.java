@@ -29,7 +29,10 @@ public interface Writer {
 
     void writeEndObject(String objectName) throws WriterException;
 
-    String terminateMessageBuilding() throws WriterException;
+    /**
+     * @return the output message, e.g. a String or an AXIOM element
+     */
+    Object terminateMessageBuilding() throws WriterException;
 
     void writeStartArray() throws WriterException;
 
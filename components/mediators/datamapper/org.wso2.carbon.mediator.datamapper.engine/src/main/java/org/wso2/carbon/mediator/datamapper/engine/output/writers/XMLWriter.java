@@ -16,6 +16,11 @@
  */
 package org.wso2.carbon.mediator.datamapper.engine.output.writers;
 
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMContainer;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.mediator.datamapper.engine.core.exceptions.SchemaException;
@@ -23,10 +28,6 @@ import org.wso2.carbon.mediator.datamapper.engine.core.exceptions.WriterExceptio
 import org.wso2.carbon.mediator.datamapper.engine.core.schemas.Schema;
 import org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-import java.io.StringWriter;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Stack;
@@ -38,13 +39,15 @@ import static org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineC
         .SCHEMA_ATTRIBUTE_PARENT_ELEMENT_POSTFIX;
 
 /**
- * This class implements {@link Writer} interface and xml writer for data mapper engine using StAX
+ * This class implements {@link Writer} interface and xml writer for data mapper engine. The output message is built
+ * directly as an AXIOM tree, so it does not have to be serialized to text and parsed again.
  */
 public class XMLWriter implements Writer {
 
     private static final Log log = LogFactory.getLog(XMLWriter.class);
-    private StringWriter stringWriter;
-    private XMLStreamWriter xmlStreamWriter;
+    private static final OMFactory omFactory = OMAbstractFactory.getOMFactory();
+    private OMElement rootElement;
+    private OMElement currentElement;
     private Schema outputSchema;
     private Stack<String> arrayElementStack;
     private String latestElementName;
@@ -56,79 +59,65 @@ public class XMLWriter implements Writer {
     public XMLWriter(Schema outputSchema) throws SchemaException, WriterException {
         this.outputSchema = outputSchema;
         this.arrayElementStack = new Stack<>();
-        this.stringWriter = new StringWriter();
         init(outputSchema);
     }
 
     private void init(Schema outputSchema) throws SchemaException, WriterException {
-        XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
-        try {
-            xmlStreamWriter = xmlOutputFactory.createXMLStreamWriter(stringWriter);
-            //creating root element of the xml message
-            namespaceMap = outputSchema.getNamespaceMap();
-            writeStartElement(outputSchema.getName(), xmlStreamWriter);
-            Iterator<Map.Entry<String, String>> namespaceEntryIterator = namespaceMap.entrySet().iterator();
-            while (namespaceEntryIterator.hasNext()) {
-                Map.Entry<String, String> entry = namespaceEntryIterator.next();
-                xmlStreamWriter.writeNamespace(entry.getValue(), entry.getKey());
-            }
-        } catch (XMLStreamException e) {
-            throw new WriterException("Error while creating xml output factory. " + e.getMessage());
+        //creating root element of the xml message
+        namespaceMap = outputSchema.getNamespaceMap();
+        writeStartElement(outputSchema.getName());
+        rootElement = currentElement;
+        Iterator<Map.Entry<String, String>> namespaceEntryIterator = namespaceMap.entrySet().iterator();
+        while (namespaceEntryIterator.hasNext()) {
+            Map.Entry<String, String> entry = namespaceEntryIterator.next();
+            rootElement.declareNamespace(entry.getKey(), entry.getValue());
         }
     }
 
     @Override public void writeStartObject(String name) throws WriterException {
-        try {
-            if (name.endsWith(SCHEMA_ATTRIBUTE_PARENT_ELEMENT_POSTFIX)) {
-                latestElementName = name.substring(0, name.lastIndexOf(SCHEMA_ATTRIBUTE_PARENT_ELEMENT_POSTFIX));
-                writeStartElement(latestElementName, xmlStreamWriter);
-            } else {
-                writeStartElement(name, xmlStreamWriter);
-                latestElementName = name;
-            }
-        } catch (XMLStreamException e) {
-            throw new WriterException(e.getMessage());
+        if (name.endsWith(SCHEMA_ATTRIBUTE_PARENT_ELEMENT_POSTFIX)) {
+            latestElementName = name.substring(0, name.lastIndexOf(SCHEMA_ATTRIBUTE_PARENT_ELEMENT_POSTFIX));
+            writeStartElement(latestElementName);
+        } else {
+            writeStartElement(name);
+            latestElementName = name;
         }
     }
 
     @Override public void writeField(String name, Object fieldValue) throws WriterException {
-        try {
-            //with in a element attributes must come first before any of other field values
-            if (fieldValue != null) {
-                String value = getFieldValueAsString(fieldValue);
-                if (name.contains(SCHEMA_ATTRIBUTE_FIELD_PREFIX)) {
-                    String attributeNameWithNamespace = name.replaceFirst(SCHEMA_ATTRIBUTE_FIELD_PREFIX, "");
-                    if (attributeNameWithNamespace.contains("_")) {
-                        String[] attributeNameArray = attributeNameWithNamespace.split("_");
-                        if (namespaceMap.values().contains(attributeNameArray[0])) {
-                            Iterator<Map.Entry<String, String>> entryIterator = namespaceMap.entrySet().iterator();
-                            while (entryIterator.hasNext()) {
-                                Map.Entry<String, String> entry = entryIterator.next();
-                                if (attributeNameArray[0].equals(entry.getValue())) {
-                                    xmlStreamWriter.writeAttribute(entry.getKey(),
-                                                                   attributeNameArray[attributeNameArray.length - 1],
-                                                                   value);
-                                }
+        //with in a element attributes must come first before any of other field values
+        if (fieldValue != null) {
+            String value = getFieldValueAsString(fieldValue);
+            if (name.contains(SCHEMA_ATTRIBUTE_FIELD_PREFIX)) {
+                String attributeNameWithNamespace = name.replaceFirst(SCHEMA_ATTRIBUTE_FIELD_PREFIX, "");
+                if (attributeNameWithNamespace.contains("_")) {
+                    String[] attributeNameArray = attributeNameWithNamespace.split("_");
+                    if (namespaceMap.values().contains(attributeNameArray[0])) {
+                        Iterator<Map.Entry<String, String>> entryIterator = namespaceMap.entrySet().iterator();
+                        while (entryIterator.hasNext()) {
+                            Map.Entry<String, String> entry = entryIterator.next();
+                            if (attributeNameArray[0].equals(entry.getValue())) {
+                                OMNamespace namespace = omFactory.createOMNamespace(entry.getKey(), entry.getValue());
+                                currentElement.addAttribute(attributeNameArray[attributeNameArray.length - 1], value,
+                                                            namespace);
                             }
-                        } else {
-                            xmlStreamWriter.writeAttribute(attributeNameWithNamespace, value);
                         }
                     } else {
-                        xmlStreamWriter.writeAttribute(attributeNameWithNamespace, value);
+                        currentElement.addAttribute(attributeNameWithNamespace, value, null);
                     }
-                } else if (name.equals(SCHEMA_XML_ELEMENT_TEXT_VALUE_FIELD)){
-                    xmlStreamWriter.writeCharacters(value);
-                } else if (name.equals(latestElementName)) {
-                    xmlStreamWriter.writeCharacters(value);
-                    xmlStreamWriter.writeEndElement();
                 } else {
-                    writeStartElement(name, xmlStreamWriter);
-                    xmlStreamWriter.writeCharacters(value);
-                    xmlStreamWriter.writeEndElement();
+                    currentElement.addAttribute(attributeNameWithNamespace, value, null);
                 }
+            } else if (name.equals(SCHEMA_XML_ELEMENT_TEXT_VALUE_FIELD)){
+                omFactory.createOMText(currentElement, value);
+            } else if (name.equals(latestElementName)) {
+                omFactory.createOMText(currentElement, value);
+                writeEndElement();
+            } else {
+                writeStartElement(name);
+                omFactory.createOMText(currentElement, value);
+                writeEndElement();
             }
-        } catch (XMLStreamException e) {
-            throw new WriterException(e.getMessage());
         }
     }
 
@@ -146,22 +135,14 @@ public class XMLWriter implements Writer {
     }
 
     @Override public void writeEndObject(String objectName) throws WriterException {
-        try {
-            xmlStreamWriter.writeEndElement();
-        } catch (XMLStreamException e) {
-            throw new WriterException(e.getMessage());
-        }
+        writeEndElement();
     }
 
-    @Override public String terminateMessageBuilding() throws WriterException {
-        try {
-            xmlStreamWriter.writeEndElement();
-            xmlStreamWriter.flush();
-            xmlStreamWriter.close();
-            return stringWriter.getBuffer().toString();
-        } catch (XMLStreamException e) {
-            throw new WriterException(e.getMessage());
-        }
+    /**
+     * @return the root element of the output message
+     */
+    @Override public OMElement terminateMessageBuilding() throws WriterException {
+        return rootElement;
     }
 
     @Override public void writeStartArray() {
@@ -173,22 +154,19 @@ public class XMLWriter implements Writer {
     }
 
     @Override public void writeStartAnonymousObject() throws WriterException {
-        try {
-            writeStartElement(arrayElementStack.peek(), xmlStreamWriter);
-        } catch (XMLStreamException e) {
-            throw new WriterException(e.getMessage());
-        }
+        writeStartElement(arrayElementStack.peek());
     }
 
     @Override public void writePrimitive(Object value) throws WriterException {
-        try {
-            xmlStreamWriter.writeCharacters(getFieldValueAsString(value));
-        } catch (XMLStreamException e) {
-            throw new WriterException(e.getMessage());
-        }
+        omFactory.createOMText(currentElement, getFieldValueAsString(value));
+    }
+
+    private void writeEndElement() {
+        OMContainer parent = currentElement.getParent();
+        currentElement = parent instanceof OMElement ? (OMElement) parent : null;
     }
 
-    private void writeStartElement(String name, XMLStreamWriter xMLStreamWriter) throws XMLStreamException {
+    private void writeStartElement(String name) {
         String prefix = name.split(NAMESPACE_SEPARATOR)[0];
         if (namespaceMap.values().contains(prefix)) {
             if (name.contains(DataMapperEngineConstants.NAME_SEPERATOR)) {
@@ -199,14 +177,22 @@ public class XMLWriter implements Writer {
             while (entryIterator.hasNext()) {
                 Map.Entry<String, String> entry = entryIterator.next();
                 if (prefix.equals(entry.getValue())) {
-                    xMLStreamWriter.writeStartElement(prefix, name, entry.getKey());
+                    createElement(name, omFactory.createOMNamespace(entry.getKey(), prefix));
                 }
             }
         } else if (name.contains(DataMapperEngineConstants.NAME_SEPERATOR)) {
             name = name.split(DataMapperEngineConstants.NAME_SEPERATOR)[0];
-            xMLStreamWriter.writeStartElement(name);
+            createElement(name, null);
+        } else {
+            createElement(name, null);
+        }
+    }
+
+    private void createElement(String localName, OMNamespace namespace) {
+        if (currentElement == null) {
+            currentElement = omFactory.createOMElement(localName, namespace);
         } else {
-            xMLStreamWriter.writeStartElement(name);
+            currentElement = omFactory.createOMElement(localName, namespace, currentElement);
         }
     }
 
@@ -48,6 +48,9 @@ public class DataMapperEngineConstants {
     public static final String ITEMS_KEY = "items";
     public static final String VALUE_KEY = "value";
     public static final String PROPERTIES_OBJECT_NAME = "DM_PROPERTIES";
+    public static final String INPUT_VARIABLE_PREFIX = "input";
+    public static final String INPUT_JSON_BINDING_NAME = "DM_INPUT_JSON";
+    public static final String PROPERTIES_JSON_BINDING_NAME = "DM_PROPERTIES_JSON";
     public static final String EQUALS_SIGN = "=";
     public static final String JS_STRINGIFY = "JSON.stringify";
     public static final String BRACKET_OPEN = "(";
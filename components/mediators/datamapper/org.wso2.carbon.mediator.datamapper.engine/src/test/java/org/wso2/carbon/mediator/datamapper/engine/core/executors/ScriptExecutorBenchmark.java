@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.datamapper.engine.core.executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.wso2.carbon.mediator.datamapper.engine.core.mapper.JSFunction;
+import org.wso2.carbon.mediator.datamapper.engine.core.mapper.MappingResource;
+import org.wso2.carbon.mediator.datamapper.engine.utils.DataMapperEngineConstants;
+import org.wso2.carbon.mediator.datamapper.engine.utils.InputOutputDataType;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares mapping a message by evaluating the mapping function, the input and the properties as new scripts for
+ * every message with mapping it through the script executor, which compiles the mapping once and only binds the
+ * input and the properties of each message. A small mapping of 5 fields and a large mapping of 200 fields with
+ * helper functions are measured on Nashorn, which needs a long warm up before the timings settle. Run with the
+ * main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class ScriptExecutorBenchmark {
+
+    private static final String PROPERTIES = "{\"DEFAULT\":{\"greeting\":\"Hello\"}}";
+
+    @Param({"5", "200"})
+    public int fields;
+
+    private ScriptEngine scriptEngine;
+    private ScriptExecutor scriptExecutor;
+    private MappingResource mappingResource;
+    private JSFunction jsFunction;
+    private String input;
+
+    @Setup
+    public void setUp() throws Exception {
+        scriptEngine = new ScriptEngineManager().getEngineByName(DataMapperEngineConstants.NASHORN_ENGINE_NAME);
+        scriptExecutor = new ScriptExecutor(ScriptExecutorType.NASHORN);
+        mappingResource = new MappingResource(stream("{\"title\":\"employee\",\"type\":\"object\"}"),
+                                              stream("{\"title\":\"person\",\"type\":\"object\"}"),
+                                              stream(mapping(fields)), InputOutputDataType.JSON.toString());
+        jsFunction = mappingResource.getFunction();
+        input = input(fields);
+    }
+
+    /**
+     * Evaluates the properties, the input and the mapping function as new scripts for the message and then calls
+     * the mapping function, so that every message is parsed and compiled by the script engine again
+     */
+    @Benchmark
+    public Object perMessageEval() throws Exception {
+        scriptEngine.eval("var " + DataMapperEngineConstants.PROPERTIES_OBJECT_NAME + "=" + PROPERTIES);
+        scriptEngine.eval("var " + DataMapperEngineConstants.INPUT_VARIABLE_PREFIX + "employee=" + input);
+        scriptEngine.eval(jsFunction.getFunctionBody());
+        return scriptEngine.eval(jsFunction.getFunctionName());
+    }
+
+    @Benchmark
+    public Object compiledInvocation() throws Exception {
+        return scriptExecutor.execute(mappingResource, input, PROPERTIES).getModel();
+    }
+
+    /**
+     * Mapping function copying the given number of fields, every tenth through a helper function, as the data
+     * mapper generates for operators between the input and the output fields
+     */
+    private static String mapping(int fields) {
+        StringBuilder mapping = new StringBuilder(
+                "function greet(name) { return DM_PROPERTIES.DEFAULT['greeting'] + ' ' + name; }"
+                        + "function concat(first, second) { return first + ' ' + second; }"
+                        + "function map_S_employee_S_person() { var outputperson = {};");
+        for (int i = 0; i < fields; i++) {
+            mapping.append("outputperson.field").append(i).append(" = ");
+            if (i % 10 == 0) {
+                mapping.append("concat(greet(inputemployee.field").append(i).append("), 'mapped');");
+            } else {
+                mapping.append("inputemployee.field").append(i).append(";");
+            }
+        }
+        return mapping.append("return outputperson; }").toString();
+    }
+
+    private static String input(int fields) {
+        StringBuilder input = new StringBuilder("{");
+        for (int i = 0; i < fields; i++) {
+            if (i > 0) {
+                input.append(',');
+            }
+            input.append("\"field").append(i).append("\":\"value").append(i).append('"');
+        }
+        return input.append('}').toString();
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ScriptExecutorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
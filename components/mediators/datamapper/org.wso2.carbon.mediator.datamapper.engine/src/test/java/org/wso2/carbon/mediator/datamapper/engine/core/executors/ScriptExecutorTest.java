@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.datamapper.engine.core.executors;
+
+import junit.framework.TestCase;
+import org.wso2.carbon.mediator.datamapper.engine.core.exceptions.JSException;
+import org.wso2.carbon.mediator.datamapper.engine.core.mapper.MappingResource;
+import org.wso2.carbon.mediator.datamapper.engine.utils.InputOutputDataType;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests that the script executor compiles a mapping once and then only binds the input and the properties of each
+ * message to it.
+ */
+public class ScriptExecutorTest extends TestCase {
+
+    private static final String NO_PROPERTIES = "{}";
+
+    private ScriptExecutor executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = new ScriptExecutor(ScriptExecutorType.NASHORN);
+    }
+
+    public void testMappingIsEvaluatedOnce() throws Exception {
+        MappingResource mapping = mapping(
+                "var evaluations = (typeof evaluations === 'undefined' ? 0 : evaluations) + 1;"
+                        + "function map_S_employee_S_person() {"
+                        + "    return { name: inputemployee.name, evaluations: evaluations };"
+                        + "}");
+
+        assertEquals("{\"name\":\"first\",\"evaluations\":1}",
+                     executor.execute(mapping, "{\"name\":\"first\"}", NO_PROPERTIES).getModel());
+        assertEquals("{\"name\":\"second\",\"evaluations\":1}",
+                     executor.execute(mapping, "{\"name\":\"second\"}", NO_PROPERTIES).getModel());
+    }
+
+    public void testMappingsSharingExecutorKeepTheirFunctions() throws Exception {
+        MappingResource upperCase = mapping(
+                "function map_S_employee_S_person() { return { name: inputemployee.name.toUpperCase() }; }");
+        MappingResource lowerCase = mapping(
+                "function map_S_employee_S_person() { return { name: inputemployee.name.toLowerCase() }; }");
+
+        assertEquals("{\"name\":\"JOHN\"}", executor.execute(upperCase, "{\"name\":\"John\"}", NO_PROPERTIES)
+                .getModel());
+        assertEquals("{\"name\":\"john\"}", executor.execute(lowerCase, "{\"name\":\"John\"}", NO_PROPERTIES)
+                .getModel());
+        assertEquals("{\"name\":\"JOHN\"}", executor.execute(upperCase, "{\"name\":\"John\"}", NO_PROPERTIES)
+                .getModel());
+    }
+
+    public void testPropertiesAreBoundPerMessage() throws Exception {
+        MappingResource mapping = mapping(
+                "function map_S_employee_S_person() {"
+                        + "    return { greeting: DM_PROPERTIES.DEFAULT['greeting'] + ' ' + inputemployee.name };"
+                        + "}");
+
+        assertEquals("{\"greeting\":\"Hello John\"}", executor.execute(mapping, "{\"name\":\"John\"}",
+                "{\"DEFAULT\":{\"greeting\":\"Hello\"}}").getModel());
+        assertEquals("{\"greeting\":\"Hi Jane\"}", executor.execute(mapping, "{\"name\":\"Jane\"}",
+                "{\"DEFAULT\":{\"greeting\":\"Hi\"}}").getModel());
+    }
+
+    public void testMessageIsNotVisibleToTheNextOne() throws Exception {
+        MappingResource mapping = mapping(
+                "var previous;"
+                        + "function map_S_employee_S_person() {"
+                        + "    var result = { name: inputemployee.name, previous: previous };"
+                        + "    previous = inputemployee.name;"
+                        + "    return result;"
+                        + "}");
+
+        assertEquals("{\"name\":\"first\"}",
+                     executor.execute(mapping, "{\"name\":\"first\"}", NO_PROPERTIES).getModel());
+        // state kept by the mapping itself is retained, the input variable is bound again for every message
+        assertEquals("{\"name\":\"second\",\"previous\":\"first\"}",
+                     executor.execute(mapping, "{\"name\":\"second\"}", NO_PROPERTIES).getModel());
+    }
+
+    public void testRhinoExecutorMapsJSONInput() throws Exception {
+        ScriptExecutor rhinoExecutor = new ScriptExecutor(ScriptExecutorType.RHINO);
+        MappingResource mapping = mapping(
+                "function map_S_employee_S_person() { return { name: inputemployee.name }; }");
+
+        assertEquals("{\"name\":\"John\"}", rhinoExecutor.execute(mapping, "{\"name\":\"John\"}", NO_PROPERTIES)
+                .getModel());
+    }
+
+    public void testInvalidMappingFails() throws Exception {
+        MappingResource mapping = mapping("function map_S_employee_S_person() { return {; }");
+        try {
+            executor.execute(mapping, "{\"name\":\"John\"}", NO_PROPERTIES);
+            fail("Invalid mapping was executed");
+        } catch (JSException expected) {
+        }
+    }
+
+    private static MappingResource mapping(String mappingConfig) throws Exception {
+        return new MappingResource(stream("{\"title\":\"employee\",\"type\":\"object\"}"),
+                                   stream("{\"title\":\"person\",\"type\":\"object\"}"), stream(mappingConfig),
+                                   InputOutputDataType.JSON.toString());
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.mediator.datamapper.engine.core.mapper;
+
+import junit.framework.TestCase;
+import org.wso2.carbon.mediator.datamapper.engine.utils.InputOutputDataType;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests that XML and CSV input messages, which the input readers convert to JSON text, are mapped the same way as
+ * the equivalent JSON input messages.
+ */
+public class MappingHandlerTest extends TestCase {
+
+    // the executor pool is shared by the tests, and an executor is not returned to it when reading the input fails
+    private static final String EXECUTOR_POOL_SIZE = "4";
+
+    private static final String EMPLOYEE_SCHEMA = "{"
+            + "\"$schema\":\"http://wso2.org/json-schema/wso2-data-mapper-v5.0.0/schema#\","
+            + "\"id\":\"http://wso2jsonschema.org\",\"title\":\"employee\",\"type\":\"object\","
+            + "\"properties\":{"
+            + "\"name\":{\"id\":\"http://wso2jsonschema.org/name\",\"type\":\"string\"},"
+            + "\"age\":{\"id\":\"http://wso2jsonschema.org/age\",\"type\":\"number\"},"
+            + "\"nickname\":{\"id\":\"http://wso2jsonschema.org/nickname\",\"type\":\"string\"},"
+            + "\"phone\":{\"id\":\"http://wso2jsonschema.org/phone\",\"type\":\"array\","
+            + "\"items\":[{\"id\":\"http://wso2jsonschema.org/phone/0\",\"type\":\"string\"}]},"
+            + "\"address\":{\"id\":\"http://wso2jsonschema.org/address\",\"type\":\"array\","
+            + "\"items\":[{\"id\":\"http://wso2jsonschema.org/address/0\",\"type\":\"object\","
+            + "\"properties\":{\"city\":{\"id\":\"http://wso2jsonschema.org/address/0/city\",\"type\":\"string\"}}}]}"
+            + "}}";
+
+    private static final String EMPLOYEE_MAPPING = "function map_S_employee_S_person() {"
+            + "    return {"
+            + "        name: inputemployee.name,"
+            + "        age: inputemployee.age + 1,"
+            + "        nickname: typeof inputemployee.nickname === 'undefined' ? 'none' : inputemployee.nickname,"
+            + "        phoneIsArray: Array.isArray(inputemployee.phone),"
+            + "        phones: inputemployee.phone.join(';'),"
+            + "        cities: inputemployee.address.map(function (address) { return address.city; }),"
+            + "        address: inputemployee.address"
+            + "    };"
+            + "}";
+
+    private static final String ORDERS_SCHEMA = "{"
+            + "\"$schema\":\"http://wso2.org/json-schema/wso2-data-mapper-v5.0.0/schema#\","
+            + "\"id\":\"http://wso2jsonschema.org\",\"title\":\"orders\",\"type\":\"array\","
+            + "\"items\":[{\"id\":\"http://wso2jsonschema.org/0\",\"type\":\"object\","
+            + "\"properties\":{"
+            + "\"item\":{\"id\":\"http://wso2jsonschema.org/0/item\",\"type\":\"string\"},"
+            + "\"quantity\":{\"id\":\"http://wso2jsonschema.org/0/quantity\",\"type\":\"number\"}"
+            + "}}]}";
+
+    private static final String ORDERS_MAPPING = "function map_S_orders_S_person() {"
+            + "    return {"
+            + "        isArray: Array.isArray(inputorders),"
+            + "        count: inputorders.length,"
+            + "        items: inputorders.filter(function (order) { return order.quantity > 1; })"
+            + "                .map(function (order) { return order.item; }),"
+            + "        total: inputorders.reduce(function (total, order) { return total + order.quantity; }, 0),"
+            + "        missing: typeof inputorders[0].price"
+            + "    };"
+            + "}";
+
+    public void testXMLInputIsMappedAsJSONInput() throws Exception {
+        String xml = "<employee><name>John</name><age>30</age>"
+                + "<phone>111</phone><phone>222</phone>"
+                + "<address><city>Colombo</city></address><address><city>Kandy</city></address></employee>";
+        String json = "{\"name\":\"John\",\"age\":30,\"phone\":[\"111\",\"222\"],"
+                + "\"address\":[{\"city\":\"Colombo\"},{\"city\":\"Kandy\"}]}";
+
+        Object xmlOutput = map(EMPLOYEE_SCHEMA, EMPLOYEE_MAPPING, InputOutputDataType.XML, xml);
+
+        assertEquals("{\"name\":\"John\",\"age\":31,\"nickname\":\"none\",\"phoneIsArray\":true,"
+                             + "\"phones\":\"111;222\",\"cities\":[\"Colombo\",\"Kandy\"],"
+                             + "\"address\":[{\"city\":\"Colombo\"},{\"city\":\"Kandy\"}]}", xmlOutput);
+        assertEquals(map(EMPLOYEE_SCHEMA, EMPLOYEE_MAPPING, InputOutputDataType.JSON, json), xmlOutput);
+    }
+
+    public void testCSVInputIsMappedAsJSONInput() throws Exception {
+        String csv = "<text>apple,3\nbanana,1\ncherry,2</text>";
+        String json = "[{\"item\":\"apple\",\"quantity\":3},{\"item\":\"banana\",\"quantity\":1},"
+                + "{\"item\":\"cherry\",\"quantity\":2}]";
+
+        Object csvOutput = map(ORDERS_SCHEMA, ORDERS_MAPPING, InputOutputDataType.CSV, csv);
+
+        assertEquals("{\"isArray\":true,\"count\":3,\"items\":[\"apple\",\"cherry\"],\"total\":6,"
+                             + "\"missing\":\"undefined\"}", csvOutput);
+        assertEquals(map(ORDERS_SCHEMA, ORDERS_MAPPING, InputOutputDataType.JSON, json), csvOutput);
+    }
+
+    private static Object map(String inputSchema, String mappingConfig, InputOutputDataType inputType,
+                              String message) throws Exception {
+        MappingResource mappingResource = new MappingResource(stream(inputSchema),
+                                                              stream("{\"title\":\"person\",\"type\":\"object\"}"),
+                                                              stream(mappingConfig),
+                                                              InputOutputDataType.JSON.toString());
+        MappingHandler mappingHandler = new MappingHandler(mappingResource, inputType.toString(),
+                                                           InputOutputDataType.JSON.toString(),
+                                                           EXECUTOR_POOL_SIZE);
+        Map<String, Map<String, Object>> properties = new HashMap<>();
+        return mappingHandler.doMap(stream(message), properties);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
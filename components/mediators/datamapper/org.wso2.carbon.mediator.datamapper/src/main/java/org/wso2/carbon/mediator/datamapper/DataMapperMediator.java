@@ -291,7 +291,7 @@ public class DataMapperMediator extends AbstractMediator implements ManagedLifec
      */
     private void transform(MessageContext synCtx, String configKey, String inSchemaKey) {
         try {
-            String outputResult = null;
+            Object outputResult = null;
             Map<String, Map<String, Object>> propertiesMap;
 
             String dmExecutorPoolSize = SynapsePropertiesLoader
@@ -313,7 +313,9 @@ public class DataMapperMediator extends AbstractMediator implements ManagedLifec
 
             if (InputOutputDataType.XML.toString().equals(outputType) || InputOutputDataType.CSV.toString()
                     .equals(outputType)) {
-                OMElement outputMessage = AXIOMUtil.stringToOM(outputResult);
+                // XML output is built as an OMElement, only string results need to be parsed
+                OMElement outputMessage = outputResult instanceof OMElement ? (OMElement) outputResult :
+                        AXIOMUtil.stringToOM((String) outputResult);
                 if (outputMessage != null) {
                     if (log.isDebugEnabled()) {
                         log.debug("Output message received ");
@@ -346,7 +348,7 @@ public class DataMapperMediator extends AbstractMediator implements ManagedLifec
             } else if (InputOutputDataType.JSON.toString().equals(outputType)) {
                 org.apache.axis2.context.MessageContext axis2MessageContext = ((Axis2MessageContext) synCtx)
                         .getAxis2MessageContext();
-                JsonUtil.newJsonPayload(axis2MessageContext, outputResult, true, true);
+                JsonUtil.newJsonPayload(axis2MessageContext, (String) outputResult, true, true);
             }
         } catch (ReaderException | InterruptedException | XMLStreamException | SchemaException
                 | IOException | JSException | WriterException e) {